@@ -21,14 +21,28 @@ public class AST {
     /**
      * The root node of the AST.
      * It contains a list of declarations and the main expression.
+     * <p>
+     * A library has no main expression. When a unit is compiled against libraries,
+     * their declarations come first and are external: they are checked with the
+     * unit but their code is generated in the libraries.
      */
     public static class ProgLetInNode extends Node {
         final List<DecNode> declarations;
         final Node exp;
+        final int externalDeclarations;
 
         ProgLetInNode(final List<DecNode> declarations, final Node exp) {
+            this(declarations, exp, 0);
+        }
+
+        ProgLetInNode(final List<DecNode> declarations, final Node exp, final int externalDeclarations) {
             this.declarations = Collections.unmodifiableList(declarations);
             this.exp = exp;
+            this.externalDeclarations = externalDeclarations;
+        }
+
+        boolean isLibrary() {
+            return exp == null;
         }
 
         @Override
@@ -70,7 +84,9 @@ public class AST {
         final TypeNode returnType;
         final List<ParNode> parameters;
         final List<DecNode> declarations;
-        final Node exp;
+        Node exp; // replaced by the optimizations of the EAST
+
+        String label; // set by the code generation, by its declaration or by the first call in tail position
 
         FunNode(final String id, final TypeNode returnType, final List<ParNode> parameters, final List<DecNode> declarations, final Node exp) {
             this.id = id;
@@ -114,7 +130,7 @@ public class AST {
      */
     public static class VarNode extends DecNode {
         final String id;
-        final Node exp;
+        Node exp; // replaced by the optimizations of the EAST
 
         VarNode(final String id, final TypeNode type, final Node exp) {
             this.id = id;
@@ -596,7 +612,7 @@ public class AST {
         final TypeNode returnType;
         final List<ParNode> parameters;
         final List<DecNode> declarations;
-        final Node exp;
+        Node exp; // replaced by the optimizations of the EAST
         int offset = 0;
 
         String label;
@@ -646,6 +662,8 @@ public class AST {
      * the list of arguments and the entry in the symbol table.
      * It also contains the entry of the method in the symbol table.
      * It also contains the nesting level.
+     * It also contains the method called, if it is known at compile time,
+     * and if the object cannot be null, so the method can be called without the dispatch table.
      */
     public static class ClassCallNode extends Node {
 
@@ -656,6 +674,8 @@ public class AST {
         int nestingLevel = 0;
         STentry entry;
         STentry methodEntry;
+        MethodNode method;
+        boolean nonNullObject;
 
         public ClassCallNode(final String objectId, final String methodId, final List<Node> args) {
             this.objectId = objectId;
@@ -120,6 +120,23 @@ public class ASTGenerationSTVisitor extends FOOLBaseVisitor<Node> {
         return new ProgLetInNode(allDeclarations, visit(context.exp()));
     }
 
+    /**
+     * Visit the Lib context.
+     * It visits the class declarations and the declarations of a library
+     * and returns the ProgLetInNode, without a main expression, built with the results of the visits.
+     *
+     * @param context the parse tree
+     * @return the ProgLetInNode of the library
+     */
+    @Override
+    public Node visitLib(final LibContext context) {
+        if (print) printVarAndProdName(context);
+        final List<DecNode> allDeclarations = new ArrayList<>();
+        context.cldec().forEach(x -> allDeclarations.add((DecNode) visit(x)));
+        context.dec().forEach(x -> allDeclarations.add((DecNode) visit(x)));
+        return new ProgLetInNode(allDeclarations, null);
+    }
+
     /**
      * Visit the NoDecProg context.
      * It visits the expression and returns the ProgNode built with the result of the visit.
@@ -5,30 +5,365 @@ import compiler.exc.VoidException;
 import compiler.lib.BaseASTVisitor;
 import compiler.lib.DecNode;
 import compiler.lib.Node;
+import compiler.lib.Visitable;
+import svm.CodeBuffer;
 import svm.ExecuteVM;
+import svm.Opcodes;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import static compiler.CodeGenerationASTVisitor.Instructions.*;
 import static compiler.lib.FOOLlib.*;
 
-public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidException> {
+public class CodeGenerationASTVisitor extends BaseASTVisitor<CodeBuffer, VoidException> {
 
     /**
-     * The dispatch tables of the classes.
+     * The labels of the dispatch tables of the classes of the unit, by class id.
      * <p>
-     * Each dispatch table is a list of labels, one for each method of the class.
+     * The dispatch tables are known at compile time, so they are laid out once in the data section,
+     * that the loader copies to the bottom of the heap: the classes with the same dispatch table
+     * share it, and an object is created with the address of its dispatch table as a constant.
+     * An object of a class of another unit is created with the address stored in the global of the class
+     * by its library, since the linker lays out the data of the units one after the other.
      */
-    private final List<List<String>> dispatchTables = new ArrayList<>();
+    private final Map<String, String> dispatchTableLabels = new HashMap<>();
+
+    /**
+     * The dispatch tables laid out in the data section, by label, in layout order.
+     * A method that is never called has no entry, that is left 0.
+     */
+    private final Map<String, List<MethodNode>> dataDispatchTables = new LinkedHashMap<>();
+
+    /**
+     * The address of the display, at the bottom of the heap after the data section.
+     */
+    private int displayBase = 0;
+
+    /**
+     * The labels exported by a library: the methods of its classes,
+     * that subclasses declared in other units inherit.
+     */
+    private final List<String> exports = new ArrayList<>();
+
+    /**
+     * If true the code is a unit to be linked: the program does not
+     * start with the fake return address, that is pushed by the linker.
+     */
+    private final boolean linkable;
+
+    /**
+     * If true the frames of the enclosing functions are found with a display, an array of frame
+     * pointers by nesting level, instead of following the static chain: a non-local access costs
+     * the same at any depth. The frame of the main program is always at the top of the memory,
+     * so the globals are accessed at fixed addresses.
+     * <p>
+     * The display is reserved at the bottom of the heap, after the data section, so only a standalone program uses it:
+     * the units to be linked access the globals at fixed addresses and follow the static chain.
+     */
+    private final boolean display;
+
+    /**
+     * The functions that use the display, the ones of a standalone program not nested in a method.
+     */
+    private final Set<FunNode> displayFunctions = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * The nesting level of the functions whose frames are in the display, the entry of the display
+     * that their frames replace. They have no Access Link: its slot holds the entry of the display,
+     * restored on return. The other functions that use the display have the Access Link,
+     * that the functions declared in their frame follow, unless they are lifted.
+     */
+    private final Map<FunNode, Integer> displayLevels = new IdentityHashMap<>();
+
+    /**
+     * The function that uses the display whose code is being generated, null if none.
+     */
+    private FunNode displayFunction;
+
+    /**
+     * The functions that capture nothing from the enclosing functions, lifted to the global level.
+     */
+    private final FreeVariablesEASTVisitor freeVariables;
+
+    /**
+     * True while visiting a declaration of another unit (a library):
+     * only its dispatch table is computed, its code is not generated.
+     */
+    private boolean external = false;
+
+    /**
+     * The functions declared by other units, their code and their labels are generated by their library.
+     */
+    private final Set<FunNode> externalFunctions = new HashSet<>();
+
+    /**
+     * True if the code generated is a library.
+     */
+    private boolean library = false;
+
+    /**
+     * The functions, classes and methods that can be executed,
+     * the code of the other ones is not generated.
+     */
+    private final ReachabilityEASTVisitor reachability = new ReachabilityEASTVisitor();
+
+    /**
+     * The class whose methods are being generated, to name them in the debug information.
+     */
+    private String currentClassId;
+
+    /**
+     * The compilation, that provides the fresh labels and collects the code of the functions.
+     */
+    private final CompilationContext context;
+
+    /**
+     * The function or method whose result is the value of the visited expression, null if the expression
+     * is not in tail position; the one of the next visited expression, set by {@link #visitTail}.
+     */
+    private TailPosition tailPosition;
+    private TailPosition nextTailPosition;
+
+    /**
+     * @param function     the function or method whose body is being generated
+     * @param parameters   the number of its parameters
+     * @param declarations its local declarations
+     * @param bodyLabel    the label of the body, after the set up of the frame
+     */
+    private record TailPosition(DecNode function, int parameters, List<DecNode> declarations, String bodyLabel) {
+    }
 
     public CodeGenerationASTVisitor() {
-        super(false);
+        this(false);
     }
 
     public CodeGenerationASTVisitor(boolean debug) {
+        this(debug, false);
+    }
+
+    public CodeGenerationASTVisitor(boolean debug, boolean linkable) {
+        this(new CompilationContext(), debug, linkable);
+    }
+
+    public CodeGenerationASTVisitor(CompilationContext context, boolean debug, boolean linkable) {
+        this(context, debug, linkable, false);
+    }
+
+    public CodeGenerationASTVisitor(CompilationContext context, boolean debug, boolean linkable, boolean display) {
         super(false, debug);
+        this.context = context;
+        this.linkable = linkable;
+        this.display = display;
+        this.freeVariables = new FreeVariablesEASTVisitor(display);
+    }
+
+    /**
+     * @return the labels exported by the generated code
+     */
+    public List<String> getExports() {
+        return Collections.unmodifiableList(exports);
+    }
+
+    /**
+     * Visit a node, attributing to its source line the words of its code
+     * that are not generated by the nodes it contains.
+     */
+    @Override
+    public CodeBuffer visit(final Visitable v, final String mark) {
+        final TailPosition outerTailPosition = tailPosition;
+        tailPosition = nextTailPosition; // the expressions that the node contains are not in tail position
+        nextTailPosition = null;
+        try {
+            final CodeBuffer code = super.visit(v, mark);
+            if (code != null && v instanceof Node node) code.sourceLine(node.getLine());
+            return code;
+        } finally {
+            tailPosition = outerTailPosition;
+        }
+    }
+
+    /**
+     * Visit an expression whose value is the result of a function, or of no function if the position is null.
+     */
+    private CodeBuffer visitTail(final Node node, final TailPosition position) {
+        nextTailPosition = position;
+        return visit(node);
+    }
+
+    /**
+     * The names of the slots of a frame, for the debug information: the parameters
+     * above the access link (offset 0) and the declarations below the return address.
+     */
+    private static Map<Integer, String> frameSlots(final List<ParNode> parameters, final List<DecNode> declarations) {
+        final Map<Integer, String> slots = new TreeMap<>();
+        for (int i = 0; i < parameters.size(); i++) slots.put(i + 1, parameters.get(i).id);
+        for (int i = 0; i < declarations.size(); i++) slots.put(-2 - i, declarationName(declarations.get(i)));
+        return slots;
+    }
+
+    private static String declarationName(final DecNode declaration) {
+        if (declaration instanceof VarNode var) return var.id;
+        if (declaration instanceof FunNode fun) return fun.id;
+        if (declaration instanceof ClassNode classNode) return classNode.classId;
+        return "?";
+    }
+
+    /**
+     * Collect the functions that use the display, among the declarations and the functions nested in them.
+     *
+     * @param level the nesting level of the bodies of the declared functions
+     * @return the number of entries of the display that the functions need
+     */
+    private int collectDisplayFunctions(final List<DecNode> declarations, final int level) {
+        int size = 0;
+        for (final DecNode declaration : declarations) {
+            if (!(declaration instanceof FunNode function)) continue;
+            displayFunctions.add(function);
+            if (freeVariables.isDisplayed(function)) {
+                displayLevels.put(function, level);
+                size = Math.max(size, level);
+            }
+            size = Math.max(size, collectDisplayFunctions(function.declarations, level + 1));
+        }
+        return size;
+    }
+
+    /**
+     * Lay out in the data section the dispatch tables of the classes of the unit that are instantiated,
+     * sharing the identical ones. The dispatch tables of the classes of other units are only computed
+     * for their subclasses, they are in the data section of their library.
+     *
+     * @return the number of words of the data section
+     */
+    private int layoutDispatchTables(final List<DecNode> declarations, final int externalDeclarations) {
+        final Map<String, List<MethodNode>> tables = new HashMap<>();
+        final Map<List<MethodNode>, String> labels = new HashMap<>();
+        int size = 0;
+        for (int i = 0; i < declarations.size(); i++) {
+            if (!(declarations.get(i) instanceof ClassNode classNode)) continue;
+            final boolean isExternal = i < externalDeclarations;
+            final List<MethodNode> table = new ArrayList<>(classNode.superId.map(tables::get).orElse(List.of()));
+            for (final MethodNode method : classNode.methods) {
+                // the methods of another unit are all generated by their library
+                final MethodNode entry = isExternal || reachability.isLive(method) ? method : null;
+                if (method.offset < table.size()) {
+                    table.set(method.offset, entry);
+                } else {
+                    table.add(entry);
+                }
+            }
+            tables.put(classNode.classId, table);
+            if (isExternal || !reachability.isLive(classNode)) continue;
+
+            String label = labels.get(table);
+            if (label == null) {
+                label = context.freshLabel();
+                labels.put(table, label);
+                dataDispatchTables.put(label, table);
+                size += table.size();
+            }
+            dispatchTableLabels.put(classNode.classId, label);
+        }
+        return size;
+    }
+
+    /**
+     * @return the data section with the dispatch tables, once the labels of their methods are known
+     */
+    private CodeBuffer dispatchTablesData() {
+        final CodeBuffer data = new CodeBuffer();
+        for (final Map.Entry<String, List<MethodNode>> table : dataDispatchTables.entrySet()) {
+            data.dataLabel(table.getKey());
+            for (final MethodNode method : table.getValue()) {
+                if (method == null) {
+                    data.data(0); // never called
+                } else {
+                    data.data(method.label);
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @return the address of the entry of the display for the frames at a nesting level
+     */
+    private int displayAddress(final int level) {
+        return displayBase + level - 1;
+    }
+
+    /**
+     * Generate the code that pushes the address of the frame where an entry is declared.
+     *
+     * @param nestingLevel the nesting level of the code that uses the entry
+     */
+    private CodeBuffer frameCode(final int nestingLevel, final STentry entry) {
+        if (display && entry.nl == 0 && nestingLevel > 0) {
+            return code(PUSH, ExecuteVM.MEMSIZE); // the frame of the main program
+        }
+        // the frame of an enclosing function, that the Access Link does not reach
+        if (displayFunction != null && entry.nl > 0 && entry.nl < nestingLevel
+                && (entry.nl < nestingLevel - 1 || displayLevels.containsKey(displayFunction))) {
+            return join(
+                    code(PUSH, displayAddress(entry.nl)), // push the address of the entry of the display
+                    code(LOAD_WORD)                       // retrieve the address of the frame
+            );
+        }
+        CodeBuffer getARCode = code(LOAD_FP);
+        for (int i = 0; i < nestingLevel - entry.nl; i++) {
+            getARCode = join(getARCode, code(LOAD_WORD)); // follow the static chain (of Access Links)
+        }
+        return getARCode;
+    }
+
+    /**
+     * Generate the code that pushes the value of a variable, not a field.
+     *
+     * @param nestingLevel the nesting level of the code that uses the variable
+     */
+    private CodeBuffer variableCode(final int nestingLevel, final STentry entry) {
+        if (display && entry.nl == 0 && nestingLevel > 0) {
+            return join(
+                    code(PUSH, ExecuteVM.MEMSIZE + entry.offset), // push the address of the global
+                    code(LOAD_WORD)                               // push value of the variable
+            );
+        }
+        return join(
+                frameCode(nestingLevel, entry), // retrieve address of frame containing the declaration
+                code(PUSH, entry.offset),       // push offset of the variable
+                code(ADD),                      // compute address of the variable
+                code(LOAD_WORD)                 // push value of the variable
+        );
+    }
+
+    /**
+     * Generate the code that fails on the object on top of the stack if it is null, leaving it on the stack:
+     * it loads its dispatch pointer, as the dispatch of a method does.
+     */
+    private static CodeBuffer nullCheckCode() {
+        return join(
+                code(STORE_TM),  // set $tm to popped value (object address)
+                code(LOAD_TM),   // push object address on the stack
+                code(LOAD_WORD), // load dispatch table address, that fails on null
+                code(POP),       // discard it
+                code(LOAD_TM)    // push object address back on the stack
+        );
+    }
+
+    /**
+     * @return the label of a method of a library class, that is exported
+     */
+    private static String exportedLabel(final String classId, final String methodId) {
+        return classId + "." + methodId;
     }
 
     /* *******************
@@ -44,18 +379,56 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the ProgLetIn node
      */
     @Override
-    public String visitNode(final ProgLetInNode node) {
+    public CodeBuffer visitNode(final ProgLetInNode node) {
         if (print) printNode(node);
-        String declarationsCode = null;
-        for (final Node declaration : node.declarations) {
-            declarationsCode = nlJoin(declarationsCode, visit(declaration));
+        context.resetCode();
+        library = node.isLibrary();
+        reachability.visit(node);
+        freeVariables.visit(node);
+        final int displaySize = display && !linkable
+                ? collectDisplayFunctions(node.declarations.subList(node.externalDeclarations, node.declarations.size()), 1)
+                : 0;
+        displayBase = layoutDispatchTables(node.declarations, node.externalDeclarations);
+        CodeBuffer declarationsCode = null;
+        for (int i = 0; i < node.declarations.size(); i++) {
+            final DecNode declaration = node.declarations.get(i);
+            external = i < node.externalDeclarations;
+            // The code of an external declaration is generated by its library,
+            // only the labels of the methods of the external classes are needed
+            if (external && declaration instanceof FunNode function) externalFunctions.add(function);
+            if (external && !(declaration instanceof ClassNode)) continue;
+            declarationsCode = join(declarationsCode, visit(declaration));
         }
-        return nlJoin(
-                PUSH + 0,    // Fake return address for the main
-                declarationsCode,   // generate code for declarations (allocation)
-                visit(node.exp),    // generate code for the expression
-                HALT,               // halt instruction
-                getCode()           // generated code for functions
+        external = false;
+
+        // The globals are the slots of the frame of the main program
+        final Map<Integer, String> globals = frameSlots(List.of(), node.declarations);
+
+        if (library) {
+            // The initialization of the library falls through to the next linked unit
+            final String endLabel = context.freshLabel();
+            final CodeBuffer functionsCode = context.getCode();
+            return join(
+                    declarationsCode == null ? null : declarationsCode.scope("init", globals),                                           // generate code for declarations (allocation)
+                    functionsCode == null ? null : code(BRANCH, endLabel),      // jump over the functions
+                    functionsCode,                                              // generated code for functions
+                    functionsCode == null ? null : label(endLabel),             // end of the library
+                    dispatchTablesData()                                        // dispatch tables
+            );
+        }
+        return join(
+                join(
+                        displaySize == 0 ? null : join(
+                                code(PUSH, displayBase + displaySize), // reserve the display at the bottom of the heap, after the data
+                                code(STORE_HP)
+                        ),
+                        linkable ? null : code(PUSH, 0), // Fake return address for the main
+                        declarationsCode,   // generate code for declarations (allocation)
+                        visit(node.exp),    // generate code for the expression
+                        code(HALT)          // halt instruction
+                ).sourceLine(node.getLine()).scope("main", globals),
+                context.getCode(),          // generated code for functions
+                dispatchTablesData()        // dispatch tables
         );
     }
 
@@ -66,11 +439,12 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the ProgNode node
      */
     @Override
-    public String visitNode(final ProgNode node) {
+    public CodeBuffer visitNode(final ProgNode node) {
         if (print) printNode(node);
-        return nlJoin(
+        context.resetCode();
+        return join(
                 visit(node.exp),    // generate code for the expression
-                HALT                // halt instruction
+                code(HALT)          // halt instruction
         );
     }
 
@@ -87,55 +461,70 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the FunNode node
      */
     @Override
-    public String visitNode(final FunNode node) {
+    public CodeBuffer visitNode(final FunNode node) {
         if (print) printNode(node, node.id);
+        if (!reachability.isLive(node)) return code(PUSH, 0); // dead function, its slot is kept
+
+        final FunNode outerDisplayFunction = displayFunction;
+        displayFunction = displayFunctions.contains(node) ? node : null;
+        final Integer displayLevel = displayLevels.get(node);
 
-        String declarationsCode = null;
+        CodeBuffer declarationsCode = null;
         for (final Node declaration : node.declarations) {
-            declarationsCode = nlJoin(declarationsCode, visit(declaration));
+            declarationsCode = join(declarationsCode, visit(declaration));
         }
 
-        String popDeclarationsCode = null;
+        CodeBuffer popDeclarationsCode = null;
         for (final Node declaration : node.declarations) {
-            popDeclarationsCode = nlJoin(popDeclarationsCode, POP);
+            popDeclarationsCode = join(popDeclarationsCode, code(POP));
         }
 
-        String popParametersCode = null;
+        CodeBuffer popParametersCode = null;
         for (final ParNode parameter : node.parameters) {
-            popParametersCode = nlJoin(popParametersCode, POP);
+            popParametersCode = join(popParametersCode, code(POP));
         }
 
-        final String funLabel = freshFunLabel();
-        putCode(
-                nlJoin(
-                        funLabel + ":",
+        final String funLabel = functionLabel(node);
+        final String bodyLabel = context.freshLabel();
+        context.putCode(
+                join(
+                        label(funLabel),
 
                         // Complete stack setup
-                        COPY_FP,                // set $fp to $sp value
-                        LOAD_RA,                // push $ra value (return address)
+                        code(COPY_FP),          // set $fp to $sp value
+                        code(LOAD_RA),          // push $ra value (return address)
+                        displayLevel == null ? null : join(
+                                code(LOAD_FP),                            // push $fp
+                                code(PUSH, displayAddress(displayLevel)), // the frame replaces its entry of the display,
+                                code(STORE_WORD)                          // that the caller saved in the Access Link slot
+                        ),
+                        label(bodyLabel),       // the recursive calls in tail position jump here
                         declarationsCode,       // generate code for local declarations (they use the new $fp)
 
                         // Function body
-                        visit(node.exp),        // generate code for function body expression,
+                        visitTail(node.exp, new TailPosition(node, node.parameters.size(), node.declarations, bodyLabel)), // generate code for function body expression,
                         // it pushes the result on the stack
 
 
                         // Clean up the stack frame
-                        STORE_TM,               // set $tm to popped value (function result)
+                        code(STORE_TM),         // set $tm to popped value (function result)
                         popDeclarationsCode,    // remove local declarations from stack
-                        STORE_RA,               // set $ra to popped value (return address)
-                        POP,                    // remove Access Link from stack
+                        code(STORE_RA),         // set $ra to popped value (return address)
+                        displayLevel == null
+                                ? code(POP)     // remove Access Link from stack
+                                : join(code(PUSH, displayAddress(displayLevel)), code(STORE_WORD)), // restore the entry of the display
                         popParametersCode,      // remove parameters from stack
-                        STORE_FP,               // set $fp to popped value (Control Link (pointer to frame of function "id" caller))
+                        code(STORE_FP),         // set $fp to popped value (Control Link (pointer to frame of function "id" caller))
 
                         // Return
-                        LOAD_TM,                // push $tm value (function result)
-                        LOAD_RA,                // push $ra value (return address)
-                        JUMP_SUBROUTINE              // jump to popped address (return address)
-                )
+                        code(LOAD_TM),               // push $tm value (function result)
+                        code(LOAD_RA),               // push $ra value (return address)
+                        code(JUMP_SUBROUTINE)        // jump to popped address (return address)
+                ).sourceLine(node.getLine()).scope(node.id, frameSlots(node.parameters, node.declarations))
         );
+        displayFunction = outerDisplayFunction;
 
-        return PUSH + funLabel; // push function label
+        return code(PUSH, funLabel); // push function label
     }
 
     /**
@@ -145,8 +534,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the VarNode node
      */
     @Override
-    public String visitNode(final VarNode node) {
+    public CodeBuffer visitNode(final VarNode node) {
         if (print) printNode(node, node.id);
+        if (!reachability.isNeeded(node)) return code(PUSH, 0); // unused variable, its slot is kept
         return visit(node.exp); // generate code for the expression
     }
 
@@ -163,19 +553,19 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the IfNode node
      */
     @Override
-    public String visitNode(final IfNode node) {
+    public CodeBuffer visitNode(final IfNode node) {
         if (print) printNode(node);
-        String thenLabel = freshLabel();
-        String endLabel = freshLabel();
-        return nlJoin(
-                visit(node.condition),   // generate code for the condition expression
-                PUSH + 1,                       // push 1 on the stack
-                BRANCH_EQUAL + thenLabel,       // jump to thenLabel if the condition is true
-                visit(node.elseBranch),         // generate code for the else branch
-                BRANCH + endLabel,              // jump to endLabel
-                thenLabel + ":",                // thenLabel
-                visit(node.thenBranch),         // generate code for the then branch
-                endLabel + ":"                  // endLabel
+        String thenLabel = context.freshLabel();
+        String endLabel = context.freshLabel();
+        return join(
+                visit(node.condition),          // generate code for the condition expression
+                code(PUSH, 1),                  // push 1 on the stack
+                code(BRANCH_EQUAL, thenLabel),  // jump to thenLabel if the condition is true
+                visitTail(node.elseBranch, tailPosition), // generate code for the else branch
+                code(BRANCH, endLabel),         // jump to endLabel
+                label(thenLabel),               // thenLabel
+                visitTail(node.thenBranch, tailPosition), // generate code for the then branch
+                label(endLabel)                 // endLabel
         );
     }
 
@@ -186,19 +576,19 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the NotNode node
      */
     @Override
-    public String visitNode(final NotNode node) {
+    public CodeBuffer visitNode(final NotNode node) {
         if (print) printNode(node);
-        final String itWasFalseLabel = freshLabel();
-        final String endLabel = freshLabel();
-        return nlJoin(
-                visit(node.exp),          // generate code for expression
-                PUSH + 0,                       // push 0
-                BRANCH_EQUAL + itWasFalseLabel, // if value is 0, jump to itWasFalseLabel
-                PUSH + 0,                       // push 0 (the result)
-                BRANCH + endLabel,              // jump to end label
-                itWasFalseLabel + ":",          // itWasFalseLabel
-                PUSH + 1,                       // push 1 (the result)
-                endLabel + ":"                  // end label
+        final String itWasFalseLabel = context.freshLabel();
+        final String endLabel = context.freshLabel();
+        return join(
+                visit(node.exp),                     // generate code for expression
+                code(PUSH, 0),                       // push 0
+                code(BRANCH_EQUAL, itWasFalseLabel), // if value is 0, jump to itWasFalseLabel
+                code(PUSH, 0),                       // push 0 (the result)
+                code(BRANCH, endLabel),              // jump to end label
+                label(itWasFalseLabel),              // itWasFalseLabel
+                code(PUSH, 1),                       // push 1 (the result)
+                label(endLabel)                      // end label
         );
     }
 
@@ -209,22 +599,22 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the OrNode node
      */
     @Override
-    public String visitNode(final OrNode node) {
+    public CodeBuffer visitNode(final OrNode node) {
         if (print) printNode(node);
-        final String trueLabel = freshLabel();
-        final String endLabel = freshLabel();
-        return nlJoin(
-                visit(node.left),    // generate code for left expression
-                PUSH + 1,                   // push 1
-                BRANCH_EQUAL + trueLabel,   // if value is 1, jump to true label
-                visit(node.right),          // generate code for right expression
-                PUSH + 1,                   // push 1
-                BRANCH_EQUAL + trueLabel,   // if value is 1, jump to true label
-                PUSH + 0,                   // push 0 (the result)
-                BRANCH + endLabel,          // jump to end label
-                trueLabel + ":",            // true label
-                PUSH + 1,                   // push 1 (the result)
-                endLabel + ":"              // end label
+        final String trueLabel = context.freshLabel();
+        final String endLabel = context.freshLabel();
+        return join(
+                visit(node.left),              // generate code for left expression
+                code(PUSH, 1),                 // push 1
+                code(BRANCH_EQUAL, trueLabel), // if value is 1, jump to true label
+                visit(node.right),             // generate code for right expression
+                code(PUSH, 1),                 // push 1
+                code(BRANCH_EQUAL, trueLabel), // if value is 1, jump to true label
+                code(PUSH, 0),                 // push 0 (the result)
+                code(BRANCH, endLabel),        // jump to end label
+                label(trueLabel),              // true label
+                code(PUSH, 1),                 // push 1 (the result)
+                label(endLabel)                // end label
         );
     }
 
@@ -235,22 +625,22 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the AndNode node
      */
     @Override
-    public String visitNode(final AndNode node) {
+    public CodeBuffer visitNode(final AndNode node) {
         if (print) printNode(node);
-        final String falseLabel = freshLabel();
-        final String endLabel = freshLabel();
-        return nlJoin(
-                visit(node.left),    // generate code for left expression
-                PUSH + 0,                   // push 0
-                BRANCH_EQUAL + falseLabel,  // if value is 0, jump to false label
-                visit(node.right),          // generate code for right expression
-                PUSH + 0,                   // push 0
-                BRANCH_EQUAL + falseLabel,  // if value is 0, jump to false label
-                PUSH + 1,                   // push 1 (the result)
-                BRANCH + endLabel,          // jump to end label
-                falseLabel + ":",           // false label
-                PUSH + 0,                   // push 0 (the result)
-                endLabel + ":"              // end label
+        final String falseLabel = context.freshLabel();
+        final String endLabel = context.freshLabel();
+        return join(
+                visit(node.left),               // generate code for left expression
+                code(PUSH, 0),                  // push 0
+                code(BRANCH_EQUAL, falseLabel), // if value is 0, jump to false label
+                visit(node.right),              // generate code for right expression
+                code(PUSH, 0),                  // push 0
+                code(BRANCH_EQUAL, falseLabel), // if value is 0, jump to false label
+                code(PUSH, 1),                  // push 1 (the result)
+                code(BRANCH, endLabel),         // jump to end label
+                label(falseLabel),              // false label
+                code(PUSH, 0),                  // push 0 (the result)
+                label(endLabel)                 // end label
         );
     }
 
@@ -261,19 +651,19 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the EqualNode node
      */
     @Override
-    public String visitNode(final EqualNode node) {
+    public CodeBuffer visitNode(final EqualNode node) {
         if (print) printNode(node);
-        final String trueLabel = freshLabel();
-        final String endLabel = freshLabel();
-        return nlJoin(
-                visit(node.left),    // generate code for the left expression
-                visit(node.right),          // generate code for the right expression
-                BRANCH_EQUAL + trueLabel,   // jump to trueLabel if the two expressions are equal
-                PUSH + 0,                   // push 0 on the stack (the result of the equal)
-                BRANCH + endLabel,          // jump to endLabel
-                trueLabel + ":",            // trueLabel
-                PUSH + 1,                   // push 1 on the stack (the result of the equal)
-                endLabel + ":"              // endLabel
+        final String trueLabel = context.freshLabel();
+        final String endLabel = context.freshLabel();
+        return join(
+                visit(node.left),              // generate code for the left expression
+                visit(node.right),             // generate code for the right expression
+                code(BRANCH_EQUAL, trueLabel), // jump to trueLabel if the two expressions are equal
+                code(PUSH, 0),                 // push 0 on the stack (the result of the equal)
+                code(BRANCH, endLabel),        // jump to endLabel
+                label(trueLabel),              // trueLabel
+                code(PUSH, 1),                 // push 1 on the stack (the result of the equal)
+                label(endLabel)                // endLabel
         );
     }
 
@@ -284,19 +674,19 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the LessEqualNode node
      */
     @Override
-    public String visitNode(final LessEqualNode node) {
+    public CodeBuffer visitNode(final LessEqualNode node) {
         if (print) printNode(node);
-        final String endLabel = freshLabel();
-        final String trueLabel = freshLabel();
-        return nlJoin(
-                visit(node.left),        // generate code for left expression
-                visit(node.right),              // generate code for right expression
-                BRANCH_LESS_EQUAL + trueLabel,  // if left value is less or equal than right value, jump to true label
-                PUSH + 0,                       // push 0 (the result)
-                BRANCH + endLabel,              // jump to end label
-                trueLabel + ":",                // true label
-                PUSH + 1,                       // push 1 (the result)
-                endLabel + ":"                  // end label
+        final String endLabel = context.freshLabel();
+        final String trueLabel = context.freshLabel();
+        return join(
+                visit(node.left),                   // generate code for left expression
+                visit(node.right),                  // generate code for right expression
+                code(BRANCH_LESS_EQUAL, trueLabel), // if left value is less or equal than right value, jump to true label
+                code(PUSH, 0),                      // push 0 (the result)
+                code(BRANCH, endLabel),             // jump to end label
+                label(trueLabel),                   // true label
+                code(PUSH, 1),                      // push 1 (the result)
+                label(endLabel)                     // end label
         );
     }
 
@@ -307,21 +697,21 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the GreaterEqualNode node
      */
     @Override
-    public String visitNode(final GreaterEqualNode node) {
+    public CodeBuffer visitNode(final GreaterEqualNode node) {
         if (print) printNode(node);
-        final String falseLabel = freshLabel();
-        final String endLabel = freshLabel();
-        return nlJoin(
-                visit(node.left),        // generate code for left expression
-                visit(node.right),              // generate code for right expression
-                PUSH + 1,                       // push 1
-                SUB,                            // subtract 1 from right value
-                BRANCH_LESS_EQUAL + falseLabel, // if left value is not less or equal than right value, jump to false label
-                PUSH + 1,                       // push 1 (the result)
-                BRANCH + endLabel,              // jump to end label
-                falseLabel + ":",               // false label
-                PUSH + 0,                       // push 0 (the result)
-                endLabel + ":"                  // end label
+        final String falseLabel = context.freshLabel();
+        final String endLabel = context.freshLabel();
+        return join(
+                visit(node.left),                    // generate code for left expression
+                visit(node.right),                   // generate code for right expression
+                code(PUSH, 1),                       // push 1
+                code(SUB),                           // subtract 1 from right value
+                code(BRANCH_LESS_EQUAL, falseLabel), // if left value is not less or equal than right value, jump to false label
+                code(PUSH, 1),                       // push 1 (the result)
+                code(BRANCH, endLabel),              // jump to end label
+                label(falseLabel),                   // false label
+                code(PUSH, 0),                       // push 0 (the result)
+                label(endLabel)                      // end label
         );
     }
 
@@ -332,12 +722,12 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the TimesNode node
      */
     @Override
-    public String visitNode(final TimesNode node) {
+    public CodeBuffer visitNode(final TimesNode node) {
         if (print) printNode(node);
-        return nlJoin(
+        return join(
                 visit(node.left),   // generate code for the left expression
                 visit(node.right),  // generate code for the right expression
-                MULT                // multiply the two expressions
+                code(MULT)          // multiply the two expressions
         );
     }
 
@@ -348,12 +738,12 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the DivNode node
      */
     @Override
-    public String visitNode(final DivNode node) {
+    public CodeBuffer visitNode(final DivNode node) {
         if (print) printNode(node);
-        return nlJoin(
+        return join(
                 visit(node.left),   // generate code for left expression
                 visit(node.right),  // generate code for right expression
-                DIV                 // divide left value by right value
+                code(DIV)           // divide left value by right value
         );
     }
 
@@ -364,12 +754,12 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the PlusNode node
      */
     @Override
-    public String visitNode(final PlusNode node) {
+    public CodeBuffer visitNode(final PlusNode node) {
         if (print) printNode(node);
-        return nlJoin(
+        return join(
                 visit(node.left),   // generate code for the left expression
                 visit(node.right),  // generate code for the right expression
-                ADD                 // add the two expressions
+                code(ADD)           // add the two expressions
         );
     }
 
@@ -380,12 +770,12 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the MinusNode node
      */
     @Override
-    public String visitNode(final MinusNode node) {
+    public CodeBuffer visitNode(final MinusNode node) {
         if (print) printNode(node);
-        return nlJoin(
+        return join(
                 visit(node.left),   // generate code for left expression
                 visit(node.right),  // generate code for right expression
-                SUB                 // subtract right value from left value
+                code(SUB)           // subtract right value from left value
         );
     }
 
@@ -402,9 +792,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the BoolNode node
      */
     @Override
-    public String visitNode(final BoolNode node) {
+    public CodeBuffer visitNode(final BoolNode node) {
         if (print) printNode(node, String.valueOf(node.value));
-        return PUSH + (node.value ? 1 : 0); // push 1 if true, 0 if false
+        return code(PUSH, node.value ? 1 : 0); // push 1 if true, 0 if false
     }
 
     /**
@@ -414,9 +804,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the IntNode node
      */
     @Override
-    public String visitNode(final IntNode node) {
+    public CodeBuffer visitNode(final IntNode node) {
         if (print) printNode(node, node.value.toString());
-        return PUSH + node.value; // push the value of the integer
+        return code(PUSH, node.value); // push the value of the integer
     }
 
     /**
@@ -426,22 +816,21 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the IdNode node
      */
     @Override
-    public String visitNode(final IdNode node) {
+    public CodeBuffer visitNode(final IdNode node) {
         if (print) printNode(node, node.id);
-        String getARCode = null;
-        for (int i = 0; i < node.nestingLevel - node.entry.nl; i++) {
-            getARCode = nlJoin(getARCode, LOAD_WORD);
-        }
-        return nlJoin(
-                // Retrieve the AR where the variable is declared
-                LOAD_FP, getARCode, /* retrieve address of frame containing "id" declaration,
-                                           by following the static chain (of Access Links) */
-
-                // Load the value of the variable
-                PUSH + node.entry.offset,   // push offset of the variable
-                ADD,                        // compute address of the variable
-                LOAD_WORD                   // push value of the variable
-        );
+        if (node.entry.isField) {
+            return join(
+                    // Retrieve the object containing the field
+                    frameCode(node.nestingLevel, node.entry), /* retrieve the object address, that is the Access Link
+                                                               of the method frame, by following the static chain */
+
+                    // Load the value of the field
+                    code(LOAD_FIELD, node.entry.offset) // push value of the field at the given offset
+            );
+        }
+
+        // Retrieve the AR where the variable is declared and load the value of the variable
+        return variableCode(node.nestingLevel, node.entry);
     }
 
     /* *******************
@@ -457,11 +846,11 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the PrintNode node
      */
     @Override
-    public String visitNode(final PrintNode node) {
+    public CodeBuffer visitNode(final PrintNode node) {
         if (print) printNode(node);
-        return nlJoin(
+        return join(
                 visit(node.exp),    // generate code for the expression
-                PRINT               // print instruction
+                code(PRINT)         // print instruction
         );
     }
 
@@ -472,52 +861,214 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the CallNode node
      */
     @Override
-    public String visitNode(final CallNode node) {
+    public CodeBuffer visitNode(final CallNode node) {
         if (print) printNode(node, node.id);
+        if (isTailSelfCall(node)) return tailCall(node);
+        if (isTailCall(node)) return tailCall(node, (FunNode) node.entry.declaration);
 
         // Reverse argument list
         final List<Node> reversedArgumentsCode = new ArrayList<>(node.arguments);
         Collections.reverse(reversedArgumentsCode);
 
-        String argumentsCode = null;
+        CodeBuffer argumentsCode = null;
         for (final Node argument : reversedArgumentsCode) {
-            argumentsCode = nlJoin(argumentsCode, visit(argument));
+            argumentsCode = join(argumentsCode, visit(argument));
         }
 
-        String getARCode = null;
-        for (int i = 0; i < node.nestingLevel - node.entry.nl; i++) {
-            getARCode = nlJoin(getARCode, LOAD_WORD);
+        if (node.entry.declaration instanceof FunNode function
+                && (displayLevels.containsKey(function) || freeVariables.isLifted(function))) {
+            final Integer displayLevel = displayLevels.get(function);
+            return join(
+                    // Set up the stack frame
+                    code(LOAD_FP),      // push Control Link (pointer to frame of function "id" caller) on the stack
+                    argumentsCode,      // generate code for argument expressions in reversed order
+                    displayLevel == null ? code(PUSH, 0) : join(
+                            code(PUSH, displayAddress(displayLevel)), // push the entry of the display that the frame
+                            code(LOAD_WORD)                           // replaces, in the slot of the Access Link
+                    ),
+
+                    freeVariables.isLifted(function)
+                            ? code(PUSH, functionLabel(function)) // push the label of the lifted function
+                            : join(
+                                    // Load the address of the function from the AR where it is declared
+                                    frameCode(node.nestingLevel, node.entry),
+                                    code(LOAD_FIELD, node.entry.offset) // push address of "id" function (the label of the function)
+                            ),
+
+                    // Jump to the function
+                    code(JUMP_SUBROUTINE) // jump to popped address (saving address of subsequent instruction in $ra)
+            );
         }
 
-        return nlJoin(
+        return join(
                 // Set up the stack frame
-                LOAD_FP,     // push Control Link (pointer to frame of function "id" caller) on the stack
+                code(LOAD_FP),      // push Control Link (pointer to frame of function "id" caller) on the stack
                 argumentsCode,      // generate code for argument expressions in reversed order
 
                 // Retrieve the AR where the function is declared
-                LOAD_FP, getARCode, /* retrieve address of frame containing "id" declaration,
-                                           by following the static chain (of Access Links) */
+                frameCode(node.nestingLevel, node.entry), /* retrieve address of frame containing "id" declaration,
+                                                           by following the static chain (of Access Links) */
 
-                STORE_TM,           // set $tm to popped value (the AR where the function is declared)
-                LOAD_TM,            /* push Access Link (pointer to frame of function "id" declaration),
+                code(STORE_TM),     // set $tm to popped value (the AR where the function is declared)
+                code(LOAD_TM),            /* push Access Link (pointer to frame of function "id" declaration),
                                            it's for the AR of the function */
 
-                LOAD_TM,                    // duplicate top of stack
+                code(LOAD_TM),              // duplicate top of stack
 
                 // load address of dispatch table if method
-                (node.entry.type instanceof MethodTypeNode) ? LOAD_WORD : "",
+                (node.entry.type instanceof MethodTypeNode) ? code(LOAD_WORD) : null,
 
                 // load address of function
-                PUSH + node.entry.offset,   // push offset of "id" declaration
-                ADD,                        // compute address of "id" declaration
-                LOAD_WORD,                  // push address of "id" function (the label of the function)
+                code(LOAD_FIELD, node.entry.offset), // push address of "id" function (the label of the function)
 
                 // Jump to the function
-                JUMP_SUBROUTINE  // jump to popped address (saving address of subsequent instruction in $ra)
+                code(JUMP_SUBROUTINE) // jump to popped address (saving address of subsequent instruction in $ra)
+
+        );
+    }
+
+    /**
+     * @return true if the call is in tail position and calls the function or method whose body is being generated.
+     * A method calls itself on the same object, through the same entry of the dispatch table where
+     * the executing method was found (there are no super calls), so it always executes the same body.
+     */
+    private boolean isTailSelfCall(final CallNode node) {
+        if (tailPosition == null) return false;
+        if (tailPosition.function instanceof MethodNode method) {
+            return node.entry.type instanceof MethodTypeNode && node.entry.offset == method.offset;
+        }
+        return node.entry.declaration == tailPosition.function;
+    }
+
+    /**
+     * Generate code for a call of a function (or method) to itself in tail position: its result would be
+     * the result of the function, so the frame is reused instead of pushing a new one.
+     * The arguments replace the parameters and the body is executed again,
+     * with the same return address and Access Link (the object, for a method).
+     *
+     * @param node the CallNode node
+     * @return the code generated for the call
+     */
+    private CodeBuffer tailCall(final CallNode node) {
+        CodeBuffer argumentsCode = null;
+        for (int i = node.arguments.size() - 1; i >= 0; i--) {
+            argumentsCode = join(argumentsCode, visit(node.arguments.get(i)));
+        }
 
+        CodeBuffer storeArgumentsCode = null;
+        for (int i = 1; i <= node.arguments.size(); i++) {
+            storeArgumentsCode = join(
+                    storeArgumentsCode,
+                    code(LOAD_FP),          // push $fp
+                    code(STORE_FIELD, i)    // store the first argument left in the parameter at offset i
+            );
+        }
+
+        CodeBuffer popDeclarationsCode = null;
+        for (final DecNode declaration : tailPosition.declarations) {
+            popDeclarationsCode = join(popDeclarationsCode, code(POP));
+        }
+
+        return join(
+                argumentsCode,          // generate code for argument expressions in reversed order,
+                                        // all of them are evaluated before the parameters are replaced
+                storeArgumentsCode,     // replace the parameters with the arguments
+                popDeclarationsCode,    // remove local declarations from stack, they are evaluated again
+                code(BRANCH, tailPosition.bodyLabel) // jump to the body, after the return address
+        );
+    }
+
+    /**
+     * @return true if the call is in tail position and calls a function whose frame can take the place of the
+     * frame of the function being generated: a function generated in this unit, so its label is known, that is
+     * not declared inside the function being generated, or lifted, so its Access Link is not the frame, and whose
+     * Access Link and arguments fit in the frame being replaced (parameters, Access Link, return address
+     * and declarations) without overwriting the arguments before they are moved.
+     */
+    private boolean isTailCall(final CallNode node) {
+        if (tailPosition == null || !(node.entry.declaration instanceof FunNode function)) return false;
+        if (externalFunctions.contains(function)) return false;
+        if (node.nestingLevel == node.entry.nl && !freeVariables.isLifted(function)) return false;
+        return function.parameters.size() <= tailPosition.parameters + 1 + tailPosition.declarations.size();
+    }
+
+    /**
+     * Generate code for a call in tail position of another function: its result would be the result of the
+     * function being generated, so the frame of the callee replaces the current one instead of being pushed
+     * over it. The Access Link and the arguments of the callee are moved right below the Control Link of the
+     * current frame, as the caller of the function would have pushed them, $ra is set to the return address
+     * of the function and the code jumps to the callee, that returns directly to the caller of the function.
+     *
+     * @param node     the CallNode node
+     * @param function the called function
+     * @return the code generated for the call
+     */
+    private CodeBuffer tailCall(final CallNode node, final FunNode function) {
+        CodeBuffer argumentsCode = null;
+        for (int i = node.arguments.size() - 1; i >= 0; i--) {
+            argumentsCode = join(argumentsCode, visit(node.arguments.get(i)));
+        }
+
+        // The frame replaced by the callee restores its entry of the display, as on return,
+        // before the callee saves the entry that its own frame replaces
+        final Integer callerDisplayLevel = tailPosition.function instanceof FunNode caller ? displayLevels.get(caller) : null;
+        final CodeBuffer accessLinkCode;
+        if (displayLevels.containsKey(function) || freeVariables.isLifted(function)) {
+            final Integer displayLevel = displayLevels.get(function);
+            accessLinkCode = displayLevel == null ? code(PUSH, 0) : join(
+                    code(PUSH, displayAddress(displayLevel)), // push the entry of the display that the frame
+                    code(LOAD_WORD)                           // replaces, in the slot of the Access Link
+            );
+        } else {
+            accessLinkCode = frameCode(node.nestingLevel, node.entry); // retrieve address of frame containing "id" declaration
+        }
+
+        // Offset from $fp of the Access Link of the callee, the arguments follow it
+        final int accessLink = tailPosition.parameters - node.arguments.size();
+        CodeBuffer storeFrameCode = null;
+        for (int i = 0; i <= node.arguments.size(); i++) {
+            storeFrameCode = join(
+                    storeFrameCode,
+                    code(LOAD_FP),                          // push $fp
+                    code(STORE_FIELD, accessLink + i)       // store the Access Link, then the arguments in order
+            );
+        }
+
+        // Remove the declarations, the return address and the words of the frame
+        // above the Access Link of the callee
+        CodeBuffer popFrameCode = null;
+        for (int i = 0; i < tailPosition.declarations.size() + 1 + accessLink; i++) {
+            popFrameCode = join(popFrameCode, code(POP));
+        }
+
+        return join(
+                argumentsCode,          // generate code for argument expressions in reversed order
+                callerDisplayLevel == null ? null : join(
+                        code(LOAD_FP),                                  // push $fp
+                        code(LOAD_FIELD, 0),                            // push the entry saved in the Access Link slot
+                        code(PUSH, displayAddress(callerDisplayLevel)), // restore the entry of the display
+                        code(STORE_WORD)
+                ),
+                accessLinkCode,         // push the Access Link of the callee
+
+                code(LOAD_FP),          // push $fp
+                code(LOAD_FIELD, -1),   // push the return address of the function
+                code(STORE_RA),         // the callee returns there
+
+                storeFrameCode,         // replace the frame with the Access Link and the arguments
+                popFrameCode,           // $sp points to the Access Link of the callee
+                code(BRANCH, functionLabel(function)) // jump to the function, that sets up its frame
         );
     }
 
+    /**
+     * @return the label of a function generated in this unit, set at its first use
+     */
+    private String functionLabel(final FunNode function) {
+        if (function.label == null) function.label = context.freshFunLabel();
+        return function.label;
+    }
+
     // *************************
     // *************************
     // OBJECT-ORIENTED EXTENSION
@@ -537,53 +1088,27 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the ClassNode node
      */
     @Override
-    public String visitNode(final ClassNode node) {
+    public CodeBuffer visitNode(final ClassNode node) {
         if (print) printNode(node);
 
-        final List<String> dispatchTable = new ArrayList<>();
-        dispatchTables.add(dispatchTable);
-
-        final boolean isSubclass = node.superEntry != null;
-
-        if (isSubclass) {
-            final List<String> superDispatchTable = dispatchTables.get(-node.superEntry.offset - 2);
-            dispatchTable.addAll(superDispatchTable);
-        }
+        currentClassId = node.classId;
 
         for (final MethodNode methodEntry : node.methods) {
-            visit(methodEntry);
-
-            final boolean isOverriding = methodEntry.offset < dispatchTable.size();
-            if (isOverriding) {
-                dispatchTable.set(methodEntry.offset, methodEntry.label);
+            if (external) {
+                // The method is generated by its library, with the exported label
+                methodEntry.label = exportedLabel(node.classId, methodEntry.methodId);
             } else {
-                dispatchTable.add(methodEntry.label);
+                if (library) {
+                    methodEntry.label = exportedLabel(node.classId, methodEntry.methodId);
+                    exports.add(methodEntry.label);
+                }
+                if (reachability.isLive(methodEntry)) visit(methodEntry);
             }
         }
 
-        String dispatchTableHeapCode = "";
-        for (final String label : dispatchTable) {
-            dispatchTableHeapCode = nlJoin(
-                    dispatchTableHeapCode,
-
-                    // Store method label in heap
-                    PUSH + label,       // push method label
-                    LOAD_HEAP_POINTER,  // push heap pointer
-                    STORE_WORD,         // store method label in heap
-
-                    // Increment heap pointer
-                    LOAD_HEAP_POINTER,  // push heap pointer
-                    PUSH + 1,           // push 1
-                    ADD,                // heap pointer + 1
-                    STORE_HP            // store heap pointer
-
-            );
-        }
-
-        return nlJoin(
-                LOAD_HEAP_POINTER,      // push heap pointer, the address of the dispatch table
-                dispatchTableHeapCode   // generated code for creating the dispatch table in the heap
-        );
+        if (external) return null; // the dispatch table is in the data of the library
+        if (!reachability.isLive(node)) return code(PUSH, 0); // the class is never instantiated
+        return code(PUSH, dispatchTableLabels.get(node.classId)); // push the address of the dispatch table, in the data section
 
     }
 
@@ -594,63 +1119,65 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the MethodNode node
      */
     @Override
-    public String visitNode(final MethodNode node) {
+    public CodeBuffer visitNode(final MethodNode node) {
         if (print) printNode(node);
 
-        String declarationsCode = "";
+        CodeBuffer declarationsCode = null;
         for (final DecNode declaration : node.declarations) {
-            declarationsCode = nlJoin(
+            declarationsCode = join(
                     declarationsCode,
                     visit(declaration)
             );
         }
 
-        String popDeclarationsCode = "";
+        CodeBuffer popDeclarationsCode = null;
         for (final DecNode declaration : node.declarations) {
-            popDeclarationsCode = nlJoin(
+            popDeclarationsCode = join(
                     popDeclarationsCode,
-                    POP
+                    code(POP)
             );
         }
 
-        String popParametersCode = "";
+        CodeBuffer popParametersCode = null;
         for (final ParNode parameter : node.parameters) {
-            popParametersCode = nlJoin(
+            popParametersCode = join(
                     popParametersCode,
-                    POP
+                    code(POP)
             );
         }
 
-        final String methodLabel = freshFunLabel();
-
-        node.label = methodLabel; // set the label of the method
+        if (node.label == null) node.label = context.freshFunLabel(); // set the label of the method, if not exported
+        final String methodLabel = node.label;
+        final String bodyLabel = context.freshLabel();
 
         // Generate code for the method body
-        putCode(
-                nlJoin(
-                        methodLabel + ":",   // method label
+        context.putCode(
+                join(
+                        label(methodLabel),  // method label
 
                         // Set up the stack frame with FP, RA, and declarations
-                        COPY_FP,                    // copy $sp to $fp, the new frame pointer
-                        LOAD_RA,                    // push return address
+                        code(COPY_FP),              // copy $sp to $fp, the new frame pointer
+                        code(LOAD_RA),              // push return address
+                        label(bodyLabel),           // the recursive calls in tail position jump here
                         declarationsCode,           // generate code for declarations
 
                         // Generate code for the body and store the result in $tm
-                        visit(node.exp),            // generate code for the expression
-                        STORE_TM,                   // set $tm to popped value (function result)
+                        visitTail(node.exp, new TailPosition(node, node.parameters.size(), node.declarations, bodyLabel)), // generate code for the expression
+                        code(STORE_TM),             // set $tm to popped value (function result)
 
                         // Frame cleanup
                         popDeclarationsCode,        // pop declarations
-                        STORE_RA,                   // pop return address to $ra (for return)
-                        POP,                        // pop $fp
+                        code(STORE_RA),             // pop return address to $ra (for return)
+                        code(POP),                  // pop $fp
                         popParametersCode,          // pop parameters
-                        STORE_FP,                   // pop $fp (restore old frame pointer)
+                        code(STORE_FP),             // pop $fp (restore old frame pointer)
 
                         // Return
-                        LOAD_TM,                    // push function result
-                        LOAD_RA,                    // push return address
-                        JUMP_SUBROUTINE                  // jump to return address
-                )
+                        code(LOAD_TM),                   // push function result
+                        code(LOAD_RA),                   // push return address
+                        code(JUMP_SUBROUTINE)            // jump to return address
+                ).sourceLine(node.getLine())
+                        .scope(currentClassId + "." + node.methodId, frameSlots(node.parameters, node.declarations))
         );
 
         return null;
@@ -670,9 +1197,9 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the EmptyNode node
      */
     @Override
-    public String visitNode(final EmptyNode node) {
+    public CodeBuffer visitNode(final EmptyNode node) {
         if (print) printNode(node);
-        return PUSH + "-1";
+        return code(PUSH, -1);
     }
 
     /* *******************
@@ -688,51 +1215,51 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the ClassCallNode node
      */
     @Override
-    public String visitNode(final ClassCallNode node) {
+    public CodeBuffer visitNode(final ClassCallNode node) {
         if (print) printNode(node);
 
-        String argumentsCode = "";
+        CodeBuffer argumentsCode = null;
         for (int i = node.args.size() - 1; i >= 0; i--) {
-            argumentsCode = nlJoin(
+            argumentsCode = join(
                     argumentsCode,
                     visit(node.args.get(i))
             );
         }
 
-        String getARCode = "";
-        for (int i = 0; i < node.nestingLevel - node.entry.nl; i++) {
-            getARCode = nlJoin(
-                    getARCode,
-                    LOAD_WORD
+        if (node.method != null && reachability.isLive(node.method)) {
+            // The method is known at compile time, the dispatch table is not needed
+            if (node.method.label == null) node.method.label = context.freshFunLabel();
+            return join(
+                    code(LOAD_FP),                               // push $fp on the stack
+                    argumentsCode,                               // generate arguments
+                    variableCode(node.nestingLevel, node.entry), // push the object address, the Access Link
+                    node.nonNullObject ? null : nullCheckCode(), // fail on null, like the dispatch does
+                    code(PUSH, node.method.label),               // push the label of the method
+                    code(JUMP_SUBROUTINE)                        // call the method
             );
         }
 
-        return nlJoin(
+        return join(
 
                 // Set up the stack frame
-                LOAD_FP,     // push $fp on the stack
+                code(LOAD_FP),      // push $fp on the stack
                 argumentsCode,      // generate arguments
 
                 // Get the address of the object
-                LOAD_FP, getARCode,         // get AR
-                PUSH + node.entry.offset,   // push class offset on the stack
-                ADD,                        // add class offset to $ar
-                LOAD_WORD,                  // load object address
+                variableCode(node.nestingLevel, node.entry), // load object address from its AR
 
 
                 // Duplicate class address
-                STORE_TM,     // set $tm to popped value (class address)
-                LOAD_TM,      // push class address on the stack
-                LOAD_TM,      // duplicate class address
+                code(STORE_TM), // set $tm to popped value (class address)
+                code(LOAD_TM),  // push class address on the stack
+                code(LOAD_TM),  // duplicate class address
 
                 // Get the address of the method
-                LOAD_WORD,    // load dispatch table address
-                PUSH + node.methodEntry.offset, // push method offset on the stack
-                ADD,          // add method offset to dispatch table address
-                LOAD_WORD,    // load method address
+                code(LOAD_WORD),                           // load dispatch table address
+                code(LOAD_FIELD, node.methodEntry.offset), // load method address from the dispatch table
 
                 // Call the method
-                JUMP_SUBROUTINE
+                code(JUMP_SUBROUTINE)
         );
 
     }
@@ -744,54 +1271,58 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
      * @return the code generated for the NewNode node
      */
     @Override
-    public String visitNode(final NewNode node) {
+    public CodeBuffer visitNode(final NewNode node) {
         if (print) printNode(node);
 
-        String argumentsCode = "";
+        CodeBuffer argumentsCode = null;
         for (final Node argument : node.args) {
-            argumentsCode = nlJoin(
+            argumentsCode = join(
                     argumentsCode,
                     visit(argument)
             );
         }
 
-        String moveArgumentsOnHeapCode = "";
-        for (final Node argument : node.args) {
-            moveArgumentsOnHeapCode = nlJoin(
+        final CodeBuffer dispatchTableCode = dispatchTableLabels.containsKey(node.classId)
+                ? code(PUSH, dispatchTableLabels.get(node.classId))       // push the dispatch table address
+                : join(                                                    // a class of another unit
+                        code(PUSH, ExecuteVM.MEMSIZE + node.entry.offset), // push class address on the stack
+                        code(LOAD_WORD)                                    // load dispatch table address
+                );
+
+        // The last argument is on top of the stack, so it is stored first (at $hp + 0)
+        final int fieldsCount = node.args.size();
+        CodeBuffer moveArgumentsOnHeapCode = null;
+        for (int i = 0; i < fieldsCount; i++) {
+            moveArgumentsOnHeapCode = join(
                     moveArgumentsOnHeapCode,
 
                     // Store argument on the heap
-                    LOAD_HEAP_POINTER,    // push $hp on the stack
-                    STORE_WORD,           // store argument on the heap
-
-                    // Update $hp = $hp + 1
-                    LOAD_HEAP_POINTER,    // push $hp on the stack
-                    PUSH + 1,             // push 1 on the stack
-                    ADD,                  // add 1 to $hp
-                    STORE_HP              // store $hp
+                    code(LOAD_HEAP_POINTER), // push $hp on the stack
+                    code(STORE_FIELD, i)     // store argument at $hp + i
             );
         }
 
-        return nlJoin(
+        return join(
 
                 // Set up arguments on the stack and move them on the heap
-                argumentsCode,      // generate arguments
+                argumentsCode,            // generate arguments
                 moveArgumentsOnHeapCode,  // move arguments on the heap
 
                 // Load the address of the dispatch table in the heap
-                PUSH + (ExecuteVM.MEMSIZE + node.entry.offset), // push class address on the stack
-                LOAD_WORD,          // load dispatch table address
-                LOAD_HEAP_POINTER,  // push $hp on the stack
-                STORE_WORD,         // store dispatch table address on the heap
+                dispatchTableCode,
+                code(LOAD_HEAP_POINTER),                           // push $hp on the stack
+                code(STORE_FIELD, fieldsCount),                    // store dispatch table address right after the fields
 
                 // Put the result on the stack (object address)
-                LOAD_HEAP_POINTER,  // push $hp on the stack (object address)
-
-                // Update $hp = $hp + 1
-                LOAD_HEAP_POINTER,  // push $hp on the stack
-                PUSH + 1,           // push 1 on the stack
-                ADD,                // add 1 to $hp
-                STORE_HP            // store $hp
+                code(LOAD_HEAP_POINTER), // push $hp on the stack
+                code(PUSH, fieldsCount), // push the number of fields on the stack
+                code(ADD),               // object address = $hp + number of fields
+
+                // Update $hp = $hp + number of fields + 1
+                code(LOAD_HEAP_POINTER),     // push $hp on the stack
+                code(PUSH, fieldsCount + 1), // push the size of the object on the stack
+                code(ADD),                   // add the size of the object to $hp
+                code(STORE_HP)               // store $hp
         );
 
     }
@@ -801,51 +1332,51 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
         /**
          * Stop the execution of the program.
          */
-        static final String HALT = "halt";
+        static final int HALT = Opcodes.HALT;
 
         /**
          * Print the value on top of the stack.
          */
-        static final String PRINT = "print";
+        static final int PRINT = Opcodes.PRINT;
 
         /**
          * Push the value on the top of the stack.
          */
-        static final String PUSH = "push "; // space needed for the argument
+        static final int PUSH = Opcodes.PUSH;
 
         /**
          * Pop the value on the top of the stack.
          */
-        static final String POP = "pop";
+        static final int POP = Opcodes.POP;
 
         /**
          * Add the two values on the top of the stack popping them.
          * The result is pushed on the top of the stack.
          */
-        static final String ADD = "add";
+        static final int ADD = Opcodes.ADD;
 
         /**
          * Subtract the two values on the top of the stack popping them.
          * The result is pushed on the top of the stack.
          */
-        static final String SUB = "sub";
+        static final int SUB = Opcodes.SUB;
 
         /**
          * Multiply the two values on the top of the stack popping them.
          * The result is pushed on the top of the stack.
          */
-        static final String MULT = "mult";
+        static final int MULT = Opcodes.MULT;
 
         /**
          * Divide the two values on the top of the stack popping them.
          * The result is pushed on the top of the stack.
          */
-        static final String DIV = "div";
+        static final int DIV = Opcodes.DIV;
 
         /**
          * Jump to the label passed as argument.
          */
-        static final String BRANCH = "b "; // space needed for the argument
+        static final int BRANCH = Opcodes.BRANCH;
 
         /**
          * Jump to the label passed as argument if the
@@ -853,7 +1384,7 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
          * <p>
          * The two values are popped.
          */
-        static final String BRANCH_EQUAL = "beq "; // space needed for the argument
+        static final int BRANCH_EQUAL = Opcodes.BRANCHEQ;
 
         /**
          * Jump to the label passed as argument if the
@@ -862,74 +1393,86 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
          * <p>
          * The two values are popped.
          */
-        static final String BRANCH_LESS_EQUAL = "bleq "; // space needed for the argument
+        static final int BRANCH_LESS_EQUAL = Opcodes.BRANCHLESSEQ;
 
         /**
          * Push the value of FP on the top of the stack.
          */
-        static final String LOAD_FP = "lfp";
+        static final int LOAD_FP = Opcodes.LOADFP;
 
         /**
          * Pop the value on the top of the stack and
          * store it in FP.
          */
-        static final String STORE_FP = "sfp";
+        static final int STORE_FP = Opcodes.STOREFP;
 
         /**
          * Copy the value of SP in FP.
          */
-        static final String COPY_FP = "cfp";
+        static final int COPY_FP = Opcodes.COPYFP;
 
         /**
          * Push the value of RA on the top of the stack.
          */
-        static final String LOAD_RA = "lra";
+        static final int LOAD_RA = Opcodes.LOADRA;
 
         /**
          * Pop the value on the top of the stack and
          * store it in RA.
          */
-        static final String STORE_RA = "sra";
+        static final int STORE_RA = Opcodes.STORERA;
 
         /**
          * Push the value of TM on the top of the stack.
          */
-        static final String LOAD_TM = "ltm";
+        static final int LOAD_TM = Opcodes.LOADTM;
 
         /**
          * Pop the value on the top of the stack and
          * store it in TM.
          */
-        static final String STORE_TM = "stm";
+        static final int STORE_TM = Opcodes.STORETM;
 
         /**
          * Push the value of HP on the top of the stack.
          */
-        static final String LOAD_HEAP_POINTER = "lhp";
+        static final int LOAD_HEAP_POINTER = Opcodes.LOADHP;
 
         /**
          * Pop the value on the top of the stack and
          * store it in HP.
          */
-        static final String STORE_HP = "shp";
+        static final int STORE_HP = Opcodes.STOREHP;
 
         /**
          * Pop the address on the top of the stack and
          * push the value stored at that address.
          */
-        static final String LOAD_WORD = "lw";
+        static final int LOAD_WORD = Opcodes.LOADW;
 
         /**
          * Pop the address on the top of the stack and
          * pop the value to store at that address.
          */
-        static final String STORE_WORD = "sw";
+        static final int STORE_WORD = Opcodes.STOREW;
+
+        /**
+         * Pop the address on the top of the stack and
+         * push the value stored at that address plus the offset passed as argument.
+         */
+        static final int LOAD_FIELD = Opcodes.LOADFIELD;
+
+        /**
+         * Pop the address on the top of the stack and
+         * pop the value to store at that address plus the offset passed as argument.
+         */
+        static final int STORE_FIELD = Opcodes.STOREFIELD;
 
         /**
          * Set the RETURN ADDRESS to the actual INSTRUCTION POINTER.
          * JUMP to the address on the top of the stack.
          */
-        static final String JUMP_SUBROUTINE = "js";
+        static final int JUMP_SUBROUTINE = Opcodes.JS;
 
 
     }
@@ -0,0 +1,213 @@
+package compiler;
+
+import svm.ObjectFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * A disk cache of compiled programs, keyed by the hash of their source.
+ * <p>
+ * The key of a program is the SHA-256 of the compiler fingerprint, of the compilation
+ * options and of the source text, so a cached program is never reused by a different
+ * compiler. Every entry is an {@link ObjectFile} named after its key.
+ * <p>
+ * The cache can be shared by several processes: entries are written to a temporary
+ * file and atomically moved in place, so readers see either no entry or a complete one,
+ * and an entry that cannot be read is treated as missing. The total size of the entries
+ * is capped, the least recently used ones are evicted (the last use of an entry is its
+ * modification time, updated on every hit).
+ */
+public class CompilationCache {
+
+    /**
+     * A class of every package whose code determines the generated code:
+     * all the class files of these packages are part of the fingerprint.
+     */
+    private static final List<Class<?>> COMPILER_PACKAGES = List.of(
+            CompilationCache.class, compiler.lib.Node.class, ObjectFile.class);
+
+    private static final String FINGERPRINT = fingerprint();
+
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * @param directory the directory of the cache, created if it does not exist
+     * @param maxSize   the maximum total size of the entries in bytes
+     * @throws IOException if the directory cannot be created
+     */
+    public CompilationCache(final Path directory, final long maxSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Compute the key of a source.
+     *
+     * @param source  the source text
+     * @param options the compilation options that change the generated code
+     * @return the key, as hexadecimal string
+     */
+    public static String key(final String source, final String options) {
+        final MessageDigest digest = sha256();
+        digest.update(FINGERPRINT.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(options.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Look up a compiled program.
+     *
+     * @param key the key of the source
+     * @return the program, if cached
+     */
+    public Optional<ObjectFile> get(final String key) {
+        final Path entry = entry(key);
+        try {
+            final ObjectFile program = ObjectFile.load(entry);
+            Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+            return Optional.of(program);
+        } catch (IOException e) {
+            // missing, evicted by another process or corrupted: it will be written again
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Store a compiled program, then evict the least recently used entries
+     * if the cache is too large.
+     *
+     * @param key     the key of the source
+     * @param program the program
+     * @throws IOException if the entry cannot be written
+     */
+    public void put(final String key, final ObjectFile program) throws IOException {
+        final Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            program.write(temporary);
+            try {
+                Files.move(temporary, entry(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, entry(key), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    private Path entry(final String key) {
+        return directory.resolve(key + ObjectFile.EXTENSION);
+    }
+
+    private void evict() throws IOException {
+        record Entry(Path path, long size, FileTime lastUse) {
+        }
+        final List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (final Path path : (Iterable<Path>) files::iterator) {
+                if (!path.getFileName().toString().endsWith(ObjectFile.EXTENSION)) continue;
+                try {
+                    final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime()));
+                } catch (IOException e) {
+                    // evicted by another process
+                }
+            }
+        }
+        long size = entries.stream().mapToLong(Entry::size).sum();
+        entries.sort(Comparator.comparing(Entry::lastUse));
+        for (int i = 0; i < entries.size() && size > maxSize; i++) {
+            Files.deleteIfExists(entries.get(i).path());
+            size -= entries.get(i).size();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform supports SHA-256
+        }
+    }
+
+    /**
+     * @return the hash of the class files of the compiler
+     */
+    private static String fingerprint() {
+        final MessageDigest digest = sha256();
+        compilerClassFiles().forEach((name, bytes) -> {
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update(bytes);
+        });
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Read the class files of the compiler packages, from the directory or
+     * the jar each package is loaded from.
+     *
+     * @return the content of every class file, by path
+     * @throws IllegalStateException if the classes are not loaded from a directory or a jar
+     */
+    static Map<String, byte[]> compilerClassFiles() {
+        final Map<String, byte[]> classFiles = new TreeMap<>();
+        for (final Class<?> type : COMPILER_PACKAGES) {
+            final String directory = type.getPackageName().replace('.', '/');
+            final CodeSource source = type.getProtectionDomain().getCodeSource();
+            if (source == null) throw new IllegalStateException("Cannot locate the class files of " + type.getPackageName());
+            try {
+                final Path location = Path.of(source.getLocation().toURI());
+                if (Files.isDirectory(location)) {
+                    readClassFiles(location.resolve(directory), directory, classFiles);
+                } else {
+                    try (FileSystem jar = FileSystems.newFileSystem(location)) {
+                        readClassFiles(jar.getPath(directory), directory, classFiles);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException("Cannot locate the class files of " + type.getPackageName(), e);
+            }
+        }
+        return classFiles;
+    }
+
+    private static void readClassFiles(final Path directory, final String prefix, final Map<String, byte[]> classFiles)
+            throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (final Path path : (Iterable<Path>) files::iterator) {
+                final String name = path.getFileName().toString();
+                if (name.endsWith(".class")) classFiles.put(prefix + "/" + name, Files.readAllBytes(path));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package compiler;
+
+import compiler.exc.TypeException;
+import svm.CodeBuffer;
+
+/**
+ * The mutable state of a single compilation, shared by its phases.
+ * <p>
+ * The type checker counts its errors and records the class hierarchy in the
+ * {@link TypeRels} of the context, the code generator draws fresh labels from it
+ * and collects the code of the functions in it. Every compilation uses its own
+ * context, so compilations running at the same time in the same JVM do not
+ * interfere with each other.
+ */
+public class CompilationContext {
+
+    private final TypeRels typeRels = new TypeRels();
+    private int typeErrors = 0;
+    private int labelCount = 0;
+    private int functionLabelCount = 0;
+    private CodeBuffer functionCode = null;
+
+    /**
+     * @return the subtyping relation of the compiled program
+     */
+    public TypeRels getTypeRels() {
+        return typeRels;
+    }
+
+    /**
+     * Count a type error.
+     *
+     * @param text the description of the error
+     * @param line the source line of the error
+     * @return the exception reporting the error, to be thrown
+     */
+    public TypeException typeError(final String text, final int line) {
+        typeErrors++;
+        return new TypeException(text, line);
+    }
+
+    /**
+     * @return the number of type errors found so far
+     */
+    public int getTypeErrors() {
+        return typeErrors;
+    }
+
+    public String freshLabel() {
+        return "label" + (labelCount++);
+    }
+
+    public String freshFunLabel() {
+        return "function" + (functionLabelCount++);
+    }
+
+    /**
+     * Add the code of a function, that is placed after the main program.
+     *
+     * @param code the code of the function
+     */
+    public void putCode(final CodeBuffer code) {
+        if (functionCode == null) functionCode = new CodeBuffer();
+        functionCode.append(code);
+    }
+
+    /**
+     * @return the code of all the functions, or null if there are none
+     */
+    public CodeBuffer getCode() {
+        return functionCode;
+    }
+
+    /**
+     * Discard the code of the functions, generated by a previous visit.
+     */
+    public void resetCode() {
+        functionCode = null;
+    }
+
+}
@@ -0,0 +1,401 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.VoidException;
+import compiler.lib.BaseEASTVisitor;
+import compiler.lib.DecNode;
+import compiler.lib.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BinaryOperator;
+
+/**
+ * This class implements a visitor that simplifies the expressions of the E-AST,
+ * between type checking and code generation.
+ * <p>
+ * Every expression is rewritten bottom-up and the visit returns the simplified
+ * expression, that replaces it in its parent:
+ * <ul>
+ *     <li>operators whose operands are all constants are folded into a constant,
+ *     with the 32 bit arithmetic of the machine;</li>
+ *     <li>the identities {@code x+0}, {@code 0+x}, {@code x-0}, {@code x*1}, {@code 1*x},
+ *     {@code x/1}, {@code !!x}, {@code true&&x}, {@code x&&true}, {@code false||x} and
+ *     {@code x||false} are replaced by {@code x};</li>
+ *     <li>{@code false&&x} and {@code true||x} are replaced by the constant, since the
+ *     code generated for them does not evaluate {@code x} anyway;</li>
+ *     <li>a comparison with {@code null} of an object that cannot be null, because it was
+ *     just created or it is a variable initialized with a new object, is replaced by
+ *     {@code false}, as it is in the else branch of an if whose condition compares the
+ *     variable with {@code null};</li>
+ *     <li>an if with a constant condition is replaced by the branch it takes.</li>
+ * </ul>
+ * An expression is only dropped if evaluating it has no effect: {@code x*0},
+ * {@code x&&false} and {@code x||true} are folded only if {@code x} is made of
+ * constants, variables, operators that cannot fail and new objects. A division by a constant 0
+ * is never folded, so it still fails at run time.
+ * <p>
+ * The declarations are kept (the symbol table entries refer to them), only their
+ * bodies are replaced.
+ */
+public class ConstantFoldingEASTVisitor extends BaseEASTVisitor<Node, VoidException> {
+
+    /**
+     * The variables that refer to an object, which cannot be null since the variables are never assigned.
+     */
+    private final Set<VarNode> nonNullVariables = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public ConstantFoldingEASTVisitor() {
+        this(false);
+    }
+
+    public ConstantFoldingEASTVisitor(boolean debug) {
+        super(false, debug);
+    }
+
+    /**
+     * @return the node, with the source line of the node it replaces
+     */
+    static <N extends Node> N at(final N node, final Node original) {
+        node.setLine(original.getLine());
+        return node;
+    }
+
+    private static boolean isInt(final Node node) {
+        return node instanceof IntNode;
+    }
+
+    private static boolean isBool(final Node node) {
+        return node instanceof BoolNode;
+    }
+
+    private static boolean isConstant(final Node node) {
+        return isInt(node) || isBool(node);
+    }
+
+    /**
+     * @return the value of a constant in the machine, where booleans are 0 and 1
+     */
+    private static int value(final Node constant) {
+        return constant instanceof IntNode intNode ? intNode.value : ((BoolNode) constant).value ? 1 : 0;
+    }
+
+    private static boolean isInt(final Node node, final int value) {
+        return isInt(node) && value(node) == value;
+    }
+
+    private static boolean isBool(final Node node, final boolean value) {
+        return isBool(node) && ((BoolNode) node).value == value;
+    }
+
+    /**
+     * @return true if the expression can be dropped: its evaluation cannot fail,
+     * print or call code that does
+     */
+    static boolean isPure(final Node node) {
+        if (isConstant(node) || node instanceof IdNode || node instanceof EmptyNode) return true;
+        if (node instanceof NotNode not) return isPure(not.exp);
+        if (node instanceof NewNode instance) return instance.args.stream().allMatch(ConstantFoldingEASTVisitor::isPure);
+        if (node instanceof DivNode div) return isPure(div.left) && isInt(div.right) && value(div.right) != 0;
+        final Node[] operands = operands(node);
+        return operands != null && isPure(operands[0]) && isPure(operands[1]);
+    }
+
+    /**
+     * @return true if the expression is an object that cannot be null
+     */
+    boolean isNonNull(final Node node) {
+        return node instanceof NewNode
+                || node instanceof IdNode id && id.entry.declaration instanceof VarNode variable && nonNullVariables.contains(variable);
+    }
+
+    /**
+     * @return the variable compared with null by the condition, if any
+     */
+    private static VarNode comparedWithNull(final Node condition) {
+        if (!(condition instanceof EqualNode equal)) return null;
+        final Node variable = equal.left instanceof EmptyNode ? equal.right
+                : equal.right instanceof EmptyNode ? equal.left : null;
+        return variable instanceof IdNode id && id.entry.declaration instanceof VarNode declaration ? declaration : null;
+    }
+
+    private static Node[] operands(final Node node) {
+        if (node instanceof PlusNode n) return new Node[]{n.left, n.right};
+        if (node instanceof MinusNode n) return new Node[]{n.left, n.right};
+        if (node instanceof TimesNode n) return new Node[]{n.left, n.right};
+        if (node instanceof EqualNode n) return new Node[]{n.left, n.right};
+        if (node instanceof LessEqualNode n) return new Node[]{n.left, n.right};
+        if (node instanceof GreaterEqualNode n) return new Node[]{n.left, n.right};
+        if (node instanceof AndNode n) return new Node[]{n.left, n.right};
+        if (node instanceof OrNode n) return new Node[]{n.left, n.right};
+        return null;
+    }
+
+    List<Node> visitAll(final List<Node> expressions) {
+        final List<Node> simplified = new ArrayList<>(expressions.size());
+        for (final Node expression : expressions) simplified.add(visit(expression));
+        return simplified;
+    }
+
+    private void visitDeclarations(final List<? extends DecNode> declarations) {
+        for (final DecNode declaration : declarations) visit(declaration);
+    }
+
+    /**
+     * Fold an arithmetic operator whose operands are integer constants.
+     */
+    private static Node fold(final Node left, final Node right, final BinaryOperator<Integer> operator, final Node original) {
+        return at(new IntNode(operator.apply(value(left), value(right))), original);
+    }
+
+    /* *******************
+     *********************
+     * Main program nodes
+     *********************
+     ******************* */
+
+    @Override
+    public Node visitNode(final ProgLetInNode node) {
+        if (print) printNode(node);
+        visitDeclarations(node.declarations);
+        if (node.isLibrary()) return node;
+        return at(new ProgLetInNode(node.declarations, visit(node.exp), node.externalDeclarations), node);
+    }
+
+    @Override
+    public Node visitNode(final ProgNode node) {
+        if (print) printNode(node);
+        return at(new ProgNode(visit(node.exp)), node);
+    }
+
+    /* *******************
+     *********************
+     * Declarations
+     *********************
+     ******************* */
+
+    @Override
+    public Node visitNode(final FunNode node) {
+        if (print) printNode(node, node.id);
+        visitDeclarations(node.declarations);
+        node.exp = visit(node.exp);
+        return node;
+    }
+
+    @Override
+    public Node visitNode(final VarNode node) {
+        if (print) printNode(node, node.id);
+        node.exp = visit(node.exp);
+        if (isNonNull(node.exp)) nonNullVariables.add(node);
+        return node;
+    }
+
+    @Override
+    public Node visitNode(final ClassNode node) {
+        if (print) printNode(node, node.classId);
+        visitDeclarations(node.methods);
+        return node;
+    }
+
+    @Override
+    public Node visitNode(final MethodNode node) {
+        if (print) printNode(node, node.methodId);
+        visitDeclarations(node.declarations);
+        node.exp = visit(node.exp);
+        return node;
+    }
+
+    /* *******************
+     *********************
+     * Operators
+     *********************
+     ******************* */
+
+    @Override
+    public Node visitNode(final IfNode node) {
+        if (print) printNode(node);
+        final Node condition = visit(node.condition);
+        final Node thenBranch = visit(node.thenBranch);
+        final VarNode compared = comparedWithNull(condition);
+        final boolean guarded = compared != null && nonNullVariables.add(compared);
+        final Node elseBranch = visit(node.elseBranch);
+        if (guarded) nonNullVariables.remove(compared);
+        if (isConstant(condition)) return value(condition) == 1 ? thenBranch : elseBranch;
+        return at(new IfNode(condition, thenBranch, elseBranch), node);
+    }
+
+    @Override
+    public Node visitNode(final NotNode node) {
+        if (print) printNode(node);
+        final Node exp = visit(node.exp);
+        if (isConstant(exp)) return at(new BoolNode(value(exp) == 0), node);
+        if (exp instanceof NotNode not) return not.exp;
+        return at(new NotNode(exp), node);
+    }
+
+    @Override
+    public Node visitNode(final OrNode node) {
+        if (print) printNode(node);
+        final Node left = visit(node.left);
+        final Node right = visit(node.right);
+        if (isBool(left, true)) return left;
+        if (isBool(left, false)) return right;
+        if (isBool(right, false)) return left;
+        if (isBool(right, true) && isPure(left)) return right;
+        return at(new OrNode(left, right), node);
+    }
+
+    @Override
+    public Node visitNode(final AndNode node) {
+        if (print) printNode(node);
+        final Node left = visit(node.left);
+        final Node right = visit(node.right);
+        if (isBool(left, false)) return left;
+        if (isBool(left, true)) return right;
+        if (isBool(right, true)) return left;
+        if (isBool(right, false) && isPure(left)) return right;
+        return at(new AndNode(left, right), node);
+    }
+
+    @Override
+    public Node visitNode(final EqualNode node) {
+        if (print) printNode(node);
+        final Node left = visit(node.left);
+        final Node right = visit(node.right);
+        if (isConstant(left) && isConstant(right)) return at(new BoolNode(value(left) == value(right)), node);
+        if (left instanceof EmptyNode && isNonNull(right) && isPure(right)) return at(new BoolNode(false), node);
+        if (right instanceof EmptyNode && isNonNull(left) && isPure(left)) return at(new BoolNode(false), node);
+        return at(new EqualNode(left, right), node);
+    }
+
+    @Override
+    public Node visitNode(final LessEqualNode node) {
+        if (print) printNode(node);
+        final Node left = visit(node.left);
+        final Node right = visit(node.right);
+        if (isConstant(left) && isConstant(right)) return at(new BoolNode(value(left) <= value(right)), node);
+        return at(new LessEqualNode(left, right), node);
+    }
+
+    @Override
+    public Node visitNode(final GreaterEqualNode node) {
+        if (print) printNode(node);
+        final Node left = visit(node.left);
+        final Node right = visit(node.right);
+        if (isConstant(left) && isConstant(right)) return at(new BoolNode(value(left) >= value(right)), node);
+        return at(new GreaterEqualNode(left, right), node);
+    }
+
+    @Override
+    public Node visitNode(final TimesNode node) {
+        if (print) printNode(node);
+        final Node left = visit(node.left);
+        final Node right = visit(node.right);
+        if (isConstant(left) && isConstant(right)) return fold(left, right, (a, b) -> a * b, node);
+        if (isInt(right, 1)) return left;
+        if (isInt(left, 1)) return right;
+        if (isInt(right, 0) && isPure(left)) return right;
+        if (isInt(left, 0) && isPure(right)) return left;
+        return at(new TimesNode(left, right), node);
+    }
+
+    @Override
+    public Node visitNode(final DivNode node) {
+        if (print) printNode(node);
+        final Node left = visit(node.left);
+        final Node right = visit(node.right);
+        if (isConstant(left) && isConstant(right) && value(right) != 0) return fold(left, right, (a, b) -> a / b, node);
+        if (isInt(right, 1)) return left;
+        return at(new DivNode(left, right), node);
+    }
+
+    @Override
+    public Node visitNode(final PlusNode node) {
+        if (print) printNode(node);
+        final Node left = visit(node.left);
+        final Node right = visit(node.right);
+        if (isConstant(left) && isConstant(right)) return fold(left, right, Integer::sum, node);
+        if (isInt(right, 0)) return left;
+        if (isInt(left, 0)) return right;
+        return at(new PlusNode(left, right), node);
+    }
+
+    @Override
+    public Node visitNode(final MinusNode node) {
+        if (print) printNode(node);
+        final Node left = visit(node.left);
+        final Node right = visit(node.right);
+        if (isConstant(left) && isConstant(right)) return fold(left, right, (a, b) -> a - b, node);
+        if (isInt(right, 0)) return left;
+        return at(new MinusNode(left, right), node);
+    }
+
+    /* *******************
+     *********************
+     * Other expressions
+     *********************
+     ******************* */
+
+    @Override
+    public Node visitNode(final PrintNode node) {
+        if (print) printNode(node);
+        return at(new PrintNode(visit(node.exp)), node);
+    }
+
+    @Override
+    public Node visitNode(final CallNode node) {
+        if (print) printNode(node, node.id);
+        final CallNode call = at(new CallNode(node.id, visitAll(node.arguments)), node);
+        call.entry = node.entry;
+        call.nestingLevel = node.nestingLevel;
+        return call;
+    }
+
+    @Override
+    public Node visitNode(final ClassCallNode node) {
+        if (print) printNode(node, node.objectId + "." + node.methodId);
+        final ClassCallNode call = at(new ClassCallNode(node.objectId, node.methodId, visitAll(node.args)), node);
+        call.entry = node.entry;
+        call.methodEntry = node.methodEntry;
+        call.method = node.method;
+        call.nonNullObject = node.nonNullObject;
+        call.nestingLevel = node.nestingLevel;
+        return call;
+    }
+
+    @Override
+    public Node visitNode(final NewNode node) {
+        if (print) printNode(node, node.classId);
+        final NewNode instance = at(new NewNode(node.classId, visitAll(node.args)), node);
+        instance.entry = node.entry;
+        return instance;
+    }
+
+    @Override
+    public Node visitNode(final IdNode node) {
+        if (print) printNode(node, node.id);
+        return node;
+    }
+
+    @Override
+    public Node visitNode(final BoolNode node) {
+        if (print) printNode(node, String.valueOf(node.value));
+        return node;
+    }
+
+    @Override
+    public Node visitNode(final IntNode node) {
+        if (print) printNode(node, String.valueOf(node.value));
+        return node;
+    }
+
+    @Override
+    public Node visitNode(final EmptyNode node) {
+        if (print) printNode(node);
+        return node;
+    }
+
+}
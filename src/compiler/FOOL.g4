@@ -14,6 +14,8 @@ progbody : LET ( cldec+ dec* | dec+ ) IN exp SEMIC #letInProg
          | exp SEMIC                               #noDecProg
          ;
 
+lib : ( cldec+ dec* | dec+ ) EOF ;
+
 cldec  : CLASS ID (EXTENDS ID)?
               LPAR (ID COLON type (COMMA ID COLON type)* )? RPAR
               CLPAR
@@ -0,0 +1,174 @@
+package compiler;
+
+import compiler.AST.ProgLetInNode;
+import compiler.AST.ProgNode;
+import compiler.exc.CompilationException;
+import compiler.exc.IncomplException;
+import compiler.exc.TypeException;
+import compiler.lib.DecNode;
+import compiler.lib.Node;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import svm.CodeBuffer;
+import svm.Linker;
+import svm.ObjectFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static compiler.CodeGenerationASTVisitor.Instructions.PUSH;
+
+/**
+ * The compiler of FOOL programs and libraries.
+ * <p>
+ * A library is a list of class and function declarations without a main expression.
+ * It is compiled once into a relocatable unit that exports the methods of its classes,
+ * and linked into the programs that use it with the {@link Linker}.
+ * <p>
+ * A unit is compiled against the sources of the libraries it uses, that are type checked
+ * with it to know their declarations: a library must be compiled against all the libraries
+ * linked before it, in the same order, so that all the units agree on the layout of the
+ * global frame.
+ */
+public final class FOOLCompiler {
+
+    private FOOLCompiler() {
+    }
+
+    /**
+     * Compile a standalone program, that finds the frames of the enclosing functions with a display.
+     *
+     * @param program the source of the program
+     * @return the code of the program
+     * @throws CompilationException if the program has front-end errors
+     */
+    public static CodeBuffer compile(final CharStream program) throws CompilationException {
+        final CompilationContext context = new CompilationContext();
+        return new CodeGenerationASTVisitor(context, false, false, true)
+                .visit(check(parseProgram(program, List.of()), context));
+    }
+
+    /**
+     * Compile a library into a relocatable unit.
+     *
+     * @param library      the source of the library
+     * @param dependencies the sources of the libraries linked before it, in link order
+     * @return the unit of the library
+     * @throws CompilationException if the library has front-end errors
+     */
+    public static ObjectFile compileLibrary(final CharStream library, final List<CharStream> dependencies)
+            throws CompilationException {
+        final Errors errors = new Errors();
+        final List<DecNode> declarations = parseLibraries(dependencies, errors);
+        final int externalDeclarations = declarations.size();
+        declarations.addAll(parseLibrary(library, errors));
+        errors.check();
+        final CompilationContext context = new CompilationContext();
+        final CodeGenerationASTVisitor generator = new CodeGenerationASTVisitor(context, false, true);
+        final CodeBuffer code = generator.visit(check(new ProgLetInNode(declarations, null, externalDeclarations), context));
+        return ObjectFile.of(code, generator.getExports());
+    }
+
+    /**
+     * Compile a program that uses libraries into a relocatable unit.
+     *
+     * @param program   the source of the program
+     * @param libraries the sources of the libraries, in link order
+     * @return the unit of the program
+     * @throws CompilationException if the program has front-end errors
+     */
+    public static ObjectFile compileProgram(final CharStream program, final List<CharStream> libraries)
+            throws CompilationException {
+        final CompilationContext context = new CompilationContext();
+        final CodeBuffer code = new CodeGenerationASTVisitor(context, false, true)
+                .visit(check(parseProgram(program, libraries), context));
+        return ObjectFile.of(code, List.of());
+    }
+
+    /**
+     * Link a program with the libraries it was compiled against.
+     *
+     * @param libraries the units of the libraries, in link order
+     * @param program   the unit of the program
+     * @return the executable program
+     * @throws svm.exc.LinkException if a symbol is not defined or defined twice
+     */
+    public static ObjectFile link(final List<ObjectFile> libraries, final ObjectFile program) {
+        final List<ObjectFile> units = new ArrayList<>();
+        units.add(ObjectFile.of(new CodeBuffer().emit(PUSH, 0))); // Fake return address for the main
+        units.addAll(libraries);
+        units.add(program);
+        return Linker.link(units);
+    }
+
+    private static Node parseProgram(final CharStream program, final List<CharStream> libraries)
+            throws CompilationException {
+        final Errors errors = new Errors();
+        final List<DecNode> declarations = parseLibraries(libraries, errors);
+        final FOOLLexer lexer = new FOOLLexer(program);
+        final FOOLParser parser = new FOOLParser(new CommonTokenStream(lexer));
+        final FOOLParser.ProgContext st = parser.prog();
+        errors.add(lexer, parser);
+        errors.check();
+        final Node ast = new ASTGenerationSTVisitor().visit(st);
+        if (libraries.isEmpty()) return ast;
+
+        final int externalDeclarations = declarations.size();
+        if (ast instanceof ProgLetInNode letIn) {
+            declarations.addAll(letIn.declarations);
+            return new ProgLetInNode(declarations, letIn.exp, externalDeclarations);
+        }
+        return new ProgLetInNode(declarations, ((ProgNode) ast).exp, externalDeclarations);
+    }
+
+    private static List<DecNode> parseLibraries(final List<CharStream> libraries, final Errors errors) {
+        final List<DecNode> declarations = new ArrayList<>();
+        for (final CharStream library : libraries) declarations.addAll(parseLibrary(library, errors));
+        return declarations;
+    }
+
+    private static List<DecNode> parseLibrary(final CharStream library, final Errors errors) {
+        final FOOLLexer lexer = new FOOLLexer(library);
+        final FOOLParser parser = new FOOLParser(new CommonTokenStream(lexer));
+        final FOOLParser.LibContext st = parser.lib();
+        errors.add(lexer, parser);
+        if (parser.getNumberOfSyntaxErrors() > 0) return List.of();
+        return ((ProgLetInNode) new ASTGenerationSTVisitor().visit(st)).declarations;
+    }
+
+    /**
+     * Enrich the AST, check its types, inline the small calls and simplify its expressions.
+     *
+     * @param context the compilation, that counts the type errors
+     * @return the enriched AST
+     */
+    private static Node check(final Node ast, final CompilationContext context) throws CompilationException {
+        final SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor();
+        symtableVisitor.visit(ast);
+        if (symtableVisitor.stErrors > 0) throw new CompilationException(symtableVisitor.stErrors);
+
+        try {
+            new TypeCheckEASTVisitor(context).visit(ast);
+        } catch (IncomplException | TypeException e) {
+            // the errors are counted in the context
+        }
+        if (context.getTypeErrors() > 0) throw new CompilationException(context.getTypeErrors());
+        return new InliningEASTVisitor().visit(ast);
+    }
+
+    /**
+     * The lexical and syntax errors of the sources of a unit.
+     */
+    private static final class Errors {
+        private int count = 0;
+
+        void add(final FOOLLexer lexer, final FOOLParser parser) {
+            count += lexer.lexicalErrors + parser.getNumberOfSyntaxErrors();
+        }
+
+        void check() throws CompilationException {
+            if (count > 0) throw new CompilationException(count);
+        }
+    }
+
+}
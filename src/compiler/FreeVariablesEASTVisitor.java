@@ -0,0 +1,313 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.VoidException;
+import compiler.lib.BaseEASTVisitor;
+import compiler.lib.DecNode;
+import compiler.lib.Node;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class implements a visitor that finds the free variables of the functions: the entries
+ * declared in the frames of the enclosing functions (or methods) that their bodies, or the bodies
+ * of the functions nested in them, use.
+ * <p>
+ * A function that captures nothing is lifted to the global level: it does not need the frames of
+ * the enclosing functions, so it is called with its label, without computing its Access Link.
+ * A call to a lifted function does not capture the frame where the function is declared.
+ * The globals are captured only if they are accessed by following the static chain.
+ * <p>
+ * With a display, the frame of a function is found with the display by the functions nested in it
+ * that use it, unless they are declared in it and follow their Access Link, that they have if their
+ * own frames are not in the display.
+ * <p>
+ * The functions of the libraries that a program uses are not lifted, since their code belongs
+ * to another unit.
+ */
+public class FreeVariablesEASTVisitor extends BaseEASTVisitor<Void, VoidException> {
+
+    /**
+     * @param entry        the entry used
+     * @param nestingLevel the nesting level of the code that uses it
+     * @param function     the innermost function whose body uses it
+     */
+    private record Reference(STentry entry, int nestingLevel, FunNode function) {
+    }
+
+    /**
+     * If true the frames are found with a display and the globals are accessed
+     * at fixed addresses, so they are not captured.
+     */
+    private final boolean display;
+
+    /**
+     * The nesting level of the bodies of the functions, and the entries used in them
+     * and in the functions nested in them.
+     */
+    private final Map<FunNode, Integer> levels = new IdentityHashMap<>();
+    private final Map<FunNode, List<Reference>> references = new IdentityHashMap<>();
+
+    private final Set<FunNode> lifted = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<FunNode> displayed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * The functions whose bodies are being visited, the innermost first.
+     */
+    private final Deque<FunNode> enclosing = new ArrayDeque<>();
+    private int nestingLevel = 0;
+
+    /**
+     * @param display true if the frames are found with a display
+     */
+    FreeVariablesEASTVisitor(final boolean display) {
+        super(false);
+        this.display = display;
+    }
+
+    /**
+     * @return true if the function captures nothing, so it is called without its Access Link
+     */
+    boolean isLifted(final FunNode function) {
+        return lifted.contains(function);
+    }
+
+    /**
+     * @return true if the functions nested in the function find its frame with the display
+     */
+    boolean isDisplayed(final FunNode function) {
+        return displayed.contains(function);
+    }
+
+    /**
+     * @return true if the reference from a function, at the given nesting level, needs the frame
+     * declaring the entry, that is not the frame of the function or of a function nested in it
+     */
+    private boolean needsFrame(final Reference reference, final int level) {
+        final STentry entry = reference.entry();
+        if (entry.nl >= level || display && entry.nl == 0 && !entry.isField) return false;
+        return !isLiftedCall(entry);
+    }
+
+    private boolean isLiftedCall(final STentry entry) {
+        return entry.declaration instanceof FunNode function && lifted.contains(function);
+    }
+
+    /**
+     * @return true if the reference finds with the display the frame of a function at the given level
+     */
+    private boolean usesDisplay(final Reference reference, final int level) {
+        if (reference.nestingLevel() <= level || reference.entry().nl != level || isLiftedCall(reference.entry())) {
+            return false;
+        }
+        // a function declared in the frame reaches it with its Access Link
+        return reference.nestingLevel() > level + 1 || displayed.contains(reference.function());
+    }
+
+    @Override
+    public Void visitNode(final ProgLetInNode node) {
+        for (int i = node.externalDeclarations; i < node.declarations.size(); i++) {
+            visit(node.declarations.get(i));
+        }
+        if (node.exp != null) visit(node.exp);
+
+        // All the functions are lifted until they are found to capture an entry
+        lifted.addAll(levels.keySet());
+        boolean changed = true;
+        while (changed) {
+            changed = lifted.removeIf(function -> references.get(function).stream()
+                    .anyMatch(reference -> needsFrame(reference, levels.get(function))));
+        }
+        if (!display) return null;
+
+        // The nested functions are decided first, to know which ones follow their Access Link
+        final List<FunNode> functions = new ArrayList<>(levels.keySet());
+        functions.sort((first, second) -> levels.get(second) - levels.get(first));
+        for (final FunNode function : functions) {
+            final int level = levels.get(function);
+            if (references.get(function).stream().anyMatch(reference -> usesDisplay(reference, level))) {
+                displayed.add(function);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final ProgNode node) {
+        return null; // no declarations
+    }
+
+    private void visitBody(final List<? extends DecNode> declarations, final Node exp) {
+        nestingLevel++;
+        declarations.forEach(this::visit);
+        visit(exp);
+        nestingLevel--;
+    }
+
+    private void use(final STentry entry, final int nestingLevel) {
+        final Reference reference = new Reference(entry, nestingLevel, enclosing.peek());
+        for (final FunNode function : enclosing) references.get(function).add(reference);
+    }
+
+    @Override
+    public Void visitNode(final FunNode node) {
+        levels.put(node, nestingLevel + 1);
+        references.put(node, new ArrayList<>());
+        enclosing.push(node);
+        visitBody(node.declarations, node.exp);
+        enclosing.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final VarNode node) {
+        visit(node.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final ClassNode node) {
+        nestingLevel++;
+        node.methods.forEach(this::visit);
+        nestingLevel--;
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final MethodNode node) {
+        visitBody(node.declarations, node.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final PrintNode node) {
+        visit(node.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final IfNode node) {
+        visit(node.condition);
+        visit(node.thenBranch);
+        visit(node.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final EqualNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final TimesNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final PlusNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final DivNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final MinusNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final GreaterEqualNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final LessEqualNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final NotNode node) {
+        visit(node.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final OrNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final AndNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final CallNode node) {
+        use(node.entry, node.nestingLevel);
+        node.arguments.forEach(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final IdNode node) {
+        use(node.entry, node.nestingLevel);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final BoolNode node) {
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final IntNode node) {
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final ClassCallNode node) {
+        use(node.entry, node.nestingLevel);
+        node.args.forEach(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final NewNode node) {
+        node.args.forEach(this::visit); // the dispatch table is at a fixed address
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final EmptyNode node) {
+        return null;
+    }
+
+}
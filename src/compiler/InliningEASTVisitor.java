@@ -0,0 +1,416 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.DecNode;
+import compiler.lib.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * This class implements a visitor that replaces the calls of small functions and methods
+ * with their bodies, while it simplifies the expressions of the E-AST like
+ * {@link ConstantFoldingEASTVisitor}.
+ * <p>
+ * A call is inlined if the body of the callee has no local declarations, has at most
+ * {@link #MAX_SIZE} nodes and does not call the callee itself. A method is inlined only if
+ * the object is a variable initialized with a new object, so its class is known, and the
+ * fields that the body reads were initialized with constants or variables.
+ * The functions and methods of the libraries that a program uses are not inlined, since their
+ * code belongs to another unit.
+ * <p>
+ * The parameters are replaced by the arguments. The evaluation of the arguments is not
+ * changed: an argument with effects must be the only one, and the body must evaluate its
+ * parameter exactly once, before any other effect. A pure argument is copied in each use
+ * of its parameter only if it is a constant or a variable.
+ * <p>
+ * The body keeps the entries of the callee, but it is moved to the nesting level of the call:
+ * the static chain from there reaches the same frames, since the call is in the scope of the callee.
+ * <p>
+ * A method call is bound at compile time, with a class hierarchy analysis, if no subclass of the
+ * class of the object overrides the method: all the classes are declared in the program and in the
+ * libraries it uses, but the classes of a library can be extended by other units. The method is
+ * then called directly, without the dispatch table, or inlined if its body does not use the object
+ * and the object cannot be null: the call of a method on null fails.
+ * The methods of the libraries are always called through the dispatch table.
+ */
+public class InliningEASTVisitor extends ConstantFoldingEASTVisitor {
+
+    /**
+     * The maximum number of nodes of an inlined body.
+     */
+    static final int MAX_SIZE = 16;
+
+    private final Map<String, List<MethodNode>> dispatchTables = new HashMap<>();
+    private final Map<String, ClassNode> classes = new HashMap<>();
+
+    /**
+     * True if the visited unit is a library, whose classes can be extended by other units.
+     */
+    private boolean library = false;
+
+    /**
+     * The functions and methods whose body is being visited, that are not inlined in it.
+     */
+    private final Set<DecNode> expanding = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * The functions and methods declared by the libraries of the program.
+     */
+    private final Set<DecNode> external = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * The inlined body being visited, null outside inlined bodies.
+     */
+    private Substitution substitution;
+
+    /**
+     * @param arguments    the arguments of the call, for the declarations of the parameters
+     * @param fields       the initial values of the fields of the object, null for a function
+     * @param nestingLevel the nesting level of the call
+     * @param outer        the inlined body that contains the call
+     */
+    private record Substitution(Map<DecNode, Node> arguments, List<Node> fields, int nestingLevel, Substitution outer) {
+    }
+
+    public InliningEASTVisitor() {
+        this(false);
+    }
+
+    public InliningEASTVisitor(boolean debug) {
+        super(debug);
+    }
+
+    /**
+     * @return the nesting level at which a node of the visited body is generated
+     */
+    private int nestingLevel(final int nestingLevel) {
+        return substitution == null ? nestingLevel : substitution.nestingLevel;
+    }
+
+    private static boolean isTrivial(final Node node) {
+        return node instanceof IntNode || node instanceof BoolNode || node instanceof EmptyNode || node instanceof IdNode;
+    }
+
+    /**
+     * @return the subexpressions of an expression, in the order they are evaluated
+     */
+    private static List<Node> children(final Node node) {
+        if (node instanceof IfNode n) return List.of(n.condition, n.thenBranch, n.elseBranch);
+        if (node instanceof NotNode n) return List.of(n.exp);
+        if (node instanceof PrintNode n) return List.of(n.exp);
+        if (node instanceof OrNode n) return List.of(n.left, n.right);
+        if (node instanceof AndNode n) return List.of(n.left, n.right);
+        if (node instanceof EqualNode n) return List.of(n.left, n.right);
+        if (node instanceof LessEqualNode n) return List.of(n.left, n.right);
+        if (node instanceof GreaterEqualNode n) return List.of(n.left, n.right);
+        if (node instanceof TimesNode n) return List.of(n.left, n.right);
+        if (node instanceof DivNode n) return List.of(n.left, n.right);
+        if (node instanceof PlusNode n) return List.of(n.left, n.right);
+        if (node instanceof MinusNode n) return List.of(n.left, n.right);
+        if (node instanceof NewNode n) return n.args;
+        if (node instanceof CallNode n) return reversed(n.arguments); // the arguments are pushed from the last
+        if (node instanceof ClassCallNode n) return reversed(n.args);
+        return List.of();
+    }
+
+    private static List<Node> reversed(final List<Node> nodes) {
+        final List<Node> reversed = new ArrayList<>(nodes);
+        Collections.reverse(reversed);
+        return reversed;
+    }
+
+    private static int size(final Node node) {
+        int size = 1;
+        for (final Node child : children(node)) size += size(child);
+        return size;
+    }
+
+    /**
+     * @return the maximum number of times that an execution of the expression reads the parameter
+     */
+    private static int uses(final Node node, final DecNode parameter) {
+        if (node instanceof IdNode id) return id.entry.declaration == parameter ? 1 : 0;
+        if (node instanceof IfNode n) {
+            return uses(n.condition, parameter) + Math.max(uses(n.thenBranch, parameter), uses(n.elseBranch, parameter));
+        }
+        int uses = node instanceof ClassCallNode call && call.entry.declaration == parameter ? 1 : 0;
+        for (final Node child : children(node)) uses += uses(child, parameter);
+        return uses;
+    }
+
+    /**
+     * @return true if every execution of the expression reads the parameter before any effect,
+     * false if an effect or a branch comes first, null if the expression has no effects and
+     * does not read the parameter
+     */
+    private static Boolean readFirst(final Node node, final DecNode parameter) {
+        if (node instanceof IdNode id) return id.entry.declaration == parameter ? true : null;
+        if (node instanceof IfNode n) {
+            final Boolean condition = readFirst(n.condition, parameter);
+            if (condition != null) return condition;
+            final Boolean thenBranch = readFirst(n.thenBranch, parameter);
+            return thenBranch == readFirst(n.elseBranch, parameter) ? thenBranch : Boolean.FALSE;
+        }
+        if (node instanceof OrNode || node instanceof AndNode) {
+            final List<Node> operands = children(node);
+            final Boolean left = readFirst(operands.get(0), parameter);
+            if (left != null) return left;
+            return readFirst(operands.get(1), parameter) == null ? null : Boolean.FALSE;
+        }
+        for (final Node child : children(node)) {
+            final Boolean first = readFirst(child, parameter);
+            if (first != null) return first;
+        }
+        if (node instanceof ClassCallNode call && call.entry.declaration == parameter) return true;
+        return isPure(node) ? null : Boolean.FALSE;
+    }
+
+    /**
+     * @return true if the parameters and the fields that the body uses can be replaced,
+     * and the body does not call the callee or, in a method, the methods of the object
+     */
+    private static boolean isSubstitutable(final Node node, final DecNode callee, final Map<DecNode, Node> arguments,
+                                           final List<Node> fields) {
+        if (node instanceof CallNode call) {
+            if (call.entry.declaration == callee) return false;
+            if (fields != null && call.entry.type instanceof MethodTypeNode) return false;
+        }
+        if (node instanceof IdNode id && fields != null && id.entry.isField) {
+            if (!isTrivial(fields.get(-id.entry.offset - 1))) return false;
+        }
+        if (node instanceof ClassCallNode call) {
+            final Node object = fields != null && call.entry.isField
+                    ? fields.get(-call.entry.offset - 1)
+                    : arguments.get(call.entry.declaration);
+            if (object != null && !(object instanceof IdNode)) return false;
+        }
+        for (final Node child : children(node)) {
+            if (!isSubstitutable(child, callee, arguments, fields)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Inline a call, if the body of the callee can replace it.
+     *
+     * @param arguments    the simplified arguments of the call
+     * @param fields       the initial values of the fields of the object, null for a function
+     * @param nestingLevel the nesting level of the call
+     * @return the body with the arguments in place of the parameters, or null if the call is not inlined
+     */
+    private Node inline(final DecNode callee, final List<ParNode> parameters, final List<DecNode> declarations,
+                        final Node body, final List<Node> arguments, final List<Node> fields, final int nestingLevel) {
+        if (!declarations.isEmpty() || expanding.contains(callee) || external.contains(callee)
+                || size(body) > MAX_SIZE) return null;
+
+        final Map<DecNode, Node> substitutes = new IdentityHashMap<>();
+        boolean effects = false;
+        for (int i = 0; i < parameters.size(); i++) {
+            final ParNode parameter = parameters.get(i);
+            final Node argument = arguments.get(i);
+            final int uses = uses(body, parameter);
+            if (isPure(argument)) {
+                if (uses > 1 && !isTrivial(argument)) return null;
+            } else {
+                // the only argument with effects, evaluated once before the effects of the body
+                if (effects || uses != 1 || readFirst(body, parameter) != Boolean.TRUE) return null;
+                effects = true;
+            }
+            substitutes.put(parameter, argument);
+        }
+        if (!isSubstitutable(body, callee, substitutes, fields)) return null;
+
+        substitution = new Substitution(substitutes, fields, nestingLevel, substitution);
+        expanding.add(callee);
+        try {
+            return visit(body);
+        } finally {
+            expanding.remove(callee);
+            substitution = substitution.outer;
+        }
+    }
+
+    /**
+     * @return the method called on an object of the class, if no subclass overrides it and it is
+     * not a method of a library, that the program does not import; null otherwise
+     */
+    private MethodNode staticTarget(final String classId, final int offset) {
+        if (library) return null;
+        final MethodNode method = dispatchTables.get(classId).get(offset);
+        if (external.contains(method)) return null;
+        for (final ClassNode subclass : classes.values()) {
+            if (isSubclass(subclass, classId) && dispatchTables.get(subclass.classId).get(offset) != method) return null;
+        }
+        return method;
+    }
+
+    private boolean isSubclass(final ClassNode node, final String classId) {
+        Optional<String> type = node.superId;
+        while (type.isPresent()) {
+            if (type.get().equals(classId)) return true;
+            type = classes.get(type.get()).superId;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the body of a method reads a field or calls a method of the object
+     */
+    private static boolean usesObject(final Node node) {
+        if (node instanceof IdNode id && id.entry.isField) return true;
+        if (node instanceof CallNode call && call.entry.type instanceof MethodTypeNode) return true;
+        if (node instanceof ClassCallNode call && call.entry.isField) return true;
+        for (final Node child : children(node)) {
+            if (usesObject(child)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the variable moved to the nesting level of the visited body
+     */
+    private IdNode relocate(final IdNode node) {
+        final IdNode id = at(new IdNode(node.id), node);
+        id.entry = node.entry;
+        id.nestingLevel = nestingLevel(node.nestingLevel);
+        return id;
+    }
+
+    /* *******************
+     *********************
+     * Main program nodes
+     *********************
+     ******************* */
+
+    @Override
+    public Node visitNode(final ProgLetInNode node) {
+        library = node.isLibrary();
+        for (int i = 0; i < node.declarations.size(); i++) {
+            final DecNode declaration = node.declarations.get(i);
+            if (declaration instanceof ClassNode classNode) {
+                // the whole hierarchy is known before the bodies are visited
+                buildDispatchTable(classNode);
+                if (i < node.externalDeclarations) external.addAll(classNode.methods);
+            }
+            if (i < node.externalDeclarations) external.add(declaration);
+        }
+        return super.visitNode(node);
+    }
+
+    /* *******************
+     *********************
+     * Declarations
+     *********************
+     ******************* */
+
+    @Override
+    public Node visitNode(final FunNode node) {
+        expanding.add(node);
+        try {
+            return super.visitNode(node);
+        } finally {
+            expanding.remove(node);
+        }
+    }
+
+    private void buildDispatchTable(final ClassNode node) {
+        final List<MethodNode> dispatchTable = new ArrayList<>(
+                node.superId.map(dispatchTables::get).orElse(List.of()));
+        for (final MethodNode method : node.methods) {
+            if (method.offset < dispatchTable.size()) {
+                dispatchTable.set(method.offset, method);
+            } else {
+                dispatchTable.add(method);
+            }
+        }
+        dispatchTables.put(node.classId, dispatchTable);
+        classes.put(node.classId, node);
+    }
+
+    @Override
+    public Node visitNode(final MethodNode node) {
+        expanding.add(node);
+        try {
+            return super.visitNode(node);
+        } finally {
+            expanding.remove(node);
+        }
+    }
+
+    /* *******************
+     *********************
+     * Calls and variables
+     *********************
+     ******************* */
+
+    @Override
+    public Node visitNode(final CallNode node) {
+        if (print) printNode(node, node.id);
+        final List<Node> arguments = visitAll(node.arguments);
+        final int nestingLevel = nestingLevel(node.nestingLevel);
+        if (node.entry.declaration instanceof FunNode function) {
+            final Node inlined = inline(function, function.parameters, function.declarations, function.exp,
+                    arguments, null, nestingLevel);
+            if (inlined != null) return inlined;
+        }
+        final CallNode call = at(new CallNode(node.id, arguments), node);
+        call.entry = node.entry;
+        call.nestingLevel = nestingLevel;
+        return call;
+    }
+
+    @Override
+    public Node visitNode(final ClassCallNode node) {
+        if (print) printNode(node, node.objectId + "." + node.methodId);
+        final List<Node> arguments = visitAll(node.args);
+
+        final IdNode reference = at(new IdNode(node.objectId), node);
+        reference.entry = node.entry;
+        reference.nestingLevel = node.nestingLevel;
+        final IdNode object = (IdNode) visit(reference); // the object, in the frames of the visited body
+
+        if (object.entry.declaration instanceof VarNode variable && variable.exp instanceof NewNode instance) {
+            final MethodNode method = dispatchTables.get(instance.classId).get(node.methodEntry.offset);
+            final Node inlined = inline(method, method.parameters, method.declarations, method.exp,
+                    arguments, instance.args, object.nestingLevel);
+            if (inlined != null) return inlined;
+        }
+        final MethodNode method = object.entry.type instanceof RefTypeNode type
+                ? staticTarget(type.typeId, node.methodEntry.offset)
+                : null;
+        // the inlined body would not fail on null, like the call does
+        if (method != null && isNonNull(object) && !usesObject(method.exp)) {
+            final Node inlined = inline(method, method.parameters, method.declarations, method.exp,
+                    arguments, null, object.nestingLevel);
+            if (inlined != null) return inlined;
+        }
+        final ClassCallNode call = at(new ClassCallNode(object.id, node.methodId, arguments), node);
+        call.entry = object.entry;
+        call.methodEntry = node.methodEntry;
+        call.method = method;
+        call.nonNullObject = isNonNull(object);
+        call.nestingLevel = object.nestingLevel;
+        return call;
+    }
+
+    @Override
+    public Node visitNode(final IdNode node) {
+        if (substitution == null) return super.visitNode(node);
+        if (print) printNode(node, node.id);
+        final Node argument = substitution.arguments.get(node.entry.declaration);
+        if (argument != null) return argument;
+        if (substitution.fields != null && node.entry.isField) {
+            final Node value = substitution.fields.get(-node.entry.offset - 1);
+            return value instanceof IdNode id ? relocate(id) : value;
+        }
+        return relocate(node);
+    }
+
+}
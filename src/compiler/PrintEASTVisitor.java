@@ -18,7 +18,7 @@ public class PrintEASTVisitor extends BaseEASTVisitor<Void, VoidException> {
     public Void visitNode(final ProgLetInNode node) {
         printNode(node);
         node.declarations.forEach(this::visit);
-        visit(node.exp);
+        if (!node.isLibrary()) visit(node.exp);
         return null;
     }
 
@@ -0,0 +1,360 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.VoidException;
+import compiler.lib.BaseEASTVisitor;
+import compiler.lib.DecNode;
+import compiler.lib.Node;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * This class implements a visitor that finds the functions, classes and methods
+ * that can be executed by the program, with a rapid type analysis of the whole program.
+ * <p>
+ * The analysis starts from the main expression and from the initializers of the global
+ * variables. A function is live if a live body calls it (or uses it as a value), a class
+ * is live if a live body instantiates it, and a method is live if it is in the dispatch
+ * table of a live class at an offset called on a supertype of that class.
+ * The code of the dead declarations is not generated.
+ * <p>
+ * A variable is used if a live body refers to it. The initializer of an unused variable
+ * is not evaluated if it has no effects, so it does not make other declarations live.
+ * <p>
+ * The declarations of a library, that other units can use, and the external declarations
+ * of the libraries a program uses are always live.
+ */
+public class ReachabilityEASTVisitor extends BaseEASTVisitor<Void, VoidException> {
+
+    private final Set<DecNode> live = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<String, ClassNode> classes = new HashMap<>();
+    private final Map<String, List<MethodNode>> dispatchTables = new HashMap<>();
+    private final Map<MethodNode, String> declaringClasses = new IdentityHashMap<>();
+
+    /* Le funzioni annidate in un metodo chiamano i metodi della stessa classe */
+    private final Map<DecNode, String> enclosingClasses = new IdentityHashMap<>();
+
+    /* Per ogni offset di metodo, le classi statiche dei chiamanti */
+    private final Map<Integer, Set<String>> calledMethods = new HashMap<>();
+    private final Set<String> liveClasses = new HashSet<>();
+    private final Deque<DecNode> worklist = new ArrayDeque<>();
+    private final Set<VarNode> usedVariables = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean analyzed = false;
+    private boolean library = false;
+
+    /**
+     * The class of the method whose body is being visited, the target of its calls to methods.
+     */
+    private String currentClass;
+
+    ReachabilityEASTVisitor() {
+        super(false);
+    }
+
+    /**
+     * @param declaration a function, class or method declaration
+     * @return true if the code of the declaration can be executed;
+     * every declaration is live if the program was not analyzed
+     */
+    boolean isLive(final DecNode declaration) {
+        return !analyzed || live.contains(declaration);
+    }
+
+    /**
+     * @param variable a variable declaration
+     * @return true if the initializer of the variable must be evaluated, because the variable
+     * is used or the initializer has effects; every variable of a library is needed
+     */
+    boolean isNeeded(final VarNode variable) {
+        return !analyzed || library || usedVariables.contains(variable) || !ConstantFoldingEASTVisitor.isPure(variable.exp);
+    }
+
+    private void use(final VarNode variable) {
+        // a pure initializer is visited only once the variable is used
+        if (usedVariables.add(variable) && ConstantFoldingEASTVisitor.isPure(variable.exp)) visit(variable.exp);
+    }
+
+    @Override
+    public Void visitNode(final ProgLetInNode node) {
+        analyzed = true;
+        library = node.isLibrary();
+        for (int i = 0; i < node.declarations.size(); i++) {
+            final DecNode declaration = node.declarations.get(i);
+            if (declaration instanceof ClassNode classNode) {
+                classes.put(classNode.classId, classNode);
+                buildDispatchTable(classNode);
+            }
+            if (node.isLibrary() || i < node.externalDeclarations) markAll(declaration);
+        }
+        currentClass = null;
+        for (final DecNode declaration : node.declarations) {
+            if (declaration instanceof VarNode) visit(declaration);
+        }
+        if (!node.isLibrary()) visit(node.exp);
+
+        boolean changed = true;
+        while (changed) {
+            while (!worklist.isEmpty()) {
+                final DecNode body = worklist.pop();
+                currentClass = body instanceof MethodNode method ? declaringClasses.get(method) : enclosingClasses.get(body);
+                visitBody(body);
+            }
+            changed = resolveMethods();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final ProgNode node) {
+        return null; // no declarations
+    }
+
+    private void visitBody(final DecNode body) {
+        final List<DecNode> declarations;
+        final Node exp;
+        if (body instanceof FunNode function) {
+            declarations = function.declarations;
+            exp = function.exp;
+        } else {
+            final MethodNode method = (MethodNode) body;
+            declarations = method.declarations;
+            exp = method.exp;
+        }
+        for (final DecNode declaration : declarations) {
+            if (declaration instanceof FunNode) enclosingClasses.put(declaration, currentClass);
+            if (declaration instanceof VarNode) visit(declaration);
+        }
+        visit(exp);
+    }
+
+    private void buildDispatchTable(final ClassNode node) {
+        final List<MethodNode> dispatchTable = new ArrayList<>(
+                node.superId.map(dispatchTables::get).orElse(List.of()));
+        for (final MethodNode method : node.methods) {
+            declaringClasses.put(method, node.classId);
+            if (method.offset < dispatchTable.size()) {
+                dispatchTable.set(method.offset, method);
+            } else {
+                dispatchTable.add(method);
+            }
+        }
+        dispatchTables.put(node.classId, dispatchTable);
+    }
+
+    /**
+     * Mark a declaration of a library as live, with all its methods and nested functions.
+     * The code of the library can call all the methods of its classes,
+     * also the ones overridden by the subclasses of other units.
+     */
+    private void markAll(final DecNode declaration) {
+        if (declaration instanceof ClassNode classNode) {
+            liveClasses.add(classNode.classId);
+            live.add(classNode);
+            for (int offset = 0; offset < dispatchTables.get(classNode.classId).size(); offset++) {
+                call(classNode.classId, offset);
+            }
+            classNode.methods.forEach(method -> {
+                live.add(method);
+                method.declarations.forEach(this::markAll);
+            });
+        } else if (declaration instanceof FunNode function) {
+            live.add(function);
+            function.declarations.forEach(this::markAll);
+        }
+    }
+
+    private void markLive(final DecNode declaration) {
+        if (live.add(declaration)) worklist.push(declaration);
+    }
+
+    /**
+     * Mark the methods that the calls reach in the live classes.
+     *
+     * @return true if a method became live
+     */
+    private boolean resolveMethods() {
+        boolean changed = false;
+        for (final String classId : liveClasses) {
+            final List<MethodNode> dispatchTable = dispatchTables.get(classId);
+            for (int offset = 0; offset < dispatchTable.size(); offset++) {
+                final MethodNode method = dispatchTable.get(offset);
+                if (!live.contains(method) && isCalled(classId, offset)) {
+                    markLive(method);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return true if a method at the offset is called on the class or on one of its superclasses
+     */
+    private boolean isCalled(final String classId, final int offset) {
+        final Set<String> callers = calledMethods.getOrDefault(offset, Set.of());
+        Optional<String> type = Optional.of(classId);
+        while (type.isPresent()) {
+            if (callers.contains(type.get())) return true;
+            type = type.map(classes::get).flatMap(classNode -> classNode.superId);
+        }
+        return false;
+    }
+
+    private void call(final String classId, final int offset) {
+        calledMethods.computeIfAbsent(offset, o -> new HashSet<>()).add(classId);
+    }
+
+    @Override
+    public Void visitNode(final FunNode node) {
+        return null; // visited when called
+    }
+
+    @Override
+    public Void visitNode(final VarNode node) {
+        if (!ConstantFoldingEASTVisitor.isPure(node.exp)) visit(node.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final PrintNode node) {
+        visit(node.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final IfNode node) {
+        visit(node.condition);
+        visit(node.thenBranch);
+        visit(node.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final EqualNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final TimesNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final PlusNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final DivNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final MinusNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final GreaterEqualNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final LessEqualNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final NotNode node) {
+        visit(node.exp);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final OrNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final AndNode node) {
+        visit(node.left);
+        visit(node.right);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final CallNode node) {
+        if (node.entry.type instanceof MethodTypeNode) {
+            call(currentClass, node.entry.offset);
+        } else if (node.entry.declaration instanceof FunNode function) {
+            markLive(function);
+        }
+        node.arguments.forEach(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final IdNode node) {
+        if (node.entry.declaration instanceof VarNode variable) use(variable);
+        // a function used as a value can be called anywhere
+        if (node.entry.declaration instanceof FunNode function) markLive(function);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final BoolNode node) {
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final IntNode node) {
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final ClassCallNode node) {
+        if (node.entry.declaration instanceof VarNode variable) use(variable);
+        call(((RefTypeNode) node.entry.type).typeId, node.methodEntry.offset);
+        node.args.forEach(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final NewNode node) {
+        if (liveClasses.add(node.classId)) live.add(classes.get(node.classId));
+        node.args.forEach(this::visit);
+        return null;
+    }
+
+    @Override
+    public Void visitNode(final EmptyNode node) {
+        return null;
+    }
+
+}
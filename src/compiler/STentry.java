@@ -2,6 +2,7 @@ package compiler;
 
 import compiler.lib.BaseASTVisitor;
 import compiler.lib.BaseEASTVisitor;
+import compiler.lib.DecNode;
 import compiler.lib.TypeNode;
 import compiler.lib.Visitable;
 
@@ -10,10 +11,36 @@ public class STentry implements Visitable {
     final TypeNode type;
     final int offset;
 
+    /**
+     * True if the entry is a field of a class, so its offset
+     * is relative to the object pointer instead of the frame pointer.
+     */
+    final boolean isField;
+
+    /**
+     * The declaration of a function, that its calls refer to,
+     * of a variable or of a parameter; null for the other entries.
+     */
+    final DecNode declaration;
+
     public STentry(int n, TypeNode t, int o) {
+        this(n, t, o, false);
+    }
+
+    public STentry(int n, TypeNode t, int o, boolean f) {
+        this(n, t, o, f, null);
+    }
+
+    public STentry(int n, TypeNode t, int o, DecNode d) {
+        this(n, t, o, false, d);
+    }
+
+    private STentry(int n, TypeNode t, int o, boolean f, DecNode d) {
         nl = n;
         type = t;
         offset = o;
+        isField = f;
+        declaration = d;
     }
 
     @Override
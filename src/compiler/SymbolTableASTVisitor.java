@@ -91,7 +91,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         if (print) printNode(node);
         symbolTable.add(new HashMap<>());
         node.declarations.forEach(this::visit);
-        visit(node.exp);
+        if (!node.isLibrary()) visit(node.exp);
         symbolTable.remove(0);
         return null;
     }
@@ -135,7 +135,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
                 .collect(Collectors.toList());
         final ArrowTypeNode arrowTypeNode = new ArrowTypeNode(parametersTypes, node.returnType);
         node.setType(arrowTypeNode);
-        final STentry entry = new STentry(nestingLevel, arrowTypeNode, decOffset--);
+        final STentry entry = new STentry(nestingLevel, arrowTypeNode, decOffset--, node);
 
         // inserimento di ID nella symtable
         if (currentSymbolTable.put(node.id, entry) != null) {
@@ -153,7 +153,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
 
         int parOffset = 1;
         for (ParNode par : node.parameters) {
-            final STentry parEntry = new STentry(nestingLevel, par.getType(), parOffset++);
+            final STentry parEntry = new STentry(nestingLevel, par.getType(), parOffset++, par);
             if (newSymbolTable.put(par.id, parEntry) != null) {
                 System.out.println("Par id " + par.id + " at line " + node.getLine() + " already declared");
                 stErrors++;
@@ -182,7 +182,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         if (print) printNode(node);
         visit(node.exp);
         final Map<String, STentry> currentSymbolTable = symbolTable.get(nestingLevel);
-        final STentry entry = new STentry(nestingLevel, node.getType(), decOffset--);
+        final STentry entry = new STentry(nestingLevel, node.getType(), decOffset--, node);
         // inserimento di ID nella symtable
         if (currentSymbolTable.put(node.id, entry) != null) {
             System.out.println("Var id " + node.id + " at line " + node.getLine() + " already declared");
@@ -547,7 +547,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
             }
             visit(field);
 
-            STentry fieldEntry = new STentry(nestingLevel, field.getType(), fieldOffset--);
+            STentry fieldEntry = new STentry(nestingLevel, field.getType(), fieldOffset--, true);
             final boolean isFieldOverridden = isSubClass && virtualTable.containsKey(field.fieldId);
             if (isFieldOverridden) {
                 final STentry overriddenFieldEntry = virtualTable.get(field.fieldId);
@@ -556,7 +556,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
                     System.out.println("Cannot override method " + field.fieldId + " with a field");
                     stErrors++;
                 } else {
-                    fieldEntry = new STentry(nestingLevel, field.getType(), overriddenFieldEntry.offset);
+                    fieldEntry = new STentry(nestingLevel, field.getType(), overriddenFieldEntry.offset, true);
                     classTypeNode.fields.set(-fieldEntry.offset - 1, fieldEntry.type);
                 }
             } else {
@@ -587,10 +587,12 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
             }
             visit(method);
             final MethodTypeNode methodTypeNode = (MethodTypeNode) symbolTable.get(nestingLevel).get(method.methodId).type;
-            classTypeNode.methods.add(
-                    method.offset,
-                    methodTypeNode.functionalType
-            );
+            if (method.offset < classTypeNode.methods.size()) {
+                // the overriding method replaces the type of the overridden one
+                classTypeNode.methods.set(method.offset, methodTypeNode.functionalType);
+            } else {
+                classTypeNode.methods.add(method.offset, methodTypeNode.functionalType);
+            }
         }
 
         // Remove the class from the symbol table
@@ -659,7 +661,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void, VoidException> {
         int parameterOffset = 1;
 
         for (final ParNode parameter : node.parameters) {
-            final STentry parameterEntry = new STentry(nestingLevel, parameter.getType(), parameterOffset++);
+            final STentry parameterEntry = new STentry(nestingLevel, parameter.getType(), parameterOffset++, parameter);
             if (methodTable.put(parameter.id, parameterEntry) != null) {
                 System.out.println("Par id " + parameter.id + " at line " + node.getLine() + " already declared");
                 stErrors++;
@@ -2,26 +2,75 @@ package compiler;
 
 import compiler.exc.IncomplException;
 import compiler.exc.TypeException;
-import compiler.lib.FOOLlib;
 import compiler.lib.Node;
 import compiler.lib.TypeNode;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
+import svm.CodeBuffer;
+import svm.DebugInfo;
+import svm.Disassembler;
 import svm.ExecuteVM;
-import svm.SVMLexer;
-import svm.SVMParser;
+import svm.ObjectFile;
+import svm.PeepholeOptimizer;
+import svm.exc.VMException;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 
 public class TestMain {
+
+    private static final Path CACHE_DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"), "fool-cache");
+    private static final long CACHE_SIZE = 64L * 1024 * 1024;
+
     public static void main(String[] args) throws Exception {
 
-        String fileName = "examples/bankloan.fool";
+        if (args.length == 2 && args[0].equals("--disassemble")) {
+            ObjectFile program = args[1].endsWith(ObjectFile.EXTENSION)
+                    ? ObjectFile.load(Path.of(args[1]))
+                    : ObjectFile.of(FOOLCompiler.compile(CharStreams.fromFileName(args[1])));
+            System.out.println(Disassembler.disassemble(program));
+            System.out.println(Disassembler.summary(program));
+            return;
+        }
+
+        String fileName = args.length > 0 ? args[0] : "examples/bankloan.fool";
+
+        if (fileName.endsWith(ObjectFile.EXTENSION)) {
+            System.out.println("Running precompiled code via Stack Virtual Machine.");
+            run(ObjectFile.load(Path.of(fileName)));
+            return;
+        }
+
+        if (args.length > 1) {
+            System.out.println("Compiling libraries and linking.");
+            linkAndRun(args);
+            return;
+        }
+
+        // the options of the code generation are part of the key of the program
+        boolean debug = true;
+        boolean linkable = false;
+        boolean display = true;
+        boolean peephole = true;
+        String options = "debug=" + debug + " linkable=" + linkable + " display=" + display + " peephole=" + peephole;
+
+        String source = CharStreams.fromFileName(fileName).toString();
+        CompilationCache cache = new CompilationCache(CACHE_DIRECTORY, CACHE_SIZE);
+        String key = CompilationCache.key(source, options);
+        Optional<ObjectFile> cached = cache.get(key);
+        if (cached.isPresent()) {
+            System.out.println("Running cached code via Stack Virtual Machine.");
+            run(cached.get());
+            return;
+        }
 
-        CharStream chars = CharStreams.fromFileName(fileName);
+        CharStream chars = CharStreams.fromString(source, fileName);
         FOOLLexer lexer = new FOOLLexer(chars);
         CommonTokenStream tokens = new CommonTokenStream(lexer);
         FOOLParser parser = new FOOLParser(tokens);
@@ -46,8 +95,9 @@ public class TestMain {
         System.out.println();
 
         System.out.println("Checking Types.");
+        CompilationContext context = new CompilationContext();
         try {
-            TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor();
+            TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor(context);
             TypeNode mainType = typeCheckVisitor.visit(ast);
             System.out.print("Type of main program expression is: ");
             new PrintEASTVisitor().visit(mainType);
@@ -56,36 +106,78 @@ public class TestMain {
         } catch (TypeException e) {
             System.out.println("Type checking error in main program expression: " + e.text);
         }
-        System.out.println("You had " + FOOLlib.typeErrors + " type checking errors.\n");
+        System.out.println("You had " + context.getTypeErrors() + " type checking errors.\n");
 
-        int frontEndErrors = lexer.lexicalErrors + parser.getNumberOfSyntaxErrors() + symtableVisitor.stErrors + FOOLlib.typeErrors;
+        int frontEndErrors = lexer.lexicalErrors + parser.getNumberOfSyntaxErrors() + symtableVisitor.stErrors + context.getTypeErrors();
         System.out.println("You had a total of " + frontEndErrors + " front-end errors.\n");
 
         if (frontEndErrors > 0) System.exit(1);
 
+        System.out.println("Inlining calls and simplifying expressions.");
+        ast = new InliningEASTVisitor().visit(ast);
+        System.out.println();
+
         System.out.println("Generating code.");
-        String code = new CodeGenerationASTVisitor(true).visit(ast);
+        CodeBuffer code = new CodeGenerationASTVisitor(context, debug, linkable, display).visit(ast);
+        System.out.println();
+
+        // textual assembly, needed only for debug
         BufferedWriter out = new BufferedWriter(new FileWriter(fileName + ".asm"));
-        out.write(code);
+        out.write(code.toString());
         out.close();
+
+        System.out.println("Writing object file.");
+        ObjectFile objectFile = ObjectFile.of(code);
+        if (peephole) objectFile = PeepholeOptimizer.optimize(objectFile);
+        objectFile.write(Path.of(fileName + ObjectFile.EXTENSION));
+        cache.put(key, objectFile);
         System.out.println();
 
-        System.out.println("Assembling generated code.");
-        CharStream charsASM = CharStreams.fromFileName(fileName + ".asm");
-        SVMLexer lexerASM = new SVMLexer(charsASM);
-        CommonTokenStream tokensASM = new CommonTokenStream(lexerASM);
-        SVMParser parserASM = new SVMParser(tokensASM);
+        System.out.println("Running generated code via Stack Virtual Machine.");
+        run(objectFile);
 
-        parserASM.assembly();
+    }
 
-        // needed only for debug
-        System.out.println("You had: " + lexerASM.lexicalErrors + " lexical errors and " + parserASM.getNumberOfSyntaxErrors() + " syntax errors.\n");
-        if (lexerASM.lexicalErrors + parserASM.getNumberOfSyntaxErrors() > 0) System.exit(1);
+    /**
+     * Compile the libraries given as first arguments, each one against the previous ones,
+     * and the program given as last argument against all of them, then link and run it.
+     */
+    private static void linkAndRun(String[] args) throws Exception {
+        List<ObjectFile> libraries = new ArrayList<>();
+        for (int i = 0; i < args.length - 1; i++) {
+            List<CharStream> dependencies = new ArrayList<>();
+            for (int j = 0; j < i; j++) dependencies.add(CharStreams.fromFileName(args[j]));
+            ObjectFile library = FOOLCompiler.compileLibrary(CharStreams.fromFileName(args[i]), dependencies);
+            library.write(Path.of(args[i] + ObjectFile.EXTENSION));
+            libraries.add(library);
+        }
 
-        System.out.println("Running generated code via Stack Virtual Machine.");
-        ExecuteVM vm = new ExecuteVM(parserASM.code);
-        vm.cpu();
+        String fileName = args[args.length - 1];
+        List<CharStream> sources = new ArrayList<>();
+        for (int i = 0; i < args.length - 1; i++) sources.add(CharStreams.fromFileName(args[i]));
+        ObjectFile program = PeepholeOptimizer.optimize(
+                FOOLCompiler.link(libraries, FOOLCompiler.compileProgram(CharStreams.fromFileName(fileName), sources)));
+        program.write(Path.of(fileName + ObjectFile.EXTENSION));
+
+        System.out.println("Running linked code via Stack Virtual Machine.");
+        run(program);
+    }
 
+    /**
+     * Run a program, reporting the source position of a run-time error
+     * if the program has debug information.
+     */
+    private static void run(ObjectFile program) {
+        ExecuteVM vm = new ExecuteVM(program);
+        try {
+            vm.cpu();
+        } catch (RuntimeException e) {
+            // the unchecked interpreter fails after fetching the instruction
+            int ip = e instanceof VMException vmException ? vmException.ip : vm.getIp() - 1;
+            DebugInfo debugInfo = program.getDebugInfo();
+            if (debugInfo != null) System.out.println("Run-time error at " + debugInfo.describe(ip) + ": " + e);
+            throw e;
+        }
     }
 }
 
@@ -8,22 +8,40 @@ import compiler.lib.DecNode;
 import compiler.lib.Node;
 import compiler.lib.TypeNode;
 
-import static compiler.TypeRels.*;
-
 /**
  * This class implements a type checking phase for the E-AST
  * through the visitor pattern.
  */
 public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeException> {
 
-    public TypeCheckEASTVisitor(boolean incompleteExc, boolean debug) {
+    /**
+     * The compilation, that counts the type errors.
+     */
+    private final CompilationContext context;
+
+    /**
+     * The subtyping relation, with the class hierarchy of the program.
+     */
+    private final TypeRels typeRels;
+
+    public TypeCheckEASTVisitor(CompilationContext context, boolean incompleteExc, boolean debug) {
         super(incompleteExc, debug);
+        this.context = context;
+        this.typeRels = context.getTypeRels();
+    }
+
+    public TypeCheckEASTVisitor(boolean incompleteExc, boolean debug) {
+        this(new CompilationContext(), incompleteExc, debug);
     }
 
     public TypeCheckEASTVisitor(boolean debug) {
         this(true, debug);
     }
 
+    public TypeCheckEASTVisitor(CompilationContext context) {
+        this(context, true, false);
+    }
+
     public TypeCheckEASTVisitor() {
         this(true, false);
     }
@@ -70,7 +88,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
      * Then visit the expression and return its type.
      *
      * @param node the ProgLetInNode node to visit
-     * @return the type of the expression
+     * @return the type of the expression, null for a library
      * @throws TypeException if a declaration is not correct
      */
     @Override
@@ -84,7 +102,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
                 System.out.println("Type checking error in a declaration: " + e.text);
             }
         }
-        return visit(node.exp);
+        return node.isLibrary() ? null : visit(node.exp);
     }
 
     /**
@@ -128,8 +146,8 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
                 System.out.println("Type checking error in a declaration: " + e.text);
             }
         }
-        if (!isSubtype(visit(node.exp), ckvisit(node.returnType))) {
-            throw new TypeException("Wrong return type for function " + node.id, node.getLine());
+        if (!typeRels.isSubtype(visit(node.exp), ckvisit(node.returnType))) {
+            throw context.typeError("Wrong return type for function " + node.id, node.getLine());
         }
         return null;
     }
@@ -146,8 +164,8 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final VarNode node) throws TypeException {
         if (print) printNode(node, node.id);
-        if (!isSubtype(visit(node.exp), ckvisit(node.getType()))) {
-            throw new TypeException("Incompatible value for variable " + node.id, node.getLine());
+        if (!typeRels.isSubtype(visit(node.exp), ckvisit(node.getType()))) {
+            throw context.typeError("Incompatible value for variable " + node.id, node.getLine());
         }
         return null;
     }
@@ -172,16 +190,16 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final IfNode node) throws TypeException {
         if (print) printNode(node);
-        if (!(isSubtype(visit(node.condition), new BoolTypeNode()))) {
-            throw new TypeException("Non boolean condition in if", node.getLine());
+        if (!(typeRels.isSubtype(visit(node.condition), new BoolTypeNode()))) {
+            throw context.typeError("Non boolean condition in if", node.getLine());
         }
 
         final TypeNode thenBranch = visit(node.thenBranch);
         final TypeNode elseBranch = visit(node.elseBranch);
 
-        final TypeNode returnType = lowestCommonAncestor(thenBranch, elseBranch);
+        final TypeNode returnType = typeRels.lowestCommonAncestor(thenBranch, elseBranch);
         if (returnType == null) {
-            throw new TypeException("Incompatible types in then-else branches", node.getLine());
+            throw context.typeError("Incompatible types in then-else branches", node.getLine());
         }
 
         return returnType;
@@ -199,8 +217,8 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final NotNode node) throws TypeException {
         if (print) printNode(node);
-        if (!(isSubtype(visit(node.exp), new BoolTypeNode()))) {
-            throw new TypeException("Non boolean in not", node.getLine());
+        if (!(typeRels.isSubtype(visit(node.exp), new BoolTypeNode()))) {
+            throw context.typeError("Non boolean in not", node.getLine());
         }
         return new BoolTypeNode();
     }
@@ -217,9 +235,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final OrNode node) throws TypeException {
         if (print) printNode(node);
-        if (!(isSubtype(visit(node.left), new BoolTypeNode())
-                && isSubtype(visit(node.right), new BoolTypeNode()))) {
-            throw new TypeException("Non booleans in or", node.getLine());
+        if (!(typeRels.isSubtype(visit(node.left), new BoolTypeNode())
+                && typeRels.isSubtype(visit(node.right), new BoolTypeNode()))) {
+            throw context.typeError("Non booleans in or", node.getLine());
         }
         return new BoolTypeNode();
     }
@@ -236,9 +254,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final AndNode node) throws TypeException {
         if (print) printNode(node);
-        if (!(isSubtype(visit(node.left), new BoolTypeNode())
-                && isSubtype(visit(node.right), new BoolTypeNode()))) {
-            throw new TypeException("Non booleans in and", node.getLine());
+        if (!(typeRels.isSubtype(visit(node.left), new BoolTypeNode())
+                && typeRels.isSubtype(visit(node.right), new BoolTypeNode()))) {
+            throw context.typeError("Non booleans in and", node.getLine());
         }
         return new BoolTypeNode();
     }
@@ -257,8 +275,8 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         if (print) printNode(node);
         final TypeNode left = visit(node.left);
         final TypeNode right = visit(node.right);
-        if (!(isSubtype(left, right) || isSubtype(right, left))) {
-            throw new TypeException("Incompatible types in equal", node.getLine());
+        if (!(typeRels.isSubtype(left, right) || typeRels.isSubtype(right, left))) {
+            throw context.typeError("Incompatible types in equal", node.getLine());
         }
         return new BoolTypeNode();
     }
@@ -275,9 +293,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final LessEqualNode node) throws TypeException {
         if (print) printNode(node);
-        if (!(isSubtype(visit(node.left), new IntTypeNode())
-                && isSubtype(visit(node.right), new IntTypeNode()))) {
-            throw new TypeException("Non integers in Lte", node.getLine());
+        if (!(typeRels.isSubtype(visit(node.left), new IntTypeNode())
+                && typeRels.isSubtype(visit(node.right), new IntTypeNode()))) {
+            throw context.typeError("Non integers in Lte", node.getLine());
         }
         return new BoolTypeNode();
     }
@@ -294,9 +312,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final GreaterEqualNode node) throws TypeException {
         if (print) printNode(node);
-        if (!(isSubtype(visit(node.left), new IntTypeNode())
-                && isSubtype(visit(node.right), new IntTypeNode()))) {
-            throw new TypeException("Non integers in Gte", node.getLine());
+        if (!(typeRels.isSubtype(visit(node.left), new IntTypeNode())
+                && typeRels.isSubtype(visit(node.right), new IntTypeNode()))) {
+            throw context.typeError("Non integers in Gte", node.getLine());
         }
         return new BoolTypeNode();
     }
@@ -313,9 +331,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final TimesNode node) throws TypeException {
         if (print) printNode(node);
-        if (!(isSubtype(visit(node.left), new IntTypeNode())
-                && isSubtype(visit(node.right), new IntTypeNode()))) {
-            throw new TypeException("Non integers in multiplication", node.getLine());
+        if (!(typeRels.isSubtype(visit(node.left), new IntTypeNode())
+                && typeRels.isSubtype(visit(node.right), new IntTypeNode()))) {
+            throw context.typeError("Non integers in multiplication", node.getLine());
         }
         return new IntTypeNode();
     }
@@ -332,9 +350,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final DivNode node) throws TypeException {
         if (print) printNode(node);
-        if (!(isSubtype(visit(node.left), new IntTypeNode())
-                && isSubtype(visit(node.right), new IntTypeNode()))) {
-            throw new TypeException("Non integers in Div", node.getLine());
+        if (!(typeRels.isSubtype(visit(node.left), new IntTypeNode())
+                && typeRels.isSubtype(visit(node.right), new IntTypeNode()))) {
+            throw context.typeError("Non integers in Div", node.getLine());
         }
         return new IntTypeNode();
     }
@@ -351,9 +369,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final PlusNode node) throws TypeException {
         if (print) printNode(node);
-        if (!(isSubtype(visit(node.left), new IntTypeNode())
-                && isSubtype(visit(node.right), new IntTypeNode()))) {
-            throw new TypeException("Non integers in sum", node.getLine());
+        if (!(typeRels.isSubtype(visit(node.left), new IntTypeNode())
+                && typeRels.isSubtype(visit(node.right), new IntTypeNode()))) {
+            throw context.typeError("Non integers in sum", node.getLine());
         }
         return new IntTypeNode();
     }
@@ -370,9 +388,9 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
     @Override
     public TypeNode visitNode(final MinusNode node) throws TypeException {
         if (print) printNode(node);
-        if (!(isSubtype(visit(node.left), new IntTypeNode())
-                && isSubtype(visit(node.right), new IntTypeNode()))) {
-            throw new TypeException("Non integers in minus", node.getLine());
+        if (!(typeRels.isSubtype(visit(node.left), new IntTypeNode())
+                && typeRels.isSubtype(visit(node.right), new IntTypeNode()))) {
+            throw context.typeError("Non integers in minus", node.getLine());
         }
         return new IntTypeNode();
     }
@@ -397,7 +415,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         if (print) printNode(node, node.id);
         final TypeNode typeNode = visit(node.entry);
         if (typeNode instanceof ArrowTypeNode) {
-            throw new TypeException("Wrong usage of function identifier " + node.id, node.getLine());
+            throw context.typeError("Wrong usage of function identifier " + node.id, node.getLine());
         }
         return typeNode;
     }
@@ -518,16 +536,16 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         }
 
         if (!(typeNode instanceof ArrowTypeNode arrowTypeNode)) {
-            throw new TypeException("Invocation of a non-function " + node.id, node.getLine());
+            throw context.typeError("Invocation of a non-function " + node.id, node.getLine());
         }
 
         if (!(arrowTypeNode.parameters.size() == node.arguments.size())) {
-            throw new TypeException("Wrong number of parameters in the invocation of " + node.id, node.getLine());
+            throw context.typeError("Wrong number of parameters in the invocation of " + node.id, node.getLine());
         }
 
         for (int i = 0; i < node.arguments.size(); i++) {
-            if (!(isSubtype(visit(node.arguments.get(i)), arrowTypeNode.parameters.get(i)))) {
-                throw new TypeException("Wrong type for " + (i + 1) + "-th parameter in the invocation of " + node.id, node.getLine());
+            if (!(typeRels.isSubtype(visit(node.arguments.get(i)), arrowTypeNode.parameters.get(i)))) {
+                throw context.typeError("Wrong type for " + (i + 1) + "-th parameter in the invocation of " + node.id, node.getLine());
             }
         }
         return arrowTypeNode.returnType;
@@ -567,7 +585,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
 
         // if class has a super class, add it as super type in TypeRels Map
         if (isSubClass) {
-            superType.put(node.classId, superId);
+            typeRels.addSuperType(node.classId, superId);
         }
 
         // visit all methods
@@ -590,16 +608,16 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         for (final FieldNode field : node.fields) {
             int position = -field.offset - 1;
             final boolean isOverriding = position < parentClassType.fields.size();
-            if (isOverriding && !isSubtype(classType.fields.get(position), parentClassType.fields.get(position))) {
-                throw new TypeException("Wrong type for field " + field.fieldId, field.getLine());
+            if (isOverriding && !typeRels.isSubtype(classType.fields.get(position), parentClassType.fields.get(position))) {
+                throw context.typeError("Wrong type for field " + field.fieldId, field.getLine());
             }
         }
 
         for (final MethodNode method : node.methods) {
             int position = method.offset;
             final boolean isOverriding = position < parentClassType.fields.size();
-            if (isOverriding && !isSubtype(classType.methods.get(position), parentClassType.methods.get(position))) {
-                throw new TypeException("Wrong type for method " + method.methodId, method.getLine());
+            if (isOverriding && !typeRels.isSubtype(classType.methods.get(position), parentClassType.methods.get(position))) {
+                throw context.typeError("Wrong type for method " + method.methodId, method.getLine());
             }
         }
 
@@ -627,8 +645,8 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
             }
         }
         // visit expression and check if it is a subtype of the return type
-        if (!isSubtype(visit(node.exp), ckvisit(node.returnType))) {
-            throw new TypeException("Wrong return type for method " + node.methodId, node.getLine());
+        if (!typeRels.isSubtype(visit(node.exp), ckvisit(node.returnType))) {
+            throw context.typeError("Wrong return type for method " + node.methodId, node.getLine());
         }
 
         return null;
@@ -683,18 +701,18 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
 
         // if it is not an arrow type, throw an exception
         if (!(type instanceof ArrowTypeNode arrowTypeNode)) {
-            throw new TypeException("Invocation of a non-function " + node.methodId, node.getLine());
+            throw context.typeError("Invocation of a non-function " + node.methodId, node.getLine());
         }
 
         // check if the number of parameters is correct
         if (arrowTypeNode.parameters.size() != node.args.size()) {
-            throw new TypeException("Wrong number of parameters in the invocation of method " + node.methodId, node.getLine());
+            throw context.typeError("Wrong number of parameters in the invocation of method " + node.methodId, node.getLine());
         }
 
         // check if the types of the parameters are correct
         for (int i = 0; i < node.args.size(); i++) {
-            if (!(isSubtype(visit(node.args.get(i)), arrowTypeNode.parameters.get(i)))) {
-                throw new TypeException("Wrong type for " + (i + 1) + "-th parameter in the invocation of method " + node.methodId, node.getLine());
+            if (!(typeRels.isSubtype(visit(node.args.get(i)), arrowTypeNode.parameters.get(i)))) {
+                throw context.typeError("Wrong type for " + (i + 1) + "-th parameter in the invocation of method " + node.methodId, node.getLine());
             }
         }
 
@@ -716,16 +734,16 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode, TypeExceptio
         final TypeNode typeNode = visit(node.entry);
 
         if (!(typeNode instanceof ClassTypeNode classTypeNode)) {
-            throw new TypeException("Invocation of a non-constructor " + node.classId, node.getLine());
+            throw context.typeError("Invocation of a non-constructor " + node.classId, node.getLine());
         }
 
         if (classTypeNode.fields.size() != node.args.size()) {
-            throw new TypeException("Wrong number of parameters in the invocation of constructor " + node.classId, node.getLine());
+            throw context.typeError("Wrong number of parameters in the invocation of constructor " + node.classId, node.getLine());
         }
         // check if the types of the parameters are correct
         for (int i = 0; i < node.args.size(); i++) {
-            if (!(isSubtype(visit(node.args.get(i)), classTypeNode.fields.get(i)))) {
-                throw new TypeException("Wrong type for " + (i + 1) + "-th parameter in the invocation of constructor " + node.classId, node.getLine());
+            if (!(typeRels.isSubtype(visit(node.args.get(i)), classTypeNode.fields.get(i)))) {
+                throw context.typeError("Wrong type for " + (i + 1) + "-th parameter in the invocation of constructor " + node.classId, node.getLine());
             }
         }
         return new RefTypeNode(node.classId);
@@ -8,13 +8,27 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Stream;
 
+/**
+ * The subtyping relation of a program, whose class hierarchy is
+ * recorded while type checking it.
+ */
 public class TypeRels {
 
     /**
      * Map of the super types of each type.
      * It is filled in the {@link TypeCheckEASTVisitor}.
      */
-    public static Map<String, String> superType = new HashMap<>();
+    private final Map<String, String> superType = new HashMap<>();
+
+    /**
+     * Record the super class of a class.
+     *
+     * @param type      the class
+     * @param superType the super class
+     */
+    public void addSuperType(final String type, final String superType) {
+        this.superType.put(type, superType);
+    }
 
     /**
      * Compute the lowest common ancestor of two types.
@@ -28,7 +42,7 @@ public class TypeRels {
      * @param second The second type
      * @return The lowest common ancestor of the two types
      */
-    public static TypeNode lowestCommonAncestor(final TypeNode first, final TypeNode second) {
+    public TypeNode lowestCommonAncestor(final TypeNode first, final TypeNode second) {
         if (isSubtype(first, second)) return second;
         if (isSubtype(second, first)) return first;
 
@@ -49,7 +63,7 @@ public class TypeRels {
      * @param type The type to start from
      * @return The Stream of super types
      */
-    private static Stream<String> superTypes(final String type) {
+    private Stream<String> superTypes(final String type) {
         return Stream.iterate(type, Objects::nonNull, superType::get);
     }
 
@@ -60,7 +74,7 @@ public class TypeRels {
      * @param second The second type
      * @return True if the first type is a subtype of the second type, false otherwise
      */
-    public static boolean isSubtype(final TypeNode first, final TypeNode second) {
+    public boolean isSubtype(final TypeNode first, final TypeNode second) {
         return isBoolAndInt(first, second)
                 || isEmptyTypeAndRefType(first, second)
                 || isSubclass(first, second)
@@ -75,7 +89,7 @@ public class TypeRels {
      * @param second The second type
      * @return True if the first type is a supertype of the second type, false otherwise
      */
-    public static boolean isSupertype(final TypeNode first, final TypeNode second) {
+    public boolean isSupertype(final TypeNode first, final TypeNode second) {
         return isSubtype(second, first);
     }
 
@@ -87,7 +101,7 @@ public class TypeRels {
      * @param second The second type
      * @return True if the first type is a subtype of the second type, false otherwise
      */
-    private static boolean isMethodOverride(final TypeNode first, final TypeNode second) {
+    private boolean isMethodOverride(final TypeNode first, final TypeNode second) {
         if (!(first instanceof ArrowTypeNode firstArrowTypeNode) ||
                 !(second instanceof ArrowTypeNode secondArrowTypeNode)) {
             return false;
@@ -115,7 +129,7 @@ public class TypeRels {
      * @param second The second type
      * @return True if the first type is a subclass of the second type, false otherwise
      */
-    private static boolean isSubclass(final TypeNode first, final TypeNode second) {
+    private boolean isSubclass(final TypeNode first, final TypeNode second) {
 
         if (!(first instanceof RefTypeNode firstRefTypeNode)
                 || !(second instanceof RefTypeNode secondRefTypeNode)) {
@@ -135,7 +149,7 @@ public class TypeRels {
      * @param second The second type
      * @return True if the first type is EmptyTypeNode and the second type is RefTypeNode, false otherwise
      */
-    private static boolean isEmptyTypeAndRefType(final TypeNode first, final TypeNode second) {
+    private boolean isEmptyTypeAndRefType(final TypeNode first, final TypeNode second) {
         return ((first instanceof EmptyTypeNode) && (second instanceof RefTypeNode));
     }
 
@@ -147,7 +161,7 @@ public class TypeRels {
      * @param second The second type
      * @return True if the first type is BoolTypeNode and the second type is IntTypeNode or BoolTypeNode, false otherwise
      */
-    private static boolean isBoolAndInt(final TypeNode first, final TypeNode second) {
+    private boolean isBoolAndInt(final TypeNode first, final TypeNode second) {
         return ((first instanceof BoolTypeNode) && (second instanceof IntTypeNode | second instanceof BoolTypeNode))
                 || ((first instanceof IntTypeNode) && (second instanceof IntTypeNode));
     }
@@ -0,0 +1,14 @@
+package compiler.exc;
+
+public class CompilationException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public final int errors;
+
+    public CompilationException(int errors) {
+        super("You had a total of " + errors + " front-end errors.");
+        this.errors = errors;
+    }
+
+}
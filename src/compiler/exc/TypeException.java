@@ -1,7 +1,5 @@
 package compiler.exc;
 
-import compiler.lib.FOOLlib;
-
 public class TypeException extends Exception {
 
     private static final long serialVersionUID = 1L;
@@ -9,7 +7,6 @@ public class TypeException extends Exception {
     public String text;
 	
     public TypeException(String t, int line) {
-        FOOLlib.typeErrors++;
         text = t + " at line " + line;
     }
 
@@ -1,11 +1,8 @@
 package compiler.lib;
 
-public class FOOLlib {
+import svm.CodeBuffer;
 
-    public static int typeErrors = 0;
-    private static int labCount = 0;
-    private static int funlabCount = 0;
-    private static String funCode = null;
+public class FOOLlib {
 
     public static String extractNodeName(String s) { // s is in the form compiler.AST$NameNode
         return s.substring(s.lastIndexOf('$') + 1, s.length() - 4);
@@ -19,28 +16,33 @@ public class FOOLlib {
         return Character.toLowerCase(s.charAt(0)) + s.substring(1);
     }
 
-    // crea un'unica stringa a partire da un insieme di stringhe concatenadole e
-    // introducendo, all'interno, dei newline "\n" come separatore tra le stringhe
-    public static String nlJoin(String... lines) { //argomenti null ignorati
-        String code = null;
-        for (int i = 0; i < lines.length; i++)
-            if (lines[i] != null) code = (code == null ? "" : code + "\n") + lines[i];
+    // crea un unico frammento di codice a partire da un insieme di frammenti
+    // concatenandoli, i frammenti passati come argomento non vengono modificati
+    // (ne' copiati: il nuovo frammento fa solo riferimento a essi)
+    public static CodeBuffer join(CodeBuffer... fragments) { //argomenti null ignorati
+        CodeBuffer code = null;
+        for (CodeBuffer fragment : fragments)
+            if (fragment != null) code = (code == null ? new CodeBuffer() : code).append(fragment);
         return code;
     }
 
-    public static String freshLabel() {
-        return "label" + (labCount++);
+    // frammento con una sola istruzione senza operandi
+    public static CodeBuffer code(int opcode) {
+        return new CodeBuffer().emit(opcode);
     }
 
-    public static String freshFunLabel() {
-        return "function" + (funlabCount++);
+    // frammento con una sola istruzione con operando intero
+    public static CodeBuffer code(int opcode, int operand) {
+        return new CodeBuffer().emit(opcode, operand);
     }
 
-    public static void putCode(String c) {
-        funCode = nlJoin(funCode, "", c); //linea vuota di separazione prima di codice funzione
+    // frammento con una sola istruzione che ha come operando l'indirizzo di una label
+    public static CodeBuffer code(int opcode, String label) {
+        return new CodeBuffer().emit(opcode, label);
     }
 
-    public static String getCode() {
-        return funCode;
+    // frammento che definisce una label
+    public static CodeBuffer label(String label) {
+        return new CodeBuffer().label(label);
     }
 }
@@ -0,0 +1,252 @@
+package svm;
+
+import svm.exc.AssemblyException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Single-pass assembler of the textual SVM assembly.
+ * <p>
+ * The source is a sequence of instructions, each one a mnemonic followed by its operand
+ * (if any), and of label definitions in the form {@code name:}. Operands are integers
+ * or, for push and the branches, labels. Labels start with a letter and can contain
+ * letters, digits, dots and underscores. Whitespace separates tokens and
+ * {@code /* ... *}{@code /} comments are ignored.
+ * <p>
+ * The directive {@code .data} starts the data section, that lasts until the end of the
+ * source: it is a sequence of {@code .word} directives, each one followed by an integer
+ * or by a label of the code, and of label definitions, whose addresses are data addresses.
+ * <p>
+ * The source is scanned once, writing the code into a {@link CodeBuffer} that resolves
+ * the label operands at the end; the source line of every code word is recorded too.
+ */
+public final class Assembler {
+
+    private final CharSequence source;
+    private final CodeBuffer buffer = new CodeBuffer();
+    private int[] lines = new int[64];
+    private int position = 0;
+    private int line = 1;
+    private boolean data = false; // true after the .data directive
+
+    private Assembler(final CharSequence source) {
+        this.source = source;
+    }
+
+    /**
+     * Assemble a program.
+     *
+     * @param source the assembly
+     * @return the object file of the program
+     * @throws AssemblyException if the assembly is not valid
+     */
+    public static ObjectFile assemble(final CharSequence source) {
+        return new Assembler(source).run();
+    }
+
+    /**
+     * Assemble a program from a file, mapping it into memory.
+     * The file must be encoded in ASCII (as the assembly generated by the compiler).
+     *
+     * @param path the path of the file
+     * @return the object file of the program
+     * @throws IOException       if an I/O error occurs
+     * @throws AssemblyException if the assembly is not valid
+     */
+    public static ObjectFile assemble(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return assemble(new AsciiSequence(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+    }
+
+    private ObjectFile run() {
+        while (skipBlanks()) {
+            final int start = position;
+            if (source.charAt(position) == '.') {
+                directive();
+                continue;
+            }
+            if (!isLetter(source.charAt(position))) throw error("Unexpected character '" + source.charAt(position) + "'");
+            final int end = scanIdentifier();
+            final int opcode = InstructionSet.opcode(source, start, end);
+            if (opcode < 0) {
+                final String label = source.subSequence(start, end).toString();
+                final int labelLine = line;
+                if (!skipBlanks() || source.charAt(position) != ':') {
+                    throw new AssemblyException("Unknown instruction " + label, labelLine);
+                }
+                position++;
+                try {
+                    if (data) {
+                        buffer.dataLabel(label);
+                    } else {
+                        buffer.label(label);
+                    }
+                } catch (IllegalStateException e) {
+                    throw error(e.getMessage());
+                }
+                continue;
+            }
+            if (data) throw error("Instruction " + InstructionSet.mnemonic(opcode) + " in the data section");
+            final int first = buffer.size();
+            final int instructionLine = line;
+            if (InstructionSet.operandCount(opcode) == 0) {
+                buffer.emit(opcode);
+            } else {
+                if (!skipBlanks()) throw error("Missing operand of " + InstructionSet.mnemonic(opcode));
+                if (isLetter(source.charAt(position)) && (opcode == Opcodes.PUSH || InstructionSet.isBranch(opcode))) {
+                    final int labelStart = position;
+                    buffer.emit(opcode, source.subSequence(labelStart, scanIdentifier()).toString());
+                } else {
+                    buffer.emit(opcode, scanInteger());
+                }
+            }
+            if (lines.length < buffer.size()) lines = Arrays.copyOf(lines, Math.max(buffer.size(), lines.length * 2));
+            Arrays.fill(lines, first, buffer.size(), instructionLine);
+        }
+        final int[] code;
+        final DataSection dataSection;
+        try {
+            code = buffer.toCodeArray();
+            dataSection = buffer.getDataSection(false);
+        } catch (IllegalStateException e) {
+            throw error(e.getMessage());
+        }
+        return new ObjectFile(code, buffer.size(), buffer.getLabels(), lines, buffer.getRelocations(), Map.of(), Map.of(),
+                null, dataSection);
+    }
+
+    private void directive() {
+        final String name = source.subSequence(position + 1, scanIdentifier()).toString();
+        if (name.equals("data")) {
+            data = true;
+        } else if (name.equals("word")) {
+            if (!data) throw error("Directive .word outside the data section");
+            if (!skipBlanks()) throw error("Missing operand of .word");
+            if (isLetter(source.charAt(position))) {
+                final int labelStart = position;
+                buffer.data(source.subSequence(labelStart, scanIdentifier()).toString());
+            } else {
+                buffer.data(scanInteger());
+            }
+        } else {
+            throw error("Unknown directive ." + name);
+        }
+    }
+
+    /**
+     * Skip whitespace and comments.
+     *
+     * @return true if there is another token
+     */
+    private boolean skipBlanks() {
+        while (position < source.length()) {
+            final char c = source.charAt(position);
+            if (c == '\n') {
+                line++;
+                position++;
+            } else if (c == ' ' || c == '\t' || c == '\r') {
+                position++;
+            } else if (c == '/' && position + 1 < source.length() && source.charAt(position + 1) == '*') {
+                final int commentLine = line;
+                position += 2;
+                while (true) {
+                    if (position + 1 >= source.length()) throw new AssemblyException("Unterminated comment", commentLine);
+                    if (source.charAt(position) == '*' && source.charAt(position + 1) == '/') break;
+                    if (source.charAt(position) == '\n') line++;
+                    position++;
+                }
+                position += 2;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int scanIdentifier() {
+        position++;
+        while (position < source.length() && isIdentifierPart(source.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private int scanInteger() {
+        final boolean negative = source.charAt(position) == '-';
+        if (negative) position++;
+        if (position >= source.length() || !isDigit(source.charAt(position))) throw error("Invalid integer");
+        if (source.charAt(position) == '0') {
+            position++;
+            if (negative || (position < source.length() && isDigit(source.charAt(position)))) {
+                throw error("Invalid integer");
+            }
+        }
+        long value = 0;
+        while (position < source.length() && isDigit(source.charAt(position))) {
+            value = value * 10 + (source.charAt(position++) - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) throw error("Integer out of range");
+        }
+        if (position < source.length() && isLetter(source.charAt(position))) throw error("Invalid integer");
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) throw error("Integer out of range");
+        return (int) value;
+    }
+
+    private AssemblyException error(final String message) {
+        return new AssemblyException(message, line);
+    }
+
+    private static boolean isLetter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isIdentifierPart(final char c) {
+        return isLetter(c) || isDigit(c) || c == '.' || c == '_';
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * The characters of an ASCII encoded buffer, read without decoding it.
+     */
+    private static final class AsciiSequence implements CharSequence {
+
+        private final ByteBuffer bytes;
+
+        AsciiSequence(final ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return (char) (bytes.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            final char[] chars = new char[end - start];
+            for (int i = start; i < end; i++) chars[i - start] = charAt(i);
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+
+}
@@ -0,0 +1,624 @@
+package svm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A growable buffer of SVM code, written directly as opcodes and operands.
+ * <p>
+ * Operands can refer to labels that are defined later (or in another buffer
+ * appended to this one): the positions of these operands are recorded and
+ * fixed up when the code is resolved with {@link #toArray()}. Labels are
+ * interned to int ids during the resolution, so fixups are kept in primitive arrays.
+ * <p>
+ * The buffer is a rope: appending another buffer only records a reference to it,
+ * and the words are copied once, when the code is resolved. Building the code of a
+ * program bottom-up, joining the code of every node with the one of its children,
+ * takes linear time however deep the nesting is. An appended buffer must not be
+ * modified afterwards, since the modification would show in this buffer too.
+ * <p>
+ * The textual assembly of the code, that the {@link Assembler} would assemble to
+ * the same words, is available through {@link #toString()} for debugging.
+ * <p>
+ * The buffer can also collect the {@link DebugInfo} of the code: the source line of
+ * every word, assigned by {@link #sourceLine(int)} so that the innermost construct
+ * wins, and the {@link #scope(String, Map) scopes} of the functions.
+ * <p>
+ * Besides the code, the buffer can hold the words of a {@link DataSection}, that the loader
+ * copies to the bottom of the heap: they are laid out like the code, in the order of the rope,
+ * their labels are data addresses and they can be addresses of labels of the code.
+ */
+public class CodeBuffer {
+
+    /* Parti del buffer, in ordine: frammenti scritti direttamente (Chunk) o buffer aggiunti */
+    private Object[] parts = new Object[2];
+    private int partCount = 0;
+    private Chunk tail = null; // the last part, if it is a chunk written through this buffer
+    private Chunk dataTail = null; // the last part of the data, if it is a chunk written through this buffer
+    private int size = 0;
+    private int dataSize = 0;
+
+    /* Informazioni di debug: linea delle parole senza una linea propria, scope delle funzioni */
+    private int sourceLine = 0;
+    private List<DebugInfo.Scope> scopes = null;
+
+    /**
+     * @return the number of words written
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Write an instruction without operands.
+     *
+     * @param opcode the opcode of the instruction
+     * @return this buffer
+     */
+    public CodeBuffer emit(final int opcode) {
+        tail().write(opcode);
+        size++;
+        return this;
+    }
+
+    /**
+     * Write an instruction with an integer operand.
+     *
+     * @param opcode  the opcode of the instruction
+     * @param operand the operand
+     * @return this buffer
+     */
+    public CodeBuffer emit(final int opcode, final int operand) {
+        final Chunk chunk = tail();
+        chunk.write(opcode);
+        chunk.write(operand);
+        size += 2;
+        return this;
+    }
+
+    /**
+     * Write an instruction whose operand is the address of a label.
+     *
+     * @param opcode the opcode of the instruction
+     * @param label  the label
+     * @return this buffer
+     */
+    public CodeBuffer emit(final int opcode, final String label) {
+        final Chunk chunk = tail();
+        chunk.write(opcode);
+        chunk.addFixup(label);
+        chunk.write(0);
+        size += 2;
+        return this;
+    }
+
+    /**
+     * Write a word of the data section.
+     *
+     * @param word the word
+     * @return this buffer
+     */
+    public CodeBuffer data(final int word) {
+        dataTail().write(word);
+        dataSize++;
+        return this;
+    }
+
+    /**
+     * Write a word of the data section that is the address of a label of the code.
+     *
+     * @param label the label
+     * @return this buffer
+     */
+    public CodeBuffer data(final String label) {
+        final Chunk chunk = dataTail();
+        chunk.addFixup(label);
+        chunk.write(0);
+        dataSize++;
+        return this;
+    }
+
+    /**
+     * Define a label at the current position of the data section:
+     * the operands that refer to it are data addresses.
+     *
+     * @param label the label
+     * @return this buffer
+     * @throws IllegalStateException if the label is already defined in the data written
+     *                               directly to this buffer since the last append
+     */
+    public CodeBuffer dataLabel(final String label) {
+        dataTail().define(label);
+        return this;
+    }
+
+    /**
+     * @return the number of words of the data section
+     */
+    public int dataSize() {
+        return dataSize;
+    }
+
+    /**
+     * Define a label at the current position.
+     *
+     * @param label the label
+     * @return this buffer
+     * @throws IllegalStateException if the label is already defined in the code written
+     *                               directly to this buffer since the last append
+     */
+    public CodeBuffer label(final String label) {
+        tail().define(label);
+        return this;
+    }
+
+    /**
+     * Append the code of another buffer, with its labels and fixups.
+     * Only a reference to the buffer is kept: the labels defined in both
+     * buffers are detected when the code is resolved.
+     *
+     * @param other the buffer to append, it is not modified
+     * @return this buffer
+     */
+    public CodeBuffer append(final CodeBuffer other) {
+        if (other == this) throw new IllegalArgumentException("A buffer cannot be appended to itself");
+        addPart(other);
+        tail = null;
+        dataTail = null;
+        size += other.size;
+        dataSize += other.dataSize;
+        return this;
+    }
+
+    /**
+     * Attribute the words of the buffer that have no source line to a line.
+     * Called on the code of a construct after its parts, it assigns the words
+     * that are not generated by any of them.
+     *
+     * @param line the source line, ignored if not positive or if the buffer already has one
+     * @return this buffer
+     */
+    public CodeBuffer sourceLine(final int line) {
+        if (line > 0 && sourceLine == 0) sourceLine = line;
+        return this;
+    }
+
+    /**
+     * Mark all the words written so far as the code of a function.
+     *
+     * @param name  the name of the function
+     * @param slots the names of the slots of its frame, by offset from the frame pointer
+     * @return this buffer
+     */
+    public CodeBuffer scope(final String name, final Map<Integer, String> slots) {
+        if (scopes == null) scopes = new ArrayList<>(1);
+        scopes.add(new DebugInfo.Scope(name, 0, size, slots));
+        return this;
+    }
+
+    /**
+     * @return the debug information of the code, or null if the buffer has none
+     */
+    DebugInfo getDebugInfo() {
+        final Resolution code = resolve();
+        boolean hasLines = false;
+        for (int i = 0; i < size && !hasLines; i++) hasLines = code.lines[i] != 0;
+        return hasLines || !code.scopes.isEmpty() ? new DebugInfo(code.lines, code.scopes) : null;
+    }
+
+    /**
+     * @return the labels defined in the code of the buffer with their addresses
+     * @throws IllegalStateException if a label is defined twice
+     */
+    public Map<String, Integer> getLabels() {
+        return resolve().getLabels();
+    }
+
+    /**
+     * Resolve the label operands and return the code, padded to
+     * {@link ExecuteVM#CODESIZE} like the one of the assembler.
+     *
+     * @return the code
+     * @throws IllegalStateException if a label is used but never defined, or defined twice,
+     *                               or if the buffer has a data section, that the code needs
+     *                               (the program must be loaded through its {@link ObjectFile})
+     */
+    public int[] toArray() {
+        if (dataSize > 0) throw new IllegalStateException("The code needs its data section, load its object file");
+        return resolve().toArray(Math.max(size, ExecuteVM.CODESIZE), false);
+    }
+
+    /**
+     * Resolve the label operands and return the code, without padding and without the data section.
+     *
+     * @return the code
+     * @throws IllegalStateException if a label is used but never defined, or defined twice
+     */
+    int[] toCodeArray() {
+        return resolve().toArray(size, false);
+    }
+
+    /**
+     * Resolve the label operands, leaving 0 in the operands of the labels
+     * that are not defined (the imports of a relocatable unit).
+     *
+     * @return the code, without padding
+     */
+    int[] toRelocatableArray() {
+        return resolve().toArray(size, true);
+    }
+
+    /**
+     * @return the positions of the operands that are addresses of labels defined in the buffer,
+     * that must be relocated if the code is moved
+     */
+    int[] getRelocations() {
+        return resolve().relocations(false);
+    }
+
+    /**
+     * @return the positions of the operands that are addresses of labels not defined in the buffer,
+     * with the name of the labels
+     */
+    Map<Integer, String> getUndefinedReferences() {
+        return resolve().undefinedReferences(false);
+    }
+
+    /**
+     * @param relocatable if true the words of the data section can be addresses of labels
+     *                    not defined in the buffer (the imports of a relocatable unit)
+     * @return the data section of the code, or null if the buffer has none
+     * @throws IllegalStateException if a label is used but never defined, or defined twice,
+     *                               or if a word of the data section is a data address
+     */
+    DataSection getDataSection(final boolean relocatable) {
+        final Resolution code = resolve();
+        final int[] references = code.dataReferences(false);
+        if (dataSize == 0 && references.length == 0) return null;
+        final Map<Integer, String> imports = code.undefinedReferences(true);
+        if (!relocatable && !imports.isEmpty()) throw new IllegalStateException("Undefined label " + imports.values().iterator().next());
+        if (code.dataReferences(true).length > 0) throw new IllegalStateException("Data address in the data section");
+        return new DataSection(code.dataWords(), code.relocations(true), imports, references);
+    }
+
+    /**
+     * @return the textual assembly of the code
+     */
+    @Override
+    public String toString() {
+        final Resolution code = resolve();
+        final Map<Integer, String> operandLabels = new HashMap<>();
+        final Map<Integer, String> dataLabels = new HashMap<>();
+        for (int i = 0; i < code.fixupCount; i++) {
+            (code.fixupInData[i] ? dataLabels : operandLabels).put(code.fixupPositions[i], code.labelNames[code.fixupLabels[i]]);
+        }
+        final TreeMap<Integer, String> definitions = new TreeMap<>();
+        code.getLabels().forEach((label, address) -> definitions.merge(address, label + ":", (a, b) -> a + "\n" + b));
+
+        final StringBuilder text = new StringBuilder();
+        int address = 0;
+        while (address < size) {
+            final String definition = definitions.get(address);
+            if (definition != null) text.append(definition).append('\n');
+            final int opcode = code.words[address++];
+            text.append(InstructionSet.mnemonic(opcode));
+            for (int i = 0; i < InstructionSet.operandCount(opcode) && address < size; i++, address++) {
+                text.append(' ').append(operandLabels.getOrDefault(address, String.valueOf(code.words[address])));
+            }
+            text.append('\n');
+        }
+        final String end = definitions.get(size);
+        if (end != null) text.append(end).append('\n');
+        if (dataSize == 0 && code.getDataLabels().isEmpty()) return text.toString();
+
+        text.append(".data\n");
+        final TreeMap<Integer, String> dataDefinitions = new TreeMap<>();
+        code.getDataLabels().forEach((label, position) -> dataDefinitions.merge(position, label + ":", (a, b) -> a + "\n" + b));
+        for (int position = 0; position <= dataSize; position++) {
+            final String definition = dataDefinitions.get(position);
+            if (definition != null) text.append(definition).append('\n');
+            if (position < dataSize) {
+                text.append(".word ").append(dataLabels.getOrDefault(position, String.valueOf(code.data[position]))).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the chunk where the code written directly to this buffer goes
+     */
+    private Chunk tail() {
+        if (tail == null) {
+            tail = new Chunk(false);
+            addPart(tail);
+        }
+        return tail;
+    }
+
+    /**
+     * @return the chunk where the data written directly to this buffer goes
+     */
+    private Chunk dataTail() {
+        if (dataTail == null) {
+            dataTail = new Chunk(true);
+            addPart(dataTail);
+        }
+        return dataTail;
+    }
+
+    private void addPart(final Object part) {
+        if (partCount == parts.length) parts = Arrays.copyOf(parts, partCount * 2);
+        parts[partCount++] = part;
+    }
+
+    /**
+     * Lay out all the parts of the rope, visiting it depth-first with an explicit
+     * stack: the left-deep ropes built by joining fragments in a loop are as deep
+     * as the number of fragments.
+     */
+    private Resolution resolve() {
+        final Resolution code = new Resolution(size, dataSize);
+        final Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(this, 0, 0, sourceLine));
+        while (!stack.isEmpty()) {
+            final Frame frame = stack.peek();
+            if (frame.part == 0 && frame.buffer.scopes != null) {
+                for (final DebugInfo.Scope scope : frame.buffer.scopes) {
+                    code.scopes.add(new DebugInfo.Scope(scope.name(), frame.base + scope.start(),
+                            frame.base + scope.end(), scope.slots()));
+                }
+            }
+            if (frame.part == frame.buffer.partCount) {
+                stack.pop();
+                continue;
+            }
+            final Object part = frame.buffer.parts[frame.part++];
+            if (part instanceof Chunk chunk && chunk.data) {
+                code.addData(chunk, frame.dataOffset);
+                frame.dataOffset += chunk.size;
+            } else if (part instanceof Chunk chunk) {
+                code.add(chunk, frame.offset, frame.line);
+                frame.offset += chunk.size;
+            } else {
+                final CodeBuffer buffer = (CodeBuffer) part;
+                stack.push(new Frame(buffer, frame.offset, frame.dataOffset,
+                        buffer.sourceLine != 0 ? buffer.sourceLine : frame.line));
+                frame.offset += buffer.size;
+                frame.dataOffset += buffer.dataSize;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * A buffer being laid out: where it starts, where its next part goes (in the code
+     * and in the data) and the source line of its words without one.
+     */
+    private static final class Frame {
+
+        final CodeBuffer buffer;
+        final int base;
+        final int line;
+        int offset;
+        int dataOffset;
+        int part = 0;
+
+        Frame(final CodeBuffer buffer, final int base, final int dataBase, final int line) {
+            this.buffer = buffer;
+            this.base = base;
+            this.line = line;
+            this.offset = base;
+            this.dataOffset = dataBase;
+        }
+    }
+
+    /**
+     * A piece of code (or of data) written directly, with the labels it defines and the
+     * operands that refer to labels, by position in the piece.
+     */
+    private static final class Chunk {
+
+        final boolean data;
+        int[] words = new int[4];
+        int size = 0;
+
+        /* Label definite nel frammento, con la loro posizione */
+        Map<String, Integer> labels = null;
+
+        /* Operandi da correggere: posizione e label a cui si riferiscono */
+        int[] fixupPositions = null;
+        String[] fixupLabels = null;
+        int fixupCount = 0;
+
+        Chunk(final boolean data) {
+            this.data = data;
+        }
+
+        void write(final int word) {
+            if (size == words.length) words = Arrays.copyOf(words, size * 2);
+            words[size++] = word;
+        }
+
+        void define(final String label) {
+            if (labels == null) labels = new HashMap<>();
+            if (labels.putIfAbsent(label, size) != null) throw new IllegalStateException("Duplicate label " + label);
+        }
+
+        void addFixup(final String label) {
+            if (fixupPositions == null) {
+                fixupPositions = new int[2];
+                fixupLabels = new String[2];
+            } else if (fixupCount == fixupPositions.length) {
+                fixupPositions = Arrays.copyOf(fixupPositions, fixupCount * 2);
+                fixupLabels = Arrays.copyOf(fixupLabels, fixupCount * 2);
+            }
+            fixupPositions[fixupCount] = size;
+            fixupLabels[fixupCount++] = label;
+        }
+    }
+
+    /**
+     * The code of a buffer laid out in a single array, and its data in another one. Labels are
+     * interned to int ids: name, address (-1 if not defined) and section of every id.
+     */
+    private static final class Resolution {
+
+        final int[] words;
+        final int[] lines;
+        final int[] data;
+        final List<DebugInfo.Scope> scopes = new ArrayList<>();
+
+        final Map<String, Integer> labelIds = new HashMap<>();
+        String[] labelNames = new String[16];
+        int[] labelAddresses = new int[16];
+        boolean[] labelInData = new boolean[16];
+        int labelCount = 0;
+
+        int[] fixupPositions = new int[16];
+        int[] fixupLabels = new int[16];
+        boolean[] fixupInData = new boolean[16];
+        int fixupCount = 0;
+
+        Resolution(final int size, final int dataSize) {
+            words = new int[size];
+            lines = new int[size];
+            data = new int[dataSize];
+        }
+
+        void add(final Chunk chunk, final int base, final int line) {
+            System.arraycopy(chunk.words, 0, words, base, chunk.size);
+            if (line != 0) Arrays.fill(lines, base, base + chunk.size, line);
+            addLabels(chunk, base);
+        }
+
+        void addData(final Chunk chunk, final int base) {
+            System.arraycopy(chunk.words, 0, data, base, chunk.size);
+            addLabels(chunk, base);
+        }
+
+        private void addLabels(final Chunk chunk, final int base) {
+            if (chunk.labels != null) {
+                for (final Map.Entry<String, Integer> label : chunk.labels.entrySet()) {
+                    final int id = intern(label.getKey());
+                    if (labelAddresses[id] >= 0) throw new IllegalStateException("Duplicate label " + label.getKey());
+                    labelAddresses[id] = base + label.getValue();
+                    labelInData[id] = chunk.data;
+                }
+            }
+            if (fixupCount + chunk.fixupCount > fixupPositions.length) {
+                fixupPositions = Arrays.copyOf(fixupPositions, Math.max(fixupCount + chunk.fixupCount, fixupCount * 2));
+                fixupLabels = Arrays.copyOf(fixupLabels, fixupPositions.length);
+                fixupInData = Arrays.copyOf(fixupInData, fixupPositions.length);
+            }
+            for (int i = 0; i < chunk.fixupCount; i++) {
+                fixupPositions[fixupCount] = base + chunk.fixupPositions[i];
+                fixupInData[fixupCount] = chunk.data;
+                fixupLabels[fixupCount++] = intern(chunk.fixupLabels[i]);
+            }
+        }
+
+        /**
+         * @return the id of the label, assigned on first use
+         */
+        int intern(final String label) {
+            final Integer id = labelIds.get(label);
+            if (id != null) return id;
+            if (labelCount == labelNames.length) {
+                labelNames = Arrays.copyOf(labelNames, labelCount * 2);
+                labelAddresses = Arrays.copyOf(labelAddresses, labelCount * 2);
+                labelInData = Arrays.copyOf(labelInData, labelCount * 2);
+            }
+            labelNames[labelCount] = label;
+            labelAddresses[labelCount] = -1;
+            labelIds.put(label, labelCount);
+            return labelCount++;
+        }
+
+        Map<String, Integer> getLabels() {
+            return labels(false);
+        }
+
+        Map<String, Integer> getDataLabels() {
+            return labels(true);
+        }
+
+        private Map<String, Integer> labels(final boolean inData) {
+            final Map<String, Integer> labels = new HashMap<>();
+            for (int id = 0; id < labelCount; id++) {
+                if (labelAddresses[id] >= 0 && labelInData[id] == inData) labels.put(labelNames[id], labelAddresses[id]);
+            }
+            return Collections.unmodifiableMap(labels);
+        }
+
+        /**
+         * @return the positions, in the code or in the data, of the words that are addresses of labels of the code
+         */
+        int[] relocations(final boolean inData) {
+            return positions(inData, false);
+        }
+
+        /**
+         * @return the positions, in the code or in the data, of the words that are addresses of labels of the data
+         */
+        int[] dataReferences(final boolean inData) {
+            return positions(inData, true);
+        }
+
+        private int[] positions(final boolean inData, final boolean ofData) {
+            final int[] positions = new int[fixupCount];
+            int count = 0;
+            for (int i = 0; i < fixupCount; i++) {
+                final int id = fixupLabels[i];
+                if (fixupInData[i] == inData && labelAddresses[id] >= 0 && labelInData[id] == ofData) {
+                    positions[count++] = fixupPositions[i];
+                }
+            }
+            return Arrays.copyOf(positions, count);
+        }
+
+        /**
+         * @return the positions, in the code or in the data, of the words that are addresses
+         * of labels not defined in the buffer, with the name of the labels
+         */
+        Map<Integer, String> undefinedReferences(final boolean inData) {
+            final Map<Integer, String> references = new TreeMap<>();
+            for (int i = 0; i < fixupCount; i++) {
+                final int id = fixupLabels[i];
+                if (fixupInData[i] == inData && labelAddresses[id] < 0) references.put(fixupPositions[i], labelNames[id]);
+            }
+            return references;
+        }
+
+        /**
+         * @return the data, with the addresses of the labels (0 for the ones not defined)
+         */
+        int[] dataWords() {
+            final int[] resolved = data.clone();
+            for (int i = 0; i < fixupCount; i++) {
+                if (fixupInData[i]) resolved[fixupPositions[i]] = Math.max(labelAddresses[fixupLabels[i]], 0);
+            }
+            return resolved;
+        }
+
+        int[] toArray(final int length, final boolean allowUndefined) {
+            final int[] code = Arrays.copyOf(words, length);
+            for (int i = 0; i < fixupCount; i++) {
+                if (fixupInData[i]) continue;
+                final int address = labelAddresses[fixupLabels[i]];
+                if (address < 0 && !allowUndefined) {
+                    throw new IllegalStateException("Undefined label " + labelNames[fixupLabels[i]]);
+                }
+                code[fixupPositions[i]] = Math.max(address, 0);
+            }
+            return code;
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package svm;
+
+import java.util.Arrays;
+
+/**
+ * A byte-oriented encoding of an SVM program, run by the {@link CompactVM}.
+ * <p>
+ * Every opcode takes one byte and every operand is a varint (LEB128 of the zigzag
+ * encoded value, so small values of any sign take a single byte):
+ * <ul>
+ *     <li>the operands of push, lf and sf are their values, but the code addresses
+ *     pushed (the relocated words) are translated to byte addresses;</li>
+ *     <li>the operands of the branches are the offsets of their targets from the
+ *     end of the branch.</li>
+ * </ul>
+ * The size of a branch depends on its offset, that depends on the size of the code
+ * in between: the layout is computed starting from the shortest encoding of every
+ * instruction and growing the branches until no offset changes. A varint can be
+ * padded with redundant continuation bytes, so an instruction never has to shrink
+ * and the iteration always terminates.
+ * <p>
+ * The return addresses and the method addresses in the dispatch tables are byte
+ * addresses too: the former are computed by the machine from the translated ones, the
+ * latter are translated in the data section, the relocated words of which are code addresses.
+ */
+public final class CompactCode {
+
+    private final byte[] bytes;
+    private final int[] byteAddresses;
+    private final int[] data;
+
+    private CompactCode(final byte[] bytes, final int[] byteAddresses, final int[] data) {
+        this.bytes = bytes;
+        this.byteAddresses = byteAddresses;
+        this.data = data;
+    }
+
+    /**
+     * Encode a program.
+     *
+     * @param program the program, it must be a valid program without imports
+     * @return the encoded program
+     * @throws IllegalArgumentException if the program has imports
+     */
+    public static CompactCode encode(final ObjectFile program) {
+        if (!program.isExecutable()) throw new IllegalArgumentException("Unresolved imports " + program.getUnresolvedImports());
+        final int[] code = program.getWords();
+        final int length = program.getLength();
+        final boolean[] relocated = new boolean[length];
+        for (final int position : program.getRelocations()) relocated[position] = true;
+
+        // Dimensione in byte di ogni istruzione, indicizzata per indirizzo di parola
+        final int[] sizes = new int[length];
+        for (int address = 0; address < length; address = next(code, address)) {
+            sizes[address] = 1 + (hasOperand(code[address]) && !relocated[address + 1] && !InstructionSet.isBranch(code[address])
+                    ? varintSize(zigzag(code[address + 1])) : hasOperand(code[address]) ? 1 : 0);
+        }
+        final int[] byteAddresses = new int[length + 1];
+        boolean changed = true;
+        while (changed) {
+            layout(code, length, sizes, byteAddresses);
+            changed = false;
+            for (int address = 0; address < length; address = next(code, address)) {
+                if (!hasOperand(code[address])) continue;
+                final int size = 1 + varintSize(zigzag(operand(code, address, relocated, byteAddresses, sizes)));
+                if (size > sizes[address]) {
+                    sizes[address] = size;
+                    changed = true;
+                }
+            }
+        }
+
+        final byte[] bytes = new byte[byteAddresses[length]];
+        for (int address = 0; address < length; address = next(code, address)) {
+            int position = byteAddresses[address];
+            bytes[position++] = (byte) code[address];
+            if (hasOperand(code[address])) {
+                writeVarint(bytes, position, zigzag(operand(code, address, relocated, byteAddresses, sizes)), sizes[address] - 1);
+            }
+        }
+        final int[] data = program.getData();
+        if (program.getDataSection() != null) {
+            for (final int position : program.getDataSection().getRelocations()) data[position] = byteAddresses[data[position]];
+        }
+        return new CompactCode(bytes, byteAddresses, data);
+    }
+
+    /**
+     * @return the encoded program
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * @return the number of bytes of the program
+     */
+    public int getLength() {
+        return bytes.length;
+    }
+
+    /**
+     * @param wordAddress the address of an instruction in the int encoding
+     * @return its address in the byte encoding
+     */
+    public int byteAddress(final int wordAddress) {
+        return byteAddresses[wordAddress];
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the data section, with the code addresses translated to byte addresses
+     */
+    int[] data() {
+        return data;
+    }
+
+    private static void layout(final int[] code, final int length, final int[] sizes, final int[] byteAddresses) {
+        int position = 0;
+        for (int address = 0; address < length; address = next(code, address)) {
+            byteAddresses[address] = position;
+            position += sizes[address];
+        }
+        byteAddresses[length] = position;
+    }
+
+    /**
+     * @return the value of the operand of the instruction in the byte encoding
+     */
+    private static int operand(final int[] code, final int address, final boolean[] relocated,
+                               final int[] byteAddresses, final int[] sizes) {
+        final int value = code[address + 1];
+        if (InstructionSet.isBranch(code[address])) return byteAddresses[value] - (byteAddresses[address] + sizes[address]);
+        return relocated[address + 1] ? byteAddresses[value] : value;
+    }
+
+    private static boolean hasOperand(final int opcode) {
+        return InstructionSet.operandCount(opcode) > 0;
+    }
+
+    private static int next(final int[] code, final int address) {
+        return address + 1 + InstructionSet.operandCount(code[address]);
+    }
+
+    static int zigzag(final int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(final int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int varintSize(final int value) {
+        int size = 1;
+        for (int rest = value >>> 7; rest != 0; rest >>>= 7) size++;
+        return size;
+    }
+
+    /**
+     * Write a varint, padded to the given size.
+     */
+    private static void writeVarint(final byte[] bytes, int position, int value, final int size) {
+        for (int i = 1; i < size; i++) {
+            bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position] = (byte) value;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactCode" + Arrays.toString(bytes);
+    }
+
+}
@@ -0,0 +1,174 @@
+package svm;
+
+import static svm.ExecuteVM.MEMSIZE;
+
+/**
+ * The Stack Virtual Machine running programs in the {@link CompactCode} encoding.
+ * <p>
+ * The machine has the same registers and memory as the {@link ExecuteVM} and
+ * trusts the program like its unchecked interpreter, but it decodes the varint
+ * operands while fetching them and the code addresses are byte addresses.
+ */
+public class CompactVM {
+
+    private final byte[] code;
+    private final int[] memory = new int[MEMSIZE];
+
+    private int ip = 0;
+    private int sp = MEMSIZE;
+    private int hp = 0;
+    private int fp = MEMSIZE;
+    private int ra;
+    private int tm;
+
+    private long instructionCount = 0;
+
+    public CompactVM(final CompactCode code) {
+        this.code = code.bytes();
+        System.arraycopy(code.data(), 0, memory, 0, code.data().length);
+        hp = code.data().length;
+    }
+
+    /**
+     * Execute the program until the halt instruction.
+     */
+    public void cpu() {
+        long executed = 0;
+        try {
+            while (true) {
+                final int bytecode = code[ip++]; // fetch
+                executed++;
+                int v1, v2;
+                int address;
+                switch (bytecode) {
+                    case Opcodes.PUSH:
+                        push(operand());
+                        break;
+                    case Opcodes.POP:
+                        sp++;
+                        break;
+                    case Opcodes.ADD:
+                        v1 = pop();
+                        v2 = pop();
+                        push(v2 + v1);
+                        break;
+                    case Opcodes.MULT:
+                        v1 = pop();
+                        v2 = pop();
+                        push(v2 * v1);
+                        break;
+                    case Opcodes.DIV:
+                        v1 = pop();
+                        v2 = pop();
+                        push(v2 / v1);
+                        break;
+                    case Opcodes.SUB:
+                        v1 = pop();
+                        v2 = pop();
+                        push(v2 - v1);
+                        break;
+                    case Opcodes.STOREW:
+                        address = pop();
+                        memory[address] = pop();
+                        break;
+                    case Opcodes.LOADW:
+                        push(memory[pop()]);
+                        break;
+                    case Opcodes.LOADFIELD:
+                        address = operand();
+                        push(memory[pop() + address]);
+                        break;
+                    case Opcodes.STOREFIELD:
+                        address = operand();
+                        address += pop();
+                        memory[address] = pop();
+                        break;
+                    case Opcodes.BRANCH:
+                        address = operand();
+                        ip += address;
+                        break;
+                    case Opcodes.BRANCHEQ:
+                        address = operand();
+                        v1 = pop();
+                        v2 = pop();
+                        if (v2 == v1) ip += address;
+                        break;
+                    case Opcodes.BRANCHLESSEQ:
+                        address = operand();
+                        v1 = pop();
+                        v2 = pop();
+                        if (v2 <= v1) ip += address;
+                        break;
+                    case Opcodes.JS:
+                        address = pop();
+                        ra = ip;
+                        ip = address;
+                        break;
+                    case Opcodes.STORERA:
+                        ra = pop();
+                        break;
+                    case Opcodes.LOADRA:
+                        push(ra);
+                        break;
+                    case Opcodes.STORETM:
+                        tm = pop();
+                        break;
+                    case Opcodes.LOADTM:
+                        push(tm);
+                        break;
+                    case Opcodes.LOADFP:
+                        push(fp);
+                        break;
+                    case Opcodes.STOREFP:
+                        fp = pop();
+                        break;
+                    case Opcodes.COPYFP:
+                        fp = sp;
+                        break;
+                    case Opcodes.STOREHP:
+                        hp = pop();
+                        break;
+                    case Opcodes.LOADHP:
+                        push(hp);
+                        break;
+                    case Opcodes.PRINT:
+                        System.out.println(sp >= MEMSIZE ? "Empty stack!" : memory[sp]);
+                        break;
+                    case Opcodes.HALT:
+                        return;
+                }
+            }
+        } finally {
+            instructionCount += executed;
+        }
+    }
+
+    /**
+     * Fetch a varint operand, with a fast path for the single byte ones.
+     */
+    private int operand() {
+        int b = code[ip++];
+        if (b >= 0) return (b >>> 1) ^ -(b & 1);
+        int value = b & 0x7F;
+        int shift = 7;
+        do {
+            b = code[ip++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return CompactCode.unzigzag(value);
+    }
+
+    private int pop() {
+        return memory[sp++];
+    }
+
+    private void push(final int v) {
+        memory[--sp] = v;
+    }
+
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+}
@@ -0,0 +1,152 @@
+package svm;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The control-flow graph of a verified SVM program,
+ * built by the {@link Verifier}.
+ * <p>
+ * The program is split into functions, each one entered with a call
+ * (its first instruction is the cfp that sets up the frame), and every
+ * function into basic blocks. The main program is the function at address 0.
+ */
+public class ControlFlowGraph {
+
+    private final int length;
+    private final List<Function> functions;
+    private final List<BasicBlock> blocks;
+
+    ControlFlowGraph(final int length, final List<Function> functions, final List<BasicBlock> blocks) {
+        this.length = length;
+        this.functions = Collections.unmodifiableList(functions);
+        this.blocks = Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * @return the number of words of the program, without the assembler padding
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the functions, sorted by entry address
+     */
+    public List<Function> getFunctions() {
+        return functions;
+    }
+
+    /**
+     * @return the basic blocks, sorted by address
+     */
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the highest stack depth reached inside a single frame,
+     * that is the maximum of the stack depths of all the functions
+     */
+    public int getMaxFrameDepth() {
+        return functions.stream().mapToInt(f -> f.maxStackDepth).max().orElse(0);
+    }
+
+    /**
+     * A function of the program.
+     */
+    public static class Function {
+
+        /**
+         * The address of the first instruction.
+         */
+        public final int entry;
+
+        /**
+         * The address following the last instruction of the function.
+         */
+        public final int end;
+
+        /**
+         * The number of parameters, inferred from the words popped by the return,
+         * or -1 for the main program and for functions that never return.
+         */
+        public final int parameters;
+
+        /**
+         * The highest number of words pushed on the stack over the
+         * stack pointer at the function entry.
+         */
+        public final int maxStackDepth;
+
+        Function(final int entry, final int end, final int parameters, final int maxStackDepth) {
+            this.entry = entry;
+            this.end = end;
+            this.parameters = parameters;
+            this.maxStackDepth = maxStackDepth;
+        }
+
+        /**
+         * @return true if this is the main program
+         */
+        public boolean isMain() {
+            return entry == 0;
+        }
+
+        /**
+         * @return the number of words of the function
+         */
+        public int size() {
+            return end - entry;
+        }
+    }
+
+    /**
+     * A maximal sequence of instructions executed in order,
+     * entered only at the first one and left only after the last one.
+     */
+    public static class BasicBlock {
+
+        /**
+         * The address of the first instruction.
+         */
+        public final int start;
+
+        /**
+         * The address following the last instruction.
+         */
+        public final int end;
+
+        /**
+         * The entry address of the function the block belongs to,
+         * or -1 if the block is unreachable.
+         */
+        public final int function;
+
+        /**
+         * The stack height at the block entry, relative to the function entry.
+         */
+        public final int entryHeight;
+
+        /**
+         * The addresses of the blocks that can be executed next inside the same function.
+         */
+        public final int[] successors;
+
+        BasicBlock(final int start, final int end, final int function, final int entryHeight, final int[] successors) {
+            this.start = start;
+            this.end = end;
+            this.function = function;
+            this.entryHeight = entryHeight;
+            this.successors = successors;
+        }
+
+        /**
+         * @return true if the block can be executed
+         */
+        public boolean isReachable() {
+            return function >= 0;
+        }
+    }
+
+}
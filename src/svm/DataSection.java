@@ -0,0 +1,95 @@
+package svm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The data section of a program: the words that the loader copies to the bottom of the
+ * heap with a single bulk copy before the program starts, such as the dispatch tables of
+ * the classes of a FOOL program. The heap of the program starts after them.
+ * <p>
+ * The words can be code addresses, like the methods in a dispatch table, and the code can
+ * refer to data addresses, like the address of a dispatch table: the {@link Linker} shifts
+ * the former by the position of the code of the unit, the latter by the position of its data.
+ */
+public final class DataSection {
+
+    private final int[] words;
+    private final int[] relocations;
+    private final Map<Integer, String> imports;
+    private final int[] references;
+
+    /**
+     * @param words       the words of the section
+     * @param relocations the positions of the words that are code addresses
+     * @param imports     the positions of the words that are addresses of other units, with the imported symbols
+     * @param references  the positions of the code words that are data addresses
+     */
+    public DataSection(final int[] words, final int[] relocations, final Map<Integer, String> imports,
+                       final int[] references) {
+        for (final int position : relocations) checkPosition(position, words.length);
+        imports.keySet().forEach(position -> checkPosition(position, words.length));
+        this.words = words.clone();
+        this.relocations = relocations.clone();
+        Arrays.sort(this.relocations);
+        this.imports = Collections.unmodifiableMap(new TreeMap<>(imports));
+        this.references = references.clone();
+        Arrays.sort(this.references);
+    }
+
+    private static void checkPosition(final int position, final int length) {
+        if (position < 0 || position >= length) throw new IllegalArgumentException("Invalid data position " + position);
+    }
+
+    /**
+     * @return the number of words of the section
+     */
+    public int getLength() {
+        return words.length;
+    }
+
+    /**
+     * @return the words of the section, with the imports unresolved
+     */
+    public int[] getWords() {
+        return words.clone();
+    }
+
+    /**
+     * @return the positions of the words that are code addresses, in increasing order
+     */
+    public int[] getRelocations() {
+        return relocations.clone();
+    }
+
+    /**
+     * @return the positions of the words that are addresses of symbols of other units,
+     * with the names of the symbols, in position order
+     */
+    public Map<Integer, String> getImports() {
+        return imports;
+    }
+
+    /**
+     * @return the positions of the code words that are data addresses, in increasing order
+     */
+    public int[] getReferences() {
+        return references.clone();
+    }
+
+    /**
+     * Move the section to relocated code.
+     *
+     * @param relocation the new address of every code address
+     * @param references the new positions of the code words that are data addresses
+     * @return the section of the relocated code
+     */
+    DataSection relocate(final int[] relocation, final int[] references) {
+        final int[] relocated = words.clone();
+        for (final int position : relocations) relocated[position] = relocation[words[position]];
+        return new DataSection(relocated, relocations, imports, references);
+    }
+
+}
@@ -0,0 +1,249 @@
+package svm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Debug information of a program: the line of the high-level source that generated
+ * every code word and the scopes (functions, methods, the main program) of the code,
+ * with the names of the slots of their frames.
+ * <p>
+ * The information is not used by the machine, so it costs nothing at run time: it is
+ * carried alongside the code by the {@link ObjectFile}, through the {@link Linker} and
+ * the {@link PeepholeOptimizer}, so that tools can resolve a raw instruction pointer to
+ * a source line and a function and a frame pointer offset to the name of a variable.
+ */
+public final class DebugInfo {
+
+    /**
+     * A range of code that runs with its own frame.
+     *
+     * @param name  the name of the function
+     * @param start the address of the first word
+     * @param end   the address after the last word
+     * @param slots the names of the frame slots, by offset from the frame pointer
+     */
+    public record Scope(String name, int start, int end, Map<Integer, String> slots) {
+
+        public Scope {
+            if (start < 0 || end < start) throw new IllegalArgumentException("Invalid scope range " + start + "-" + end);
+            slots = Collections.unmodifiableMap(new TreeMap<>(slots));
+        }
+
+        /**
+         * @return true if the address is in the scope
+         */
+        public boolean contains(final int address) {
+            return address >= start && address < end;
+        }
+    }
+
+    private final int[] lines;
+    private final List<Scope> scopes;
+
+    /**
+     * @param lines  the source line of every code word, 0 if not known
+     * @param scopes the scopes of the code
+     */
+    public DebugInfo(final int[] lines, final List<Scope> scopes) {
+        for (final Scope scope : scopes) {
+            if (scope.end() > lines.length) throw new IllegalArgumentException("Scope " + scope.name() + " out of the code");
+        }
+        this.lines = lines.clone();
+        final List<Scope> sorted = new ArrayList<>(scopes);
+        sorted.sort(Comparator.comparingInt(Scope::start).thenComparing(Scope::end, Comparator.reverseOrder()));
+        this.scopes = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * @return the number of code words described
+     */
+    public int getLength() {
+        return lines.length;
+    }
+
+    /**
+     * @param address a code address
+     * @return the source line of the word at the address, or 0 if not known
+     */
+    public int sourceLineOf(final int address) {
+        return address < 0 || address >= lines.length ? 0 : lines[address];
+    }
+
+    /**
+     * @return the scopes, in order of address (an enclosing scope before the ones it contains)
+     */
+    public List<Scope> getScopes() {
+        return scopes;
+    }
+
+    /**
+     * @param address a code address
+     * @return the innermost scope containing the address, or null if there is none
+     */
+    public Scope scopeAt(final int address) {
+        Scope innermost = null;
+        for (final Scope scope : scopes) {
+            if (scope.start() > address) break;
+            if (scope.contains(address)) innermost = scope;
+        }
+        return innermost;
+    }
+
+    /**
+     * @param address the address of the running instruction
+     * @param offset  an offset from the frame pointer
+     * @return the name of the slot of the frame of the running function, or null if not known
+     */
+    public String slotName(final int address, final int offset) {
+        final Scope scope = scopeAt(address);
+        return scope == null ? null : scope.slots().get(offset);
+    }
+
+    /**
+     * @param address a code address
+     * @return a description of the position in the source, as {@code line 3 in f},
+     * or the address if nothing is known about it
+     */
+    public String describe(final int address) {
+        final int line = sourceLineOf(address);
+        final Scope scope = scopeAt(address);
+        if (line == 0 && scope == null) return "ip " + address;
+        return (line == 0 ? "ip " + address : "line " + line) + (scope == null ? "" : " in " + scope.name());
+    }
+
+    /**
+     * Move the information to relocated code.
+     *
+     * @param relocation the new address of every address, including the one after the last word
+     * @param length     the number of words of the relocated code
+     * @return the debug information of the relocated code
+     */
+    DebugInfo relocate(final int[] relocation, final int length) {
+        final int[] relocatedLines = new int[length];
+        for (int address = 0; address < lines.length; address++) {
+            // the removed words are moved to the same address of the following word
+            if (relocation[address] != relocation[address + 1]) relocatedLines[relocation[address]] = lines[address];
+        }
+        final List<Scope> relocatedScopes = new ArrayList<>();
+        for (final Scope scope : scopes) {
+            relocatedScopes.add(new Scope(scope.name(), relocation[scope.start()], relocation[scope.end()], scope.slots()));
+        }
+        return new DebugInfo(relocatedLines, relocatedScopes);
+    }
+
+    /**
+     * Lay out the information of consecutive pieces of code.
+     *
+     * @param parts  the information of every piece, null if not known
+     * @param bases  the address of every piece
+     * @param length the number of words of the whole code
+     * @return the debug information of the whole code
+     */
+    static DebugInfo concatenate(final List<DebugInfo> parts, final int[] bases, final int length) {
+        final int[] lines = new int[length];
+        final List<Scope> scopes = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            final DebugInfo part = parts.get(i);
+            if (part == null) continue;
+            final int base = bases[i];
+            System.arraycopy(part.lines, 0, lines, base, part.lines.length);
+            for (final Scope scope : part.scopes) {
+                scopes.add(new Scope(scope.name(), base + scope.start(), base + scope.end(), scope.slots()));
+            }
+        }
+        return new DebugInfo(lines, scopes);
+    }
+
+    /**
+     * @return the size in bytes of the encoded information
+     */
+    int encodedSize() {
+        int size = Integer.BYTES * (2 + lines.length);
+        for (final Scope scope : scopes) {
+            size += 3 * Integer.BYTES + stringSize(scope.name());
+            for (final String slot : scope.slots().values()) size += Integer.BYTES + stringSize(slot);
+        }
+        return size;
+    }
+
+    /**
+     * Write the information: the line table, then every scope with its range, name and slots.
+     */
+    void put(final ByteBuffer buffer) {
+        buffer.putInt(lines.length);
+        for (final int line : lines) buffer.putInt(line);
+        buffer.putInt(scopes.size());
+        for (final Scope scope : scopes) {
+            buffer.putInt(scope.start()).putInt(scope.end());
+            putString(buffer, scope.name());
+            buffer.putInt(scope.slots().size());
+            scope.slots().forEach((offset, slot) -> putString(buffer.putInt(offset), slot));
+        }
+    }
+
+    /**
+     * Read the information written by {@link #put(ByteBuffer)}.
+     *
+     * @throws IllegalArgumentException if the information is not consistent
+     * @throws java.nio.BufferUnderflowException if the information is truncated
+     */
+    static DebugInfo read(final ByteBuffer buffer) {
+        final int[] lines = new int[checkCount(buffer.getInt(), buffer)];
+        buffer.asIntBuffer().get(lines);
+        buffer.position(buffer.position() + Integer.BYTES * lines.length);
+        final int count = checkCount(buffer.getInt(), buffer);
+        final List<Scope> scopes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int start = buffer.getInt();
+            final int end = buffer.getInt();
+            final String name = getString(buffer);
+            final int slotCount = checkCount(buffer.getInt(), buffer);
+            final Map<Integer, String> slots = new TreeMap<>();
+            for (int s = 0; s < slotCount; s++) {
+                final int offset = buffer.getInt();
+                slots.put(offset, getString(buffer));
+            }
+            scopes.add(new Scope(name, start, end, slots));
+        }
+        return new DebugInfo(lines, scopes);
+    }
+
+    private static int checkCount(final int count, final ByteBuffer buffer) {
+        if (count < 0 || count > buffer.remaining() / Integer.BYTES) throw new IllegalArgumentException("Invalid count " + count);
+        return count;
+    }
+
+    private static int stringSize(final String string) {
+        return Short.BYTES + string.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void putString(final ByteBuffer buffer, final String string) {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof DebugInfo info && Arrays.equals(lines, info.lines) && scopes.equals(info.scopes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(lines) + scopes.hashCode();
+    }
+
+}
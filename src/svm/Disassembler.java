@@ -0,0 +1,209 @@
+package svm;
+
+import svm.exc.VerifyException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Disassembler and code layout inspector of SVM programs.
+ * <p>
+ * The listing is textual assembly that the {@link Assembler} assembles back to the same
+ * code: the labels of the program are recovered from its symbols, the code addresses
+ * without a symbol (branch targets and relocated words) get a label {@code L<address>}.
+ * If the program can be verified, the listing is split into the functions and the basic
+ * blocks of its {@link ControlFlowGraph}, shown as comments together with the source
+ * line of every instruction when the object file has a line table. The data section follows
+ * the code as {@code .data} and {@code .word} directives, and the data addresses that the code
+ * refers to get a label {@code D<address>}.
+ * <p>
+ * The summary lists the size of every function and the static histogram of the opcodes.
+ */
+public final class Disassembler {
+
+    private static final int COMMENT_COLUMN = 24;
+
+    private final ObjectFile program;
+    private final int[] code;
+    private final ControlFlowGraph graph;
+    private final Map<Integer, List<String>> labels = new HashMap<>();
+    private final Set<Integer> addressWords = new HashSet<>();
+    private final DataSection data;
+    private final Map<Integer, String> dataLabels = new HashMap<>();
+    private final Set<Integer> dataReferences = new HashSet<>();
+    private final Set<Integer> dataRelocations = new HashSet<>();
+
+    private Disassembler(final ObjectFile program) {
+        this.program = program;
+        this.code = program.getWords();
+        this.data = program.getDataSection();
+        ControlFlowGraph graph;
+        try {
+            graph = Verifier.verify(code);
+        } catch (VerifyException e) {
+            graph = null; // not a complete program (e.g. a library unit): listed without structure
+        }
+        this.graph = graph;
+
+        program.getSymbols().forEach((name, address) -> labels.computeIfAbsent(address, a -> new ArrayList<>()).add(name));
+        for (final int position : program.getRelocations()) addressWords.add(position);
+        for (int address = 0; address < code.length; address += 1 + operandCount(code[address])) {
+            if (InstructionSet.isValid(code[address]) && InstructionSet.isBranch(code[address]) && address + 1 < code.length) {
+                addressWords.add(address + 1);
+            }
+        }
+        for (final int position : addressWords) {
+            if (!program.getImports().containsKey(position)) {
+                labels.computeIfAbsent(code[position], a -> new ArrayList<>(List.of("L" + a)));
+            }
+        }
+        if (data != null) {
+            for (final int position : data.getReferences()) {
+                dataReferences.add(position);
+                dataLabels.putIfAbsent(code[position], "D" + code[position]);
+            }
+            final int[] words = data.getWords();
+            for (final int position : data.getRelocations()) {
+                dataRelocations.add(position);
+                labels.computeIfAbsent(words[position], a -> new ArrayList<>(List.of("L" + a)));
+            }
+        }
+        if (graph != null) {
+            for (final ControlFlowGraph.Function function : graph.getFunctions()) {
+                if (!function.isMain()) labels.computeIfAbsent(function.entry, a -> new ArrayList<>(List.of("L" + a)));
+            }
+        }
+    }
+
+    /**
+     * Disassemble a program.
+     *
+     * @param program the program
+     * @return the listing of the program
+     */
+    public static String disassemble(final ObjectFile program) {
+        return new Disassembler(program).listing();
+    }
+
+    /**
+     * Describe the layout of a program.
+     *
+     * @param program the program
+     * @return the size of the functions and the opcode histogram
+     */
+    public static String summary(final ObjectFile program) {
+        return new Disassembler(program).layout();
+    }
+
+    private String listing() {
+        final Map<Integer, ControlFlowGraph.Function> functions = new HashMap<>();
+        final Map<Integer, ControlFlowGraph.BasicBlock> blocks = new HashMap<>();
+        if (graph != null) {
+            graph.getFunctions().forEach(function -> functions.put(function.entry, function));
+            graph.getBlocks().forEach(block -> blocks.put(block.start, block));
+        }
+
+        final StringBuilder text = new StringBuilder();
+        int address = 0;
+        while (address < code.length) {
+            final ControlFlowGraph.Function function = functions.get(address);
+            if (function != null) {
+                if (text.length() > 0) text.append('\n');
+                text.append("/* function ").append(functionName(function))
+                        .append(": ").append(function.size()).append(" words");
+                if (function.parameters >= 0) text.append(", ").append(function.parameters).append(" parameters");
+                text.append(" */\n");
+            }
+            final ControlFlowGraph.BasicBlock block = blocks.get(address);
+            if (block != null) {
+                text.append("/* block ").append(block.start).append('-').append(block.end);
+                text.append(block.isReachable() ? ", stack height " + block.entryHeight : ", unreachable").append(" */\n");
+            }
+            for (final String label : labels.getOrDefault(address, List.of())) text.append(label).append(":\n");
+
+            final int start = text.length();
+            final int opcode = code[address];
+            text.append(InstructionSet.mnemonic(opcode));
+            final int operands = operandCount(opcode);
+            for (int i = 1; i <= operands && address + i < code.length; i++) text.append(' ').append(operand(address + i));
+            if (program.hasLines()) {
+                text.append(" ".repeat(Math.max(1, COMMENT_COLUMN - (text.length() - start))));
+                text.append("/* line ").append(program.lineOf(address)).append(" */");
+            }
+            text.append('\n');
+            address += 1 + operands;
+        }
+        for (final String label : labels.getOrDefault(code.length, List.of())) text.append(label).append(":\n");
+        if (data == null) return text.toString();
+
+        text.append(".data\n");
+        final int[] words = data.getWords();
+        for (int position = 0; position <= words.length; position++) {
+            final String label = dataLabels.get(position);
+            if (label != null) text.append(label).append(":\n");
+            if (position < words.length) text.append(".word ").append(dataWord(words, position)).append('\n');
+        }
+        return text.toString();
+    }
+
+    private String layout() {
+        final StringBuilder text = new StringBuilder();
+        if (graph != null) {
+            text.append(String.format("%-24s %8s %8s %8s %10s%n", "function", "entry", "words", "blocks", "max stack"));
+            for (final ControlFlowGraph.Function function : graph.getFunctions()) {
+                final long blocks = graph.getBlocks().stream().filter(b -> b.function == function.entry).count();
+                text.append(String.format("%-24s %8d %8d %8d %10d%n", functionName(function),
+                        function.entry, function.size(), blocks, function.maxStackDepth));
+            }
+        }
+        text.append(String.format("%-24s %8s %8d%n", "total", "", code.length));
+        if (data != null) text.append(String.format("%-24s %8s %8d%n", "data", "", data.getLength()));
+        text.append(String.format("%n"));
+
+        final int[] histogram = new int[Opcodes.HALT + 1];
+        int instructions = 0;
+        for (int address = 0; address < code.length; address += 1 + operandCount(code[address])) {
+            if (InstructionSet.isValid(code[address])) histogram[code[address]]++;
+            instructions++;
+        }
+        final List<Integer> opcodes = new ArrayList<>();
+        for (int opcode = 1; opcode < histogram.length; opcode++) if (histogram[opcode] > 0) opcodes.add(opcode);
+        opcodes.sort((a, b) -> histogram[b] != histogram[a] ? histogram[b] - histogram[a] : a - b);
+        text.append(String.format("%-8s %8s %8s%n", "opcode", "count", "%"));
+        for (final int opcode : opcodes) {
+            text.append(String.format(Locale.ROOT, "%-8s %8d %8.1f%n", InstructionSet.mnemonic(opcode), histogram[opcode],
+                    100.0 * histogram[opcode] / instructions));
+        }
+        return text.toString();
+    }
+
+    private String operand(final int position) {
+        final String imported = program.getImports().get(position);
+        if (imported != null) return imported;
+        if (dataReferences.contains(position)) return dataLabels.get(code[position]);
+        if (addressWords.contains(position)) return labels.get(code[position]).get(0);
+        return String.valueOf(code[position]);
+    }
+
+    private String dataWord(final int[] words, final int position) {
+        final String imported = data.getImports().get(position);
+        if (imported != null) return imported;
+        if (dataRelocations.contains(position)) return labels.get(words[position]).get(0);
+        return String.valueOf(words[position]);
+    }
+
+    private String functionName(final ControlFlowGraph.Function function) {
+        if (function.isMain()) return "main";
+        return labels.get(function.entry).get(0);
+    }
+
+    private static int operandCount(final int opcode) {
+        return InstructionSet.isValid(opcode) ? InstructionSet.operandCount(opcode) : 0;
+    }
+
+}
@@ -1,13 +1,21 @@
 package svm;
 
+import svm.exc.VMException;
+
+import java.util.Arrays;
+
 public class ExecuteVM {
 
     public static final int CODESIZE = 10000;
     public static final int MEMSIZE = 10000;
 
     private final int[] code;
+    private final int[] data; // copied to the bottom of the heap when the program is loaded
     private final int[] memory = new int[MEMSIZE];
 
+    /* Se true ogni accesso a codice e memoria viene controllato */
+    private final boolean checked;
+
     /* Il registro ip contiene l'indirizzo dell'istruzione da eseguire */
     private int ip = 0;
 
@@ -28,106 +36,570 @@ public class ExecuteVM {
     /* Il registro tm contiene un valore temporaneo */
     private int tm;
 
+    /* Statistiche di esecuzione, pubblicate in VMStatistics alla fine di ogni run */
+    private long instructionCount = 0;
+    private long callCount = 0;
+    private long allocatedWords = 0;
+    private int peakHp = 0;
+    private int minSp = MEMSIZE;
+
+    /* Record/replay: log degli eventi al confine con l'ambiente */
+    private Recording recording = null;     // run being recorded
+    private Recording.Cursor replay = null; // events expected by the replay
+    private boolean echo = true;            // print the output (false while seeking)
+
+    /**
+     * Create a machine that trusts the program: it runs the unchecked interpreter.
+     *
+     * @param code the assembled program
+     */
     public ExecuteVM(int[] code) {
+        this(code, new int[0], false);
+    }
+
+    /**
+     * Create a machine that trusts the program: it runs the unchecked interpreter.
+     *
+     * @param program the program, with its data section
+     * @throws IllegalStateException if the program has unresolved imports
+     */
+    public ExecuteVM(final ObjectFile program) {
+        this(program.getCode(), program.getData(), false);
+    }
+
+    private ExecuteVM(final int[] code, final int[] data, final boolean checked) {
+        if (data.length > MEMSIZE) throw new IllegalArgumentException("Data section larger than the memory");
         this.code = code;
+        this.data = data;
+        this.checked = checked;
+        load();
     }
 
+    /**
+     * Create a machine for an untrusted program that checks, at every instruction,
+     * the opcode, the operands, the jump targets and every code and memory access.
+     *
+     * @param code the assembled program
+     * @return the machine
+     */
+    public static ExecuteVM checked(final int[] code) {
+        return new ExecuteVM(code, new int[0], true);
+    }
+
+    /**
+     * Same as {@link #checked(int[])} for a program with its data section.
+     *
+     * @param program the program
+     * @return the machine
+     * @throws IllegalStateException if the program has unresolved imports
+     */
+    public static ExecuteVM checked(final ObjectFile program) {
+        return new ExecuteVM(program.getCode(), program.getData(), true);
+    }
+
+    /**
+     * Create a machine for an untrusted program that is verified once,
+     * at load time, and then executed by the unchecked interpreter.
+     *
+     * @param code the assembled program
+     * @return the machine
+     * @throws svm.exc.VerifyException if the program is not valid
+     */
+    public static ExecuteVM verified(final int[] code) {
+        Verifier.verify(code);
+        return new ExecuteVM(code, new int[0], false);
+    }
+
+    /**
+     * Same as {@link #verified(int[])} for a program with its data section.
+     *
+     * @param program the program
+     * @return the machine
+     * @throws svm.exc.VerifyException if the program is not valid
+     * @throws IllegalStateException   if the program has unresolved imports
+     */
+    public static ExecuteVM verified(final ObjectFile program) {
+        final int[] code = program.getCode();
+        Verifier.verify(code);
+        return new ExecuteVM(code, program.getData(), false);
+    }
+
+    /**
+     * Execute the program until the halt instruction.
+     * At the end of the run (even if it fails) its statistics are
+     * published to {@link VMStatistics} and to JDK Flight Recorder.
+     */
     public void cpu() {
-        while (true) {
-            int bytecode = code[ip++]; // fetch
-            int v1, v2;
-            int address;
-            switch (bytecode) {
-                case SVMParser.PUSH:
-                    push(code[ip++]);
-                    break;
-                case SVMParser.POP:
-                    pop();
-                    break;
-                case SVMParser.ADD:
-                    v1 = pop();
-                    v2 = pop();
-                    push(v2 + v1);
-                    break;
-                case SVMParser.MULT:
-                    v1 = pop();
-                    v2 = pop();
-                    push(v2 * v1);
-                    break;
-                case SVMParser.DIV:
-                    v1 = pop();
-                    v2 = pop();
-                    push(v2 / v1);
-                    break;
-                case SVMParser.SUB:
-                    v1 = pop();
-                    v2 = pop();
-                    push(v2 - v1);
-                    break;
-                case SVMParser.STOREW: //
-                    address = pop();
-                    memory[address] = pop();
-                    break;
-                case SVMParser.LOADW: //
-                    push(memory[pop()]);
-                    break;
-                case SVMParser.BRANCH:
-                    address = code[ip];
-                    ip = address;
-                    break;
-                case SVMParser.BRANCHEQ:
-                    address = code[ip++];
-                    v1 = pop();
-                    v2 = pop();
-                    if (v2 == v1) ip = address;
-                    break;
-                case SVMParser.BRANCHLESSEQ:
-                    address = code[ip++];
-                    v1 = pop();
-                    v2 = pop();
-                    if (v2 <= v1) ip = address;
-                    break;
-                case SVMParser.JS: //
-                    address = pop();
-                    ra = ip;
-                    ip = address;
-                    break;
-                case SVMParser.STORERA: //
-                    ra = pop();
-                    break;
-                case SVMParser.LOADRA: //
-                    push(ra);
-                    break;
-                case SVMParser.STORETM:
-                    tm = pop();
-                    break;
-                case SVMParser.LOADTM:
-                    push(tm);
-                    break;
-                case SVMParser.LOADFP: //
-                    push(fp);
-                    break;
-                case SVMParser.STOREFP: //
-                    fp = pop();
-                    break;
-                case SVMParser.COPYFP: //
-                    fp = sp;
-                    break;
-                case SVMParser.STOREHP: //
-                    hp = pop();
-                    break;
-                case SVMParser.LOADHP: //
-                    push(hp);
-                    break;
-                case SVMParser.PRINT:
-                    System.out.println((sp < MEMSIZE) ? memory[sp] : "Empty stack!");
-                    break;
-                case SVMParser.HALT:
-                    return;
+        run();
+    }
+
+    /**
+     * Execute the program until the halt instruction, recording its
+     * boundary events and a checkpoint every {@code checkpointInterval} instructions.
+     * The recording is finished even if the run fails, so a crash can be replayed too.
+     *
+     * @param checkpointInterval the number of instructions between two checkpoints
+     * @return the recording of the run
+     */
+    public Recording record(final long checkpointInterval) {
+        final Recording recording = new Recording(code, data, checkpointInterval);
+        this.recording = recording;
+        boolean halted = false;
+        try {
+            run();
+            halted = true;
+        } finally {
+            this.recording = null;
+            recording.finish(instructionCount, halted);
+        }
+        return recording;
+    }
+
+    /**
+     * Same as {@link #record(long)} with the default checkpoint interval.
+     *
+     * @return the recording of the run
+     */
+    public Recording record() {
+        return record(Recording.DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Re-execute a recorded run from the beginning, checking that every
+     * boundary event happens exactly as recorded.
+     *
+     * @param recording the recording to replay
+     * @throws svm.exc.ReplayException if the replay diverges from the recording
+     */
+    public void replay(final Recording recording) {
+        recording.checkCode(code, data);
+        reset();
+        replay = recording.cursorAfter(0);
+        try {
+            run();
+        } finally {
+            replay = null;
+        }
+    }
+
+    /**
+     * Bring the machine to the state it had in the recorded run after the
+     * given number of instructions, restoring the closest previous checkpoint
+     * and re-executing (silently) only the remaining instructions.
+     *
+     * @param recording   the recording of the run
+     * @param instruction the number of executed instructions to reach
+     * @return true if the program halted before reaching the instruction
+     * @throws svm.exc.ReplayException if the replay diverges from the recording
+     */
+    public boolean seek(final Recording recording, final long instruction) {
+        recording.checkCode(code, data);
+        final Recording.Checkpoint checkpoint = recording.checkpointBefore(instruction);
+        if (checkpoint == null) {
+            reset();
+        } else {
+            restore(checkpoint);
+        }
+        replay = recording.cursorAfter(instructionCount);
+        echo = false;
+        try {
+            return execute(instruction);
+        } finally {
+            replay = null;
+            echo = true;
+        }
+    }
+
+    private void run() {
+        final VMRunEvent event = new VMRunEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        final long startInstructions = instructionCount;
+        final long startCalls = callCount;
+        final long startAllocatedWords = allocatedWords;
+        try {
+            if (recording == null) {
+                execute(Long.MAX_VALUE);
+            } else {
+                long nextCheckpoint = instructionCount + recording.getCheckpointInterval();
+                while (!execute(nextCheckpoint)) {
+                    recording.addCheckpoint(checkpoint());
+                    nextCheckpoint += recording.getCheckpointInterval();
+                }
+            }
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            final long instructions = instructionCount - startInstructions;
+            final long calls = callCount - startCalls;
+            final long words = allocatedWords - startAllocatedWords;
+            VMStatistics.getInstance().publish(instructions, calls, words, peakHp, getPeakStackDepth(), elapsed);
+            event.end();
+            if (event.shouldCommit()) {
+                event.instructions = instructions;
+                event.calls = calls;
+                event.wordsAllocated = words;
+                event.peakHeapPointer = peakHp;
+                event.peakStackDepth = getPeakStackDepth();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Execute the program until the halt instruction or until
+     * the given total number of instructions has been executed.
+     *
+     * @param limit the total number of instructions to reach
+     * @return true if the halt instruction was executed
+     */
+    private boolean execute(final long limit) {
+        return checked ? executeChecked(limit) : executeUnchecked(limit);
+    }
+
+    private boolean executeUnchecked(final long limit) {
+        final long budget = limit - instructionCount;
+        long executed = 0; // local counter, so the dispatch loop does not touch the heap for it
+        // the same for the peak of the stack, lowered only by the instructions
+        // that push more words than they pop
+        int lowestSp = minSp;
+        try {
+            while (executed < budget) {
+                int bytecode = code[ip++]; // fetch
+                executed++;
+                int v1, v2;
+                int address;
+                switch (bytecode) {
+                    case Opcodes.PUSH:
+                        push(code[ip++]);
+                        if (sp < lowestSp) lowestSp = sp;
+                        break;
+                    case Opcodes.POP:
+                        pop();
+                        break;
+                    case Opcodes.ADD:
+                        v1 = pop();
+                        v2 = pop();
+                        push(v2 + v1);
+                        break;
+                    case Opcodes.MULT:
+                        v1 = pop();
+                        v2 = pop();
+                        push(v2 * v1);
+                        break;
+                    case Opcodes.DIV:
+                        v1 = pop();
+                        v2 = pop();
+                        push(v2 / v1);
+                        break;
+                    case Opcodes.SUB:
+                        v1 = pop();
+                        v2 = pop();
+                        push(v2 - v1);
+                        break;
+                    case Opcodes.STOREW: //
+                        address = pop();
+                        memory[address] = pop();
+                        break;
+                    case Opcodes.LOADW: //
+                        push(memory[pop()]);
+                        break;
+                    case Opcodes.LOADFIELD:
+                        address = pop() + code[ip++];
+                        push(memory[address]);
+                        break;
+                    case Opcodes.STOREFIELD:
+                        address = pop() + code[ip++];
+                        memory[address] = pop();
+                        break;
+                    case Opcodes.BRANCH:
+                        address = code[ip];
+                        ip = address;
+                        break;
+                    case Opcodes.BRANCHEQ:
+                        address = code[ip++];
+                        v1 = pop();
+                        v2 = pop();
+                        if (v2 == v1) ip = address;
+                        break;
+                    case Opcodes.BRANCHLESSEQ:
+                        address = code[ip++];
+                        v1 = pop();
+                        v2 = pop();
+                        if (v2 <= v1) ip = address;
+                        break;
+                    case Opcodes.JS: //
+                        address = pop();
+                        ra = ip;
+                        ip = address;
+                        break;
+                    case Opcodes.STORERA: //
+                        ra = pop();
+                        break;
+                    case Opcodes.LOADRA: //
+                        push(ra);
+                        if (sp < lowestSp) lowestSp = sp;
+                        break;
+                    case Opcodes.STORETM:
+                        tm = pop();
+                        break;
+                    case Opcodes.LOADTM:
+                        push(tm);
+                        if (sp < lowestSp) lowestSp = sp;
+                        break;
+                    case Opcodes.LOADFP: //
+                        push(fp);
+                        if (sp < lowestSp) lowestSp = sp;
+                        break;
+                    case Opcodes.STOREFP: //
+                        fp = pop();
+                        break;
+                    case Opcodes.COPYFP: //
+                        fp = sp;
+                        callCount++; // every frame is set up by a cfp
+                        break;
+                    case Opcodes.STOREHP: //
+                        address = pop();
+                        if (address > hp) allocatedWords += address - hp;
+                        if (address > peakHp) peakHp = address;
+                        hp = address;
+                        break;
+                    case Opcodes.LOADHP: //
+                        push(hp);
+                        if (sp < lowestSp) lowestSp = sp;
+                        break;
+                    case Opcodes.PRINT:
+                        print(instructionCount + executed);
+                        break;
+                    case Opcodes.HALT:
+                        return true;
+                }
             }
+            return false;
+        } finally {
+            instructionCount += executed;
+            minSp = lowestSp;
         }
     }
 
+    /**
+     * Same as {@link #executeUnchecked(long)} but every fetch, memory access
+     * and jump is validated, reporting errors as {@link VMException}.
+     */
+    private boolean executeChecked(final long limit) {
+        final long budget = limit - instructionCount;
+        long executed = 0;
+        int lowestSp = minSp;
+        try {
+            while (executed < budget) {
+                final int current = ip;
+                int bytecode = fetch(); // fetch
+                executed++;
+                int v1, v2;
+                int address;
+                switch (bytecode) {
+                    case Opcodes.PUSH:
+                        checkedPush(fetch());
+                        if (sp < lowestSp) lowestSp = sp;
+                        break;
+                    case Opcodes.POP:
+                        checkedPop();
+                        break;
+                    case Opcodes.ADD:
+                        v1 = checkedPop();
+                        v2 = checkedPop();
+                        checkedPush(v2 + v1);
+                        break;
+                    case Opcodes.MULT:
+                        v1 = checkedPop();
+                        v2 = checkedPop();
+                        checkedPush(v2 * v1);
+                        break;
+                    case Opcodes.DIV:
+                        v1 = checkedPop();
+                        v2 = checkedPop();
+                        if (v1 == 0) throw new VMException("Division by zero", current);
+                        checkedPush(v2 / v1);
+                        break;
+                    case Opcodes.SUB:
+                        v1 = checkedPop();
+                        v2 = checkedPop();
+                        checkedPush(v2 - v1);
+                        break;
+                    case Opcodes.STOREW: //
+                        address = checkedPop();
+                        store(address, checkedPop());
+                        break;
+                    case Opcodes.LOADW: //
+                        checkedPush(load(checkedPop()));
+                        break;
+                    case Opcodes.LOADFIELD:
+                        address = checkedPop() + fetch();
+                        checkedPush(load(address));
+                        break;
+                    case Opcodes.STOREFIELD:
+                        address = checkedPop() + fetch();
+                        store(address, checkedPop());
+                        break;
+                    case Opcodes.BRANCH:
+                        ip = target(fetch());
+                        break;
+                    case Opcodes.BRANCHEQ:
+                        address = target(fetch());
+                        v1 = checkedPop();
+                        v2 = checkedPop();
+                        if (v2 == v1) ip = address;
+                        break;
+                    case Opcodes.BRANCHLESSEQ:
+                        address = target(fetch());
+                        v1 = checkedPop();
+                        v2 = checkedPop();
+                        if (v2 <= v1) ip = address;
+                        break;
+                    case Opcodes.JS: //
+                        address = target(checkedPop());
+                        ra = ip;
+                        ip = address;
+                        break;
+                    case Opcodes.STORERA: //
+                        ra = checkedPop();
+                        break;
+                    case Opcodes.LOADRA: //
+                        checkedPush(ra);
+                        if (sp < lowestSp) lowestSp = sp;
+                        break;
+                    case Opcodes.STORETM:
+                        tm = checkedPop();
+                        break;
+                    case Opcodes.LOADTM:
+                        checkedPush(tm);
+                        if (sp < lowestSp) lowestSp = sp;
+                        break;
+                    case Opcodes.LOADFP: //
+                        checkedPush(fp);
+                        if (sp < lowestSp) lowestSp = sp;
+                        break;
+                    case Opcodes.STOREFP: //
+                        fp = checkedPop();
+                        break;
+                    case Opcodes.COPYFP: //
+                        fp = sp;
+                        callCount++;
+                        break;
+                    case Opcodes.STOREHP: //
+                        address = checkedPop();
+                        if (address < 0 || address > sp) throw new VMException("Heap pointer " + address + " out of the heap", current);
+                        if (address > hp) allocatedWords += address - hp;
+                        if (address > peakHp) peakHp = address;
+                        hp = address;
+                        break;
+                    case Opcodes.LOADHP: //
+                        checkedPush(hp);
+                        if (sp < lowestSp) lowestSp = sp;
+                        break;
+                    case Opcodes.PRINT:
+                        print(instructionCount + executed);
+                        break;
+                    case Opcodes.HALT:
+                        return true;
+                    default:
+                        throw new VMException("Unknown opcode " + bytecode, current);
+                }
+            }
+            return false;
+        } finally {
+            instructionCount += executed;
+            minSp = lowestSp;
+        }
+    }
+
+    private int fetch() {
+        if (ip < 0 || ip >= code.length) throw new VMException("Instruction pointer out of the code", ip);
+        return code[ip++];
+    }
+
+    private int target(final int address) {
+        if (address < 0 || address >= code.length) throw new VMException("Jump to " + address + " out of the code", ip);
+        return address;
+    }
+
+    private int load(final int address) {
+        if (address < 0 || address >= MEMSIZE) throw new VMException("Load from " + address + " out of the memory", ip);
+        return memory[address];
+    }
+
+    private void store(final int address, final int value) {
+        if (address < 0 || address >= MEMSIZE) throw new VMException("Store to " + address + " out of the memory", ip);
+        memory[address] = value;
+    }
+
+    private int checkedPop() {
+        if (sp >= MEMSIZE) throw new VMException("Stack underflow", ip);
+        return memory[sp++];
+    }
+
+    private void checkedPush(final int v) {
+        if (sp <= hp) throw new VMException("Stack overflow into the heap", ip);
+        push(v);
+    }
+
+    /**
+     * Print the value on top of the stack, the only interaction of
+     * the program with its environment.
+     *
+     * @param instruction the number of the print instruction in the run
+     */
+    private void print(final long instruction) {
+        final boolean empty = sp >= MEMSIZE;
+        final int kind = empty ? Recording.OUTPUT_EMPTY : Recording.OUTPUT;
+        final int value = empty ? 0 : memory[sp];
+        if (recording != null) recording.logEvent(instruction, kind, value);
+        if (replay != null) replay.expect(instruction, kind, value);
+        if (echo) System.out.println(empty ? "Empty stack!" : value);
+    }
+
+    private Recording.Checkpoint checkpoint() {
+        return new Recording.Checkpoint(instructionCount, callCount, allocatedWords, peakHp, minSp,
+                ip, sp, hp, fp, ra, tm, memory.clone());
+    }
+
+    private void restore(final Recording.Checkpoint checkpoint) {
+        System.arraycopy(checkpoint.memory, 0, memory, 0, MEMSIZE);
+        instructionCount = checkpoint.instructions;
+        callCount = checkpoint.calls;
+        allocatedWords = checkpoint.allocatedWords;
+        peakHp = checkpoint.peakHp;
+        minSp = checkpoint.minSp;
+        ip = checkpoint.ip;
+        sp = checkpoint.sp;
+        hp = checkpoint.hp;
+        fp = checkpoint.fp;
+        ra = checkpoint.ra;
+        tm = checkpoint.tm;
+    }
+
+    private void reset() {
+        Arrays.fill(memory, 0);
+        instructionCount = 0;
+        callCount = 0;
+        allocatedWords = 0;
+        minSp = MEMSIZE;
+        ip = 0;
+        sp = MEMSIZE;
+        fp = MEMSIZE;
+        ra = 0;
+        tm = 0;
+        load();
+    }
+
+    /**
+     * Copy the data section to the bottom of the heap, that starts after it.
+     */
+    private void load() {
+        System.arraycopy(data, 0, memory, 0, data.length);
+        hp = data.length;
+        peakHp = hp;
+    }
+
     private int pop() {
         return memory[sp++];
     }
@@ -136,4 +608,71 @@ public class ExecuteVM {
         memory[--sp] = v;
     }
 
+    public int getIp() {
+        return ip;
+    }
+
+    public int getSp() {
+        return sp;
+    }
+
+    public int getHp() {
+        return hp;
+    }
+
+    public int getFp() {
+        return fp;
+    }
+
+    public int getRa() {
+        return ra;
+    }
+
+    public int getTm() {
+        return tm;
+    }
+
+    /**
+     * @param address the memory address
+     * @return the word stored at the given address
+     */
+    public int readMemory(final int address) {
+        return memory[address];
+    }
+
+    /**
+     * @return the number of instructions executed so far
+     */
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * @return the number of calls (frames set up with cfp) executed so far
+     */
+    public long getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * @return the number of heap words allocated so far
+     */
+    public long getAllocatedWords() {
+        return allocatedWords;
+    }
+
+    /**
+     * @return the highest value reached by $hp
+     */
+    public int getPeakHeapPointer() {
+        return peakHp;
+    }
+
+    /**
+     * @return the highest number of words used by the stack
+     */
+    public int getPeakStackDepth() {
+        return MEMSIZE - minSp;
+    }
+
 }
\ No newline at end of file
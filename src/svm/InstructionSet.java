@@ -0,0 +1,114 @@
+package svm;
+
+/**
+ * Static description of the instructions of the Stack Virtual Machine:
+ * which opcodes exist and how many words of operands follow them.
+ */
+final class InstructionSet {
+
+    /* Mnemonici indicizzati per opcode */
+    private static final String[] MNEMONICS = new String[Opcodes.HALT + 1];
+
+    static {
+        MNEMONICS[Opcodes.PUSH] = "push";
+        MNEMONICS[Opcodes.POP] = "pop";
+        MNEMONICS[Opcodes.ADD] = "add";
+        MNEMONICS[Opcodes.SUB] = "sub";
+        MNEMONICS[Opcodes.MULT] = "mult";
+        MNEMONICS[Opcodes.DIV] = "div";
+        MNEMONICS[Opcodes.STOREW] = "sw";
+        MNEMONICS[Opcodes.LOADW] = "lw";
+        MNEMONICS[Opcodes.LOADFIELD] = "lf";
+        MNEMONICS[Opcodes.STOREFIELD] = "sf";
+        MNEMONICS[Opcodes.BRANCH] = "b";
+        MNEMONICS[Opcodes.BRANCHEQ] = "beq";
+        MNEMONICS[Opcodes.BRANCHLESSEQ] = "bleq";
+        MNEMONICS[Opcodes.JS] = "js";
+        MNEMONICS[Opcodes.LOADRA] = "lra";
+        MNEMONICS[Opcodes.STORERA] = "sra";
+        MNEMONICS[Opcodes.LOADTM] = "ltm";
+        MNEMONICS[Opcodes.STORETM] = "stm";
+        MNEMONICS[Opcodes.LOADFP] = "lfp";
+        MNEMONICS[Opcodes.STOREFP] = "sfp";
+        MNEMONICS[Opcodes.COPYFP] = "cfp";
+        MNEMONICS[Opcodes.LOADHP] = "lhp";
+        MNEMONICS[Opcodes.STOREHP] = "shp";
+        MNEMONICS[Opcodes.PRINT] = "print";
+        MNEMONICS[Opcodes.HALT] = "halt";
+    }
+
+    private InstructionSet() {
+    }
+
+    /**
+     * @param opcode the opcode to check
+     * @return true if the opcode is an instruction of the machine
+     */
+    static boolean isValid(final int opcode) {
+        return switch (opcode) {
+            case Opcodes.PUSH, Opcodes.POP, Opcodes.ADD, Opcodes.SUB, Opcodes.MULT, Opcodes.DIV,
+                    Opcodes.STOREW, Opcodes.LOADW, Opcodes.LOADFIELD, Opcodes.STOREFIELD,
+                    Opcodes.BRANCH, Opcodes.BRANCHEQ, Opcodes.BRANCHLESSEQ, Opcodes.JS,
+                    Opcodes.LOADRA, Opcodes.STORERA, Opcodes.LOADTM, Opcodes.STORETM,
+                    Opcodes.LOADFP, Opcodes.STOREFP, Opcodes.COPYFP, Opcodes.LOADHP, Opcodes.STOREHP,
+                    Opcodes.PRINT, Opcodes.HALT -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @param opcode a valid opcode
+     * @return the number of operand words following the opcode
+     */
+    static int operandCount(final int opcode) {
+        return switch (opcode) {
+            case Opcodes.PUSH, Opcodes.LOADFIELD, Opcodes.STOREFIELD,
+                    Opcodes.BRANCH, Opcodes.BRANCHEQ, Opcodes.BRANCHLESSEQ -> 1;
+            default -> 0;
+        };
+    }
+
+    /**
+     * @param opcode a valid opcode
+     * @return true if the operand of the instruction is a code address
+     */
+    static boolean isBranch(final int opcode) {
+        return opcode == Opcodes.BRANCH || opcode == Opcodes.BRANCHEQ || opcode == Opcodes.BRANCHLESSEQ;
+    }
+
+    /**
+     * @param opcode a valid opcode
+     * @return true if the execution never continues with the next instruction
+     */
+    static boolean isTerminator(final int opcode) {
+        return opcode == Opcodes.BRANCH || opcode == Opcodes.JS || opcode == Opcodes.HALT;
+    }
+
+    /**
+     * @param opcode a valid opcode
+     * @return the assembly mnemonic of the instruction
+     */
+    static String mnemonic(final int opcode) {
+        return opcode > 0 && opcode < MNEMONICS.length ? MNEMONICS[opcode] : "?" + opcode;
+    }
+
+    /**
+     * Look up the instruction with the given mnemonic, without creating a string.
+     *
+     * @param text  the text containing the mnemonic
+     * @param start the index of the first character of the mnemonic
+     * @param end   the index after the last character of the mnemonic
+     * @return the opcode of the instruction, or -1 if there is no such instruction
+     */
+    static int opcode(final CharSequence text, final int start, final int end) {
+        for (int opcode = 1; opcode < MNEMONICS.length; opcode++) {
+            final String mnemonic = MNEMONICS[opcode];
+            if (mnemonic.length() != end - start) continue;
+            int i = 0;
+            while (i < mnemonic.length() && mnemonic.charAt(i) == text.charAt(start + i)) i++;
+            if (i == mnemonic.length()) return opcode;
+        }
+        return -1;
+    }
+
+}
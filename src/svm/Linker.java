@@ -0,0 +1,140 @@
+package svm;
+
+import svm.exc.LinkException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Linker of relocatable SVM units into a single program.
+ * <p>
+ * The code of the units is laid out in the given order: the initialization code of
+ * every unit (for a FOOL library, the allocation of its globals and of the dispatch
+ * tables of its classes) falls through into the next one, so the global frame and the
+ * heap are laid out in the same order in which the units were compiled against each
+ * other. The last unit is the program, that halts the machine.
+ * <p>
+ * The data sections of the units are laid out in the same order at the bottom of the heap,
+ * so the loader places all of them with a single copy: the code words that are data addresses
+ * are shifted by the position of the data of their unit.
+ * <p>
+ * The code addresses of every unit, in its code and in its data, are shifted by its position,
+ * the imports are resolved against the symbols exported by all the units. The symbols of the linked
+ * program are the exported ones and, prefixed by {@code u<index>.}, the private labels
+ * of the units, whose names are only unique inside a unit. The debug information of
+ * the units, if any of them has it, is laid out like their code.
+ */
+public final class Linker {
+
+    private Linker() {
+    }
+
+    /**
+     * Link units into a program.
+     *
+     * @param units the units, in execution order
+     * @return the linked program, that exports all the symbols exported by the units
+     * @throws LinkException if a symbol is exported twice or an import is not exported by any unit
+     */
+    public static ObjectFile link(final List<ObjectFile> units) {
+        final int[] bases = new int[units.size()];
+        final int[] dataBases = new int[units.size()];
+        int length = 0;
+        int dataLength = 0;
+        boolean hasData = false;
+        for (int i = 0; i < units.size(); i++) {
+            bases[i] = length;
+            length += units.get(i).getLength();
+            dataBases[i] = dataLength;
+            final DataSection unitData = units.get(i).getDataSection();
+            if (unitData != null) {
+                dataLength += unitData.getLength();
+                hasData = true;
+            }
+        }
+
+        final Map<String, Integer> exports = new HashMap<>();
+        for (int i = 0; i < units.size(); i++) {
+            for (final Map.Entry<String, Integer> export : units.get(i).getExports().entrySet()) {
+                if (exports.put(export.getKey(), bases[i] + export.getValue()) != null) {
+                    throw new LinkException("Duplicate symbol", export.getKey());
+                }
+            }
+        }
+
+        final int[] code = new int[length];
+        final boolean hasLines = units.stream().allMatch(ObjectFile::hasLines);
+        final int[] lines = hasLines ? new int[length] : null;
+        final Map<String, Integer> symbols = new HashMap<>();
+        int[] relocations = new int[16];
+        int relocationCount = 0;
+        final int[] data = new int[dataLength];
+        final List<Integer> dataRelocations = new ArrayList<>();
+        final List<Integer> dataReferences = new ArrayList<>();
+        for (int i = 0; i < units.size(); i++) {
+            final ObjectFile unit = units.get(i);
+            final int base = bases[i];
+            System.arraycopy(unit.getWords(), 0, code, base, unit.getLength());
+            if (hasLines) {
+                for (int address = 0; address < unit.getLength(); address++) lines[base + address] = unit.lineOf(address);
+            }
+
+            final int[] unitRelocations = unit.getRelocations();
+            final Map<Integer, String> imports = unit.getImports();
+            if (relocations.length < relocationCount + unitRelocations.length + imports.size()) {
+                relocations = Arrays.copyOf(relocations,
+                        Math.max(relocations.length * 2, relocationCount + unitRelocations.length + imports.size()));
+            }
+            for (final int position : unitRelocations) {
+                code[base + position] += base;
+                relocations[relocationCount++] = base + position;
+            }
+            for (final Map.Entry<Integer, String> reference : imports.entrySet()) {
+                final Integer address = exports.get(reference.getValue());
+                if (address == null) throw new LinkException("Undefined symbol", reference.getValue());
+                code[base + reference.getKey()] = address;
+                relocations[relocationCount++] = base + reference.getKey();
+            }
+
+            final DataSection unitData = unit.getDataSection();
+            if (unitData != null) {
+                final int dataBase = dataBases[i];
+                System.arraycopy(unitData.getWords(), 0, data, dataBase, unitData.getLength());
+                for (final int position : unitData.getRelocations()) {
+                    data[dataBase + position] += base;
+                    dataRelocations.add(dataBase + position);
+                }
+                for (final Map.Entry<Integer, String> reference : unitData.getImports().entrySet()) {
+                    final Integer address = exports.get(reference.getValue());
+                    if (address == null) throw new LinkException("Undefined symbol", reference.getValue());
+                    data[dataBase + reference.getKey()] = address;
+                    dataRelocations.add(dataBase + reference.getKey());
+                }
+                for (final int position : unitData.getReferences()) {
+                    code[base + position] += dataBase;
+                    dataReferences.add(base + position);
+                }
+            }
+
+            final String prefix = "u" + i + ".";
+            unit.getSymbols().forEach((name, address) ->
+                    symbols.put(unit.getExports().containsKey(name) ? name : prefix + name, base + address));
+        }
+
+        final List<DebugInfo> debugInfos = new ArrayList<>();
+        for (final ObjectFile unit : units) debugInfos.add(unit.getDebugInfo());
+        final boolean hasDebugInfo = debugInfos.stream().anyMatch(info -> info != null);
+        return new ObjectFile(code, length, symbols, lines,
+                Arrays.copyOf(relocations, relocationCount), Map.of(), exports,
+                hasDebugInfo ? DebugInfo.concatenate(debugInfos, bases, length) : null,
+                hasData ? new DataSection(data, toArray(dataRelocations), Map.of(), toArray(dataReferences)) : null);
+    }
+
+    private static int[] toArray(final List<Integer> positions) {
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+}
@@ -0,0 +1,480 @@
+package svm;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A compiled SVM program in binary form, ready to be loaded into the {@link ExecuteVM}
+ * without assembling it again.
+ * <p>
+ * The file is a header (magic number, version and number of sections) followed by
+ * sections, each one tagged and prefixed by its size in bytes so that a reader can
+ * skip the sections it does not know:
+ * <ul>
+ *     <li>CODE: the number of words of the program and the words;</li>
+ *     <li>SYMBOLS: the labels of the program with their addresses;</li>
+ *     <li>LINES (optional): the assembly source line of every code word;</li>
+ *     <li>RELOCS (optional): the positions of the words that are code addresses,
+ *     to be shifted when the code is moved by the {@link Linker};</li>
+ *     <li>IMPORTS (optional): the positions of the words that are addresses of symbols
+ *     defined in other units, with the names of the symbols;</li>
+ *     <li>EXPORTS (optional): the symbols that other units can import, with their addresses;</li>
+ *     <li>DEBUG (optional): the {@link DebugInfo} of the code, mapping it back to the
+ *     high-level source;</li>
+ *     <li>DATA (optional): the {@link DataSection} copied to the bottom of the heap when
+ *     the program is loaded, with the positions of its words that are code addresses and
+ *     imports, and the positions of the code words that are data addresses.</li>
+ * </ul>
+ * All the values are big-endian, like the ones of a {@link java.io.DataOutputStream}.
+ * Files are read through a memory-mapped buffer, the code section is copied with a
+ * single bulk transfer.
+ * <p>
+ * A file with imports, in the code or in the data, is a relocatable unit, that must be
+ * linked before running it.
+ */
+public class ObjectFile {
+
+    public static final String EXTENSION = ".svmo";
+
+    private static final int MAGIC = 0x53564d4f; // "SVMO"
+    private static final int VERSION = 2; // 2: data section, that a reader of version 1 would skip
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int SECTION_HEADER_SIZE = 2 * Integer.BYTES;
+
+    /* Tag delle sezioni */
+    static final int CODE = 1;
+    static final int SYMBOLS = 2;
+    static final int LINES = 3;
+    static final int RELOCS = 4;
+    static final int IMPORTS = 5;
+    static final int EXPORTS = 6;
+    static final int DEBUG = 7;
+    static final int DATA = 8;
+
+    private final int[] code;
+    private final int length;
+    private final Map<String, Integer> symbols;
+    private final int[] lines;
+    private final int[] relocations;
+    private final Map<Integer, String> imports;
+    private final Map<String, Integer> exports;
+    private final DebugInfo debugInfo;
+    private final DataSection data;
+
+    /**
+     * @param code    the code of the program, possibly followed by padding
+     * @param length  the number of words of the program
+     * @param symbols the labels of the program with their addresses
+     * @param lines   the source line of every code word, or null if not known
+     */
+    public ObjectFile(final int[] code, final int length, final Map<String, Integer> symbols, final int[] lines) {
+        this(code, length, symbols, lines, new int[0], Map.of(), Map.of());
+    }
+
+    /**
+     * @param code        the code of the unit, possibly followed by padding
+     * @param length      the number of words of the unit
+     * @param symbols     the labels of the unit with their addresses
+     * @param lines       the source line of every code word, or null if not known
+     * @param relocations the positions of the words that are code addresses
+     * @param imports     the positions of the words that are addresses of other units, with the imported symbols
+     * @param exports     the exported symbols with their addresses
+     */
+    public ObjectFile(final int[] code, final int length, final Map<String, Integer> symbols, final int[] lines,
+                      final int[] relocations, final Map<Integer, String> imports, final Map<String, Integer> exports) {
+        this(code, length, symbols, lines, relocations, imports, exports, null);
+    }
+
+    /**
+     * @param code        the code of the unit, possibly followed by padding
+     * @param length      the number of words of the unit
+     * @param symbols     the labels of the unit with their addresses
+     * @param lines       the source line of every code word, or null if not known
+     * @param relocations the positions of the words that are code addresses
+     * @param imports     the positions of the words that are addresses of other units, with the imported symbols
+     * @param exports     the exported symbols with their addresses
+     * @param debugInfo   the debug information of the code, or null if not known
+     */
+    public ObjectFile(final int[] code, final int length, final Map<String, Integer> symbols, final int[] lines,
+                      final int[] relocations, final Map<Integer, String> imports, final Map<String, Integer> exports,
+                      final DebugInfo debugInfo) {
+        this(code, length, symbols, lines, relocations, imports, exports, debugInfo, null);
+    }
+
+    /**
+     * @param code        the code of the unit, possibly followed by padding
+     * @param length      the number of words of the unit
+     * @param symbols     the labels of the unit with their addresses
+     * @param lines       the source line of every code word, or null if not known
+     * @param relocations the positions of the words that are code addresses
+     * @param imports     the positions of the words that are addresses of other units, with the imported symbols
+     * @param exports     the exported symbols with their addresses
+     * @param debugInfo   the debug information of the code, or null if not known
+     * @param data        the data section, or null if the program has none
+     */
+    public ObjectFile(final int[] code, final int length, final Map<String, Integer> symbols, final int[] lines,
+                      final int[] relocations, final Map<Integer, String> imports, final Map<String, Integer> exports,
+                      final DebugInfo debugInfo, final DataSection data) {
+        if (length < 0 || length > code.length) throw new IllegalArgumentException("Invalid code length " + length);
+        if (lines != null && lines.length < length) throw new IllegalArgumentException("Incomplete line table");
+        for (final int position : relocations) checkPosition(position, length);
+        imports.keySet().forEach(position -> checkPosition(position, length));
+        exports.values().forEach(address -> checkPosition(address, length + 1));
+        if (debugInfo != null && debugInfo.getLength() != length) throw new IllegalArgumentException("Incomplete debug information");
+        if (data != null) for (final int position : data.getReferences()) checkPosition(position, length);
+        this.code = Arrays.copyOf(code, length);
+        this.length = length;
+        final Map<String, Integer> sorted = new LinkedHashMap<>();
+        symbols.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(e -> sorted.put(e.getKey(), e.getValue()));
+        this.symbols = Collections.unmodifiableMap(sorted);
+        this.lines = lines == null ? null : Arrays.copyOf(lines, length);
+        this.relocations = relocations.clone();
+        Arrays.sort(this.relocations);
+        this.imports = Collections.unmodifiableMap(new TreeMap<>(imports));
+        final Map<String, Integer> sortedExports = new LinkedHashMap<>();
+        exports.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(e -> sortedExports.put(e.getKey(), e.getValue()));
+        this.exports = Collections.unmodifiableMap(sortedExports);
+        this.debugInfo = debugInfo;
+        this.data = data;
+    }
+
+    private static void checkPosition(final int position, final int length) {
+        if (position < 0 || position >= length) throw new IllegalArgumentException("Invalid code position " + position);
+    }
+
+    /**
+     * Create the object file of a program generated in memory, without a line table
+     * but with the debug information collected by the buffer.
+     *
+     * @param buffer the buffer with the code of the program
+     * @return the object file
+     * @throws IllegalStateException if a label is used but never defined
+     */
+    public static ObjectFile of(final CodeBuffer buffer) {
+        return new ObjectFile(buffer.toCodeArray(), buffer.size(), buffer.getLabels(), null,
+                buffer.getRelocations(), Map.of(), Map.of(), buffer.getDebugInfo(), buffer.getDataSection(false));
+    }
+
+    /**
+     * Create the object file of a unit generated in memory, to be linked with other units.
+     * The labels used but not defined in the buffer are imported from the other units.
+     *
+     * @param buffer  the buffer with the code of the unit
+     * @param exports the labels that the other units can import
+     * @return the object file
+     * @throws IllegalArgumentException if an exported label is not defined
+     */
+    public static ObjectFile of(final CodeBuffer buffer, final Collection<String> exports) {
+        final Map<String, Integer> labels = buffer.getLabels();
+        final Map<String, Integer> exported = new HashMap<>();
+        for (final String name : exports) {
+            final Integer address = labels.get(name);
+            if (address == null) throw new IllegalArgumentException("Undefined exported label " + name);
+            exported.put(name, address);
+        }
+        return new ObjectFile(buffer.toRelocatableArray(), buffer.size(), labels, null,
+                buffer.getRelocations(), buffer.getUndefinedReferences(), exported, buffer.getDebugInfo(),
+                buffer.getDataSection(true));
+    }
+
+    /**
+     * @return the code to load into the machine, padded to {@link ExecuteVM#CODESIZE}
+     * like the one of the assembler
+     * @throws IllegalStateException if the file is a unit with imports, that must be linked
+     */
+    public int[] getCode() {
+        if (!isExecutable()) throw new IllegalStateException("Unresolved imports " + getUnresolvedImports());
+        return Arrays.copyOf(code, Math.max(length, ExecuteVM.CODESIZE));
+    }
+
+    /**
+     * @return the words to copy to the bottom of the heap when the program is loaded, none if it has no data section
+     * @throws IllegalStateException if the file is a unit with imports, that must be linked
+     */
+    public int[] getData() {
+        if (!isExecutable()) throw new IllegalStateException("Unresolved imports " + getUnresolvedImports());
+        return data == null ? new int[0] : data.getWords();
+    }
+
+    /**
+     * @return true if the code can be run, that is it has no imports in the code or in the data
+     */
+    public boolean isExecutable() {
+        return imports.isEmpty() && (data == null || data.getImports().isEmpty());
+    }
+
+    /**
+     * @return the words of the unit, without padding and with the imports unresolved
+     */
+    int[] getWords() {
+        return code.clone();
+    }
+
+    /**
+     * @return the number of words of the program
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the labels of the program with their addresses, in address order
+     */
+    public Map<String, Integer> getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * @return true if the file has a line table
+     */
+    public boolean hasLines() {
+        return lines != null;
+    }
+
+    /**
+     * @param address a code address
+     * @return the source line of the word at the address, or 0 if not known
+     */
+    public int lineOf(final int address) {
+        return lines == null || address < 0 || address >= length ? 0 : lines[address];
+    }
+
+    /**
+     * @return the positions of the words that are code addresses, in increasing order
+     */
+    public int[] getRelocations() {
+        return relocations.clone();
+    }
+
+    /**
+     * @return the positions of the words that are addresses of symbols of other units,
+     * with the names of the symbols, in position order
+     */
+    public Map<Integer, String> getImports() {
+        return imports;
+    }
+
+    /**
+     * @return the exported symbols with their addresses, in address order
+     */
+    public Map<String, Integer> getExports() {
+        return exports;
+    }
+
+    /**
+     * @return the debug information of the code, or null if the file has none
+     */
+    public DebugInfo getDebugInfo() {
+        return debugInfo;
+    }
+
+    /**
+     * @return the data section, or null if the file has none
+     */
+    public DataSection getDataSection() {
+        return data;
+    }
+
+    /**
+     * @return the symbols imported by the code and by the data
+     */
+    Collection<String> getUnresolvedImports() {
+        if (data == null || data.getImports().isEmpty()) return imports.values();
+        final Collection<String> unresolved = new ArrayList<>(imports.values());
+        unresolved.addAll(data.getImports().values());
+        return unresolved;
+    }
+
+    /**
+     * Write the object file.
+     *
+     * @param path the path of the file
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(final Path path) throws IOException {
+        final byte[][] names = encode(symbols.keySet());
+        final byte[][] importNames = encode(imports.values());
+        final byte[][] exportNames = encode(exports.keySet());
+        final int codeSize = Integer.BYTES * (1 + length);
+        final int symbolsSize = tableSize(names);
+        final int linesSize = lines == null ? 0 : Integer.BYTES * (1 + length);
+        final int relocsSize = relocations.length == 0 ? 0 : Integer.BYTES * (1 + relocations.length);
+        final int importsSize = imports.isEmpty() ? 0 : tableSize(importNames);
+        final int exportsSize = exports.isEmpty() ? 0 : tableSize(exportNames);
+        final int debugSize = debugInfo == null ? 0 : debugInfo.encodedSize();
+        final byte[][] dataImportNames = data == null ? null : encode(data.getImports().values());
+        final int dataSize = data == null ? 0 : Integer.BYTES * (3 + data.getLength() + data.getRelocations().length
+                + data.getReferences().length) + tableSize(dataImportNames);
+        int sections = 2;
+        for (final int size : new int[]{linesSize, relocsSize, importsSize, exportsSize, debugSize, dataSize}) {
+            if (size > 0) sections++;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + sections * SECTION_HEADER_SIZE
+                + codeSize + symbolsSize + linesSize + relocsSize + importsSize + exportsSize + debugSize + dataSize);
+
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(sections);
+        buffer.putInt(CODE).putInt(codeSize).putInt(length);
+        buffer.asIntBuffer().put(code, 0, length);
+        buffer.position(buffer.position() + Integer.BYTES * length);
+        buffer.putInt(SYMBOLS).putInt(symbolsSize);
+        putTable(buffer, symbols.values(), names);
+        if (lines != null) {
+            buffer.putInt(LINES).putInt(linesSize).putInt(length);
+            for (final int line : lines) buffer.putInt(line);
+        }
+        if (relocsSize > 0) {
+            buffer.putInt(RELOCS).putInt(relocsSize).putInt(relocations.length);
+            for (final int position : relocations) buffer.putInt(position);
+        }
+        if (importsSize > 0) {
+            buffer.putInt(IMPORTS).putInt(importsSize);
+            putTable(buffer, imports.keySet(), importNames);
+        }
+        if (exportsSize > 0) {
+            buffer.putInt(EXPORTS).putInt(exportsSize);
+            putTable(buffer, exports.values(), exportNames);
+        }
+        if (debugInfo != null) {
+            buffer.putInt(DEBUG).putInt(debugSize);
+            debugInfo.put(buffer);
+        }
+        if (data != null) {
+            buffer.putInt(DATA).putInt(dataSize);
+            putInts(buffer, data.getWords());
+            putInts(buffer, data.getRelocations());
+            putTable(buffer, data.getImports().keySet(), dataImportNames);
+            putInts(buffer, data.getReferences());
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Load an object file, mapping it into memory.
+     *
+     * @param path the path of the file
+     * @return the object file
+     * @throws IOException if an I/O error occurs or the file is not a valid object file
+     */
+    public static ObjectFile load(final Path path) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC) throw new IOException("Not an SVM object file");
+            final int version = buffer.getInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported SVM object file version " + version);
+            final int sections = buffer.getInt();
+            int[] code = null;
+            int[] lines = null;
+            int[] relocations = new int[0];
+            final Map<String, Integer> symbols = new LinkedHashMap<>();
+            final Map<Integer, String> imports = new TreeMap<>();
+            final Map<String, Integer> exports = new LinkedHashMap<>();
+            DebugInfo debugInfo = null;
+            DataSection data = null;
+            for (int s = 0; s < sections; s++) {
+                final int tag = buffer.getInt();
+                final int size = buffer.getInt();
+                final int end = buffer.position() + size;
+                switch (tag) {
+                    case CODE -> code = readInts(buffer);
+                    case LINES -> lines = readInts(buffer);
+                    case RELOCS -> relocations = readInts(buffer);
+                    case SYMBOLS -> readTable(buffer, symbols::put);
+                    case IMPORTS -> readTable(buffer, (name, position) -> imports.put(position, name));
+                    case EXPORTS -> readTable(buffer, exports::put);
+                    case DEBUG -> debugInfo = DebugInfo.read(buffer);
+                    case DATA -> data = readData(buffer);
+                    default -> { // sezione sconosciuta: saltata
+                    }
+                }
+                if (buffer.position() > end) throw new IOException("Corrupted section " + tag);
+                buffer.position(end);
+            }
+            if (code == null) throw new IOException("Missing code section");
+            return new ObjectFile(code, code.length, symbols, lines, relocations, imports, exports, debugInfo, data);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated SVM object file", e);
+        }
+    }
+
+    private static byte[][] encode(final Collection<String> names) {
+        return names.stream().map(name -> name.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+    }
+
+    /**
+     * @return the size of a table of names, each one with an int value
+     */
+    private static int tableSize(final byte[][] names) {
+        int size = Integer.BYTES;
+        for (final byte[] name : names) size += Integer.BYTES + Short.BYTES + name.length;
+        return size;
+    }
+
+    private static void putTable(final ByteBuffer buffer, final Collection<Integer> values, final byte[][] names) {
+        buffer.putInt(names.length);
+        int n = 0;
+        for (final int value : values) {
+            buffer.putInt(value).putShort((short) names[n].length).put(names[n++]);
+        }
+    }
+
+    private static void readTable(final ByteBuffer buffer, final BiConsumer<String, Integer> entries) {
+        final int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            final int value = buffer.getInt();
+            final byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            entries.accept(new String(name, StandardCharsets.UTF_8), value);
+        }
+    }
+
+    private static void putInts(final ByteBuffer buffer, final int[] values) {
+        buffer.putInt(values.length);
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + Integer.BYTES * values.length);
+    }
+
+    private static DataSection readData(final ByteBuffer buffer) throws IOException {
+        final int[] words = readInts(buffer);
+        final int[] relocations = readInts(buffer);
+        final Map<Integer, String> imports = new TreeMap<>();
+        readTable(buffer, (name, position) -> imports.put(position, name));
+        return new DataSection(words, relocations, imports, readInts(buffer));
+    }
+
+    private static int[] readInts(final ByteBuffer buffer) throws IOException {
+        final int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / Integer.BYTES) throw new IOException("Truncated SVM object file");
+        final int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + Integer.BYTES * values.length);
+        return values;
+    }
+
+}
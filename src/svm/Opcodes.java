@@ -0,0 +1,40 @@
+package svm;
+
+/**
+ * The opcodes of the Stack Virtual Machine.
+ * <p>
+ * The values are the ones of the tokens of the old ANTLR grammar of the assembly,
+ * so programs assembled before keep working.
+ */
+public final class Opcodes {
+
+    public static final int PUSH = 1;
+    public static final int POP = 2;
+    public static final int ADD = 3;
+    public static final int SUB = 4;
+    public static final int MULT = 5;
+    public static final int DIV = 6;
+    public static final int STOREW = 7;
+    public static final int LOADW = 8;
+    public static final int LOADFIELD = 9;
+    public static final int STOREFIELD = 10;
+    public static final int BRANCH = 11;
+    public static final int BRANCHEQ = 12;
+    public static final int BRANCHLESSEQ = 13;
+    public static final int JS = 14;
+    public static final int LOADRA = 15;
+    public static final int STORERA = 16;
+    public static final int LOADTM = 17;
+    public static final int STORETM = 18;
+    public static final int LOADFP = 19;
+    public static final int STOREFP = 20;
+    public static final int COPYFP = 21;
+    public static final int LOADHP = 22;
+    public static final int STOREHP = 23;
+    public static final int PRINT = 24;
+    public static final int HALT = 25;
+
+    private Opcodes() {
+    }
+
+}
@@ -0,0 +1,265 @@
+package svm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Peephole optimizer of assembled SVM programs, independent of the code generator.
+ * <p>
+ * The optimizer rewrites the code of an {@link ObjectFile}, repeating until nothing changes:
+ * <ul>
+ *     <li>{@code push k; pop} is removed;</li>
+ *     <li>{@code push 0; add}, {@code push 0; sub}, {@code push 1; mult} and
+ *     {@code push 1; div} are removed, they leave the top of the stack unchanged;</li>
+ *     <li>{@code stm; ltm} is removed if $tm is written again before being read
+ *     in the same basic block;</li>
+ *     <li>branches to an unconditional branch are threaded to its target and
+ *     unconditional branches to the next instruction are removed, unless it is the entry
+ *     of a function (a tail call);</li>
+ *     <li>the code after a {@code b} or a {@code halt} that is not the target of any
+ *     code address is removed.</li>
+ * </ul>
+ * A pair is rewritten only if its second instruction is not the target of a code address,
+ * so it is always executed after the first one. The code addresses are the operands of the
+ * branches and the relocated words of the object file and of its data section (the addresses
+ * of the functions and of the methods), together with the return addresses following every
+ * {@code js}: after removing code all of them are moved to the new position of their target,
+ * as are the symbols, the line table, the debug information of the program and the code words
+ * that are data addresses, which are never folded like the other constants.
+ */
+public final class PeepholeOptimizer {
+
+    private final ObjectFile program;
+    private int[] code;
+    private int length;
+    private boolean[] relocated; // words that are code addresses
+    private boolean[] dataReferences; // words that are data addresses
+
+    private PeepholeOptimizer(final ObjectFile program) {
+        this.program = program;
+        this.code = program.getWords();
+        this.length = program.getLength();
+        this.relocated = new boolean[length];
+        for (final int position : program.getRelocations()) relocated[position] = true;
+        this.dataReferences = new boolean[length];
+        if (program.getDataSection() != null) {
+            for (final int position : program.getDataSection().getReferences()) dataReferences[position] = true;
+        }
+    }
+
+    /**
+     * Optimize a program.
+     *
+     * @param program the program, it must be a valid program without imports (a linked one)
+     * @return the optimized program
+     * @throws IllegalArgumentException if the program has imports
+     */
+    public static ObjectFile optimize(final ObjectFile program) {
+        if (!program.isExecutable()) throw new IllegalArgumentException("Unresolved imports " + program.getUnresolvedImports());
+        return new PeepholeOptimizer(program).run();
+    }
+
+    private ObjectFile run() {
+        // Nuovo indirizzo di ogni indirizzo del programma originale
+        final int[] relocation = new int[length + 1];
+        Arrays.setAll(relocation, address -> address);
+        while (true) {
+            final boolean[] referenced = referencedAddresses();
+            final boolean[] removed = new boolean[length];
+            boolean changed = threadBranches();
+            changed |= removePairs(referenced, removed);
+            changed |= removeUnreachable(referenced, removed);
+            changed |= removeJumpsToNext(removed);
+            if (!changed) break;
+            final int[] step = compact(removed);
+            for (int address = 0; address < relocation.length; address++) relocation[address] = step[relocation[address]];
+        }
+        return rebuild(relocation);
+    }
+
+    /**
+     * @return the addresses that can be reached by a jump
+     */
+    private boolean[] referencedAddresses() {
+        final boolean[] referenced = new boolean[length + 1];
+        referenced[0] = true;
+        for (int address = 0; address < length; address = next(address)) {
+            final int opcode = code[address];
+            if (InstructionSet.isBranch(opcode)) mark(referenced, code[address + 1]);
+            if (opcode == Opcodes.PUSH && relocated[address + 1]) mark(referenced, code[address + 1]);
+            if (opcode == Opcodes.JS) referenced[address + 1] = true; // return address
+        }
+        for (final int address : program.getExports().values()) mark(referenced, address);
+        if (program.getDataSection() != null) {
+            final int[] data = program.getDataSection().getWords();
+            for (final int position : program.getDataSection().getRelocations()) mark(referenced, data[position]);
+        }
+        return referenced;
+    }
+
+    private void mark(final boolean[] referenced, final int address) {
+        if (address >= 0 && address <= length) referenced[address] = true;
+    }
+
+    private boolean threadBranches() {
+        boolean changed = false;
+        for (int address = 0; address < length; address = next(address)) {
+            if (!InstructionSet.isBranch(code[address])) continue;
+            int target = code[address + 1];
+            for (int hops = 0; hops < length && target < length && code[target] == Opcodes.BRANCH; hops++) {
+                if (code[target + 1] == target) break; // infinite loop
+                target = code[target + 1];
+            }
+            if (target != code[address + 1]) {
+                code[address + 1] = target;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean removePairs(final boolean[] referenced, final boolean[] removed) {
+        boolean changed = false;
+        int address = 0;
+        while (address < length) {
+            final int second = next(address);
+            if (second < length && !referenced[second] && isNoOpPair(address, second)) {
+                removed[address] = true;
+                removed[second] = true;
+                changed = true;
+                address = next(second);
+            } else {
+                address = second;
+            }
+        }
+        return changed;
+    }
+
+    private boolean isNoOpPair(final int first, final int second) {
+        final int opcode = code[second];
+        if (code[first] == Opcodes.PUSH && !relocated[first + 1] && !dataReferences[first + 1]) {
+            final int value = code[first + 1];
+            return opcode == Opcodes.POP
+                    || value == 0 && (opcode == Opcodes.ADD || opcode == Opcodes.SUB)
+                    || value == 1 && (opcode == Opcodes.MULT || opcode == Opcodes.DIV);
+        }
+        return code[first] == Opcodes.STORETM && opcode == Opcodes.LOADTM && isTmDeadAfter(next(second));
+    }
+
+    /**
+     * @return true if $tm is written before being read, starting from the address
+     * and without leaving the basic block
+     */
+    private boolean isTmDeadAfter(final int start) {
+        for (int address = start; address < length; address = next(address)) {
+            final int opcode = code[address];
+            if (opcode == Opcodes.STORETM) return true;
+            if (opcode == Opcodes.LOADTM || InstructionSet.isBranch(opcode) || opcode == Opcodes.JS) return false;
+            if (opcode == Opcodes.HALT) return true;
+        }
+        return false;
+    }
+
+    private boolean removeUnreachable(final boolean[] referenced, final boolean[] removed) {
+        boolean changed = false;
+        boolean reachable = true;
+        for (int address = 0; address < length; address = next(address)) {
+            if (referenced[address]) reachable = true;
+            if (!reachable && !removed[address]) {
+                removed[address] = true;
+                changed = true;
+            }
+            if (!removed[address] && (code[address] == Opcodes.BRANCH || code[address] == Opcodes.HALT)) reachable = false;
+        }
+        return changed;
+    }
+
+    private boolean removeJumpsToNext(final boolean[] removed) {
+        boolean changed = false;
+        for (int address = 0; address < length; address = next(address)) {
+            // a branch to the entry of a function is a tail call, it cannot fall through into its frame set up
+            if (removed[address] || code[address] != Opcodes.BRANCH || code[code[address + 1]] == Opcodes.COPYFP) continue;
+            int following = next(address);
+            while (following < length && removed[following]) following = next(following);
+            if (code[address + 1] == following) {
+                removed[address] = true;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Remove the instructions, moving the code addresses to the new position of their targets.
+     *
+     * @return the new address of every address, a removed instruction is moved to the next one kept
+     */
+    private int[] compact(final boolean[] removed) {
+        final int[] step = new int[length + 1];
+        int kept = 0;
+        for (int address = 0; address < length; address = next(address)) {
+            final int size = next(address) - address;
+            for (int i = 0; i < size; i++) step[address + i] = kept + (removed[address] ? 0 : i);
+            if (!removed[address]) kept += size;
+        }
+        step[length] = kept;
+
+        final int[] compacted = new int[kept];
+        final boolean[] compactedRelocated = new boolean[kept];
+        final boolean[] compactedDataReferences = new boolean[kept];
+        for (int address = 0; address < length; address = next(address)) {
+            if (removed[address]) continue;
+            final int size = next(address) - address;
+            System.arraycopy(code, address, compacted, step[address], size);
+            if (InstructionSet.isBranch(code[address]) || size > 1 && relocated[address + 1]) {
+                compacted[step[address] + 1] = step[code[address + 1]];
+            }
+            for (int i = 0; i < size; i++) {
+                compactedRelocated[step[address] + i] = relocated[address + i];
+                compactedDataReferences[step[address] + i] = dataReferences[address + i];
+            }
+        }
+        code = compacted;
+        relocated = compactedRelocated;
+        dataReferences = compactedDataReferences;
+        length = kept;
+        return step;
+    }
+
+    private ObjectFile rebuild(final int[] relocation) {
+        final Map<String, Integer> symbols = new HashMap<>();
+        program.getSymbols().forEach((name, address) -> symbols.put(name, relocation[address]));
+        final Map<String, Integer> exports = new HashMap<>();
+        program.getExports().forEach((name, address) -> exports.put(name, relocation[address]));
+        int[] lines = null;
+        if (program.hasLines()) {
+            lines = new int[length];
+            for (int address = 0; address < program.getLength(); address++) {
+                // the removed words are moved to the same address of the following word
+                if (relocation[address] != relocation[address + 1]) lines[relocation[address]] = program.lineOf(address);
+            }
+        }
+        final DebugInfo debugInfo = program.getDebugInfo() == null ? null : program.getDebugInfo().relocate(relocation, length);
+        final DataSection data = program.getDataSection() == null ? null
+                : program.getDataSection().relocate(relocation, positions(dataReferences));
+        return new ObjectFile(code, length, symbols, lines, positions(relocated), Map.of(), exports, debugInfo, data);
+    }
+
+    /**
+     * @return the positions of the marked words
+     */
+    private int[] positions(final boolean[] marked) {
+        int count = 0;
+        final int[] positions = new int[length];
+        for (int position = 0; position < length; position++) {
+            if (marked[position]) positions[count++] = position;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    private int next(final int address) {
+        return address + 1 + InstructionSet.operandCount(code[address]);
+    }
+
+}
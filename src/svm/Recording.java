@@ -0,0 +1,339 @@
+package svm;
+
+import svm.exc.ReplayException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The log of a deterministic run of the {@link ExecuteVM}.
+ * <p>
+ * The only source of nondeterminism of a program is its environment, so a
+ * recording contains just the boundary events (the printed values, in order,
+ * with the number of the instruction that produced them) plus periodic
+ * checkpoints of the machine state, used to seek a replay to any instruction
+ * without re-executing the whole run.
+ * <p>
+ * Events are encoded compactly as variable-length integers: the distance in
+ * instructions from the previous event, tagged with the event kind, followed
+ * by the zigzag-encoded value.
+ */
+public class Recording {
+
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 1 << 20;
+
+    private static final int MAGIC = 0x53564d52; // "SVMR"
+    private static final int VERSION = 1;
+
+    /* Tipi di evento */
+    static final int OUTPUT = 0;        // valore stampato
+    static final int OUTPUT_EMPTY = 1;  // stampa a stack vuoto
+    private static final int KIND_BITS = 2;
+
+    private final int codeHash;
+    private final long checkpointInterval;
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private byte[] events = new byte[64];
+    private int eventsSize = 0;
+    private int eventCount = 0;
+    private long lastEventInstruction = 0;
+    private long instructionCount = 0;
+    private boolean complete = false;
+
+    Recording(final int[] code, final int[] data, final long checkpointInterval) {
+        this(programHash(code, data), checkpointInterval);
+    }
+
+    private Recording(final int codeHash, final long checkpointInterval) {
+        if (checkpointInterval <= 0) throw new IllegalArgumentException("Checkpoint interval must be positive");
+        this.codeHash = codeHash;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @return the number of instructions between two checkpoints
+     */
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * @return the number of instructions executed by the recorded run
+     */
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * @return the number of recorded boundary events
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return the number of checkpoints taken during the run
+     */
+    public int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     * @return true if the recorded run reached the halt instruction
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the hash of the code and of the data section, that of the code alone if there is no data
+     */
+    private static int programHash(final int[] code, final int[] data) {
+        return data.length == 0 ? Arrays.hashCode(code) : 31 * Arrays.hashCode(code) + Arrays.hashCode(data);
+    }
+
+    void checkCode(final int[] code, final int[] data) {
+        if (programHash(code, data) != codeHash) {
+            throw new ReplayException("The recording was made with a different program");
+        }
+    }
+
+    void logEvent(final long instruction, final int kind, final int value) {
+        writeVarLong(((instruction - lastEventInstruction) << KIND_BITS) | kind);
+        if (kind == OUTPUT) writeVarLong(zigzag(value));
+        lastEventInstruction = instruction;
+        eventCount++;
+    }
+
+    void addCheckpoint(final Checkpoint checkpoint) {
+        checkpoints.add(checkpoint);
+    }
+
+    void finish(final long instructions, final boolean halted) {
+        instructionCount = instructions;
+        complete = halted;
+    }
+
+    /**
+     * Find the last checkpoint taken before the given instruction.
+     *
+     * @param instruction the instruction number
+     * @return the checkpoint, or null if the run has to start from the beginning
+     */
+    Checkpoint checkpointBefore(final long instruction) {
+        Checkpoint found = null;
+        for (final Checkpoint checkpoint : checkpoints) {
+            if (checkpoint.instructions > instruction) break;
+            found = checkpoint;
+        }
+        return found;
+    }
+
+    /**
+     * @param instructions the number of instructions already executed
+     * @return a cursor over the events that follow the given instruction
+     */
+    Cursor cursorAfter(final long instructions) {
+        final Cursor cursor = new Cursor();
+        while (cursor.hasNext() && cursor.peekInstruction() <= instructions) cursor.next();
+        return cursor;
+    }
+
+    /**
+     * Sequential reader of the recorded events.
+     */
+    class Cursor {
+        private int position = 0;
+        private long instruction = 0;
+        private long nextInstruction;
+        private int nextKind;
+        private int nextValue;
+        private int nextPosition = -1;
+
+        boolean hasNext() {
+            return position < eventsSize;
+        }
+
+        long peekInstruction() {
+            decode();
+            return nextInstruction;
+        }
+
+        /**
+         * Check that the event produced by the replay matches the recorded one.
+         *
+         * @param atInstruction the instruction that produced the event
+         * @param kind          the kind of the event
+         * @param value         the value of the event
+         */
+        void expect(final long atInstruction, final int kind, final int value) {
+            if (!hasNext()) {
+                throw new ReplayException("Unexpected output at instruction " + atInstruction + ": not in the recording");
+            }
+            decode();
+            if (nextInstruction != atInstruction || nextKind != kind || (kind == OUTPUT && nextValue != value)) {
+                throw new ReplayException("Replay diverged at instruction " + atInstruction
+                        + ": expected " + describe(nextKind, nextValue) + " at instruction " + nextInstruction
+                        + ", got " + describe(kind, value));
+            }
+            next();
+        }
+
+        private String describe(final int kind, final int value) {
+            return kind == OUTPUT ? "output " + value : "output of an empty stack";
+        }
+
+        private void next() {
+            decode();
+            position = nextPosition;
+            instruction = nextInstruction;
+            nextPosition = -1;
+        }
+
+        private void decode() {
+            if (nextPosition >= 0) return;
+            nextPosition = position;
+            final long header = readVarLong();
+            nextKind = (int) (header & ((1 << KIND_BITS) - 1));
+            nextInstruction = instruction + (header >>> KIND_BITS);
+            nextValue = nextKind == OUTPUT ? unzigzag(readVarLong()) : 0;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                final byte b = events[nextPosition++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+                shift += 7;
+            }
+        }
+    }
+
+    /**
+     * The state of the machine after a given number of instructions.
+     * The whole memory is stored: the code can write above $hp (the fields
+     * of an object are written before $hp is moved past them), so the
+     * words up to $hp are not enough to resume the run.
+     */
+    static class Checkpoint {
+        final long instructions, calls, allocatedWords;
+        final int peakHp, minSp;
+        final int ip, sp, hp, fp, ra, tm;
+        final int[] memory;
+
+        Checkpoint(final long instructions, final long calls, final long allocatedWords, final int peakHp,
+                   final int minSp, final int ip, final int sp, final int hp, final int fp,
+                   final int ra, final int tm, final int[] memory) {
+            this.instructions = instructions;
+            this.calls = calls;
+            this.allocatedWords = allocatedWords;
+            this.peakHp = peakHp;
+            this.minSp = minSp;
+            this.ip = ip;
+            this.sp = sp;
+            this.hp = hp;
+            this.fp = fp;
+            this.ra = ra;
+            this.tm = tm;
+            this.memory = memory;
+        }
+    }
+
+    /**
+     * Write the recording to a stream.
+     *
+     * @param stream the stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(final OutputStream stream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(codeHash);
+        out.writeLong(checkpointInterval);
+        out.writeLong(instructionCount);
+        out.writeBoolean(complete);
+        out.writeInt(eventCount);
+        out.writeLong(lastEventInstruction);
+        out.writeInt(eventsSize);
+        out.write(events, 0, eventsSize);
+        out.writeInt(checkpoints.size());
+        for (final Checkpoint checkpoint : checkpoints) {
+            out.writeLong(checkpoint.instructions);
+            out.writeLong(checkpoint.calls);
+            out.writeLong(checkpoint.allocatedWords);
+            out.writeInt(checkpoint.peakHp);
+            out.writeInt(checkpoint.minSp);
+            out.writeInt(checkpoint.ip);
+            out.writeInt(checkpoint.sp);
+            out.writeInt(checkpoint.hp);
+            out.writeInt(checkpoint.fp);
+            out.writeInt(checkpoint.ra);
+            out.writeInt(checkpoint.tm);
+            out.writeInt(checkpoint.memory.length);
+            for (final int word : checkpoint.memory) out.writeInt(word);
+        }
+        out.flush();
+    }
+
+    /**
+     * Read a recording from a stream.
+     *
+     * @param stream the stream to read from
+     * @return the recording
+     * @throws IOException if an I/O error occurs or the stream is not a recording
+     */
+    public static Recording read(final InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not an SVM recording");
+        final Recording recording = new Recording(in.readInt(), in.readLong());
+        recording.instructionCount = in.readLong();
+        recording.complete = in.readBoolean();
+        recording.eventCount = in.readInt();
+        recording.lastEventInstruction = in.readLong();
+        recording.eventsSize = in.readInt();
+        recording.events = in.readNBytes(recording.eventsSize);
+        final int checkpointCount = in.readInt();
+        for (int i = 0; i < checkpointCount; i++) {
+            final long instructions = in.readLong(), calls = in.readLong(), allocatedWords = in.readLong();
+            final int peakHp = in.readInt(), minSp = in.readInt();
+            final int ip = in.readInt(), sp = in.readInt(), hp = in.readInt();
+            final int fp = in.readInt(), ra = in.readInt(), tm = in.readInt();
+            final int[] memory = new int[in.readInt()];
+            if (memory.length != ExecuteVM.MEMSIZE) throw new IOException("Checkpoint of a different memory size");
+            for (int j = 0; j < memory.length; j++) memory[j] = in.readInt();
+            recording.checkpoints.add(new Checkpoint(instructions, calls, allocatedWords, peakHp, minSp,
+                    ip, sp, hp, fp, ra, tm, memory));
+        }
+        return recording;
+    }
+
+    private void writeVarLong(long value) {
+        while (true) {
+            if (eventsSize == events.length) events = Arrays.copyOf(events, events.length * 2);
+            if ((value & ~0x7FL) == 0) {
+                events[eventsSize++] = (byte) value;
+                return;
+            }
+            events[eventsSize++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+    }
+
+    private static long zigzag(final int value) {
+        return ((long) value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(final long value) {
+        return (int) (value >>> 1) ^ -(int) (value & 1);
+    }
+
+}
@@ -0,0 +1,36 @@
+package svm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event describing a single {@link ExecuteVM} run.
+ * The duration of the event is the wall time of the run.
+ */
+@Name("svm.Run")
+@Label("SVM Run")
+@Category({"FOOL", "SVM"})
+@Description("Execution of a program on the Stack Virtual Machine")
+class VMRunEvent extends Event {
+
+    @Label("Instructions Executed")
+    long instructions;
+
+    @Label("Calls")
+    long calls;
+
+    @Label("Words Allocated")
+    @Description("Heap words allocated by moving $hp forward")
+    long wordsAllocated;
+
+    @Label("Peak Heap Pointer")
+    int peakHeapPointer;
+
+    @Label("Peak Stack Depth")
+    @Description("Highest number of stack words in use")
+    int peakStackDepth;
+
+}
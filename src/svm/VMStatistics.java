@@ -0,0 +1,116 @@
+package svm;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregated runtime statistics of the {@link ExecuteVM} runs.
+ * <p>
+ * The VM keeps its counters in local variables while executing and
+ * publishes them here only once, at the end of each run, so the
+ * dispatch loop is not slowed down.
+ * The statistics are registered on the platform MBean server as
+ * {@value #OBJECT_NAME}, and every run is also recorded as a
+ * {@link VMRunEvent} for JDK Flight Recorder.
+ */
+public final class VMStatistics implements VMStatisticsMXBean {
+
+    public static final String OBJECT_NAME = "svm:type=VMStatistics";
+
+    private static final VMStatistics INSTANCE = register(new VMStatistics());
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder instructions = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder wordsAllocated = new LongAdder();
+    private final AtomicInteger peakHeapPointer = new AtomicInteger();
+    private final AtomicInteger peakStackDepth = new AtomicInteger();
+    private final LongAdder totalRunTime = new LongAdder();
+    private final AtomicLong lastRunTime = new AtomicLong();
+
+    private VMStatistics() {
+    }
+
+    private static VMStatistics register(final VMStatistics statistics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            // statistics are still collected, they are just not visible through JMX
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the statistics shared by all the runs of this JVM
+     */
+    public static VMStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Publish the counters of a single run.
+     *
+     * @param instructions   the number of executed instructions
+     * @param calls          the number of calls
+     * @param wordsAllocated the number of allocated heap words
+     * @param peakHp         the highest heap pointer reached
+     * @param peakStack      the highest number of stack words used
+     * @param runTimeNanos   the wall time of the run
+     */
+    void publish(final long instructions, final long calls, final long wordsAllocated,
+                 final int peakHp, final int peakStack, final long runTimeNanos) {
+        this.runs.increment();
+        this.instructions.add(instructions);
+        this.calls.add(calls);
+        this.wordsAllocated.add(wordsAllocated);
+        this.peakHeapPointer.accumulateAndGet(peakHp, Math::max);
+        this.peakStackDepth.accumulateAndGet(peakStack, Math::max);
+        this.totalRunTime.add(runTimeNanos);
+        this.lastRunTime.set(runTimeNanos);
+    }
+
+    @Override
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    @Override
+    public long getInstructionsExecuted() {
+        return instructions.sum();
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getWordsAllocated() {
+        return wordsAllocated.sum();
+    }
+
+    @Override
+    public int getPeakHeapPointer() {
+        return peakHeapPointer.get();
+    }
+
+    @Override
+    public int getPeakStackDepth() {
+        return peakStackDepth.get();
+    }
+
+    @Override
+    public long getTotalRunTimeNanos() {
+        return totalRunTime.sum();
+    }
+
+    @Override
+    public long getLastRunTimeNanos() {
+        return lastRunTime.get();
+    }
+
+}
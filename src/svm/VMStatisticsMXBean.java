@@ -0,0 +1,49 @@
+package svm;
+
+/**
+ * Management interface exposing the aggregated runtime statistics
+ * of all the {@link ExecuteVM} runs of this JVM.
+ */
+public interface VMStatisticsMXBean {
+
+    /**
+     * @return the number of completed runs
+     */
+    long getRuns();
+
+    /**
+     * @return the total number of executed instructions
+     */
+    long getInstructionsExecuted();
+
+    /**
+     * @return the total number of calls (frames set up with cfp)
+     */
+    long getCalls();
+
+    /**
+     * @return the total number of heap words allocated by moving $hp forward
+     */
+    long getWordsAllocated();
+
+    /**
+     * @return the highest heap pointer reached by a run
+     */
+    int getPeakHeapPointer();
+
+    /**
+     * @return the highest number of stack words used by a run
+     */
+    int getPeakStackDepth();
+
+    /**
+     * @return the total wall time spent executing, in nanoseconds
+     */
+    long getTotalRunTimeNanos();
+
+    /**
+     * @return the wall time of the last run, in nanoseconds
+     */
+    long getLastRunTimeNanos();
+
+}
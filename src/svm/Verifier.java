@@ -0,0 +1,347 @@
+package svm;
+
+import svm.exc.VerifyException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Load-time verifier of assembled SVM programs.
+ * <p>
+ * The verifier checks that every opcode is known, that operands are present,
+ * that branch targets are instruction boundaries inside the code and that the
+ * execution cannot fall off the end of the code. A program that passes these
+ * checks can be run by the unchecked interpreter.
+ * <p>
+ * Then it builds the {@link ControlFlowGraph} of the program and computes the
+ * stack height at every instruction of every function, rejecting programs where
+ * two paths reach the same block with different heights. Programs are expected
+ * to follow the calling convention of the FOOL compiler:
+ * <ul>
+ *     <li>a function starts with the cfp that sets up its frame;</li>
+ *     <li>a call pushes the Control Link with lfp, then the arguments, the Access Link
+ *     and the address of the function, and continues after the js with the result
+ *     in place of all of them;</li>
+ *     <li>a function returns with a js to the address pushed with lra;</li>
+ *     <li>a function can also end with a b to the entry of another function (a tail call):
+ *     the callee then returns in its place, so the Access Link and the arguments of the
+ *     callee must have replaced its own ones.</li>
+ * </ul>
+ * To tell these values apart, the stack is interpreted abstractly, tagging the
+ * words pushed by lfp and lra.
+ */
+public final class Verifier {
+
+    /* Tag dei valori sullo stack astratto */
+    private static final byte VALUE = 0;
+    private static final byte FRAME = 1;  // pushed by lfp
+    private static final byte RETURN = 2; // pushed by lra
+
+    private Verifier() {
+    }
+
+    /**
+     * Verify the program and build its control-flow graph.
+     *
+     * @param code the assembled program
+     * @return the control-flow graph of the program
+     * @throws VerifyException if the program is not valid
+     */
+    public static ControlFlowGraph verify(final int[] code) {
+        final int length = programLength(code);
+        final boolean[] boundaries = new boolean[length + 1];
+        int address = 0;
+        int opcode = Opcodes.HALT;
+        while (address < length) {
+            opcode = code[address];
+            if (!InstructionSet.isValid(opcode)) throw new VerifyException("Unknown opcode " + opcode, address);
+            boundaries[address] = true;
+            address += 1 + InstructionSet.operandCount(opcode);
+            if (address > code.length) throw new VerifyException("Missing operand of " + InstructionSet.mnemonic(opcode), address);
+        }
+        if (length > 0 && !InstructionSet.isTerminator(opcode)) {
+            throw new VerifyException("Execution falls off the end of the code", length);
+        }
+        for (int i = 0; i < length; i += 1 + InstructionSet.operandCount(code[i])) {
+            if (InstructionSet.isBranch(code[i])) {
+                final int target = code[i + 1];
+                if (target < 0 || target >= length || !boundaries[target]) {
+                    throw new VerifyException("Invalid branch target " + target, i);
+                }
+            }
+        }
+        return new Analysis(code, length).run();
+    }
+
+    /**
+     * The assembler fills the code array with zeros after the program,
+     * zero is not an opcode so the program ends after the last non-zero word.
+     * An instruction may still end with a zero operand past that point.
+     */
+    private static int programLength(final int[] code) {
+        int length = code.length;
+        while (length > 0 && code[length - 1] == 0) length--;
+        int address = 0;
+        while (address < length) {
+            address += InstructionSet.isValid(code[address]) ? 1 + InstructionSet.operandCount(code[address]) : 1;
+        }
+        return Math.min(address, code.length);
+    }
+
+    /**
+     * The abstract state of a function frame: the stack height over the
+     * stack pointer at the function entry, the tags of the words pushed
+     * by the function and the tag of the value in $tm.
+     */
+    private static final class State {
+        int height;
+        byte[] tags; // tags[height + bias]: a function pops below its entry height
+        int bias;
+        byte tm;
+
+        State(final int height, final byte[] tags, final int bias, final byte tm) {
+            this.height = height;
+            this.tags = tags;
+            this.bias = bias;
+            this.tm = tm;
+        }
+
+        State copy() {
+            return new State(height, tags.clone(), bias, tm);
+        }
+
+        void push(final byte tag) {
+            if (height + bias < 0) {
+                final int grow = -(height + bias) + 8;
+                final byte[] grown = new byte[tags.length + grow];
+                System.arraycopy(tags, 0, grown, grow, tags.length);
+                tags = grown;
+                bias += grow;
+            }
+            if (height + bias >= tags.length) tags = Arrays.copyOf(tags, Math.max(8, tags.length * 2));
+            tags[height + bias] = tag;
+            height++;
+        }
+
+        byte pop() {
+            height--;
+            return height + bias >= 0 ? tags[height + bias] : VALUE;
+        }
+
+        byte get(final int index) {
+            return index + bias >= 0 && index + bias < tags.length ? tags[index + bias] : VALUE;
+        }
+
+        boolean sameStack(final State other) {
+            if (height != other.height) return false;
+            for (int i = 0; i < height; i++) {
+                if (get(i) != other.get(i)) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Abstract interpretation of the program, one function at a time.
+     */
+    private static final class Analysis {
+        private final int[] code;
+        private final int length;
+        private final int[] leaders;     // sorted block start addresses
+        private final int[] blockOf;     // address -> index of its block
+        private final State[] states;    // state at the entry of each block
+        private final int[] owner;       // function entry of each block
+        private final int[][] successors;
+        private final List<int[]> tailCalls = new ArrayList<>(); // {caller entry, height, callee entry, address}
+
+        Analysis(final int[] code, final int length) {
+            this.code = code;
+            this.length = length;
+            final boolean[] leader = new boolean[length + 1];
+            leader[0] = true;
+            for (int i = 0; i < length; i += 1 + InstructionSet.operandCount(code[i])) {
+                final int next = i + 1 + InstructionSet.operandCount(code[i]);
+                if (code[i] == Opcodes.COPYFP) leader[i] = true;
+                if (InstructionSet.isBranch(code[i])) leader[code[i + 1]] = true;
+                if (InstructionSet.isBranch(code[i]) || InstructionSet.isTerminator(code[i])) leader[next] = true;
+            }
+            leader[length] = false;
+            this.leaders = IntStream.range(0, length).filter(i -> leader[i]).toArray();
+            this.blockOf = new int[length];
+            for (int b = 0; b < leaders.length; b++) {
+                final int end = b + 1 < leaders.length ? leaders[b + 1] : length;
+                Arrays.fill(blockOf, leaders[b], end, b);
+            }
+            this.states = new State[leaders.length];
+            this.owner = new int[leaders.length];
+            Arrays.fill(owner, -1);
+            this.successors = new int[leaders.length][];
+        }
+
+        ControlFlowGraph run() {
+            final List<ControlFlowGraph.Function> functions = new ArrayList<>();
+            final Map<Integer, ControlFlowGraph.Function> byEntry = new HashMap<>();
+            for (final int entry : leaders) {
+                if (entry == 0 || code[entry] == Opcodes.COPYFP) {
+                    final ControlFlowGraph.Function function = analyze(entry);
+                    functions.add(function);
+                    byEntry.put(entry, function);
+                }
+            }
+            for (final int[] tailCall : tailCalls) checkTailCall(tailCall, byEntry);
+            final List<ControlFlowGraph.BasicBlock> blocks = new ArrayList<>();
+            for (int b = 0; b < leaders.length; b++) {
+                final int end = b + 1 < leaders.length ? leaders[b + 1] : length;
+                final int[] next = successors[b] == null ? new int[0] : successors[b];
+                blocks.add(new ControlFlowGraph.BasicBlock(leaders[b], end, owner[b],
+                        states[b] == null ? 0 : states[b].height, next));
+            }
+            return new ControlFlowGraph(length, functions, blocks);
+        }
+
+        private ControlFlowGraph.Function analyze(final int entry) {
+            final boolean isMain = entry == 0;
+            final int entryBlock = blockOf[entry];
+            if (owner[entryBlock] >= 0) {
+                throw new VerifyException("Function entry reachable from the function at " + owner[entryBlock], entry);
+            }
+            states[entryBlock] = new State(0, new byte[8], 0, VALUE);
+            owner[entryBlock] = entry;
+            final Deque<Integer> worklist = new ArrayDeque<>();
+            worklist.add(entryBlock);
+            int maxDepth = 0;
+            int end = entry;
+            Integer returnHeight = null;
+
+            while (!worklist.isEmpty()) {
+                final int block = worklist.poll();
+                final State state = states[block].copy();
+                final int blockEnd = block + 1 < leaders.length ? leaders[block + 1] : length;
+                end = Math.max(end, blockEnd);
+                final List<Integer> next = new ArrayList<>();
+                int address = leaders[block];
+                boolean fallsThrough = true;
+                while (address < blockEnd) {
+                    final int opcode = code[address];
+                    switch (opcode) {
+                        case Opcodes.PUSH, Opcodes.LOADHP, Opcodes.LOADRA ->
+                                state.push(opcode == Opcodes.LOADRA ? RETURN : VALUE);
+                        case Opcodes.LOADFP -> state.push(FRAME);
+                        case Opcodes.LOADTM -> state.push(state.tm);
+                        case Opcodes.STORETM -> state.tm = pop(state, address, isMain);
+                        case Opcodes.POP, Opcodes.STORERA, Opcodes.STOREFP, Opcodes.STOREHP ->
+                                pop(state, address, isMain);
+                        case Opcodes.ADD, Opcodes.SUB, Opcodes.MULT, Opcodes.DIV -> {
+                            pop(state, address, isMain);
+                            pop(state, address, isMain);
+                            state.push(VALUE);
+                        }
+                        case Opcodes.LOADW, Opcodes.LOADFIELD -> {
+                            pop(state, address, isMain);
+                            state.push(VALUE);
+                        }
+                        case Opcodes.STOREW, Opcodes.STOREFIELD -> {
+                            pop(state, address, isMain);
+                            pop(state, address, isMain);
+                        }
+                        case Opcodes.PRINT, Opcodes.COPYFP -> {
+                            if (opcode == Opcodes.COPYFP && address != entry) {
+                                throw new VerifyException("Frame set up in the middle of a function", address);
+                            }
+                        }
+                        case Opcodes.BRANCH -> {
+                            final int target = code[address + 1];
+                            if (code[target] == Opcodes.COPYFP && target != entry) {
+                                if (isMain) throw new VerifyException("Tail call from the main program", address);
+                                tailCalls.add(new int[]{entry, state.height, target, address});
+                            } else {
+                                next.add(target);
+                            }
+                            fallsThrough = false;
+                        }
+                        case Opcodes.BRANCHEQ, Opcodes.BRANCHLESSEQ -> {
+                            pop(state, address, isMain);
+                            pop(state, address, isMain);
+                            next.add(code[address + 1]);
+                        }
+                        case Opcodes.HALT -> fallsThrough = false;
+                        case Opcodes.JS -> {
+                            if (pop(state, address, isMain) == RETURN) {
+                                if (returnHeight != null && returnHeight != state.height) {
+                                    throw new VerifyException("Inconsistent stack height at return", address);
+                                }
+                                if (state.height >= 0) throw new VerifyException("Return without popping the frame", address);
+                                returnHeight = state.height;
+                                fallsThrough = false;
+                            } else {
+                                call(state, address);
+                            }
+                        }
+                        default -> throw new VerifyException("Unknown opcode " + opcode, address);
+                    }
+                    if (state.height > maxDepth) maxDepth = state.height;
+                    address += 1 + InstructionSet.operandCount(opcode);
+                }
+                if (fallsThrough && blockEnd < length) next.add(blockEnd);
+
+                successors[block] = next.stream().mapToInt(Integer::intValue).toArray();
+                for (final int target : successors[block]) {
+                    final int targetBlock = blockOf[target];
+                    if (owner[targetBlock] >= 0 && owner[targetBlock] != entry) {
+                        throw new VerifyException("Jump into the function at " + owner[targetBlock], target);
+                    }
+                    if (states[targetBlock] == null) {
+                        states[targetBlock] = state.copy();
+                        owner[targetBlock] = entry;
+                        worklist.add(targetBlock);
+                    } else if (!states[targetBlock].sameStack(state)) {
+                        throw new VerifyException("Inconsistent stack height at merge (" + states[targetBlock].height
+                                + " and " + state.height + ")", target);
+                    } else if (states[targetBlock].tm != state.tm) {
+                        states[targetBlock].tm = VALUE;
+                    }
+                }
+            }
+            final int parameters = returnHeight == null ? -1 : -returnHeight - 1;
+            return new ControlFlowGraph.Function(entry, end, parameters, maxDepth);
+        }
+
+        /**
+         * After a tail call the callee pops its Access Link and its arguments, then the stack
+         * must be as after the return of the caller.
+         */
+        private static void checkTailCall(final int[] tailCall, final Map<Integer, ControlFlowGraph.Function> functions) {
+            final int callerParameters = functions.get(tailCall[0]).parameters;
+            final int calleeParameters = functions.get(tailCall[2]).parameters;
+            if (callerParameters < 0 || calleeParameters < 0) return; // one of them never returns
+            if (tailCall[1] - (calleeParameters + 1) != -(callerParameters + 1)) {
+                throw new VerifyException("Inconsistent stack height at tail call", tailCall[3]);
+            }
+        }
+
+        private static byte pop(final State state, final int address, final boolean isMain) {
+            if (isMain && state.height <= 0) throw new VerifyException("Stack underflow", address);
+            return state.pop();
+        }
+
+        /**
+         * A call pops the address, then the callee removes the Access Link, the arguments
+         * and the Control Link, that is the word pushed by lfp right below them,
+         * and leaves its result in their place.
+         */
+        private static void call(final State state, final int address) {
+            int controlLink = state.height - 2; // skip the Access Link
+            while (controlLink + state.bias >= 0 && state.get(controlLink) != FRAME) controlLink--;
+            if (controlLink + state.bias < 0) throw new VerifyException("Call without a Control Link", address);
+            state.height = controlLink;
+            state.push(VALUE);
+        }
+    }
+
+}
@@ -0,0 +1,14 @@
+package svm.exc;
+
+public class AssemblyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final int line;
+
+    public AssemblyException(final String message, final int line) {
+        super(message + " at line " + line);
+        this.line = line;
+    }
+
+}
@@ -0,0 +1,14 @@
+package svm.exc;
+
+public class LinkException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final String symbol;
+
+    public LinkException(final String message, final String symbol) {
+        super(message + " " + symbol);
+        this.symbol = symbol;
+    }
+
+}
@@ -0,0 +1,11 @@
+package svm.exc;
+
+public class ReplayException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ReplayException(final String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,14 @@
+package svm.exc;
+
+public class VMException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final int ip;
+
+    public VMException(final String message, final int ip) {
+        super(message + " at ip " + ip);
+        this.ip = ip;
+    }
+
+}
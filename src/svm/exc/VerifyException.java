@@ -0,0 +1,14 @@
+package svm.exc;
+
+public class VerifyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final int address;
+
+    public VerifyException(final String message, final int address) {
+        super(message + " at address " + address);
+        this.address = address;
+    }
+
+}
@@ -2,19 +2,22 @@ package compiler;
 
 import compiler.AST.ProgLetInNode;
 import compiler.AST.ProgNode;
+import compiler.exc.CompilationException;
 import compiler.exc.TypeException;
 import compiler.lib.Node;
 import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
+import svm.CodeBuffer;
 import svm.ExecuteVM;
-import svm.SVMLexer;
-import svm.SVMParser;
+import svm.ObjectFile;
+import svm.PeepholeOptimizer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 
-import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class CodeUtils {
 
@@ -63,7 +66,7 @@ public class CodeUtils {
         typeCheckVisitor.visit(east);
     }
 
-    public static String getAssembly(final CharStream chars) {
+    public static CodeBuffer getCodeBuffer(final CharStream chars) {
         final Node east = getEAST(chars);
         try {
             checkTypes(east);
@@ -73,13 +76,19 @@ public class CodeUtils {
         return new CodeGenerationASTVisitor().visit(east);
     }
 
+    public static String getAssembly(final CharStream chars) {
+        return getCodeBuffer(chars).toString();
+    }
+
     public static int[] getSVMCode(final CharStream chars) {
-        final String code = getAssembly(chars);
-        final SVMLexer lexerASM = new SVMLexer(fromString(code));
-        final CommonTokenStream tokensASM = new CommonTokenStream(lexerASM);
-        final SVMParser parserASM = new SVMParser(tokensASM);
-        parserASM.assembly();
-        return parserASM.code;
+        return getCodeBuffer(chars).toArray();
+    }
+
+    /**
+     * @return the object file of the program, with the data section that its code needs
+     */
+    public static ObjectFile getObjectFile(final CharStream chars) {
+        return ObjectFile.of(getCodeBuffer(chars));
     }
 
     public static void interceptOutput() {
@@ -95,26 +104,51 @@ public class CodeUtils {
         return output.substring(0, output.length() - 1);
     }
 
-    public static String getOutput(final CharStream chars) {
-        final int[] code = getSVMCode(chars);
-        final ExecuteVM vm = new ExecuteVM(code);
-
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        final PrintStream ps = new PrintStream(outputStream);
-
-        // IMPORTANT: Save the old System.out!
-        final PrintStream old = System.out;
+    /**
+     * Run an action, capturing what it prints.
+     *
+     * @return the printed text, without the surrounding white space
+     */
+    public static String getOutput(final Runnable action) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final PrintStream out = System.out;
+        System.setOut(new PrintStream(output));
+        try {
+            action.run();
+        } finally {
+            System.setOut(out);
+        }
+        return output.toString().trim();
+    }
 
-        // Tell Java to use your special stream
-        System.setOut(ps);
-        vm.cpu();
-        // Put things back
-        System.out.flush();
-        System.setOut(old);
+    /**
+     * Run the machine until it halts, capturing what the program prints.
+     *
+     * @return the printed text, without the surrounding white space
+     */
+    public static String getOutput(final ExecuteVM vm) {
+        return getOutput(vm::cpu);
+    }
 
-        // Remove the last newline
-        final String output = outputStream.toString();
-        return output.substring(0, output.length() - 1);
+    /**
+     * Run a program compiled by {@link #getObjectFile(CharStream)}, then compile it again with
+     * the optimizing pipeline of {@link FOOLCompiler#compile(CharStream)} and the
+     * {@link PeepholeOptimizer}, checking that it prints the same output.
+     *
+     * @param chars the source of the program
+     * @return the output of the program, without the surrounding white space
+     */
+    public static String getOutput(final CharStream chars) {
+        final String source = chars.toString();
+        final String output = getOutput(new ExecuteVM(getObjectFile(chars)));
+        final ObjectFile optimized;
+        try {
+            optimized = PeepholeOptimizer.optimize(ObjectFile.of(FOOLCompiler.compile(CharStreams.fromString(source))));
+        } catch (CompilationException e) {
+            throw new RuntimeException(e);
+        }
+        assertEquals(output, getOutput(new ExecuteVM(optimized)), "output of the optimized program");
+        return output;
     }
 
 }
@@ -0,0 +1,124 @@
+package compiler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import svm.ObjectFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompilationCacheTest {
+
+    private static final String PROGRAM = """
+            let
+                fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+            in
+                print(fact(5));
+            """;
+
+    @TempDir
+    Path directory;
+
+    private static ObjectFile compile(final String source) {
+        return ObjectFile.of(CodeUtils.getCodeBuffer(fromString(source)));
+    }
+
+    @Test
+    void testKey() {
+        final String key = CompilationCache.key(PROGRAM, "program");
+        assertEquals(key, CompilationCache.key(PROGRAM, "program"));
+        assertNotEquals(key, CompilationCache.key(PROGRAM + " ", "program"));
+        assertNotEquals(key, CompilationCache.key(PROGRAM, "library"));
+        assertTrue(key.matches("[0-9a-f]{64}"));
+    }
+
+    @Test
+    void testFingerprintCoversEveryClassOfTheCompiler() {
+        final Set<String> classFiles = CompilationCache.compilerClassFiles().keySet();
+        assertTrue(classFiles.containsAll(List.of(
+                "compiler/CodeGenerationASTVisitor.class", "compiler/AST$ProgLetInNode.class", "compiler/FOOLParser.class",
+                "compiler/lib/BaseASTVisitor.class", "compiler/lib/BaseEASTVisitor.class", "compiler/lib/Node.class",
+                "compiler/lib/DecNode.class", "compiler/lib/TypeNode.class",
+                "svm/Opcodes.class", "svm/InstructionSet.class", "svm/Assembler.class", "svm/CodeBuffer.class")));
+        assertTrue(classFiles.stream().noneMatch(name -> name.startsWith("compiler/exc/")));
+    }
+
+    @Test
+    void testMissAndHit() throws IOException {
+        final CompilationCache cache = new CompilationCache(directory, 1 << 20);
+        final String key = CompilationCache.key(PROGRAM, "program");
+        assertEquals(Optional.empty(), cache.get(key));
+
+        final ObjectFile program = compile(PROGRAM);
+        cache.put(key, program);
+        final ObjectFile cached = cache.get(key).orElseThrow();
+        assertArrayEquals(program.getCode(), cached.getCode());
+        assertEquals(program.getSymbols(), cached.getSymbols());
+    }
+
+    @Test
+    void testCorruptedEntryIsAMiss() throws IOException {
+        final CompilationCache cache = new CompilationCache(directory, 1 << 20);
+        final String key = CompilationCache.key(PROGRAM, "program");
+        Files.write(directory.resolve(key + ObjectFile.EXTENSION), new byte[]{1, 2, 3});
+        assertEquals(Optional.empty(), cache.get(key));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() throws IOException {
+        final ObjectFile program = compile(PROGRAM);
+        final Path probe = directory.resolve("probe");
+        program.write(probe);
+        final long entrySize = Files.size(probe);
+        Files.delete(probe);
+
+        final CompilationCache cache = new CompilationCache(directory, 2 * entrySize);
+        cache.put("a", program);
+        Files.setLastModifiedTime(directory.resolve("a" + ObjectFile.EXTENSION), FileTime.fromMillis(1000));
+        cache.put("b", program);
+        Files.setLastModifiedTime(directory.resolve("b" + ObjectFile.EXTENSION), FileTime.fromMillis(2000));
+
+        assertTrue(cache.get("a").isPresent()); // a is now the most recently used
+        cache.put("c", program);
+
+        assertTrue(cache.get("a").isPresent());
+        assertFalse(cache.get("b").isPresent());
+        assertTrue(cache.get("c").isPresent());
+    }
+
+    @Test
+    void testConcurrentWriters() throws Exception {
+        final ObjectFile program = compile(PROGRAM);
+        final String key = CompilationCache.key(PROGRAM, "program");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> writes = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                writes.add(executor.submit(() -> {
+                    new CompilationCache(directory, 1 << 20).put(key, program);
+                    return null;
+                }));
+            }
+            for (final Future<?> write : writes) write.get();
+        } finally {
+            executor.shutdown();
+        }
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(directory.resolve(key + ObjectFile.EXTENSION)), files.toList());
+        }
+        assertArrayEquals(program.getCode(), new CompilationCache(directory, 1 << 20).get(key).orElseThrow().getCode());
+    }
+
+}
@@ -0,0 +1,83 @@
+package compiler;
+
+import compiler.exc.CompilationException;
+import org.junit.jupiter.api.Test;
+import svm.ObjectFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.antlr.v4.runtime.CharStreams.fromFileName;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompilationContextTest {
+
+    private static final String WRONG_PROGRAM = """
+            let
+                class A () {}
+                class B extends A () {}
+                var a:A = new B();
+                var b:B = a;
+            in
+                print(a + 1);
+            """;
+
+    private static String[] programs() throws IOException {
+        return new String[]{
+                fromFileName("examples/quicksort.fool").toString(),
+                fromFileName("examples/bankloan.fool").toString(),
+                fromFileName("examples/minus.fool").toString()
+        };
+    }
+
+    @Test
+    void testParallelCompilationsAreIndependent() throws Exception {
+        final String[] programs = programs();
+        final List<ObjectFile> expected = new ArrayList<>();
+        for (final String program : programs) expected.add(ObjectFile.of(FOOLCompiler.compile(fromString(program))));
+
+        final PrintStream old = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream())); // the front-end errors are printed
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<ObjectFile>> compiled = new ArrayList<>();
+            final List<Future<Integer>> errors = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final String program = programs[i % programs.length];
+                compiled.add(executor.submit(() -> ObjectFile.of(FOOLCompiler.compile(fromString(program)))));
+                errors.add(executor.submit(() -> assertThrows(CompilationException.class,
+                        () -> FOOLCompiler.compile(fromString(WRONG_PROGRAM))).errors));
+            }
+            for (int i = 0; i < compiled.size(); i++) {
+                final ObjectFile program = compiled.get(i).get();
+                assertArrayEquals(expected.get(i % programs.length).getCode(), program.getCode());
+                assertEquals(expected.get(i % programs.length).getSymbols(), program.getSymbols());
+                assertEquals(2, errors.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+            System.setOut(old);
+        }
+    }
+
+    @Test
+    void testTypeRelationsAreNotShared() throws Exception {
+        final CompilationContext first = new CompilationContext();
+        final CompilationContext second = new CompilationContext();
+        first.getTypeRels().addSuperType("B", "A");
+        final AST.RefTypeNode a = new AST.RefTypeNode("A");
+        final AST.RefTypeNode b = new AST.RefTypeNode("B");
+        assertTrue(first.getTypeRels().isSubtype(b, a));
+        assertFalse(second.getTypeRels().isSubtype(b, a));
+        assertEquals("label0", second.freshLabel());
+        assertEquals("label0", first.freshLabel());
+    }
+
+}
@@ -0,0 +1,134 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.CompilationException;
+import compiler.exc.TypeException;
+import compiler.lib.Node;
+import org.junit.jupiter.api.Test;
+import svm.CodeBuffer;
+import svm.ExecuteVM;
+import svm.ObjectFile;
+import svm.exc.VMException;
+
+import java.io.IOException;
+
+import static compiler.CodeUtils.checkTypes;
+import static compiler.CodeUtils.getCodeBuffer;
+import static compiler.CodeUtils.getEAST;
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromFileName;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConstantFoldingTest {
+
+    private static Node fold(final String code) throws TypeException {
+        final Node east = getEAST(fromString(code));
+        checkTypes(east);
+        return new ConstantFoldingEASTVisitor().visit(east);
+    }
+
+    /**
+     * @return the expression printed by the main program
+     */
+    private static Node printed(final String code) throws TypeException {
+        final Node main = ((ProgLetInNode) fold(code)).exp;
+        return ((PrintNode) main).exp;
+    }
+
+    @Test
+    void testArithmeticIsFolded() throws TypeException {
+        final Node folded = printed("let var x:int = 0; in print(2 * 3 + 4 - 10 / 2 + (7 - 9) * 3);");
+        assertEquals(-1, ((IntNode) folded).value);
+        assertEquals(1, folded.getLine());
+    }
+
+    @Test
+    void testComparisonsAndBooleansAreFolded() throws TypeException {
+        assertTrue(((BoolNode) printed("let var x:int = 0; in print(1 + 2 <= 3 && !(4 >= 5) || false);")).value);
+        assertFalse(((BoolNode) printed("let var x:int = 0; in print(true == 2);")).value);
+        assertTrue(((BoolNode) printed("let var x:int = 0; in print(true == 1);")).value);
+    }
+
+    @Test
+    void testIdentities() throws TypeException {
+        final FunNode function = (FunNode) ((ProgLetInNode) fold("""
+                let
+                    fun f:int (x:int) (x + 0) * 1 - 0 + 0 * 5;
+                in
+                    print(f(1));
+                """)).declarations.get(0);
+        assertEquals("x", ((IdNode) function.exp).id);
+
+        final String booleans = "let var b:bool = true; in print(%s);";
+        for (final String identity : new String[]{"!!b", "true && b", "b && true", "false || b", "b || false", "!(!(b))"}) {
+            assertEquals("b", ((IdNode) printed(booleans.formatted(identity))).id, identity);
+        }
+        assertFalse(((BoolNode) printed(booleans.formatted("false && b"))).value);
+        assertFalse(((BoolNode) printed(booleans.formatted("b && false"))).value);
+        assertTrue(((BoolNode) printed(booleans.formatted("b || true"))).value);
+        assertEquals(0, ((IntNode) printed("let var x:int = 3; in print(x * 0);")).value);
+    }
+
+    @Test
+    void testConstantConditions() throws TypeException {
+        assertEquals(7, ((IntNode) printed("let var x:int = 0; in print(if (1 <= 2) then {7} else {x});")).value);
+        assertEquals("x", ((IdNode) printed("let var x:int = 0; in print(if (!true) then {7} else {x});")).id);
+    }
+
+    @Test
+    void testEffectsAreKept() throws Exception {
+        final String code = """
+                let
+                    fun f:bool (x:int) print(x) == 1;
+                in
+                    print((print(3) * 0 + f(1) * 0) == 0 && (f(2) && false) == false);
+                """;
+        assertInstanceOf(AndNode.class, printed(code));
+        final ExecuteVM vm = new ExecuteVM(ObjectFile.of(FOOLCompiler.compile(fromString(code))));
+        assertEquals("3\n1\n2\n1", getOutput(vm).replace("\r", ""));
+    }
+
+    @Test
+    void testDivisionByZeroIsKept() throws Exception {
+        assertInstanceOf(DivNode.class, printed("let var x:int = 0; in print(1 / (2 - 2));"));
+        assertEquals("x", ((IdNode) printed("let var x:int = 0; in print(x / 1);")).id);
+        assertInstanceOf(TimesNode.class, printed("let var x:int = 0; in print(x / 0 * 0);"));
+        final CodeBuffer code = FOOLCompiler.compile(fromString("let var x:int = 0; in print(1 / (2 - 2) * 0);"));
+        assertThrows(VMException.class, () -> ExecuteVM.checked(ObjectFile.of(code)).cpu());
+    }
+
+    @Test
+    void testSameOutputWithFewerInstructions() throws IOException, CompilationException {
+        for (final String example : new String[]{"quicksort", "bankloan", "minus"}) {
+            final String source = fromFileName("examples/" + example + ".fool").toString();
+            final ExecuteVM expected = new ExecuteVM(ObjectFile.of(getCodeBuffer(fromString(source))));
+            final ExecuteVM actual = new ExecuteVM(ObjectFile.of(FOOLCompiler.compile(fromString(source))));
+            assertEquals(getOutput(expected), getOutput(actual), example);
+            assertTrue(actual.getInstructionCount() <= expected.getInstructionCount(), example);
+        }
+    }
+
+    @Test
+    void testComparisonsWithNull() throws TypeException {
+        final String code = """
+                let
+                    class A (v:int) {}
+                    var a:A = new A(1);
+                    var b:A = a;
+                    var c:A = null;
+                    fun f:bool (p:A) p == null;
+                in
+                    print(%s);
+                """;
+        assertFalse(((BoolNode) printed(code.formatted("a == null"))).value);
+        assertFalse(((BoolNode) printed(code.formatted("null == b"))).value);
+        assertFalse(((BoolNode) printed(code.formatted("new A(2) == null"))).value);
+        assertEquals(1, ((IntNode) printed(code.formatted("if (b == null) then {0} else {1}"))).value);
+        assertInstanceOf(EqualNode.class, printed(code.formatted("c == null")));
+        assertInstanceOf(EqualNode.class, printed(code.formatted("new A(print(2)) == null")));
+        final FunNode function = (FunNode) ((ProgLetInNode) fold(code.formatted("f(a)"))).declarations.get(4);
+        assertInstanceOf(EqualNode.class, function.exp);
+    }
+
+}
@@ -0,0 +1,146 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.CompilationException;
+import compiler.exc.TypeException;
+import compiler.lib.Node;
+import org.junit.jupiter.api.Test;
+import svm.CodeBuffer;
+import svm.ExecuteVM;
+import svm.ObjectFile;
+import svm.exc.VMException;
+
+import java.util.regex.Pattern;
+
+import static compiler.CodeUtils.checkTypes;
+import static compiler.CodeUtils.getEAST;
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DevirtualizationTest {
+
+    private static final String CLASSES = """
+            let
+                class Account (money:int) {
+                    fun getMon:int () money;
+                    fun plus:int (x:int) money + x;
+                    fun double:int (x:int) x + x;
+                }
+                class Savings extends Account (money:int) {
+                    fun getMon:int () money * 2;
+                }
+                class Bonus extends Savings (money:int) {
+                    fun bonus:int () money + 1;
+                }
+                fun run:int (acc:Account, bon:Bonus)
+                    %s;
+            in
+                print(run(new Savings(5), new Bonus(7)));
+            """;
+
+    /**
+     * The body of run with variables whose objects cannot be null, but that are not initialized with new.
+     */
+    private static final String KNOWN = """
+            let
+                var savings:Account = new Savings(5);
+                var account:Account = savings;
+                var bonus:Bonus = new Bonus(7);
+                var known:Bonus = bonus;
+            in
+                %s""";
+
+    /**
+     * A method loaded from the dispatch table and called: the fields have negative offsets.
+     */
+    private static final Pattern DISPATCH = Pattern.compile("\\blf \\d+\\s+js\\b");
+
+    /**
+     * A method called directly, after checking that the object is not null.
+     */
+    private static final Pattern CHECKED_CALL = Pattern.compile("\\blw\\s+pop\\s+ltm\\s+push \\S+\\s+js\\b");
+
+    /**
+     * @return the body of the function run, after inlining
+     */
+    private static Node body(final String exp) throws TypeException {
+        final Node east = getEAST(fromString(CLASSES.formatted(exp)));
+        checkTypes(east);
+        final ProgLetInNode program = (ProgLetInNode) new InliningEASTVisitor().visit(east);
+        return ((FunNode) program.declarations.get(3)).exp;
+    }
+
+    /**
+     * @return the code of the program after inlining, generated without a display
+     */
+    private static CodeBuffer inlined(final String code) throws TypeException {
+        final Node east = getEAST(fromString(code));
+        checkTypes(east);
+        return new CodeGenerationASTVisitor().visit(new InliningEASTVisitor().visit(east));
+    }
+
+    private static String output(final CodeBuffer code) {
+        return getOutput(ExecuteVM.verified(ObjectFile.of(code)));
+    }
+
+    @Test
+    void testMethodNotOverriddenIsBound() throws TypeException {
+        final ClassCallNode plus = (ClassCallNode) body("acc.plus(1)");
+        assertEquals("plus", plus.method.methodId);
+        // inherited by Bonus from Savings
+        final ClassCallNode getMon = (ClassCallNode) body("bon.getMon()");
+        assertEquals("money", ((IdNode) ((TimesNode) getMon.method.exp).left).id);
+    }
+
+    @Test
+    void testOverriddenMethodIsDispatched() throws TypeException {
+        assertNull(((ClassCallNode) body("acc.getMon()")).method);
+    }
+
+    @Test
+    void testMethodNotUsingTheObjectIsInlined() throws TypeException {
+        assertEquals(6, ((IntNode) body(KNOWN.formatted("account.double(3)"))).value);
+        // the call fails if the object is null
+        assertEquals("double", ((ClassCallNode) body("acc.double(3)")).method.methodId);
+    }
+
+    @Test
+    void testBoundCallsRun() throws CompilationException, TypeException {
+        final String code = CLASSES.formatted(
+                KNOWN.formatted("acc.getMon() * 100 + account.plus(1) * 10 + known.getMon() - known.bonus()"));
+        assertEquals("1066", output(FOOLCompiler.compile(fromString(code))));
+        final CodeBuffer inlined = inlined(code);
+        assertEquals("1066", output(inlined));
+        // only acc.getMon() is dispatched
+        assertEquals(1, DISPATCH.matcher(inlined.toString()).results().count());
+    }
+
+    @Test
+    void testBoundCallsOnParametersAreDirect() throws TypeException {
+        final CodeBuffer inlined = inlined(CLASSES.formatted("acc.plus(1) * 10 + bon.bonus()"));
+        assertEquals("68", output(inlined));
+        // the parameters can be null, the calls check it without the dispatch table
+        assertEquals(0, DISPATCH.matcher(inlined.toString()).results().count());
+        assertEquals(2, CHECKED_CALL.matcher(inlined.toString()).results().count());
+        // compared with null, the variable is not null in the else branch
+        final IfNode guarded = (IfNode) body("let var a:Account = acc; in if (a == null) then {0} else {a.plus(1)}");
+        assertTrue(((ClassCallNode) guarded.elseBranch).nonNullObject);
+    }
+
+    @Test
+    void testBoundCallOnNullFails() throws TypeException {
+        final String code = """
+                let
+                    class A (v:int) {
+                        fun k:int () 7;
+                    }
+                    var a:A = null;
+                in
+                    print(a.k());
+                """;
+        assertThrows(VMException.class, () -> ExecuteVM.checked(ObjectFile.of(inlined(code))).cpu());
+        assertThrows(VMException.class, () -> ExecuteVM.checked(ObjectFile.of(FOOLCompiler.compile(fromString(code)))).cpu());
+    }
+
+}
@@ -0,0 +1,65 @@
+package compiler;
+
+import compiler.exc.CompilationException;
+import org.junit.jupiter.api.Test;
+import svm.CodeBuffer;
+import svm.ExecuteVM;
+import svm.ObjectFile;
+
+import java.util.Arrays;
+
+import static compiler.CodeUtils.getCodeBuffer;
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DispatchTableTest {
+
+    private static final String SHAPES = """
+            let
+                class Shape (side:int) {
+                    fun area:int () side * side;
+                    fun name:int () 1;
+                }
+                class Tile extends Shape (side:int) {
+                }
+                class Rect extends Shape (side:int) {
+                    fun area:int () side * 2;
+                }
+                fun total:int (a:Shape, b:Shape, c:Shape) a.area() + b.area() + c.area();
+            in
+                print(total(new Shape(3), new Tile(4), new Rect(5)));
+            """;
+
+    @Test
+    void testIdenticalDispatchTablesAreShared() {
+        final CodeBuffer code = getCodeBuffer(fromString(SHAPES));
+        final ExecuteVM vm = ExecuteVM.verified(ObjectFile.of(code));
+        assertEquals("35", getOutput(vm));
+        // Shape and Tile share their dispatch table, two words like the one of Rect,
+        // loaded at the bottom of the heap and followed by the three objects
+        assertEquals(2 + 2 + 2 + 2 + 2, vm.getPeakHeapPointer());
+    }
+
+    @Test
+    void testDispatchTablesCostNothingAtStartup() {
+        final ObjectFile program = ObjectFile.of(getCodeBuffer(fromString(SHAPES)));
+        final ObjectFile withUnused = ObjectFile.of(getCodeBuffer(fromString(SHAPES.replace(
+                "fun name:int () 1;", "fun name:int () 1; fun id:int () 2; fun size:int () side;"))));
+        final ExecuteVM vm = new ExecuteVM(program);
+        assertEquals("35", getOutput(vm));
+        final ExecuteVM withUnusedVM = new ExecuteVM(withUnused);
+        assertEquals("35", getOutput(withUnusedVM));
+        // the loader copies the tables, where the entries of the unused methods are 0
+        assertEquals(vm.getInstructionCount(), withUnusedVM.getInstructionCount());
+        assertEquals(program.getData().length + 2 + 2, withUnused.getData().length);
+        assertArrayEquals(new int[]{0, 0}, Arrays.copyOfRange(withUnused.getData(), 2, 4));
+        assertEquals(vm.getPeakHeapPointer() + 2 + 2, withUnusedVM.getPeakHeapPointer());
+    }
+
+    @Test
+    void testDispatchTablesBeforeTheDisplay() throws CompilationException {
+        assertEquals("35", getOutput(ExecuteVM.verified(ObjectFile.of(FOOLCompiler.compile(fromString(SHAPES))))));
+    }
+
+}
@@ -0,0 +1,145 @@
+package compiler;
+
+import compiler.exc.TypeException;
+import compiler.lib.Node;
+import org.junit.jupiter.api.Test;
+import svm.CodeBuffer;
+import svm.ExecuteVM;
+import svm.ObjectFile;
+
+import java.io.IOException;
+
+import static compiler.CodeUtils.checkTypes;
+import static compiler.CodeUtils.getCodeBuffer;
+import static compiler.CodeUtils.getEAST;
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromFileName;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DisplayTest {
+
+    private static CodeBuffer withDisplay(final String code) throws TypeException {
+        final Node east = getEAST(fromString(code));
+        checkTypes(east);
+        return new CodeGenerationASTVisitor(new CompilationContext(), false, false, true).visit(east);
+    }
+
+    /**
+     * Run the program following the static chain and with the display, that must print the same.
+     *
+     * @return the output of the program
+     */
+    private static String output(final String code) throws TypeException {
+        final String expected = getOutput(ExecuteVM.verified(ObjectFile.of(getCodeBuffer(fromString(code)))));
+        final String actual = getOutput(ExecuteVM.verified(ObjectFile.of(withDisplay(code))));
+        assertEquals(expected, actual);
+        return actual;
+    }
+
+    @Test
+    void testDeeplyNestedAccesses() throws TypeException {
+        final String code = """
+                let
+                    var base:int = 3;
+                    fun a:int (x:int)
+                        let
+                            fun b:int (y:int)
+                                let
+                                    fun c:int (z:int)
+                                        let
+                                            fun d:int (w:int) if (w == 0) then {x + y + z + base} else {d(w - 1) + x + y + z};
+                                        in
+                                            d(z);
+                                in
+                                    c(y) + c(y + 1);
+                        in
+                            b(x) + b(x + 1);
+                in
+                    print(a(4) + a(5));
+                """;
+        assertEquals("816", output(code));
+
+        final ExecuteVM staticChain = new ExecuteVM(ObjectFile.of(getCodeBuffer(fromString(code))));
+        final ExecuteVM display = new ExecuteVM(ObjectFile.of(withDisplay(code)));
+        getOutput(staticChain);
+        getOutput(display);
+        assertTrue(display.getInstructionCount() < staticChain.getInstructionCount());
+    }
+
+    @Test
+    void testEntryIsRestoredAfterCalls() throws TypeException {
+        // i reads m after f and g replaced the entry of the display of the level of h
+        assertEquals("15", output("""
+                let
+                    fun f:int (n:int)
+                        let
+                            fun g:int (k:int) if (k == 0) then {n} else {f(k - 1) + n};
+                        in
+                            g(n);
+                    fun h:int (m:int)
+                        let
+                            fun i:int (k:int) m + f(k) + m;
+                        in
+                            i(m) + m;
+                in
+                    print(h(3));
+                """));
+    }
+
+    @Test
+    void testTailCallsAndMethods() throws TypeException {
+        assertEquals("5050\n11", output("""
+                let
+                    class Acc (v:int) {
+                        fun add:int (x:int)
+                            let
+                                fun inner:int (y:int) x + y + v;
+                            in
+                                inner(1);
+                    }
+                    var base:int = 1;
+                    fun sum:int (n:int, acc:int)
+                        let
+                            fun next:int () acc + n + base - 1;
+                        in
+                            if (n == 0) then {acc} else {sum(n - 1, next())};
+                    var acc:Acc = new Acc(4);
+                in
+                    print(sum(100, 0)) + print(acc.add(6));
+                """).replace("\r", ""));
+    }
+
+    @Test
+    void testTailCallOfAnotherFunctionRestoresTheEntry() throws TypeException {
+        // f restores the entry of the display of its level before g replaces its frame,
+        // so after g returns use finds the frame of h there
+        assertEquals("308", output("""
+                let
+                    fun g:int (m:int)
+                        let
+                            fun twice:int () m + m;
+                        in
+                            twice();
+                    fun f:int (n:int)
+                        let
+                            fun get:int () n;
+                        in
+                            if (n == 0) then {get()} else {g(get() + 1)};
+                    fun h:int (k:int)
+                        let
+                            fun use:int () k * 100;
+                        in
+                            f(k) + use();
+                in
+                    print(h(3));
+                """));
+    }
+
+    @Test
+    void testExamples() throws TypeException, IOException {
+        assertEquals("1\n2\n2\n3\n4\n5", output(fromFileName("examples/quicksort.fool").toString()).replace("\r", ""));
+        assertEquals("50000", output(fromFileName("examples/bankloan.fool").toString()));
+    }
+
+}
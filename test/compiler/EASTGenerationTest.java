@@ -164,6 +164,37 @@ public class EASTGenerationTest {
 
     }
 
+    @Test
+    void testClassWithSuperclassThatOverrideAndAddMethods() {
+        final var code = """
+                let
+                    class Account (money:int) {
+                        fun getMon:int () money;
+                        fun plus:int (x:int) money + x;
+                    }
+                    class Savings extends Account (money:int) {
+                        fun getMon:int () money * 2;
+                        fun rate:int () 3;
+                    }
+                    class Bonus extends Savings (money:int) {
+                        fun bonus:int () money + 1;
+                    }
+                in
+                    true;
+                """;
+        final var progNode = getProgLetInNodeFromEAST(fromString(code));
+        final var savings = (AST.ClassNode) progNode.declarations.get(1);
+        final var bonus = (AST.ClassNode) progNode.declarations.get(2);
+
+        // the overriding method takes the slot of the overridden one
+        assertEquals(0, savings.methods.get(0).offset);
+        assertEquals(2, savings.methods.get(1).offset);
+        assertEquals(3, ((AST.ClassTypeNode) savings.getType()).methods.size());
+
+        assertEquals(3, bonus.methods.get(0).offset);
+        assertEquals(4, ((AST.ClassTypeNode) bonus.getType()).methods.size());
+    }
+
     @Test
     void testClassWithSuperclassWithFieldThatOverrideMethod() {
         final var code = """
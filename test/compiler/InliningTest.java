@@ -0,0 +1,144 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.CompilationException;
+import compiler.exc.TypeException;
+import compiler.lib.Node;
+import org.junit.jupiter.api.Test;
+import svm.ExecuteVM;
+import svm.ObjectFile;
+
+import java.io.IOException;
+
+import static compiler.CodeUtils.checkTypes;
+import static compiler.CodeUtils.getCodeBuffer;
+import static compiler.CodeUtils.getEAST;
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromFileName;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InliningTest {
+
+    /**
+     * @return the expression printed by the main program, after inlining
+     */
+    private static Node printed(final String code) throws TypeException {
+        final Node east = getEAST(fromString(code));
+        checkTypes(east);
+        return ((PrintNode) ((ProgLetInNode) new InliningEASTVisitor().visit(east)).exp).exp;
+    }
+
+    /**
+     * Run the program with and without the optimizations of the EAST, that must print the same.
+     *
+     * @return the number of calls of the optimized program
+     */
+    private static long calls(final String code) throws CompilationException {
+        final ExecuteVM vm = new ExecuteVM(ObjectFile.of(FOOLCompiler.compile(fromString(code))));
+        assertEquals(getOutput(new ExecuteVM(ObjectFile.of(getCodeBuffer(fromString(code))))), getOutput(vm));
+        return vm.getCallCount();
+    }
+
+    @Test
+    void testSmallFunctionIsInlined() throws Exception {
+        final String code = """
+                let
+                    fun inc:int (x:int) x + 1;
+                in
+                    print(inc(41));
+                """;
+        assertEquals(42, ((IntNode) printed(code)).value);
+        assertEquals(0, calls(code));
+    }
+
+    @Test
+    void testStaticScopingIsKept() throws Exception {
+        final String code = """
+                let
+                    var base:int = 100;
+                    fun outer:int (a:int)
+                        let
+                            fun add:int (b:int) base + a + b;
+                            fun twice:int (c:int) add(c) + add(c * 2);
+                        in
+                            twice(a) + twice(1);
+                in
+                    print(outer(5));
+                """;
+        assertEquals(1, calls(code));
+    }
+
+    @Test
+    void testRecursiveAndLargeFunctionsAreNotInlined() throws Exception {
+        assertEquals(5, calls("""
+                let
+                    fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+                in
+                    print(fact(5));
+                """));
+        assertInstanceOf(CallNode.class, printed("""
+                let
+                    fun large:int (x:int) x + x + x + x + x + x + x + x + x;
+                in
+                    print(large(1));
+                """));
+    }
+
+    @Test
+    void testEvaluationOrderIsKept() throws Exception {
+        final String functions = """
+                let
+                    fun minus:int (x:int, y:int) x - y;
+                    fun square:int (x:int) x * x;
+                    fun next:int (x:int) x + 1;
+                    fun choose:int (c:bool, x:int) if (c) then {x} else {0};
+                in
+                    print(%s);
+                """;
+        // the arguments are evaluated from the last
+        assertInstanceOf(CallNode.class, printed(functions.formatted("minus(print(1), print(2))")));
+        assertEquals(1, calls(functions.formatted("minus(print(1), print(2))")));
+        // the argument must be evaluated once
+        assertInstanceOf(CallNode.class, printed(functions.formatted("square(print(3))")));
+        assertEquals(1, calls(functions.formatted("square(print(3))")));
+        assertInstanceOf(CallNode.class, printed(functions.formatted("choose(false, print(3))")));
+        // the argument is evaluated first anyway
+        assertInstanceOf(PlusNode.class, printed(functions.formatted("next(print(3))")));
+        assertEquals(0, calls(functions.formatted("next(print(3)) + minus(4, 5)")));
+    }
+
+    @Test
+    void testMethodOfKnownClass() throws Exception {
+        final String classes = """
+                let
+                    class Account (money:int) {
+                        fun getMon:int () money;
+                        fun plus:int (x:int) money + x;
+                    }
+                    class Savings extends Account (money:int) {
+                        fun getMon:int () money * 2;
+                    }
+                    var amount:int = 7;
+                    var acc:Account = new Savings(amount);
+                    var loan:Account = new Account(acc.getMon());
+                in
+                    print(%s);
+                """;
+        assertEquals("amount", ((IdNode) ((TimesNode) printed(classes.formatted("acc.getMon()"))).left).id);
+        assertEquals(1, ((IntNode) ((PlusNode) printed(classes.formatted("acc.plus(1)"))).right).value);
+        // the field is not a constant or a variable
+        assertInstanceOf(ClassCallNode.class, printed(classes.formatted("loan.getMon()")));
+        assertEquals(1, calls(classes.formatted("acc.getMon() + acc.plus(1) + loan.getMon()")));
+    }
+
+    @Test
+    void testFewerCallsInExamples() throws IOException, CompilationException {
+        final String quicksort = fromFileName("examples/quicksort.fool").toString();
+        final ExecuteVM vm = new ExecuteVM(ObjectFile.of(getCodeBuffer(fromString(quicksort))));
+        getOutput(vm);
+        assertTrue(calls(quicksort) < vm.getCallCount());
+        calls(fromFileName("examples/bankloan.fool").toString());
+    }
+
+}
@@ -0,0 +1,148 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.exc.CompilationException;
+import compiler.exc.TypeException;
+import compiler.lib.DecNode;
+import compiler.lib.Node;
+import org.junit.jupiter.api.Test;
+import svm.CodeBuffer;
+import svm.ExecuteVM;
+import svm.ObjectFile;
+
+import java.io.IOException;
+import java.util.List;
+
+import static compiler.CodeUtils.checkTypes;
+import static compiler.CodeUtils.getEAST;
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromFileName;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LambdaLiftingTest {
+
+    private static final String FUNCTIONS = """
+            let
+                var g:int = 10;
+                fun outer:int (n:int)
+                    let
+                        fun sq:int (x:int) x * x;
+                        fun sumsq:int (k:int) if (k == 0) then {0} else {sq(k) + sumsq(k - 1)};
+                        fun scale:int (x:int)
+                            let
+                                fun twice:int () x + x;
+                            in
+                                twice();
+                        fun addn:int (x:int) x + n;
+                        fun glob:int (x:int) x + g;
+                    in
+                        sumsq(n) + scale(n) + addn(1) + glob(0);
+            in
+                print(outer(3));
+            """;
+
+    private static FreeVariablesEASTVisitor analyze(final Node east, final boolean display) {
+        final FreeVariablesEASTVisitor freeVariables = new FreeVariablesEASTVisitor(display);
+        freeVariables.visit(east);
+        return freeVariables;
+    }
+
+    private static Node east(final String code) throws TypeException {
+        final Node east = getEAST(fromString(code));
+        checkTypes(east);
+        return east;
+    }
+
+    private static FunNode function(final List<DecNode> declarations, final String id) {
+        for (final DecNode declaration : declarations) {
+            if (declaration instanceof FunNode function) {
+                if (function.id.equals(id)) return function;
+                final FunNode nested = function(function.declarations, id);
+                if (nested != null) return nested;
+            }
+        }
+        return null;
+    }
+
+    private static FunNode function(final Node east, final String id) {
+        return function(((ProgLetInNode) east).declarations, id);
+    }
+
+    private static String run(final CodeBuffer code) {
+        return getOutput(ExecuteVM.verified(ObjectFile.of(code)));
+    }
+
+    @Test
+    void testFunctionsThatCaptureNothingAreLifted() throws TypeException {
+        final Node east = east(FUNCTIONS);
+        final FreeVariablesEASTVisitor staticChain = analyze(east, false);
+        for (final String id : List.of("sq", "sumsq", "scale")) assertTrue(staticChain.isLifted(function(east, id)), id);
+        for (final String id : List.of("twice", "addn", "glob", "outer")) assertFalse(staticChain.isLifted(function(east, id)), id);
+
+        // the globals are at fixed addresses
+        final FreeVariablesEASTVisitor display = analyze(east, true);
+        assertTrue(display.isLifted(function(east, "glob")));
+        assertTrue(display.isLifted(function(east, "outer")));
+        assertFalse(display.isLifted(function(east, "addn")));
+    }
+
+    @Test
+    void testMakeListIsLifted() throws TypeException, IOException {
+        final Node east = east(fromFileName("examples/quicksort.fool").toString());
+        final FreeVariablesEASTVisitor freeVariables = analyze(east, false);
+        assertTrue(freeVariables.isLifted(function(east, "makeList")));
+        assertFalse(freeVariables.isLifted(function(east, "accept")));
+    }
+
+    @Test
+    void testOnlyDeeperFunctionsUseTheDisplay() throws TypeException {
+        final Node east = east("""
+                let
+                    fun a:int (x:int)
+                        let
+                            fun b:int (y:int)
+                                let
+                                    fun c:int () x + y;
+                                in
+                                    c();
+                        in
+                            b(1);
+                in
+                    print(a(2));
+                """);
+        final FreeVariablesEASTVisitor freeVariables = analyze(east, true);
+        assertTrue(freeVariables.isDisplayed(function(east, "a")));
+        assertFalse(freeVariables.isDisplayed(function(east, "b"))); // c follows its Access Link
+
+        final Node functions = east(FUNCTIONS);
+        assertFalse(analyze(functions, true).isDisplayed(function(functions, "scale"))); // twice is declared in it
+    }
+
+    @Test
+    void testMutualRecursionRunsInConstantStack() throws TypeException {
+        // step is lifted, so down can tail call it as well as step can tail call down
+        final CodeBuffer code = new CodeGenerationASTVisitor(new CompilationContext(), false, false, true).visit(east("""
+                let
+                    fun down:int (n:int, acc:int)
+                        let
+                            fun step:int (m:int, a:int) if (m == 0) then {a} else {down(m - 1, a + 2)};
+                        in
+                            step(n, acc);
+                in
+                    print(down(5000, 0));
+                """));
+        final ExecuteVM vm = ExecuteVM.verified(ObjectFile.of(code));
+        assertEquals("10000", getOutput(vm));
+        assertTrue(vm.getPeakStackDepth() < 32);
+    }
+
+    @Test
+    void testLiftedFunctionsRun() throws TypeException, CompilationException {
+        final Node east = east(FUNCTIONS);
+        assertEquals("34", run(new CodeGenerationASTVisitor().visit(east)));
+        assertEquals("34", run(new CodeGenerationASTVisitor(new CompilationContext(), false, false, true).visit(east(FUNCTIONS))));
+        assertEquals("34", run(FOOLCompiler.compile(fromString(FUNCTIONS))));
+    }
+
+}
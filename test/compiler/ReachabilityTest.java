@@ -0,0 +1,163 @@
+package compiler;
+
+import org.junit.jupiter.api.Test;
+import svm.ExecuteVM;
+import svm.ObjectFile;
+
+import java.util.List;
+
+import static compiler.CodeUtils.getAssembly;
+import static compiler.CodeUtils.getCodeBuffer;
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReachabilityTest {
+
+    private static int functions(final String code) {
+        return (int) getCodeBuffer(fromString(code)).toString().lines().filter(line -> line.matches("function\\d+:")).count();
+    }
+
+    @Test
+    void testDeadFunctionsAreRemoved() {
+        final String code = """
+                let
+                    fun used:int (x:int) x + 1;
+                    fun unused:int (x:int) x - 1;
+                    fun onlyFromUnused:int (x:int) unused(x);
+                in
+                    print(used(41));
+                """;
+        assertEquals(1, functions(code));
+        assertEquals("42", getOutput(fromString(code)));
+    }
+
+    @Test
+    void testNestedAndRecursiveFunctions() {
+        final String code = """
+                let
+                    fun fact:int (n:int)
+                        let
+                            fun dead:int () 0;
+                            fun step:int (m:int) if (m <= 1) then {1} else {m * fact(m - 1)};
+                        in step(n);
+                in
+                    print(fact(5));
+                """;
+        assertEquals(2, functions(code));
+        assertEquals("120", getOutput(fromString(code)));
+    }
+
+    @Test
+    void testFunctionUsedInVariableInitializer() {
+        final String code = """
+                let
+                    fun one:int () 1;
+                    var x:int = one();
+                in
+                    print(x);
+                """;
+        assertEquals(1, functions(code));
+        assertEquals("1", getOutput(fromString(code)));
+    }
+
+    @Test
+    void testOnlyCalledMethodsOfInstantiatedClasses() {
+        final String code = """
+                let
+                    class Account (money:int) {
+                        fun getMon:int () money;
+                        fun unused:int () 0;
+                    }
+                    class TradingAcc extends Account (invested:int) {
+                        fun getMon:int () money + invested;
+                    }
+                    class Never (x:int) {
+                        fun getX:int () x;
+                    }
+                    var acc:Account = new TradingAcc(10, 5);
+                in
+                    print(acc.getMon());
+                """;
+        // Account.getMon is never executed but TradingAcc.getMon is
+        assertEquals(1, functions(code));
+        assertEquals("15", getOutput(fromString(code)));
+    }
+
+    @Test
+    void testMethodCalledFromMethodOfSubclass() {
+        final String code = """
+                let
+                    class Account (money:int) {
+                        fun getMon:int () money;
+                        fun twice:int () getMon() + getMon();
+                    }
+                    class Bonus extends Account () {
+                        fun getMon:int () money + 1;
+                    }
+                    var acc:Account = new Bonus(10);
+                in
+                    print(acc.twice());
+                """;
+        assertEquals(2, functions(code));
+        assertEquals("22", getOutput(fromString(code)));
+    }
+
+    @Test
+    void testSubclassOfLibraryOverridesCalledMethod() throws Exception {
+        final String library = """
+                class Account (money:int) {
+                    fun fee:int () 1;
+                    fun total:int () money + fee();
+                }
+                """;
+        final ObjectFile program = FOOLCompiler.compileProgram(fromString("""
+                let
+                    class Premium extends Account () {
+                        fun fee:int () 5;
+                    }
+                    var acc:Account = new Premium(10);
+                in
+                    print(acc.total());
+                """), List.of(fromString(library)));
+        final ObjectFile linked = FOOLCompiler.link(
+                List.of(FOOLCompiler.compileLibrary(fromString(library), List.of())), program);
+        assertEquals("15", getOutput(new ExecuteVM(linked)));
+    }
+
+    @Test
+    void testUnusedVariablesAreNotInitialized() {
+        final String code = """
+                let
+                    fun one:int () 1;
+                    var x:int = 2;
+                    var y:int = x * 3;
+                    var z:int = print(7);
+                    var w:int = one();
+                in
+                    print(w);
+                """;
+        assertEquals(1, functions(code));
+        assertFalse(getAssembly(fromString(code)).contains("mult"));
+        assertEquals("7\n1", getOutput(fromString(code)).replace("\r", ""));
+    }
+
+    @Test
+    void testUnusedObjectIsNotCreated() {
+        final String code = """
+                let
+                    class Account (money:int) {
+                        fun getMon:int () money;
+                    }
+                    var unused:Account = new Account(1);
+                    fun dead:int () unused.getMon();
+                in
+                    print(2);
+                """;
+        final ExecuteVM vm = new ExecuteVM(ObjectFile.of(getCodeBuffer(fromString(code))));
+        assertEquals("2", getOutput(vm));
+        assertEquals(0, vm.getAllocatedWords());
+        assertEquals(0, functions(code));
+    }
+
+}
@@ -0,0 +1,147 @@
+package compiler;
+
+import org.junit.jupiter.api.Test;
+import svm.CodeBuffer;
+import svm.ExecuteVM;
+import svm.ObjectFile;
+import svm.PeepholeOptimizer;
+
+import static compiler.CodeUtils.getCodeBuffer;
+import static compiler.CodeUtils.getObjectFile;
+import static compiler.CodeUtils.getOutput;
+import static compiler.CodeUtils.getSVMCode;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TailCallTest {
+
+    @Test
+    void testAccumulatorRunsInConstantStack() {
+        final int[] code = getSVMCode(fromString("""
+                let
+                    fun count:int (n:int, acc:int)
+                        if (n == 0) then {acc} else {count(n - 1, acc + 2)};
+                in
+                    print(count(100000, 0));
+                """));
+        final ExecuteVM vm = new ExecuteVM(code);
+        assertEquals("200000", getOutput(vm));
+        assertEquals(1, vm.getCallCount());
+        assertTrue(vm.getPeakStackDepth() < 16);
+        assertEquals("200000", getOutput(ExecuteVM.verified(code)));
+    }
+
+    @Test
+    void testArgumentsAreEvaluatedBeforeTheParametersChange() {
+        final String output = getOutput(new ExecuteVM(getSVMCode(fromString("""
+                let
+                    fun fib:int (n:int, a:int, b:int)
+                        let
+                            var next:int = a + b;
+                        in
+                            if (n == 0) then {print(a)} else {fib(n - 1, b, next)};
+                    fun swap:int (n:int, x:int, y:int)
+                        if (n == 0) then {x * 10 + y} else {swap(n - 1, y, x)};
+                in
+                    print(fib(4, 0, 1) * 100 + swap(1, 3, 7));
+                """))));
+        assertEquals("3\n373", output.replace("\r", ""));
+    }
+
+    @Test
+    void testListTraversal() {
+        final CodeBuffer code = getCodeBuffer(fromString("""
+                let
+                    class List (f:int, r:List) {
+                        fun first:int () f;
+                        fun rest:List () r;
+                    }
+                    fun build:List (n:int, l:List) if (n == 0) then {l} else {build(n - 1, new List(n, l))};
+                    fun sum:int (l:List, acc:int) if (l == null) then {acc} else {sum(l.rest(), acc + l.first())};
+                in
+                    print(sum(build(2000, null), 0));
+                """));
+        final ExecuteVM vm = new ExecuteVM(ObjectFile.of(code));
+        assertEquals("2001000", getOutput(vm));
+        assertTrue(vm.getPeakStackDepth() < 32);
+        assertEquals("2001000", getOutput(ExecuteVM.verified(PeepholeOptimizer.optimize(ObjectFile.of(code)))));
+    }
+
+    @Test
+    void testMethodRunsInConstantStack() {
+        // the method of Counter runs on Counter objects only, since Twice overrides it
+        final ObjectFile code = getObjectFile(fromString("""
+                let
+                    class Counter (step:int) {
+                        fun count:int (n:int, acc:int) if (n == 0) then {acc} else {count(n - 1, acc + step)};
+                    }
+                    class Twice extends Counter (step:int) {
+                        fun count:int (n:int, acc:int) if (n == 0) then {acc} else {count(n - 1, acc + step + step)};
+                    }
+                    fun run:int (c:Counter) c.count(100000, 0);
+                in
+                    print(run(new Counter(1)) + run(new Twice(1)));
+                """));
+        final ExecuteVM vm = new ExecuteVM(code);
+        assertEquals("300000", getOutput(vm));
+        assertEquals(4, vm.getCallCount());
+        assertTrue(vm.getPeakStackDepth() < 32);
+        assertEquals("300000", getOutput(ExecuteVM.verified(code)));
+    }
+
+    @Test
+    void testTailCallsOfOtherFunctionsReplaceTheFrame() {
+        final CodeBuffer code = getCodeBuffer(fromString("""
+                let
+                    fun f1:int (n:int) n + 1;
+                    fun f2:int (n:int) f1(n + 1);
+                    fun f3:int (n:int, m:int) f2(n + m);
+                    fun f4:int (n:int) f3(n, 1);
+                    fun f5:int (n:int) let var x:int = n + 1; in f4(x);
+                    fun f6:int (a:int, b:int, c:int) f5(a + b + c);
+                in
+                    print(f6(1, 2, 3));
+                """));
+        final ExecuteVM vm = new ExecuteVM(ObjectFile.of(code));
+        assertEquals("10", getOutput(vm));
+        assertEquals(6, vm.getCallCount());
+        // the globals and one frame at a time, six nested frames would take over 40 words
+        assertTrue(vm.getPeakStackDepth() < 24);
+        assertEquals("10", getOutput(ExecuteVM.verified(ObjectFile.of(code))));
+        assertEquals("10", getOutput(ExecuteVM.verified(PeepholeOptimizer.optimize(ObjectFile.of(code)))));
+    }
+
+    @Test
+    void testTailCallsThatDoNotFitInTheFrame() {
+        final int[] code = getSVMCode(fromString("""
+                let
+                    fun sum:int (a:int, b:int, c:int, d:int) a + b * 10 + c * 100 + d * 1000;
+                    fun spread:int (n:int) sum(n, n + 1, n + 2, n + 3);
+                    fun outer:int (n:int)
+                        let
+                            fun inner:int (m:int) m + n;
+                        in
+                            inner(n * 10);
+                in
+                    print(spread(1) + outer(2));
+                """));
+        final ExecuteVM vm = ExecuteVM.verified(code);
+        assertEquals("4343", getOutput(vm));
+        // spread has too small a frame for four arguments, inner uses the frame of outer as Access Link
+        assertEquals(4, vm.getCallCount());
+    }
+
+    @Test
+    void testCallsNotInTailPosition() {
+        final ExecuteVM vm = new ExecuteVM(getSVMCode(fromString("""
+                let
+                    fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+                    fun even:bool (n:int) if (n == 0) then {true} else {!(even(n - 1))};
+                in
+                    print(fact(5) + even(3));
+                """)));
+        assertEquals("120", getOutput(vm));
+        assertEquals(9, vm.getCallCount());
+    }
+
+}
@@ -0,0 +1,124 @@
+package programs;
+
+import org.junit.jupiter.api.Test;
+
+import static compiler.CodeUtils.getOutput;
+import static java.lang.Integer.parseInt;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ClassesTest {
+
+    @Test
+    void testFieldAccess() {
+        final var code = """
+                let
+                    class Account (money:int) {
+                        fun getMon:int () money;
+                    }
+                    var acc:Account = new Account(10);
+                in
+                    print(acc.getMon());
+                """;
+        final var result = getOutput(fromString(code));
+        assertEquals(10, parseInt(result));
+    }
+
+    @Test
+    void testMultipleFieldsAccess() {
+        final var code = """
+                let
+                    class Pair (first:int, second:int) {
+                        fun diff:int () first - second;
+                    }
+                    var p:Pair = new Pair(10, 3);
+                in
+                    print(p.diff());
+                """;
+        final var result = getOutput(fromString(code));
+        assertEquals(7, parseInt(result));
+    }
+
+    @Test
+    void testInheritedFieldAccess() {
+        final var code = """
+                let
+                    class Account (money:int) {
+                        fun getMon:int () money;
+                    }
+                    class TradingAcc extends Account (invested:int) {
+                        fun getInv:int () invested;
+                    }
+                    var acc:TradingAcc = new TradingAcc(10, 5);
+                in
+                    print(acc.getMon() * acc.getInv());
+                """;
+        final var result = getOutput(fromString(code));
+        assertEquals(50, parseInt(result));
+    }
+
+    @Test
+    void testFieldAccessFromNestedFunction() {
+        final var code = """
+                let
+                    class Account (money:int) {
+                        fun double:int ()
+                            let
+                                fun twice:int (x:int) x + money;
+                            in twice(money);
+                    }
+                    var acc:Account = new Account(21);
+                in
+                    print(acc.double());
+                """;
+        final var result = getOutput(fromString(code));
+        assertEquals(42, parseInt(result));
+    }
+
+    @Test
+    void testObjectsDoNotShareFields() {
+        final var code = """
+                let
+                    class Account (money:int) {
+                        fun getMon:int () money;
+                    }
+                    var first:Account = new Account(1);
+                    var second:Account = new Account(2);
+                in
+                    print(first.getMon() - second.getMon());
+                """;
+        final var result = getOutput(fromString(code));
+        assertEquals(-1, parseInt(result));
+    }
+
+    @Test
+    void testBankLoan() {
+        final var code = """
+                let
+                  class Account (money:int) {
+                    fun getMon:int () money;
+                  }
+                  class TradingAcc extends Account (invested:int) {
+                    fun getInv:int () invested;
+                  }
+                  class BankLoan (loan: Account) {
+                    fun getLoan:Account () loan;
+                    fun openLoan:Account (m:TradingAcc) if ((m.getMon()+m.getInv())>=30000)
+                      then {new Account(loan.getMon())}
+                      else {null};
+                  }
+                  class MyBankLoan extends BankLoan (loan: TradingAcc) {
+                    fun openLoan:TradingAcc (l:Account) if (l.getMon()>=20000)
+                      then {new TradingAcc(loan.getMon(),loan.getInv())}
+                      else {null};
+                  }
+                  var bl:BankLoan = new MyBankLoan(new TradingAcc(50000,40000));
+                  var myTradingAcc:TradingAcc = new TradingAcc(20000,5000);
+                  var myLoan:Account = bl.openLoan(myTradingAcc);
+                in print(if (myLoan==null) then {0} else {myLoan.getMon()});
+                """;
+        final var result = getOutput(fromString(code));
+        assertEquals(50000, parseInt(result));
+    }
+
+}
@@ -0,0 +1,87 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import svm.exc.AssemblyException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static compiler.CodeUtils.getCodeBuffer;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AssemblerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testInstructionsAndLabels() {
+        final ObjectFile object = Assembler.assemble("""
+                push 1 /* a comment
+                spanning lines */
+                loop :
+                push -2
+                b loop
+                push end
+                end:
+                halt
+                """);
+        final int[] code = object.getCode();
+        assertEquals(9, object.getLength());
+        assertArrayEquals(new int[]{Opcodes.PUSH, 1, Opcodes.PUSH, -2, Opcodes.BRANCH, 2, Opcodes.PUSH, 8, Opcodes.HALT},
+                Arrays.copyOf(code, 9));
+        assertEquals(2, object.getSymbols().get("loop"));
+        assertEquals(8, object.getSymbols().get("end"));
+        assertEquals(4, object.lineOf(2));
+        assertEquals(8, object.lineOf(8));
+    }
+
+    @Test
+    void testIntegerBounds() {
+        final int[] code = Assembler.assemble("push 2147483647 push -2147483648 push 0 halt").getCode();
+        assertEquals(Integer.MAX_VALUE, code[1]);
+        assertEquals(Integer.MIN_VALUE, code[3]);
+        assertEquals(0, code[5]);
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("push 2147483648"));
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("push 01"));
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("push -0"));
+    }
+
+    @Test
+    void testDataSection() {
+        final ObjectFile object = Assembler.assemble("push table\nlw\njs\nf:\npush 42\nprint\nhalt\n"
+                + ".data\n.word 7\ntable:\n.word f\n");
+        assertArrayEquals(new int[]{7, 4}, object.getData());
+        assertEquals(1, object.getCode()[1]);
+        assertArrayEquals(new int[]{1}, object.getDataSection().getRelocations());
+        assertArrayEquals(new int[]{1}, object.getDataSection().getReferences());
+        assertThrows(AssemblyException.class, () -> Assembler.assemble(".word 1\nhalt\n"));
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("halt\n.data\nhalt\n"));
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("halt\n.text\n"));
+    }
+
+    @Test
+    void testErrors() {
+        assertEquals(2, assertThrows(AssemblyException.class, () -> Assembler.assemble("push 1\nfoo\n")).line);
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("push"));
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("b nowhere"));
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("a: a: halt"));
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("lf label"));
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("halt /* open"));
+        assertThrows(AssemblyException.class, () -> Assembler.assemble("push 1 # comment"));
+    }
+
+    @Test
+    void testMappedFile() throws IOException {
+        final CodeBuffer buffer = getCodeBuffer(fromString("print(3 + 4 * 5);"));
+        final Path path = directory.resolve("program.asm");
+        Files.writeString(path, buffer.toString());
+        final ObjectFile object = Assembler.assemble(path);
+        assertArrayEquals(buffer.toArray(), object.getCode());
+    }
+
+}
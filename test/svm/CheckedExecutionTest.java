@@ -0,0 +1,94 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+import svm.exc.VMException;
+import svm.exc.VerifyException;
+
+import static compiler.CodeUtils.getOutput;
+import static compiler.CodeUtils.getObjectFile;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CheckedExecutionTest {
+
+    private static final String PROGRAM = """
+            let
+                class Account (money:int) {
+                    fun getMon:int () money;
+                }
+                fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+                var acc:Account = new Account(6);
+            in
+                print(fact(acc.getMon()));
+            """;
+
+    @Test
+    void testAllModesGiveTheSameResult() {
+        final ObjectFile code = getObjectFile(fromString(PROGRAM));
+        assertEquals("720", getOutput(new ExecuteVM(code)));
+        assertEquals("720", getOutput(ExecuteVM.checked(code)));
+        assertEquals("720", getOutput(ExecuteVM.verified(code)));
+    }
+
+    @Test
+    void testUnknownOpcode() {
+        final int[] code = {Opcodes.PUSH, 1, 999, Opcodes.HALT};
+        assertThrows(VMException.class, () -> getOutput(ExecuteVM.checked(code)));
+        assertThrows(VerifyException.class, () -> ExecuteVM.verified(code));
+    }
+
+    @Test
+    void testBranchOutOfTheCode() {
+        final int[] code = {Opcodes.BRANCH, 500, Opcodes.HALT};
+        assertThrows(VMException.class, () -> getOutput(ExecuteVM.checked(code)));
+        assertThrows(VerifyException.class, () -> ExecuteVM.verified(code));
+    }
+
+    @Test
+    void testBranchIntoAnOperand() {
+        final int[] code = {Opcodes.PUSH, 1, Opcodes.BRANCH, 1, Opcodes.HALT};
+        assertThrows(VerifyException.class, () -> ExecuteVM.verified(code));
+    }
+
+    @Test
+    void testFallingOffTheEnd() {
+        final int[] code = {Opcodes.PUSH, 1, Opcodes.PRINT};
+        assertThrows(VMException.class, () -> getOutput(ExecuteVM.checked(code)));
+        assertThrows(VerifyException.class, () -> ExecuteVM.verified(code));
+    }
+
+    @Test
+    void testStackUnderflow() {
+        final int[] code = {Opcodes.POP, Opcodes.HALT};
+        assertThrows(VMException.class, () -> getOutput(ExecuteVM.checked(code)));
+    }
+
+    @Test
+    void testLoadOutOfTheMemory() {
+        final int[] code = {Opcodes.PUSH, -1, Opcodes.LOADW, Opcodes.HALT};
+        assertThrows(VMException.class, () -> getOutput(ExecuteVM.checked(code)));
+    }
+
+    @Test
+    void testDivisionByZero() {
+        final int[] code = {Opcodes.PUSH, 1, Opcodes.PUSH, 0, Opcodes.DIV, Opcodes.HALT};
+        assertThrows(VMException.class, () -> getOutput(ExecuteVM.checked(code)));
+    }
+
+    @Test
+    void testJumpToComputedAddressOutOfTheCode() {
+        final int[] code = {Opcodes.PUSH, 1000, Opcodes.JS};
+        assertThrows(VMException.class, () -> getOutput(ExecuteVM.checked(code)));
+    }
+
+    @Test
+    void testCheckedModeKeepsTheStatistics() {
+        final ObjectFile code = getObjectFile(fromString("print(1 + 2 * 3);"));
+        final ExecuteVM unchecked = new ExecuteVM(code);
+        final ExecuteVM checked = ExecuteVM.checked(code);
+        assertEquals(getOutput(unchecked), getOutput(checked));
+        assertEquals(unchecked.getInstructionCount(), checked.getInstructionCount());
+        assertEquals(unchecked.getPeakStackDepth(), checked.getPeakStackDepth());
+    }
+
+}
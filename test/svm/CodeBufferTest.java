@@ -0,0 +1,102 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static compiler.CodeUtils.getCodeBuffer;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CodeBufferTest {
+
+    private static final String PROGRAM = """
+            let
+                class Account (money:int) {
+                    fun getMon:int () money;
+                }
+                fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+                var acc:Account = new Account(6);
+            in
+                print(fact(acc.getMon()));
+            """;
+
+    @Test
+    void testForwardLabel() {
+        final CodeBuffer buffer = new CodeBuffer()
+                .emit(Opcodes.BRANCH, "end")
+                .emit(Opcodes.PUSH, 1)
+                .label("end")
+                .emit(Opcodes.HALT);
+        final int[] code = buffer.toArray();
+        assertEquals(5, buffer.size());
+        assertEquals(4, code[1]);
+        assertEquals(ExecuteVM.CODESIZE, code.length);
+    }
+
+    @Test
+    void testAppendRelocatesLabels() {
+        final CodeBuffer function = new CodeBuffer()
+                .label("loop")
+                .emit(Opcodes.BRANCH, "loop");
+        final CodeBuffer buffer = new CodeBuffer()
+                .emit(Opcodes.PUSH, "loop")
+                .emit(Opcodes.HALT)
+                .append(function);
+        final int[] code = buffer.toArray();
+        assertEquals(3, buffer.getLabels().get("loop"));
+        assertEquals(3, code[1]);
+        assertEquals(3, code[4]);
+        assertEquals(0, function.getLabels().get("loop"));
+    }
+
+    @Test
+    void testDuplicateLabel() {
+        final CodeBuffer buffer = new CodeBuffer().label("a");
+        assertThrows(IllegalStateException.class, () -> buffer.label("a"));
+        // across appended buffers the duplicate is detected when the code is resolved
+        buffer.append(new CodeBuffer().label("a"));
+        assertThrows(IllegalStateException.class, buffer::toArray);
+    }
+
+    @Test
+    void testDeepRope() {
+        // a left-deep rope, as built by joining fragments in a loop
+        CodeBuffer buffer = new CodeBuffer().label("start");
+        for (int i = 0; i < 100_000; i++) {
+            buffer = new CodeBuffer().append(buffer).emit(Opcodes.PUSH, "start").emit(Opcodes.POP);
+        }
+        buffer.emit(Opcodes.HALT);
+        final int[] code = buffer.toArray();
+        assertEquals(300_001, buffer.size());
+        assertEquals(Opcodes.PUSH, code[299_997]);
+        assertEquals(0, code[299_998]);
+        assertEquals(Opcodes.HALT, code[300_000]);
+    }
+
+    @Test
+    void testSharedFragment() {
+        final CodeBuffer body = new CodeBuffer().emit(Opcodes.PUSH, 1).emit(Opcodes.PRINT);
+        final CodeBuffer buffer = new CodeBuffer().append(body).append(body).emit(Opcodes.HALT);
+        assertArrayEquals(new int[]{Opcodes.PUSH, 1, Opcodes.PRINT, Opcodes.PUSH, 1, Opcodes.PRINT, Opcodes.HALT},
+                Arrays.copyOf(buffer.toArray(), buffer.size()));
+        assertEquals(3, body.size());
+    }
+
+    @Test
+    void testUndefinedLabel() {
+        final CodeBuffer buffer = new CodeBuffer().emit(Opcodes.BRANCH, "nowhere");
+        assertThrows(IllegalStateException.class, buffer::toArray);
+    }
+
+    @Test
+    void testAssemblyDumpAssemblesToTheSameCode() {
+        final CodeBuffer buffer = getCodeBuffer(fromString(PROGRAM));
+        final ObjectFile assembled = Assembler.assemble(buffer.toString());
+        final ObjectFile expected = ObjectFile.of(buffer);
+        assertEquals(buffer.size(), assembled.getLength());
+        assertArrayEquals(expected.getCode(), assembled.getCode());
+        assertArrayEquals(expected.getData(), assembled.getData());
+    }
+
+}
@@ -0,0 +1,53 @@
+package svm;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import static compiler.CodeUtils.getCodeBuffer;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+
+/**
+ * Benchmark of the {@link CompactCode} encoding against the int encoding,
+ * on generated programs with many functions. It is not a test: run its main.
+ */
+public class CompactCodeBenchmark {
+
+    private static final int ITERATIONS = 200;
+
+    /**
+     * @return a program with the given number of recursive functions, each one called by the main
+     */
+    static String program(final int functions) {
+        final StringBuilder source = new StringBuilder("let\n");
+        for (int i = 0; i < functions; i++) {
+            source.append("    fun f").append(i).append(":int (n:int) if (n <= 0) then {").append(i)
+                    .append("} else {f").append(i).append("(n - 1) + (n * 3 - 2) / 2 - ").append(i * 1000).append("};\n");
+        }
+        source.append("in print(0");
+        for (int i = 0; i < functions; i++) source.append(" + f").append(i).append("(100)");
+        return source.append(");\n").toString();
+    }
+
+    public static void main(final String[] args) {
+        final PrintStream out = System.out;
+        for (final int functions : new int[]{10, 100, 400}) {
+            final ObjectFile program = ObjectFile.of(getCodeBuffer(fromString(program(functions))));
+            final CompactCode compact = CompactCode.encode(program);
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            long words = Long.MAX_VALUE;
+            long bytes = Long.MAX_VALUE;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                new ExecuteVM(program).cpu();
+                words = Math.min(words, System.nanoTime() - start);
+                start = System.nanoTime();
+                new CompactVM(compact).cpu();
+                bytes = Math.min(bytes, System.nanoTime() - start);
+            }
+            System.setOut(out);
+            System.out.printf("%4d functions: int %7d bytes %8.1f us, compact %7d bytes %8.1f us%n", functions,
+                    program.getLength() * Integer.BYTES, words / 1e3, compact.getLength(), bytes / 1e3);
+        }
+    }
+
+}
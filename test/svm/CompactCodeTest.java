@@ -0,0 +1,68 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+
+import static compiler.CodeUtils.getCodeBuffer;
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromFileName;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactCodeTest {
+
+    @Test
+    void testOperands() {
+        final ObjectFile program = Assembler.assemble("""
+                push 63
+                push -64
+                push 64
+                push 2147483647
+                push -2147483648
+                print
+                halt
+                """);
+        final CompactCode compact = CompactCode.encode(program);
+        // opcode + 1 byte for 63 and -64, 2 bytes for 64, 5 bytes for the extreme values
+        assertEquals(2 + 2 + 3 + 6 + 6 + 1 + 1, compact.getLength());
+        assertEquals("-2147483648", getOutput(() -> new CompactVM(compact).cpu()));
+    }
+
+    @Test
+    void testBranchOffsets() {
+        final StringBuilder far = new StringBuilder("push 0\nb end\nback:\nprint\nhalt\n");
+        for (int i = 0; i < 100; i++) far.append("push 1000\npop\n");
+        far.append("end:\nb back\n");
+        final ObjectFile program = Assembler.assemble(far.toString());
+        final CompactCode compact = CompactCode.encode(program);
+
+        // push 0 takes 2 bytes, the forward branch over 400 bytes takes 3
+        assertEquals(5, compact.byteAddress(program.getSymbols().get("back")));
+        assertEquals(2 + 3 + 2 + 100 * 4 + 3, compact.getLength());
+        assertEquals("0", getOutput(() -> new CompactVM(compact).cpu()));
+    }
+
+    @Test
+    void testCompiledProgramsKeepTheirOutput() throws Exception {
+        final String[] programs = {
+                """
+                let
+                    fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+                in
+                    print(fact(6));
+                """,
+                fromFileName("examples/quicksort.fool").toString(),
+                fromFileName("examples/bankloan.fool").toString()
+        };
+        for (final String source : programs) {
+            final ObjectFile program = ObjectFile.of(getCodeBuffer(fromString(source)));
+            final CompactCode compact = CompactCode.encode(program);
+            final ExecuteVM words = new ExecuteVM(program);
+            final CompactVM bytes = new CompactVM(compact);
+
+            assertEquals(getOutput(words::cpu), getOutput(bytes::cpu));
+            assertEquals(words.getInstructionCount(), bytes.getInstructionCount());
+            assertTrue(compact.getLength() < program.getLength() * 2, "the encoding must be smaller than half the int one");
+        }
+    }
+
+}
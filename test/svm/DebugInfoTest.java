@@ -0,0 +1,117 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+import svm.exc.VMException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static compiler.CodeUtils.getCodeBuffer;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DebugInfoTest {
+
+    private static final String PROGRAM = """
+            let
+                class Calc (base:int) {
+                    fun scale:int (k:int) base * k;
+                }
+                var zero:int = 0;
+                var calc:Calc = new Calc(3);
+                fun ratio:int (a:int, b:int)
+                    let
+                        var q:int = a / b;
+                    in
+                        q;
+            in
+                print(ratio(calc.scale(2), zero));
+            """;
+
+    /**
+     * @return the address of the first div instruction of the program
+     */
+    private static int divAddress(final ObjectFile program) {
+        final int[] code = program.getCode();
+        for (int address = 0; address < program.getLength(); address += 1 + InstructionSet.operandCount(code[address])) {
+            if (code[address] == Opcodes.DIV) return address;
+        }
+        throw new AssertionError("No div instruction");
+    }
+
+    private static void assertDivisionResolved(final ObjectFile program) {
+        final DebugInfo debugInfo = program.getDebugInfo();
+        assertNotNull(debugInfo);
+        final int address = divAddress(program);
+        assertEquals(9, debugInfo.sourceLineOf(address));
+        assertEquals("ratio", debugInfo.scopeAt(address).name());
+        assertEquals("a", debugInfo.slotName(address, 1));
+        assertEquals("b", debugInfo.slotName(address, 2));
+        assertEquals("q", debugInfo.slotName(address, -2));
+        assertEquals("line 9 in ratio", debugInfo.describe(address));
+    }
+
+    @Test
+    void testGeneratedScopes() {
+        final ObjectFile program = ObjectFile.of(getCodeBuffer(fromString(PROGRAM)));
+        final DebugInfo debugInfo = program.getDebugInfo();
+        assertDivisionResolved(program);
+
+        final Map<String, DebugInfo.Scope> scopes = new HashMap<>();
+        for (final DebugInfo.Scope scope : debugInfo.getScopes()) scopes.put(scope.name(), scope);
+        assertEquals(Set.of("main", "Calc.scale", "ratio"), scopes.keySet());
+        assertEquals(Map.of(-2, "Calc", -3, "zero", -4, "calc", -5, "ratio"), scopes.get("main").slots());
+        assertEquals(Map.of(1, "k"), scopes.get("Calc.scale").slots());
+        assertEquals(Map.of(1, "a", 2, "b", -2, "q"), scopes.get("ratio").slots());
+        assertEquals(scopes.get("main"), debugInfo.scopeAt(0));
+        assertEquals(3, debugInfo.sourceLineOf(scopes.get("Calc.scale").start()));
+        for (final DebugInfo.Scope scope : scopes.values()) {
+            assertEquals(scope, debugInfo.scopeAt(scope.start()));
+            assertEquals(scope, debugInfo.scopeAt(scope.end() - 1));
+        }
+    }
+
+    @Test
+    void testDivisionByZeroResolved() {
+        final ObjectFile program = ObjectFile.of(getCodeBuffer(fromString(PROGRAM)));
+        final VMException error = assertThrows(VMException.class, () -> ExecuteVM.checked(program).cpu());
+        assertEquals("line 9 in ratio", program.getDebugInfo().describe(error.ip));
+    }
+
+    @Test
+    void testSurvivesOptimizationAndLinking() {
+        final ObjectFile program = ObjectFile.of(getCodeBuffer(fromString(PROGRAM)));
+        assertDivisionResolved(PeepholeOptimizer.optimize(program));
+
+        final ObjectFile prefix = ObjectFile.of(new CodeBuffer().emit(Opcodes.PUSH, 0), List.of());
+        final ObjectFile linked = Linker.link(List.of(prefix, ObjectFile.of(getCodeBuffer(fromString(PROGRAM)), List.of())));
+        assertEquals(0, linked.getDebugInfo().sourceLineOf(0));
+        assertNull(linked.getDebugInfo().scopeAt(0));
+        assertDivisionResolved(linked);
+    }
+
+    @Test
+    void testWriteAndLoad() throws IOException {
+        final ObjectFile program = ObjectFile.of(getCodeBuffer(fromString(PROGRAM)));
+        final Path path = Files.createTempFile("debug", ObjectFile.EXTENSION);
+        try {
+            program.write(path);
+            final ObjectFile loaded = ObjectFile.load(path);
+            assertEquals(program.getDebugInfo(), loaded.getDebugInfo());
+            assertDivisionResolved(loaded);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testAssembledProgramHasNone() {
+        assertNull(Assembler.assemble("push 1\nprint\nhalt\n").getDebugInfo());
+    }
+
+}
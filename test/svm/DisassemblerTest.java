@@ -0,0 +1,82 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static compiler.CodeUtils.getCodeBuffer;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DisassemblerTest {
+
+    private static final String PROGRAM = """
+            let
+                fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+            in
+                print(fact(5));
+            """;
+
+    @Test
+    void testListingAssemblesToSameCode() {
+        final ObjectFile program = ObjectFile.of(getCodeBuffer(fromString(PROGRAM)));
+        final String listing = Disassembler.disassemble(program);
+        assertArrayEquals(program.getCode(), Assembler.assemble(listing).getCode());
+    }
+
+    @Test
+    void testDataSectionAssemblesToSameData() {
+        final ObjectFile program = ObjectFile.of(getCodeBuffer(fromString("""
+                let
+                    class Counter (n:int) {
+                        fun get:int () n;
+                    }
+                    fun read:int (c:Counter) c.get();
+                in
+                    print(read(new Counter(3)));
+                """)));
+        final String listing = Disassembler.disassemble(program);
+        assertTrue(listing.contains("push D0\n"));
+        assertTrue(listing.contains(".data\nD0:\n.word "));
+        final ObjectFile assembled = Assembler.assemble(listing);
+        assertArrayEquals(program.getCode(), assembled.getCode());
+        assertArrayEquals(program.getData(), assembled.getData());
+    }
+
+    @Test
+    void testRecoveredLabels() {
+        final ObjectFile program = new ObjectFile(Assembler.assemble("""
+                push 1
+                push 1
+                beq equal
+                push 0
+                print
+                equal:
+                halt
+                """).getCode(), 10, Map.of(), null);
+        final String listing = Disassembler.disassemble(program);
+        assertTrue(listing.contains("beq L9\n"));
+        assertTrue(listing.contains("L9:\nhalt\n"));
+        assertArrayEquals(program.getCode(), Assembler.assemble(listing).getCode());
+    }
+
+    @Test
+    void testFunctionsAndBlocks() {
+        final ObjectFile program = Assembler.assemble(getCodeBuffer(fromString(PROGRAM)).toString());
+        final String listing = Disassembler.disassemble(program);
+        assertTrue(listing.contains("/* function main: "));
+        assertTrue(listing.contains(" words, 1 parameters */\n"));
+        assertTrue(listing.contains("/* block 0-"));
+        assertTrue(listing.contains("/* line 1 */"));
+    }
+
+    @Test
+    void testSummary() {
+        final ObjectFile program = Assembler.assemble("push 1\npush 2\nadd\nprint\nhalt\n");
+        final String summary = Disassembler.summary(program);
+        assertTrue(summary.matches("(?s).*main\\s+0\\s+7\\s+1\\s+2\\n.*"));
+        assertTrue(summary.matches("(?s).*push\\s+2\\s+40\\.0\\n.*"));
+        assertTrue(summary.matches("(?s).*halt\\s+1\\s+20\\.0\\n.*"));
+    }
+
+}
@@ -0,0 +1,171 @@
+package svm;
+
+import compiler.FOOLCompiler;
+import compiler.exc.CompilationException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import svm.exc.LinkException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LinkerTest {
+
+    private static final String ACCOUNTS = """
+            class Account (money:int) {
+                fun getMon:int () money;
+                fun fee:int () 1;
+            }
+            fun max:int (a:int, b:int) if (a >= b) then {a} else {b};
+            var bank:Account = new Account(1000);
+            """;
+
+    private static final String TRADING = """
+            class TradingAcc extends Account (invested:int) {
+                fun getInv:int () invested;
+                fun fee:int () 2;
+            }
+            """;
+
+    @TempDir
+    Path directory;
+
+    private static ObjectFile accounts() throws CompilationException {
+        return FOOLCompiler.compileLibrary(fromString(ACCOUNTS), List.of());
+    }
+
+    @Test
+    void testLibraryExportsMethods() throws CompilationException {
+        final ObjectFile library = accounts();
+        assertEquals(List.of("Account.getMon", "Account.fee"), List.copyOf(library.getExports().keySet()));
+        assertTrue(library.isExecutable());
+        assertTrue(library.getRelocations().length > 0);
+    }
+
+    @Test
+    void testProgramUsingLibrary() throws CompilationException {
+        final ObjectFile program = FOOLCompiler.compileProgram(fromString("""
+                let
+                    var acc:Account = new Account(10);
+                in
+                    print(max(acc.getMon(), bank.getMon()) + acc.fee());
+                """), List.of(fromString(ACCOUNTS)));
+        assertTrue(program.getImports().isEmpty());
+
+        final ObjectFile linked = FOOLCompiler.link(List.of(accounts()), program);
+        assertEquals("1001", getOutput(new ExecuteVM(linked)));
+    }
+
+    @Test
+    void testSubclassOfLibraryClass() throws CompilationException {
+        final ObjectFile program = FOOLCompiler.compileProgram(fromString("""
+                let
+                    class Savings extends Account () {
+                        fun fee:int () 0;
+                    }
+                    var acc:Account = new Savings(10);
+                in
+                    print(acc.getMon() + acc.fee());
+                """), List.of(fromString(ACCOUNTS)));
+        // the inherited method is in the dispatch table of the subclass, in the data section
+        assertEquals(List.of("Account.getMon"), List.copyOf(program.getDataSection().getImports().values()));
+
+        final ObjectFile linked = FOOLCompiler.link(List.of(accounts()), program);
+        assertEquals("10", getOutput(new ExecuteVM(linked)));
+    }
+
+    @Test
+    void testLibraryDependingOnLibrary() throws CompilationException {
+        final ObjectFile trading = FOOLCompiler.compileLibrary(fromString(TRADING), List.of(fromString(ACCOUNTS)));
+        assertEquals(List.of("Account.getMon"), List.copyOf(trading.getDataSection().getImports().values()));
+
+        final ObjectFile program = FOOLCompiler.compileProgram(fromString("""
+                let
+                    var acc:TradingAcc = new TradingAcc(10, 5);
+                in
+                    print(acc.getMon() * acc.getInv() + acc.fee() + bank.fee());
+                """), List.of(fromString(ACCOUNTS), fromString(TRADING)));
+        final ObjectFile linked = FOOLCompiler.link(List.of(accounts(), trading), program);
+        assertEquals("53", getOutput(new ExecuteVM(linked)));
+    }
+
+    @Test
+    void testDataSectionsOneAfterTheOther() throws CompilationException {
+        final ObjectFile library = accounts();
+        final ObjectFile program = FOOLCompiler.compileProgram(fromString("""
+                let
+                    class Savings extends Account () {
+                        fun fee:int () 0;
+                    }
+                    fun total:int (acc:Account) acc.getMon() + acc.fee();
+                in
+                    print(total(new Savings(10)));
+                """), List.of(fromString(ACCOUNTS)));
+        final ObjectFile linked = FOOLCompiler.link(List.of(library), program);
+
+        final int[] data = linked.getData();
+        assertEquals(library.getData().length + program.getDataSection().getLength(), data.length);
+        // both the table of Account and the one of Savings start with the method of the library
+        final int getMon = linked.getSymbols().get("Account.getMon");
+        assertEquals(getMon, data[0]);
+        assertEquals(getMon, data[library.getData().length]);
+        assertEquals("10", getOutput(new ExecuteVM(linked)));
+    }
+
+    @Test
+    void testLinkedFileRoundTrip() throws CompilationException, IOException {
+        final ObjectFile trading = FOOLCompiler.compileLibrary(fromString(TRADING), List.of(fromString(ACCOUNTS)));
+        final Path path = directory.resolve("trading" + ObjectFile.EXTENSION);
+        trading.write(path);
+
+        final ObjectFile loaded = ObjectFile.load(path);
+        assertArrayEquals(trading.getRelocations(), loaded.getRelocations());
+        assertEquals(trading.getImports(), loaded.getImports());
+        assertEquals(trading.getDataSection().getImports(), loaded.getDataSection().getImports());
+        assertEquals(trading.getExports(), loaded.getExports());
+        assertFalse(loaded.isExecutable());
+        assertThrows(IllegalStateException.class, loaded::getCode);
+    }
+
+    @Test
+    void testRelocation() {
+        final ObjectFile first = Assembler.assemble("push 1\nb skip\npush 2\nskip:\n");
+        final ObjectFile second = Assembler.assemble("b end\npush 3\nend:\nprint\nhalt\n");
+        final ObjectFile linked = Linker.link(List.of(first, second));
+
+        assertEquals(6, linked.getSymbols().get("u0.skip"));
+        assertEquals(10, linked.getSymbols().get("u1.end"));
+        assertArrayEquals(new int[]{3, 7}, linked.getRelocations());
+        assertEquals(10, linked.getCode()[7]);
+        assertEquals("1", getOutput(new ExecuteVM(linked)));
+    }
+
+    @Test
+    void testDuplicateSymbol() throws CompilationException {
+        final ObjectFile program = FOOLCompiler.compileProgram(fromString("print(1);"), List.of());
+        final LinkException e = assertThrows(LinkException.class,
+                () -> FOOLCompiler.link(List.of(accounts(), accounts()), program));
+        assertEquals("Account.getMon", e.symbol);
+    }
+
+    @Test
+    void testUndefinedSymbol() throws CompilationException {
+        final ObjectFile trading = FOOLCompiler.compileLibrary(fromString(TRADING), List.of(fromString(ACCOUNTS)));
+        final ObjectFile program = FOOLCompiler.compileProgram(fromString("print(1);"), List.of());
+        final LinkException e = assertThrows(LinkException.class,
+                () -> FOOLCompiler.link(List.of(trading), program));
+        assertEquals("Account.getMon", e.symbol);
+    }
+
+    @Test
+    void testFrontEndErrors() {
+        assertThrows(CompilationException.class,
+                () -> FOOLCompiler.compileProgram(fromString("print(acc.getMon());"), List.of(fromString(ACCOUNTS))));
+    }
+
+}
@@ -0,0 +1,101 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static compiler.CodeUtils.getAssembly;
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ObjectFileTest {
+
+    private static final String PROGRAM = """
+            let
+                fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+            in
+                print(fact(5));
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testWriteAndLoad() throws IOException {
+        final ObjectFile assembled = Assembler.assemble(getAssembly(fromString(PROGRAM)));
+        final Path path = directory.resolve("fact" + ObjectFile.EXTENSION);
+        assembled.write(path);
+
+        final ObjectFile loaded = ObjectFile.load(path);
+        assertEquals(assembled.getLength(), loaded.getLength());
+        assertArrayEquals(assembled.getCode(), loaded.getCode());
+        assertEquals(assembled.getSymbols(), loaded.getSymbols());
+        assertEquals("120", getOutput(new ExecuteVM(loaded)));
+    }
+
+    @Test
+    void testDataSection() throws IOException {
+        final ObjectFile assembled = Assembler.assemble("push table\nlw\njs\nf:\npush 42\nprint\nhalt\n.data\ntable:\n.word f\n");
+        final Path path = directory.resolve("data" + ObjectFile.EXTENSION);
+        assembled.write(path);
+
+        final ObjectFile loaded = ObjectFile.load(path);
+        assertArrayEquals(assembled.getData(), loaded.getData());
+        assertArrayEquals(assembled.getDataSection().getRelocations(), loaded.getDataSection().getRelocations());
+        assertArrayEquals(assembled.getDataSection().getReferences(), loaded.getDataSection().getReferences());
+        final ExecuteVM vm = new ExecuteVM(loaded);
+        assertEquals("42", getOutput(vm));
+        // the loader places the data at the bottom of the heap
+        assertEquals(1, vm.getHp());
+    }
+
+    @Test
+    void testLineTable() throws IOException {
+        final Path path = directory.resolve("lines" + ObjectFile.EXTENSION);
+        Assembler.assemble("push 1\n\nlabel0:\nprint\nb label1\nlabel1:\nhalt\n").write(path);
+
+        final ObjectFile loaded = ObjectFile.load(path);
+        assertTrue(loaded.hasLines());
+        assertEquals(1, loaded.lineOf(0));
+        assertEquals(1, loaded.lineOf(1));
+        assertEquals(4, loaded.lineOf(2));
+        assertEquals(5, loaded.lineOf(4));
+        assertEquals(7, loaded.lineOf(5));
+        assertEquals(2, loaded.getSymbols().get("label0"));
+        assertEquals(5, loaded.getSymbols().get("label1"));
+    }
+
+    @Test
+    void testWithoutLineTable() throws IOException {
+        final ObjectFile assembled = Assembler.assemble("push 7\nprint\nhalt\n");
+        final Path path = directory.resolve("nolines" + ObjectFile.EXTENSION);
+        new ObjectFile(assembled.getCode(), assembled.getLength(), assembled.getSymbols(), null).write(path);
+
+        final ObjectFile loaded = ObjectFile.load(path);
+        assertFalse(loaded.hasLines());
+        assertEquals(0, loaded.lineOf(0));
+        assertEquals("7", getOutput(new ExecuteVM(loaded)));
+    }
+
+    @Test
+    void testNotAnObjectFile() throws IOException {
+        final Path path = directory.resolve("bad" + ObjectFile.EXTENSION);
+        Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> ObjectFile.load(path));
+    }
+
+    @Test
+    void testTruncatedObjectFile() throws IOException {
+        final Path path = directory.resolve("truncated" + ObjectFile.EXTENSION);
+        Assembler.assemble("push 7\nprint\nhalt\n").write(path);
+        final byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, 20));
+        assertThrows(IOException.class, () -> ObjectFile.load(path));
+    }
+
+}
@@ -0,0 +1,104 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static compiler.CodeUtils.getCodeBuffer;
+import static compiler.CodeUtils.getOutput;
+import static org.antlr.v4.runtime.CharStreams.fromFileName;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PeepholeOptimizerTest {
+
+    private static String optimized(final String assembly) {
+        return Disassembler.disassemble(PeepholeOptimizer.optimize(Assembler.assemble(assembly)));
+    }
+
+    @Test
+    void testNoOpPairs() {
+        final ObjectFile program = PeepholeOptimizer.optimize(Assembler.assemble(
+                "push 5\npush 3\npop\npush 0\nadd\npush 1\nmult\npush 7\npush 0\nsub\nprint\nhalt\n"));
+        assertArrayEquals(Assembler.assemble("push 5\npush 7\nprint\nhalt\n").getCode(), program.getCode());
+        assertEquals(1, program.lineOf(0));
+        assertEquals(8, program.lineOf(2));
+        assertEquals(11, program.lineOf(4));
+    }
+
+    @Test
+    void testPairAcrossJumpTargetIsKept() {
+        final String listing = optimized("push 1\nb target\nskip:\npush 2\ntarget:\nadd\nprint\nhalt\n");
+        assertTrue(listing.contains("add"));
+        assertFalse(listing.contains("push 2"), "unreachable code must be removed");
+    }
+
+    @Test
+    void testStoreLoadTm() {
+        assertFalse(optimized("push 1\nstm\nltm\npush 2\nstm\nltm\nprint\nhalt\n").contains("stm\nltm\npush 2"));
+        assertTrue(optimized("push 1\nstm\nltm\nltm\nadd\nprint\nhalt\n").contains("stm"));
+    }
+
+    @Test
+    void testBranchThreading() {
+        final ObjectFile program = PeepholeOptimizer.optimize(Assembler.assemble("""
+                push 1
+                push 1
+                beq first
+                push 0
+                print
+                halt
+                first:
+                b second
+                second:
+                b third
+                push 9
+                third:
+                push 3
+                print
+                halt
+                """));
+        final String listing = Disassembler.disassemble(program);
+        assertFalse(listing.contains("\nb "), listing);
+        assertFalse(listing.contains("push 9"), listing);
+        assertEquals("3", getOutput(new ExecuteVM(program)));
+    }
+
+    @Test
+    void testCompiledProgramsKeepTheirOutput() throws IOException {
+        final String[] programs = {
+                """
+                let
+                    fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+                in
+                    print(fact(6));
+                """,
+                """
+                let
+                    class Account (money:int) {
+                        fun getMon:int () money;
+                    }
+                    class TradingAcc extends Account (invested:int) {
+                        fun getInv:int () invested;
+                    }
+                    var acc:Account = new TradingAcc(10, 5);
+                in
+                    print(if (acc == null) then {0} else {acc.getMon() + 1});
+                """,
+                fromFileName("examples/quicksort.fool").toString(),
+                fromFileName("examples/bankloan.fool").toString()
+        };
+        for (final String source : programs) {
+            final ObjectFile program = ObjectFile.of(getCodeBuffer(fromString(source)));
+            final ObjectFile optimized = PeepholeOptimizer.optimize(program);
+            Verifier.verify(optimized.getCode());
+
+            final ExecuteVM before = new ExecuteVM(program);
+            final ExecuteVM after = new ExecuteVM(optimized);
+            assertEquals(getOutput(before), getOutput(after));
+            assertTrue(optimized.getLength() <= program.getLength());
+            assertTrue(after.getInstructionCount() <= before.getInstructionCount());
+        }
+    }
+
+}
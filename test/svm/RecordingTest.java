@@ -0,0 +1,139 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+import svm.exc.ReplayException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static compiler.CodeUtils.getOutput;
+import static compiler.CodeUtils.getObjectFile;
+import static compiler.CodeUtils.getSVMCode;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordingTest {
+
+    private static final String PROGRAM = """
+            let
+                fun countdown:int (n:int)
+                    if (n == 0) then {print(0)} else {countdown(print(n) - 1)};
+            in
+                countdown(20);
+            """;
+
+    @Test
+    void testRecordAndReplay() {
+        final int[] code = getSVMCode(fromString(PROGRAM));
+        final ExecuteVM vm = new ExecuteVM(code);
+        final Recording[] recording = new Recording[1];
+        final String recorded = getOutput(() -> recording[0] = vm.record(50));
+
+        assertTrue(recording[0].isComplete());
+        assertEquals(21, recording[0].getEventCount());
+        assertEquals(vm.getInstructionCount(), recording[0].getInstructionCount());
+        assertTrue(recording[0].getCheckpointCount() > 0);
+
+        final ExecuteVM replayVM = new ExecuteVM(code);
+        final String replayed = getOutput(() -> replayVM.replay(recording[0]));
+        assertEquals(recorded, replayed);
+        assertEquals(recording[0].getInstructionCount(), replayVM.getInstructionCount());
+    }
+
+    @Test
+    void testSeekMatchesFullReExecution() {
+        final int[] code = getSVMCode(fromString(PROGRAM));
+        final Recording withCheckpoints = silently(new ExecuteVM(code), 10);
+        final Recording withoutCheckpoints = silently(new ExecuteVM(code), Long.MAX_VALUE);
+        assertEquals(0, withoutCheckpoints.getCheckpointCount());
+
+        for (long instruction = 1; instruction < withCheckpoints.getInstructionCount(); instruction += 37) {
+            final ExecuteVM fromCheckpoint = new ExecuteVM(code);
+            final ExecuteVM fromStart = new ExecuteVM(code);
+            assertFalse(fromCheckpoint.seek(withCheckpoints, instruction));
+            assertFalse(fromStart.seek(withoutCheckpoints, instruction));
+            assertEquals(instruction, fromCheckpoint.getInstructionCount());
+            assertEquals(fromStart.getIp(), fromCheckpoint.getIp());
+            assertEquals(fromStart.getSp(), fromCheckpoint.getSp());
+            assertEquals(fromStart.getFp(), fromCheckpoint.getFp());
+            assertEquals(fromStart.getHp(), fromCheckpoint.getHp());
+            assertEquals(fromStart.getRa(), fromCheckpoint.getRa());
+            for (int address = fromStart.getSp(); address < ExecuteVM.MEMSIZE; address++) {
+                assertEquals(fromStart.readMemory(address), fromCheckpoint.readMemory(address));
+            }
+        }
+    }
+
+    @Test
+    void testSeekRestoresTheObjectsUnderConstruction() {
+        // the fields of a new object are written above $hp before it is moved,
+        // so a checkpoint can fall between the two
+        final ObjectFile code = getObjectFile(fromString("""
+                let
+                    class List (f:int, r:List) {
+                        fun first:int () f;
+                        fun rest:List () r;
+                    }
+                    fun make:List (n:int) if (n == 0) then {null} else {new List(n, make(n - 1))};
+                    fun sum:int (l:List) if (l == null) then {0} else {l.first() + sum(l.rest())};
+                in
+                    print(sum(make(12)));
+                """));
+        final Recording withoutCheckpoints = silently(new ExecuteVM(code), Long.MAX_VALUE);
+        for (final long interval : new long[]{7, 23, 54}) {
+            final Recording withCheckpoints = silently(new ExecuteVM(code), interval);
+            for (long instruction = 1; instruction < withCheckpoints.getInstructionCount(); instruction++) {
+                final ExecuteVM fromCheckpoint = new ExecuteVM(code);
+                final ExecuteVM fromStart = new ExecuteVM(code);
+                assertFalse(fromCheckpoint.seek(withCheckpoints, instruction));
+                assertFalse(fromStart.seek(withoutCheckpoints, instruction));
+                assertEquals(fromStart.getHp(), fromCheckpoint.getHp());
+                for (int address = 0; address < ExecuteVM.MEMSIZE; address++) {
+                    assertEquals(fromStart.readMemory(address), fromCheckpoint.readMemory(address),
+                            "address " + address + " after " + instruction + " instructions");
+                }
+            }
+            final ExecuteVM vm = new ExecuteVM(code);
+            assertEquals("78", getOutput(() -> vm.replay(withCheckpoints)));
+        }
+    }
+
+    @Test
+    void testSeekPastTheEnd() {
+        final int[] code = getSVMCode(fromString(PROGRAM));
+        final Recording recording = silently(new ExecuteVM(code), 10);
+        assertTrue(new ExecuteVM(code).seek(recording, recording.getInstructionCount() + 1));
+    }
+
+    @Test
+    void testWriteAndRead() throws IOException {
+        final int[] code = getSVMCode(fromString(PROGRAM));
+        final Recording recording = silently(new ExecuteVM(code), 10);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        recording.write(bytes);
+        final Recording read = Recording.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(recording.getEventCount(), read.getEventCount());
+        assertEquals(recording.getCheckpointCount(), read.getCheckpointCount());
+        assertEquals(recording.getInstructionCount(), read.getInstructionCount());
+        final ExecuteVM vm = new ExecuteVM(code);
+        getOutput(() -> vm.replay(read));
+        assertEquals(recording.getInstructionCount(), vm.getInstructionCount());
+    }
+
+    @Test
+    void testReplayWithDifferentProgram() {
+        final int[] code = getSVMCode(fromString(PROGRAM));
+        final Recording recording = silently(new ExecuteVM(code), 10);
+        final int[] other = getSVMCode(fromString("print(1);"));
+        assertThrows(ReplayException.class, () -> new ExecuteVM(other).replay(recording));
+    }
+
+    private static Recording silently(final ExecuteVM vm, final long checkpointInterval) {
+        final Recording[] recording = new Recording[1];
+        getOutput(() -> recording[0] = vm.record(checkpointInterval));
+        return recording[0];
+    }
+
+}
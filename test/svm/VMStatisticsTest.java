@@ -0,0 +1,74 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static compiler.CodeUtils.getOutput;
+import static compiler.CodeUtils.getObjectFile;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class VMStatisticsTest {
+
+    private static ExecuteVM run(final String code) {
+        final ExecuteVM vm = new ExecuteVM(getObjectFile(fromString(code)));
+        getOutput(vm);
+        return vm;
+    }
+
+    @Test
+    void testInstructionCount() {
+        // push 1, push 2, add, print, halt
+        final var vm = run("print(1 + 2);");
+        assertEquals(5, vm.getInstructionCount());
+        assertEquals(0, vm.getCallCount());
+    }
+
+    @Test
+    void testCallCount() {
+        final var vm = run("""
+                let
+                    fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+                in
+                    print(fact(5));
+                """);
+        assertEquals(5, vm.getCallCount());
+    }
+
+    @Test
+    void testAllocations() {
+        final var vm = run("""
+                let
+                    class Account (money:int) {
+                        fun getMon:int () money;
+                    }
+                    var first:Account = new Account(1);
+                    var second:Account = new Account(2);
+                in
+                    print(first.getMon() + second.getMon());
+                """);
+        // two objects made of a field and a dispatch pointer, the dispatch table is loaded with the code
+        assertEquals(4, vm.getAllocatedWords());
+        assertEquals(5, vm.getPeakHeapPointer());
+        assertTrue(vm.getPeakStackDepth() > 0);
+    }
+
+    @Test
+    void testStatisticsArePublished() throws Exception {
+        final VMStatistics statistics = VMStatistics.getInstance();
+        final long runs = statistics.getRuns();
+        final long instructions = statistics.getInstructionsExecuted();
+        run("print(1 + 2);");
+        assertEquals(runs + 1, statistics.getRuns());
+        assertEquals(instructions + 5, statistics.getInstructionsExecuted());
+
+        final var server = ManagementFactory.getPlatformMBeanServer();
+        final var name = new ObjectName(VMStatistics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        assertEquals(statistics.getRuns(), server.getAttribute(name, "Runs"));
+    }
+
+}
@@ -0,0 +1,93 @@
+package svm;
+
+import org.junit.jupiter.api.Test;
+import svm.exc.VerifyException;
+
+import static compiler.CodeUtils.getSVMCode;
+import static org.antlr.v4.runtime.CharStreams.fromString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VerifierTest {
+
+    private static final String PROGRAM = """
+            let
+                fun sum:int (a:int, b:int) a + b;
+                fun fact:int (n:int) if (n <= 1) then {1} else {n * fact(n - 1)};
+            in
+                print(sum(fact(3), 4));
+            """;
+
+    @Test
+    void testFunctionsAndParameters() {
+        final ControlFlowGraph graph = Verifier.verify(getSVMCode(fromString(PROGRAM)));
+        final ControlFlowGraph.Function main = graph.getFunctions().get(0);
+        assertTrue(main.isMain());
+        assertTrue(main.maxStackDepth > 0);
+        assertTrue(graph.getFunctions().stream().anyMatch(f -> f.parameters == 2));
+        assertTrue(graph.getFunctions().stream().anyMatch(f -> f.parameters == 1));
+        assertTrue(graph.getMaxFrameDepth() >= main.maxStackDepth);
+    }
+
+    @Test
+    void testBlocksAreReachable() {
+        final ControlFlowGraph graph = Verifier.verify(getSVMCode(fromString(PROGRAM)));
+        for (final ControlFlowGraph.BasicBlock block : graph.getBlocks()) {
+            assertTrue(block.isReachable());
+        }
+    }
+
+    @Test
+    void testInconsistentMerge() {
+        final int[] code = {
+                Opcodes.PUSH, 1, Opcodes.PUSH, 1, Opcodes.BRANCHEQ, 9,
+                Opcodes.PUSH, 2,
+                Opcodes.HALT,
+                Opcodes.PUSH, 3, Opcodes.PUSH, 4, Opcodes.BRANCH, 8
+        };
+        assertThrows(VerifyException.class, () -> Verifier.verify(code));
+    }
+
+    @Test
+    void testMainUnderflow() {
+        final int[] code = {Opcodes.PUSH, 1, Opcodes.ADD, Opcodes.HALT};
+        assertThrows(VerifyException.class, () -> Verifier.verify(code));
+    }
+
+    @Test
+    void testBranchIntoAnotherFunction() {
+        final int[] code = {
+                Opcodes.BRANCH, 4,
+                Opcodes.HALT,
+                Opcodes.HALT,
+                Opcodes.COPYFP, Opcodes.HALT
+        };
+        assertThrows(VerifyException.class, () -> Verifier.verify(code));
+    }
+
+    @Test
+    void testTailCall() {
+        // f returns 9 or moves its argument to the frame of g and jumps to it,
+        // leaving the stack of its caller as after its return only if the pop is there
+        final String program = """
+                lfp push 5 lfp push f js print halt
+                f: cfp lra lfp lf 1 push 5 beq tail
+                push 9 stm sra pop pop sfp ltm lra js
+                tail: lfp lf 1 push 1 add lfp lf 0
+                lfp lf -1 sra
+                lfp sf 0 lfp sf 1 %s
+                b g
+                g: cfp lra lfp lf 1 stm sra pop pop sfp ltm lra js
+                """;
+        final ControlFlowGraph graph = Verifier.verify(Assembler.assemble(program.formatted("pop")).getCode());
+        assertEquals(3, graph.getFunctions().size());
+        assertEquals(1, graph.getFunctions().get(1).parameters);
+        assertThrows(VerifyException.class, () -> Verifier.verify(Assembler.assemble(program.formatted("")).getCode()));
+    }
+
+    @Test
+    void testCallWithoutControlLink() {
+        final int[] code = {Opcodes.PUSH, 1000, Opcodes.JS, Opcodes.HALT};
+        assertThrows(VerifyException.class, () -> Verifier.verify(code));
+    }
+
+}